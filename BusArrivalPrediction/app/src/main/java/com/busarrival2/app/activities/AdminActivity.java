@@ -1,29 +1,40 @@
 package com.busarrival2.app.activities;
 
 import android.content.Intent;
+import android.net.Uri;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.busarrival2.app.R;
+import com.busarrival2.app.data.TransitDataSource;
+import com.busarrival2.app.gtfs.FirebaseGtfsSink;
+import com.busarrival2.app.gtfs.GtfsCheckpoint;
+import com.busarrival2.app.gtfs.GtfsImporter;
 import com.busarrival2.app.models.BusRoute;
 import com.busarrival2.app.models.BusSchedule;
 import com.busarrival2.app.models.BusStop;
 import com.busarrival2.app.utils.FirebaseHelper;
+import com.busarrival2.app.utils.ScheduleMigrator;
 import androidx.appcompat.widget.Toolbar;
 import com.google.android.material.card.MaterialCardView;
 import com.google.android.material.textfield.TextInputEditText;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.ValueEventListener;
 
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.InputStream;
 import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * AdminActivity
@@ -36,6 +47,19 @@ public class AdminActivity extends AppCompatActivity {
     private MaterialCardView cardManageRoutes, cardManageStops, 
                             cardManageSchedules;
 
+    // GTFS import runs off the main thread, one import at a time
+    private final ExecutorService importExecutor = Executors.newSingleThreadExecutor();
+    private GtfsImporter importer;
+    private AlertDialog importDialog;
+    private ScheduleMigrator migrator;
+
+    private final ActivityResultLauncher<String[]> gtfsPicker =
+            registerForActivityResult(new ActivityResultContracts.OpenDocument(), uri -> {
+                if (uri != null) {
+                    importGtfs(uri);
+                }
+            });
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -90,19 +114,44 @@ public class AdminActivity extends AppCompatActivity {
 
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
-        getMenuInflater().inflate(R.menu.menu_main, menu);
+        getMenuInflater().inflate(R.menu.menu_admin, menu);
+        menu.findItem(R.id.action_query_metrics).setVisible(QueryMetricsActivity.isAvailable(this));
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_query_metrics) {
+            startActivity(new Intent(this, QueryMetricsActivity.class));
+            return true;
+        }
         if (item.getItemId() == R.id.action_logout) {
             logout();
             return true;
         }
+        if (item.getItemId() == R.id.action_import_gtfs) {
+            gtfsPicker.launch(new String[]{"application/zip", "application/octet-stream"});
+            return true;
+        }
+        if (item.getItemId() == R.id.action_migrate_schedules) {
+            migrateSchedules();
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
+    @Override
+    protected void onDestroy() {
+        if (importer != null) {
+            importer.cancel();
+        }
+        if (migrator != null) {
+            migrator.cancel();
+        }
+        importExecutor.shutdown();
+        super.onDestroy();
+    }
+
     /**
      * Set click listeners for cards
      */
@@ -231,55 +280,65 @@ public class AdminActivity extends AppCompatActivity {
     }
 
     /**
-     * Add new route to Firebase
+     * Add new route to the database
      */
     private void addRoute(String routeNumber, String routeName, String startPoint, String endPoint) {
-        String routeId = FirebaseHelper.getRoutesReference().push().getKey();
+        TransitDataSource dataSource = FirebaseHelper.getDataSource();
+        String routeId = dataSource.newKey();
         BusRoute route = new BusRoute(routeId, routeNumber, routeName, startPoint, endPoint, true);
 
-        FirebaseHelper.getRouteReference(routeId)
-                .setValue(route)
-                .addOnSuccessListener(aVoid -> {
-                    Toast.makeText(this, getString(R.string.success_save), Toast.LENGTH_SHORT).show();
-                })
-                .addOnFailureListener(e -> {
-                    Toast.makeText(this, "Failed to add route", Toast.LENGTH_SHORT).show();
-                });
+        dataSource.newBatch()
+                .putRoute(route)
+                .commit(new SaveCallback("Failed to add route"));
     }
 
     /**
-     * Add new stop to Firebase
+     * Add new stop to the database
      */
     private void addStop(String stopName, double latitude, double longitude, String routeId) {
-        String stopId = FirebaseHelper.getStopsReference().push().getKey();
+        TransitDataSource dataSource = FirebaseHelper.getDataSource();
+        String stopId = dataSource.newKey();
         BusStop stop = new BusStop(stopId, stopName, latitude, longitude, routeId);
 
-        FirebaseHelper.getStopReference(stopId)
-                .setValue(stop)
-                .addOnSuccessListener(aVoid -> {
-                    Toast.makeText(this, getString(R.string.success_save), Toast.LENGTH_SHORT).show();
-                })
-                .addOnFailureListener(e -> {
-                    Toast.makeText(this, "Failed to add stop", Toast.LENGTH_SHORT).show();
-                });
+        dataSource.newBatch()
+                .putStop(stop)
+                .commit(new SaveCallback("Failed to add stop"));
     }
 
     /**
-     * Add new schedule to Firebase
+     * Add new schedule to the database
      */
     private void addSchedule(String routeId, String stopId, String arrivalTime, int frequency) {
-        String scheduleId = FirebaseHelper.getSchedulesReference().push().getKey();
+        TransitDataSource dataSource = FirebaseHelper.getDataSource();
+        String scheduleId = dataSource.newKey();
         BusSchedule schedule = new BusSchedule(scheduleId, routeId, stopId, arrivalTime,
                 arrivalTime, frequency, Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri"));
 
-        FirebaseHelper.getScheduleReference(scheduleId)
-                .setValue(schedule)
-                .addOnSuccessListener(aVoid -> {
-                    Toast.makeText(this, getString(R.string.success_save), Toast.LENGTH_SHORT).show();
-                })
-                .addOnFailureListener(e -> {
-                    Toast.makeText(this, "Failed to add schedule", Toast.LENGTH_SHORT).show();
-                });
+        dataSource.newBatch()
+                .putSchedule(schedule)
+                .commit(new SaveCallback("Failed to add schedule"));
+    }
+
+    /**
+     * Toasts the outcome of a save
+     */
+    private class SaveCallback implements TransitDataSource.Callback<Void> {
+        private final String failureMessage;
+
+        SaveCallback(String failureMessage) {
+            this.failureMessage = failureMessage;
+        }
+
+        @Override
+        public void onSuccess(Void result) {
+            Toast.makeText(AdminActivity.this, getString(R.string.success_save),
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            Toast.makeText(AdminActivity.this, failureMessage, Toast.LENGTH_SHORT).show();
+        }
     }
 
     /**
@@ -287,25 +346,24 @@ public class AdminActivity extends AppCompatActivity {
      */
     private void initializeSampleData() {
         try {
-            FirebaseHelper.getRoutesReference()
-                    .addListenerForSingleValueEvent(new ValueEventListener() {
-                        @Override
-                        public void onDataChange(@NonNull DataSnapshot snapshot) {
-                            try {
-                                if (!snapshot.exists() || snapshot.getChildrenCount() == 0) {
-                                    createSampleData();
-                                }
-                            } catch (Exception e) {
-                                e.printStackTrace();
-                            }
+            FirebaseHelper.getDataSource().getRoutes(new TransitDataSource.Callback<List<BusRoute>>() {
+                @Override
+                public void onSuccess(List<BusRoute> routes) {
+                    try {
+                        if (routes.isEmpty()) {
+                            createSampleData();
                         }
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                    }
+                }
 
-                        @Override
-                        public void onCancelled(@NonNull DatabaseError error) {
-                            // Firebase error, sample data not created
-                            android.util.Log.e("AdminActivity", "Firebase error: " + error.getMessage());
-                        }
-                    });
+                @Override
+                public void onFailure(Exception error) {
+                    // Database error, sample data not created
+                    android.util.Log.e("AdminActivity", "Database error: " + error.getMessage());
+                }
+            });
         } catch (Exception e) {
             e.printStackTrace();
             android.util.Log.e("AdminActivity", "initializeSampleData error: " + e.getMessage());
@@ -316,24 +374,144 @@ public class AdminActivity extends AppCompatActivity {
      * Create sample data for demonstration
      */
     private void createSampleData() {
-        // Sample Route 1
-        String route1Id = FirebaseHelper.getRoutesReference().push().getKey();
-        BusRoute route1 = new BusRoute(route1Id, "101", "Muscat-Salalah Express",
-                "Muscat", "Salalah", true);
-        FirebaseHelper.getRouteReference(route1Id).setValue(route1);
-
-        // Sample Stop 1
-        String stop1Id = FirebaseHelper.getStopsReference().push().getKey();
-        BusStop stop1 = new BusStop(stop1Id, "Al Khuwair", 23.5880, 58.3829, route1Id);
-        FirebaseHelper.getStopReference(stop1Id).setValue(stop1);
-
-        // Sample Schedule 1
-        String schedule1Id = FirebaseHelper.getSchedulesReference().push().getKey();
-        BusSchedule schedule1 = new BusSchedule(schedule1Id, route1Id, stop1Id,
-                "08:00", "08:05", 30, Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri"));
-        FirebaseHelper.getScheduleReference(schedule1Id).setValue(schedule1);
-
-        Toast.makeText(this, "Sample data created", Toast.LENGTH_SHORT).show();
+        FirebaseHelper.createSampleData(new TransitDataSource.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                Toast.makeText(AdminActivity.this, "Sample data created", Toast.LENGTH_SHORT).show();
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                Toast.makeText(AdminActivity.this, "Failed to create sample data",
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
+    }
+
+    /**
+     * Move schedules from the old flat layout into busSchedules/{route}/{stop}.
+     * The app keeps reading both layouts, so this can run at any time, and
+     * stops reading the flat one once a run has completed.
+     */
+    private void migrateSchedules() {
+        if (importer != null || migrator != null) {
+            return;
+        }
+
+        ScheduleMigrator scheduleMigrator = new ScheduleMigrator();
+        scheduleMigrator.setProgressListener(moved -> runOnUiThread(() -> {
+            if (importDialog != null) {
+                importDialog.setMessage(getString(R.string.migrate_schedules_progress, moved));
+            }
+        }));
+        migrator = scheduleMigrator;
+
+        importDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.migrate_schedules)
+                .setMessage(R.string.please_wait)
+                .setCancelable(false)
+                .setNegativeButton(R.string.cancel, (dialog, which) -> scheduleMigrator.cancel())
+                .create();
+        importDialog.show();
+
+        importExecutor.execute(() -> {
+            String message;
+            try {
+                ScheduleMigrator.Result result = scheduleMigrator.run();
+                message = scheduleMigrator.isCancelled()
+                        ? getString(R.string.migrate_schedules_cancelled)
+                        : getString(R.string.migrate_schedules_done, result.getMoved(),
+                                result.getSkipped());
+            } catch (Exception e) {
+                e.printStackTrace();
+                message = getString(R.string.migrate_schedules_failed);
+            }
+
+            String finalMessage = message;
+            runOnUiThread(() -> {
+                migrator = null;
+                if (isDestroyed()) {
+                    return;
+                }
+                if (importDialog != null) {
+                    importDialog.dismiss();
+                    importDialog = null;
+                }
+                Toast.makeText(this, finalMessage, Toast.LENGTH_LONG).show();
+            });
+        });
+    }
+
+    /**
+     * Import a GTFS zip chosen by the admin. Progress is checkpointed per
+     * feed, so choosing the same file again after a failure resumes it.
+     */
+    private void importGtfs(Uri uri) {
+        if (importer != null || migrator != null) {
+            return;
+        }
+
+        GtfsCheckpoint checkpoint;
+        try {
+            checkpoint = new GtfsCheckpoint(new File(getFilesDir(),
+                    "gtfs_import_" + Integer.toHexString(uri.toString().hashCode()) + ".properties"));
+        } catch (Exception e) {
+            e.printStackTrace();
+            Toast.makeText(this, getString(R.string.import_gtfs_failed), Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        GtfsImporter gtfsImporter = new GtfsImporter(() -> {
+            InputStream in = getContentResolver().openInputStream(uri);
+            if (in == null) {
+                throw new FileNotFoundException(uri.toString());
+            }
+            return in;
+        }, new FirebaseGtfsSink(), checkpoint);
+        gtfsImporter.setProgressListener((fileName, rows) -> runOnUiThread(() -> {
+            if (importDialog != null) {
+                importDialog.setMessage(getString(R.string.import_gtfs_progress, fileName, rows));
+            }
+        }));
+        importer = gtfsImporter;
+
+        importDialog = new AlertDialog.Builder(this)
+                .setTitle(R.string.import_gtfs)
+                .setMessage(R.string.please_wait)
+                .setCancelable(false)
+                .setNegativeButton(R.string.cancel, (dialog, which) -> gtfsImporter.cancel())
+                .create();
+        importDialog.show();
+
+        importExecutor.execute(() -> {
+            String message;
+            try {
+                GtfsImporter.Result result = gtfsImporter.run();
+                if (gtfsImporter.isCancelled()) {
+                    message = getString(R.string.import_gtfs_cancelled);
+                } else {
+                    checkpoint.clear();
+                    message = getString(R.string.import_gtfs_done, result.getRoutes(),
+                            result.getStops(), result.getSchedules());
+                }
+            } catch (Exception e) {
+                e.printStackTrace();
+                message = getString(R.string.import_gtfs_failed);
+            }
+
+            String finalMessage = message;
+            runOnUiThread(() -> {
+                importer = null;
+                if (isDestroyed()) {
+                    return;
+                }
+                if (importDialog != null) {
+                    importDialog.dismiss();
+                    importDialog = null;
+                }
+                Toast.makeText(this, finalMessage, Toast.LENGTH_LONG).show();
+            });
+        });
     }
 
     /**
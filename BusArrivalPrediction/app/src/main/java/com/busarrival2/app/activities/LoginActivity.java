@@ -12,6 +12,9 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.busarrival2.app.R;
+import com.busarrival2.app.data.TransitDataSource;
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.User;
 import com.busarrival2.app.utils.FirebaseHelper;
 import com.busarrival2.app.utils.ValidationHelper;
 import com.google.android.gms.tasks.OnCompleteListener;
@@ -19,9 +22,8 @@ import com.google.android.gms.tasks.Task;
 import com.google.android.material.button.MaterialButton;
 import com.google.firebase.auth.AuthResult;
 import com.google.firebase.auth.FirebaseAuth;
-import com.google.firebase.database.DataSnapshot;
-import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.ValueEventListener;
+
+import java.util.List;
 
 /**
  * LoginActivity
@@ -165,42 +167,38 @@ public class LoginActivity extends AppCompatActivity {
         android.util.Log.d("LoginActivity", "User ID: " + userId);
         android.util.Log.d("LoginActivity", "Database path: user/" + userId);
         
-        FirebaseHelper.getUserReference(userId)
-                .addListenerForSingleValueEvent(new ValueEventListener() {
-                    @Override
-                    public void onDataChange(@NonNull DataSnapshot snapshot) {
-                        android.util.Log.d("LoginActivity", "Snapshot exists: " + snapshot.exists());
-                        android.util.Log.d("LoginActivity", "Snapshot value: " + snapshot.getValue());
-                        
-                        if (snapshot.exists()) {
-                            String role = snapshot.child("role").getValue(String.class);
-                            android.util.Log.d("LoginActivity", "Role found: " + role);
-                            
-                            if ("admin".equals(role)) {
-                                android.util.Log.d("LoginActivity", "✅ ADMIN DETECTED! Navigating to AdminActivity");
-                                // Check if sample data exists, if not create it
-                                checkAndCreateSampleData();
-                                navigateToAdmin();
-                            } else {
-                                android.util.Log.d("LoginActivity", "Regular user detected. Navigating to MainActivity");
-                                navigateToMain();
-                            }
-                        } else {
-                            android.util.Log.e("LoginActivity", "❌ Snapshot does not exist! Defaulting to MainActivity");
-                            // Default to main activity
-                            navigateToMain();
-                        }
-                    }
-
-                    @Override
-                    public void onCancelled(@NonNull DatabaseError error) {
-                        android.util.Log.e("LoginActivity", "❌ Database error: " + error.getMessage());
-                        Toast.makeText(LoginActivity.this,
-                                getString(R.string.error_load_data),
-                                Toast.LENGTH_SHORT).show();
+        FirebaseHelper.getDataSource().getUser(userId, new TransitDataSource.Callback<User>() {
+            @Override
+            public void onSuccess(User user) {
+                if (user != null) {
+                    String role = user.getRole();
+                    android.util.Log.d("LoginActivity", "Role found: " + role);
+
+                    if ("admin".equals(role)) {
+                        android.util.Log.d("LoginActivity", "✅ ADMIN DETECTED! Navigating to AdminActivity");
+                        // Check if sample data exists, if not create it
+                        checkAndCreateSampleData();
+                        navigateToAdmin();
+                    } else {
+                        android.util.Log.d("LoginActivity", "Regular user detected. Navigating to MainActivity");
                         navigateToMain();
                     }
-                });
+                } else {
+                    android.util.Log.e("LoginActivity", "❌ User profile does not exist! Defaulting to MainActivity");
+                    // Default to main activity
+                    navigateToMain();
+                }
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                android.util.Log.e("LoginActivity", "❌ Database error: " + error.getMessage());
+                Toast.makeText(LoginActivity.this,
+                        getString(R.string.error_load_data),
+                        Toast.LENGTH_SHORT).show();
+                navigateToMain();
+            }
+        });
     }
 
     /**
@@ -235,24 +233,32 @@ public class LoginActivity extends AppCompatActivity {
      * Check if sample data exists in database, create if not
      */
     private void checkAndCreateSampleData() {
-        FirebaseHelper.getRoutesReference()
-                .addListenerForSingleValueEvent(new ValueEventListener() {
-                    @Override
-                    public void onDataChange(@NonNull DataSnapshot snapshot) {
-                        if (!snapshot.exists() || snapshot.getChildrenCount() == 0) {
-                            // No routes exist, create sample data
-                            FirebaseHelper.createSampleData();
+        FirebaseHelper.getDataSource().getRoutes(new TransitDataSource.Callback<List<BusRoute>>() {
+            @Override
+            public void onSuccess(List<BusRoute> routes) {
+                if (routes.isEmpty()) {
+                    // No routes exist, create sample data
+                    FirebaseHelper.createSampleData(new TransitDataSource.Callback<Void>() {
+                        @Override
+                        public void onSuccess(Void result) {
                             Toast.makeText(LoginActivity.this,
                                     "Sample data created for testing",
                                     Toast.LENGTH_SHORT).show();
                         }
-                    }
 
-                    @Override
-                    public void onCancelled(@NonNull DatabaseError error) {
-                        // Ignore error, continue anyway
-                    }
-                });
+                        @Override
+                        public void onFailure(Exception error) {
+                            error.printStackTrace();
+                        }
+                    });
+                }
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                // Ignore error, continue anyway
+            }
+        });
     }
 
     /**
@@ -1,6 +1,11 @@
 package com.busarrival2.app.activities;
 
+import android.Manifest;
 import android.content.Intent;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
@@ -13,31 +18,62 @@ import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
 import androidx.annotation.NonNull;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.busarrival2.app.R;
+import com.busarrival2.app.adapters.ArrivalItem;
 import com.busarrival2.app.adapters.BusArrivalAdapter;
+import com.busarrival2.app.data.ChangeSet;
+import com.busarrival2.app.data.ChildSync;
+import com.busarrival2.app.data.RouteStopIndex;
+import com.busarrival2.app.data.ScheduleRepository;
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.data.TransitDataSource;
 import com.busarrival2.app.models.BusRoute;
-import com.busarrival2.app.models.BusSchedule;
 import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.ModelMappers;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+import com.busarrival2.app.prediction.DelayModel;
+import com.busarrival2.app.prediction.StopBoard;
+import com.busarrival2.app.prediction.VehiclePositionTracker;
+import com.busarrival2.app.utils.ArrivalTicker;
 import com.busarrival2.app.utils.FirebaseHelper;
+import com.busarrival2.app.utils.JankMonitor;
+import com.busarrival2.app.utils.ListenerRegistry;
+import com.busarrival2.app.utils.NearbyStopLoader;
+import com.busarrival2.app.utils.StartupTimer;
 import androidx.appcompat.widget.Toolbar;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
+import com.google.firebase.database.ChildEventListener;
 import com.google.firebase.database.DataSnapshot;
 import com.google.firebase.database.DatabaseError;
-import com.google.firebase.database.ValueEventListener;
+import com.google.firebase.database.Query;
 
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.Date;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * MainActivity
@@ -55,17 +91,127 @@ public class MainActivity extends AppCompatActivity {
 
     // Data
     private List<BusRoute> routeList;
-    private List<BusStop> stopList;
+    private RouteStopIndex stopIndex;
     private List<BusStop> filteredStopList;
     private BusRoute selectedRoute;
     private BusStop selectedStop;
 
-    // Adapter
+    // Adapters
     private BusArrivalAdapter arrivalAdapter;
+    private ArrayAdapter<String> routeAdapter;
+    private ArrayAdapter<String> stopAdapter;
+
+    // Arrival rows sort by countdown; the tracked bus has its own row key
+    private static final String LIVE_ARRIVAL_KEY = "live:";
+    private static final Comparator<ArrivalItem> ARRIVAL_ORDER =
+            (a, b) -> Integer.compare(a.getMinutes(), b.getMinutes());
+    // Furthest a scheduled arrival can be from the live estimate and still be that bus
+    private static final int LIVE_MATCH_MINUTES = 10;
+
+    // Rows on the departure board of a stop
+    private static final int STOP_BOARD_SIZE = 20;
+
+    // Set once the routes and stops are on screen, for startup timing
+    private boolean reportedReady;
+
+    // Shared Firebase syncs, released with this activity's lifecycle
+    private ChildSync<BusRoute> routeSync;
+    private ChildSync<BusStop> stopSync;
+
+    // Stops near the rider, used instead of the full stop list when the
+    // location is known
+    private NearbyStopLoader nearbyStops;
+    private LocationManager locationManager;
+    private final LocationListener locationListener = new LocationListener() {
+        @Override
+        public void onLocationChanged(@NonNull Location location) {
+            if (nearbyStops != null) {
+                nearbyStops.setPosition(location.getLatitude(), location.getLongitude());
+            }
+        }
+
+        // Required below API 30, where these are not default methods
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(@NonNull String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(@NonNull String provider) {
+        }
+    };
+
+    // Minimum movement before the nearby buckets are recomputed
+    private static final long LOCATION_INTERVAL_MILLIS = 60000;
+    private static final float LOCATION_DISTANCE_METERS = 500;
+
+    private final ActivityResultLauncher<String> locationPermission =
+            registerForActivityResult(new ActivityResultContracts.RequestPermission(),
+                    granted -> startStopLoading());
+
+    // Live bus positions of the selected route
+    private final VehiclePositionTracker vehicleTracker = new VehiclePositionTracker();
+    private Query positionQuery;
+    private String trackedRouteId;
+    private final ChildEventListener positionListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(@NonNull DataSnapshot snapshot, String previousChildName) {
+            ingestPosition(snapshot);
+        }
+
+        @Override
+        public void onChildChanged(@NonNull DataSnapshot snapshot, String previousChildName) {
+            ingestPosition(snapshot);
+        }
+
+        @Override
+        public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+        }
+
+        @Override
+        public void onChildMoved(@NonNull DataSnapshot snapshot, String previousChildName) {
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            // Live positions are optional, predictions fall back to the schedule
+            android.util.Log.w("MainActivity", "Vehicle positions unavailable: " + error.getMessage());
+        }
+    };
+
+    // Delays learned from live positions, kept across sessions
+    private static final String DELAY_MODEL_FILE = "delay_model.bin";
+    private static final int MAX_OBSERVED_DELAY_MINUTES = 30;
+    private DelayModel delayModel = new DelayModel();
+    // Reads and writes the model file one at a time, off the main thread. Shared by
+    // every instance so a save from a rotated-away activity lands before the next load.
+    private static final ExecutorService DELAY_MODEL_EXECUTOR =
+            Executors.newSingleThreadExecutor();
+    private ScheduleStore loadedSchedules;
+
+    // Route and stop whose arrivals are on screen, refreshed by the minute ticker
+    private BusRoute arrivalsRoute;
+    private BusStop arrivalsStop;
+
+    // Reload the arrivals on screen when their route's schedules change
+    private final ScheduleRepository.InvalidationListener scheduleInvalidation =
+            new ScheduleRepository.InvalidationListener() {
+                @Override
+                public void onInvalidated(@NonNull String routeId) {
+                    if (arrivalsRoute != null && arrivalsRoute.getRouteId().equals(routeId)) {
+                        loadArrivals(arrivalsRoute, arrivalsStop);
+                    }
+                }
+            };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTimer.mark(StartupTimer.MAIN_CREATED);
+        JankMonitor.track(this);
         
         try {
             setContentView(R.layout.activity_main);
@@ -78,25 +224,25 @@ public class MainActivity extends AppCompatActivity {
 
             // Initialize data lists
             routeList = new ArrayList<>();
-            stopList = new ArrayList<>();
+            stopIndex = new RouteStopIndex();
             filteredStopList = new ArrayList<>();
 
+            // Spinner adapters are created once and refilled in place
+            setupRouteSpinner();
+            setupStopSpinner();
+
             // Set click listeners
             setClickListeners();
 
-            // Load data from Firebase (with delay to ensure Firebase is ready)
-            new android.os.Handler().postDelayed(new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        loadRoutes();
-                    } catch (Exception e) {
-                        e.printStackTrace();
-                        showProgress(false);
-                        Toast.makeText(MainActivity.this, "Error loading data", Toast.LENGTH_SHORT).show();
-                    }
-                }
-            }, 500);
+            // Learn delays from buses passing stops, once the saved model is back
+            loadDelayModel();
+
+            // Keep countdowns current while the screen is visible
+            ArrivalTicker.getInstance().observe(this, nowMillis -> refreshArrivals());
+            FirebaseHelper.getScheduleRepository().addInvalidationListener(scheduleInvalidation);
+
+            // Load data from Firebase; paths prefetched by the splash screen replay at once
+            loadRoutes();
             
         } catch (Exception e) {
             e.printStackTrace();
@@ -132,6 +278,8 @@ public class MainActivity extends AppCompatActivity {
             android.util.Log.d("MainActivity", "Setting up RecyclerView...");
             if (recyclerViewArrivals != null) {
                 recyclerViewArrivals.setLayoutManager(new LinearLayoutManager(this));
+                arrivalAdapter = new BusArrivalAdapter();
+                recyclerViewArrivals.setAdapter(arrivalAdapter);
                 android.util.Log.d("MainActivity", "RecyclerView setup complete");
             } else {
                 android.util.Log.e("MainActivity", "RecyclerView is null!");
@@ -155,11 +303,20 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onCreateOptionsMenu(Menu menu) {
         getMenuInflater().inflate(R.menu.menu_main, menu);
+        menu.findItem(R.id.action_query_metrics).setVisible(QueryMetricsActivity.isAvailable(this));
         return true;
     }
 
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
+        if (item.getItemId() == R.id.action_query_metrics) {
+            startActivity(new Intent(this, QueryMetricsActivity.class));
+            return true;
+        }
+        if (item.getItemId() == R.id.action_stop_board) {
+            showStopBoard();
+            return true;
+        }
         if (item.getItemId() == R.id.action_logout) {
             logout();
             return true;
@@ -184,6 +341,7 @@ public class MainActivity extends AppCompatActivity {
                 if (position > 0) {
                     selectedRoute = routeList.get(position - 1);
                     filterStopsByRoute(selectedRoute.getRouteId());
+                    trackVehicles(selectedRoute.getRouteId());
                 }
             }
 
@@ -210,25 +368,19 @@ public class MainActivity extends AppCompatActivity {
      * Load bus routes from Firebase
      */
     private void loadRoutes() {
+        JankMonitor.beginStep(JankMonitor.LOAD_ROUTES);
         try {
             showProgress(true);
 
-            FirebaseHelper.getRoutesReference()
-                    .addValueEventListener(new ValueEventListener() {
+            ListenerRegistry registry = FirebaseHelper.getListenerRegistry();
+            registry.observeChildren(this, FirebaseHelper.getRoutesReference(),
+                    snapshot -> ModelMappers.ROUTE.fromValue(snapshot.getValue()),
+                    new ChildSync.Listener<BusRoute>() {
                         @Override
-                        public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        public void onChanges(@NonNull ChangeSet<BusRoute> changes) {
                             try {
-                                routeList.clear();
-                                
-                                for (DataSnapshot routeSnapshot : snapshot.getChildren()) {
-                                    BusRoute route = routeSnapshot.getValue(BusRoute.class);
-                                    if (route != null && route.isActive()) {
-                                        routeList.add(route);
-                                    }
-                                }
-
-                                updateRouteSpinner();
-                                loadStops();
+                                applyRouteChanges(changes);
+                                updateLoadingState();
                             } catch (Exception e) {
                                 e.printStackTrace();
                                 showProgress(false);
@@ -243,33 +395,161 @@ public class MainActivity extends AppCompatActivity {
                                     Toast.LENGTH_SHORT).show();
                         }
                     });
+            routeSync = registry.getSync(FirebaseHelper.getRoutesReference());
+
+            loadStops();
+
+            // Paths already shared with another screen replay synchronously
+            updateLoadingState();
         } catch (Exception e) {
             e.printStackTrace();
             showProgress(false);
             Toast.makeText(this, "Error loading routes", Toast.LENGTH_SHORT).show();
+        } finally {
+            JankMonitor.endStep();
         }
     }
 
+    @Override
+    protected void onStart() {
+        super.onStart();
+        requestLocationUpdates();
+    }
 
+    @Override
+    protected void onStop() {
+        super.onStop();
+        // No location updates while the screen is hidden, resumed in onStart
+        if (locationManager != null) {
+            locationManager.removeUpdates(locationListener);
+        }
+        saveDelayModel();
+        FirebaseHelper.getQueryMetricsReporter(this).report();
+        JankMonitor.logReport();
+    }
+
+    @Override
+    protected void onDestroy() {
+        if (locationManager != null) {
+            locationManager.removeUpdates(locationListener);
+        }
+        if (positionQuery != null) {
+            positionQuery.removeEventListener(positionListener);
+        }
+        FirebaseHelper.getScheduleRepository().removeInvalidationListener(scheduleInvalidation);
+        super.onDestroy();
+    }
 
     /**
-     * Load bus stops from Firebase
+     * Load bus stops, asking for the location first so only nearby
+     * stops need to be downloaded
      */
     private void loadStops() {
-        FirebaseHelper.getStopsReference()
-                .addValueEventListener(new ValueEventListener() {
-                    @Override
-                    public void onDataChange(@NonNull DataSnapshot snapshot) {
-                        stopList.clear();
-                        
-                        for (DataSnapshot stopSnapshot : snapshot.getChildren()) {
-                            BusStop stop = stopSnapshot.getValue(BusStop.class);
-                            if (stop != null) {
-                                stopList.add(stop);
-                            }
-                        }
+        JankMonitor.beginStep(JankMonitor.LOAD_STOPS);
+        try {
+            if (hasLocationPermission()) {
+                startStopLoading();
+            } else {
+                locationPermission.launch(Manifest.permission.ACCESS_COARSE_LOCATION);
+            }
+        } finally {
+            JankMonitor.endStep();
+        }
+    }
 
-                        showProgress(false);
+    /**
+     * Load the stops around the last known location, or all stops if the
+     * location is not available
+     */
+    @SuppressWarnings("MissingPermission")
+    private void startStopLoading() {
+        if (isDestroyed() || nearbyStops != null || stopSync != null) {
+            return;
+        }
+
+        Location location = NearbyStopLoader.getLastKnownLocation(this);
+        if (hasLocationPermission()) {
+            locationManager = (LocationManager) getSystemService(LOCATION_SERVICE);
+        }
+
+        if (location == null) {
+            loadAllStops();
+            return;
+        }
+
+        nearbyStops = new NearbyStopLoader(this, new ChildSync.Listener<BusStop>() {
+            @Override
+            public void onChanges(@NonNull ChangeSet<BusStop> changes) {
+                applyStopChanges(changes);
+                if (changes.isLoaded() && stopIndex.size() == 0) {
+                    // No buckets around here (or not migrated yet), use the full list
+                    switchToAllStops();
+                    return;
+                }
+                updateLoadingState();
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                switchToAllStops();
+            }
+        });
+        nearbyStops.setPosition(location.getLatitude(), location.getLongitude());
+        requestLocationUpdates();
+    }
+
+    /**
+     * Follow the location while nearby stops are shown, so the buckets move
+     * with the user
+     */
+    @SuppressWarnings("MissingPermission")
+    private void requestLocationUpdates() {
+        if (nearbyStops == null || locationManager == null || !hasLocationPermission()) {
+            return;
+        }
+        try {
+            if (locationManager.isProviderEnabled(LocationManager.NETWORK_PROVIDER)) {
+                locationManager.requestLocationUpdates(LocationManager.NETWORK_PROVIDER,
+                        LOCATION_INTERVAL_MILLIS, LOCATION_DISTANCE_METERS, locationListener);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Drop the nearby buckets and load every stop instead
+     */
+    private void switchToAllStops() {
+        if (nearbyStops != null) {
+            nearbyStops.release();
+            nearbyStops = null;
+        }
+        if (locationManager != null) {
+            locationManager.removeUpdates(locationListener);
+        }
+        if (stopSync == null) {
+            loadAllStops();
+        }
+    }
+
+    private boolean hasLocationPermission() {
+        return ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_COARSE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+
+    /**
+     * Load all bus stops from Firebase
+     */
+    private void loadAllStops() {
+        ListenerRegistry registry = FirebaseHelper.getListenerRegistry();
+        registry.observeChildren(this, FirebaseHelper.getStopsReference(),
+                snapshot -> ModelMappers.STOP.fromValue(snapshot.getValue()),
+                new ChildSync.Listener<BusStop>() {
+                    @Override
+                    public void onChanges(@NonNull ChangeSet<BusStop> changes) {
+                        applyStopChanges(changes);
+                        updateLoadingState();
                     }
 
                     @Override
@@ -280,55 +560,373 @@ public class MainActivity extends AppCompatActivity {
                                 Toast.LENGTH_SHORT).show();
                     }
                 });
+        stopSync = registry.getSync(FirebaseHelper.getStopsReference());
+    }
+
+    /**
+     * Apply route changes to the route list and refresh the spinner
+     */
+    private void applyRouteChanges(ChangeSet<BusRoute> changes) {
+        JankMonitor.beginStep(JankMonitor.APPLY_ROUTE_CHANGES);
+        try {
+            boolean routesChanged = false;
+
+            for (ChangeSet.Change<BusRoute> change : changes.getChanges()) {
+                if (change.getType() == ChangeSet.Type.MOVED) {
+                    continue;
+                }
+                BusRoute route = change.getItem();
+                int position = indexOfRoute(route.getRouteId());
+                if (position >= 0) {
+                    routeList.remove(position);
+                    routesChanged = true;
+                }
+                if (change.getType() != ChangeSet.Type.REMOVED && route.isActive()) {
+                    routeList.add(position >= 0 ? position : routeList.size(), route);
+                    routesChanged = true;
+                }
+            }
+
+            if (routesChanged) {
+                updateRouteSpinner();
+            }
+        } finally {
+            JankMonitor.endStep();
+        }
+    }
+
+    /**
+     * Apply stop changes to the stop index and refresh the stop spinner
+     * if the selected route was affected
+     */
+    private void applyStopChanges(ChangeSet<BusStop> changes) {
+        JankMonitor.beginStep(JankMonitor.APPLY_STOP_CHANGES);
+        try {
+            String selectedRouteId = selectedRoute != null ? selectedRoute.getRouteId() : null;
+            boolean selectedRouteChanged = false;
+
+            for (ChangeSet.Change<BusStop> change : changes.getChanges()) {
+                if (change.getType() == ChangeSet.Type.MOVED) {
+                    continue;
+                }
+                BusStop stop = change.getItem();
+                BusStop previous = stopIndex.remove(stop.getStopId());
+                if (change.getType() != ChangeSet.Type.REMOVED) {
+                    stopIndex.put(stop);
+                }
+                if (selectedRouteId != null && (selectedRouteId.equals(stop.getRouteId())
+                        || (previous != null && selectedRouteId.equals(previous.getRouteId())))) {
+                    selectedRouteChanged = true;
+                }
+            }
+
+            if (selectedRouteChanged) {
+                filterStopsByRoute(selectedRouteId);
+            }
+        } finally {
+            JankMonitor.endStep();
+        }
+    }
+
+    /**
+     * Hide progress once both routes and stops have loaded
+     */
+    private void updateLoadingState() {
+        boolean stopsLoaded = (stopSync != null && stopSync.isLoaded())
+                || (nearbyStops != null && nearbyStops.isLoaded());
+        if (routeSync != null && routeSync.isLoaded() && stopsLoaded) {
+            showProgress(false);
+            if (!reportedReady) {
+                reportedReady = true;
+                StartupTimer.mark(StartupTimer.MAIN_READY);
+                reportFullyDrawn();
+            }
+        }
+    }
+
+    /**
+     * Find the position of a route in the route list
+     */
+    private int indexOfRoute(String routeId) {
+        for (int i = 0; i < routeList.size(); i++) {
+            if (routeList.get(i).getRouteId().equals(routeId)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Create the route spinner adapter
+     */
+    private void setupRouteSpinner() {
+        routeAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item);
+        routeAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        routeAdapter.add("Select a route");
+        spinnerRoute.setAdapter(routeAdapter);
     }
 
     /**
      * Update route spinner with loaded data
      */
     private void updateRouteSpinner() {
-        List<String> routeNames = new ArrayList<>();
-        routeNames.add("Select a route");
-        
-        for (BusRoute route : routeList) {
-            routeNames.add(route.toString());
-        }
+        JankMonitor.beginStep(JankMonitor.UPDATE_ROUTE_SPINNER);
+        try {
+            routeAdapter.setNotifyOnChange(false);
+            routeAdapter.clear();
+            routeAdapter.add("Select a route");
+
+            for (BusRoute route : routeList) {
+                routeAdapter.add(route.toString());
+            }
+
+            routeAdapter.notifyDataSetChanged();
 
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_spinner_item, routeNames);
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        spinnerRoute.setAdapter(adapter);
+            // Keep the selected route if it is still active
+            int selection = selectedRoute != null ? indexOfRoute(selectedRoute.getRouteId()) : -1;
+            if (selection >= 0) {
+                selectedRoute = routeList.get(selection);
+            } else {
+                selectedRoute = null;
+            }
+            spinnerRoute.setSelection(selection + 1);
+        } finally {
+            JankMonitor.endStep();
+        }
     }
 
     /**
      * Filter stops by selected route
      */
     private void filterStopsByRoute(String routeId) {
-        filteredStopList.clear();
-        
-        for (BusStop stop : stopList) {
-            if (stop.getRouteId().equals(routeId)) {
-                filteredStopList.add(stop);
-            }
-        }
+        filteredStopList = stopIndex.getStopsForRoute(routeId);
 
         updateStopSpinner();
     }
 
+    /**
+     * Create the stop spinner adapter
+     */
+    private void setupStopSpinner() {
+        stopAdapter = new ArrayAdapter<>(this, android.R.layout.simple_spinner_item);
+        stopAdapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
+        stopAdapter.add("Select a stop");
+        spinnerStop.setAdapter(stopAdapter);
+    }
+
     /**
      * Update stop spinner with filtered data
      */
     private void updateStopSpinner() {
-        List<String> stopNames = new ArrayList<>();
-        stopNames.add("Select a stop");
-        
-        for (BusStop stop : filteredStopList) {
-            stopNames.add(stop.toString());
+        JankMonitor.beginStep(JankMonitor.UPDATE_STOP_SPINNER);
+        try {
+            stopAdapter.setNotifyOnChange(false);
+            stopAdapter.clear();
+            stopAdapter.add("Select a stop");
+
+            for (BusStop stop : filteredStopList) {
+                stopAdapter.add(stop.toString());
+            }
+
+            stopAdapter.notifyDataSetChanged();
+
+            // Keep the selected stop if it is still on the route
+            if (selectedStop != null) {
+                selectedStop = stopIndex.getStop(selectedStop.getStopId());
+            }
+            int selection = selectedStop != null ? filteredStopList.indexOf(selectedStop) : -1;
+            if (selection < 0) {
+                selectedStop = null;
+            }
+            spinnerStop.setSelection(selection + 1);
+        } finally {
+            JankMonitor.endStep();
+        }
+    }
+
+    /**
+     * Follow the live positions of the buses on a route
+     */
+    private void trackVehicles(String routeId) {
+        if (routeId.equals(trackedRouteId)) {
+            return;
+        }
+        trackedRouteId = routeId;
+        if (positionQuery != null) {
+            positionQuery.removeEventListener(positionListener);
+        }
+        vehicleTracker.clear();
+        positionQuery = FirebaseHelper.getPositionsReference()
+                .orderByChild("routeId")
+                .equalTo(routeId);
+        positionQuery.addChildEventListener(positionListener);
+    }
+
+    /**
+     * Feed one busPositions ping into the tracker
+     */
+    @SuppressWarnings("unchecked")
+    private void ingestPosition(DataSnapshot snapshot) {
+        Object value = snapshot.getValue();
+        if (!(value instanceof Map)) {
+            return;
+        }
+        Map<String, Object> values = (Map<String, Object>) value;
+        String vehicleId = ModelMappers.asString(values.get("vehicleId"));
+        vehicleTracker.ingest(vehicleId != null ? vehicleId : snapshot.getKey(),
+                ModelMappers.asString(values.get("routeId")),
+                ModelMappers.asDouble(values.get("latitude")),
+                ModelMappers.asDouble(values.get("longitude")),
+                ModelMappers.asLong(values.get("timestamp")));
+    }
+
+    /**
+     * Load the delay model saved by an earlier session on a background
+     * thread. Stop passes are only recorded once it is back, so nothing
+     * learned in the meantime is overwritten.
+     */
+    private void loadDelayModel() {
+        File file = new File(getFilesDir(), DELAY_MODEL_FILE);
+        DELAY_MODEL_EXECUTOR.execute(() -> {
+            DelayModel loaded = null;
+            if (file.exists()) {
+                try (InputStream in = new FileInputStream(file)) {
+                    loaded = DelayModel.readFrom(in);
+                } catch (Exception e) {
+                    e.printStackTrace();
+                    file.delete();
+                }
+            }
+            DelayModel model = loaded;
+            runOnUiThread(() -> {
+                if (isDestroyed()) {
+                    return;
+                }
+                if (model != null) {
+                    delayModel = model;
+                    refreshArrivals();
+                }
+                vehicleTracker.setStopPassListener(this::recordStopPass);
+            });
+        });
+    }
+
+    /**
+     * Save the delay model if it learned anything new. It is serialized
+     * here, where it is recorded into, and the file written in the background.
+     */
+    private void saveDelayModel() {
+        if (!delayModel.isDirty()) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            delayModel.writeTo(bytes);
+        } catch (Exception e) {
+            e.printStackTrace();
+            return;
+        }
+        File file = new File(getFilesDir(), DELAY_MODEL_FILE);
+        File temp = new File(getFilesDir(), DELAY_MODEL_FILE + ".tmp");
+        DELAY_MODEL_EXECUTOR.execute(() -> {
+            try (OutputStream out = new FileOutputStream(temp)) {
+                bytes.writeTo(out);
+            } catch (Exception e) {
+                e.printStackTrace();
+                return;
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+            }
+        });
+    }
+
+    /**
+     * Compare the time a bus passed a stop with the closest scheduled
+     * arrival and record the difference as a delay observation
+     */
+    private void recordStopPass(String routeId, String stopId, long timestamp) {
+        ScheduleStore schedules = loadedSchedules;
+        if (schedules == null) {
+            return;
+        }
+        Calendar passed = Calendar.getInstance();
+        passed.setTimeInMillis(timestamp);
+        int minute = ArrivalPredictionEngine.toMinuteOfDay(passed.get(Calendar.HOUR_OF_DAY),
+                passed.get(Calendar.MINUTE));
+        int day = ScheduleStore.dayIndexOf(passed.get(Calendar.DAY_OF_WEEK));
+        delayModel.recordPass(schedules, routeId, stopId, day, minute,
+                MAX_OBSERVED_DELAY_MINUTES);
+    }
+
+    /**
+     * Give the tracker the route's stop sequences, one per direction, taken
+     * from the trips in its schedules. Stops outside the nearby buckets are
+     * fetched one by one before the line is built.
+     */
+    private void updateRouteLine(ScheduleStore schedules, String routeId) {
+        List<List<String>> patterns = schedules.getStopPatterns(routeId);
+        Map<String, BusStop> stops = new HashMap<>();
+        Set<String> missing = new HashSet<>();
+        for (List<String> pattern : patterns) {
+            for (String stopId : pattern) {
+                BusStop stop = stopIndex.getStop(stopId);
+                if (stop != null) {
+                    stops.put(stopId, stop);
+                } else {
+                    missing.add(stopId);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            setRouteLine(routeId, patterns, stops);
+            return;
+        }
+
+        int[] pending = {missing.size()};
+        for (String stopId : missing) {
+            FirebaseHelper.getDataSource().getStop(stopId,
+                    new TransitDataSource.Callback<BusStop>() {
+                @Override
+                public void onSuccess(BusStop stop) {
+                    if (stop != null) {
+                        stops.put(stopId, stop);
+                    }
+                    done();
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    e.printStackTrace();
+                    done();
+                }
+
+                private void done() {
+                    if (--pending[0] == 0 && !isDestroyed()) {
+                        setRouteLine(routeId, patterns, stops);
+                    }
+                }
+            });
         }
+    }
 
-        ArrayAdapter<String> adapter = new ArrayAdapter<>(this,
-                android.R.layout.simple_spinner_item, stopNames);
-        adapter.setDropDownViewResource(android.R.layout.simple_spinner_dropdown_item);
-        spinnerStop.setAdapter(adapter);
+    private void setRouteLine(String routeId, List<List<String>> patterns,
+                              Map<String, BusStop> stops) {
+        List<List<BusStop>> sequences = new ArrayList<>();
+        for (List<String> pattern : patterns) {
+            List<BusStop> sequence = new ArrayList<>();
+            for (String stopId : pattern) {
+                BusStop stop = stops.get(stopId);
+                if (stop != null) {
+                    sequence.add(stop);
+                }
+            }
+            // A single stop gives no direction of travel
+            if (sequence.size() >= 2) {
+                sequences.add(sequence);
+            }
+        }
+        vehicleTracker.setRoute(routeId, sequences);
     }
 
     /**
@@ -341,30 +939,35 @@ public class MainActivity extends AppCompatActivity {
             return;
         }
 
-        showProgress(true);
+        loadArrivals(selectedRoute, selectedStop);
+    }
 
-        FirebaseHelper.getSchedulesReference()
-                .orderByChild("routeId")
-                .equalTo(selectedRoute.getRouteId())
-                .addListenerForSingleValueEvent(new ValueEventListener() {
+    /**
+     * Load the schedules of a route, from memory when they are cached,
+     * and display the arrivals at a stop
+     */
+    private void loadArrivals(BusRoute route, BusStop stop) {
+        showProgress(true);
+        FirebaseHelper.getDataSource().getSchedules(route.getRouteId(), stop.getStopId(),
+                new TransitDataSource.Callback<ScheduleStore>() {
                     @Override
-                    public void onDataChange(@NonNull DataSnapshot snapshot) {
-                        List<BusSchedule> schedules = new ArrayList<>();
-                        
-                        for (DataSnapshot scheduleSnapshot : snapshot.getChildren()) {
-                            BusSchedule schedule = scheduleSnapshot.getValue(BusSchedule.class);
-                            if (schedule != null && 
-                                schedule.getStopId().equals(selectedStop.getStopId())) {
-                                schedules.add(schedule);
-                            }
+                    public void onSuccess(ScheduleStore schedules) {
+                        if (isDestroyed()) {
+                            return;
                         }
-
-                        displayArrivals(schedules);
+                        loadedSchedules = schedules;
+                        arrivalsRoute = route;
+                        arrivalsStop = stop;
+                        updateRouteLine(schedules, route.getRouteId());
+                        displayArrivals(schedules, route, stop);
                         showProgress(false);
                     }
 
                     @Override
-                    public void onCancelled(@NonNull DatabaseError error) {
+                    public void onFailure(Exception error) {
+                        if (isDestroyed()) {
+                            return;
+                        }
                         showProgress(false);
                         Toast.makeText(MainActivity.this,
                                 getString(R.string.error_load_data),
@@ -374,64 +977,181 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Display arrival predictions
+     * Show the next departures from the selected stop on every route
      */
-    private void displayArrivals(List<BusSchedule> schedules) {
-        if (schedules.isEmpty()) {
-            showEmptyState(true);
+    private void showStopBoard() {
+        if (selectedStop == null) {
+            Toast.makeText(this, getString(R.string.select_stop), Toast.LENGTH_SHORT).show();
             return;
         }
 
-        // Calculate next arrivals
-        List<Integer> arrivalMinutes = new ArrayList<>();
-        
-        for (BusSchedule schedule : schedules) {
-            int minutes = calculateNextArrival(schedule);
-            if (minutes >= 0) {
-                arrivalMinutes.add(minutes);
+        showProgress(true);
+        final BusStop stop = selectedStop;
+
+        FirebaseHelper.getDataSource().getStopSchedules(stop.getStopId(),
+                new TransitDataSource.Callback<ScheduleStore>() {
+                    @Override
+                    public void onSuccess(ScheduleStore schedules) {
+                        if (isDestroyed()) {
+                            return;
+                        }
+                        showProgress(false);
+                        displayStopBoard(schedules, stop);
+                    }
+
+                    @Override
+                    public void onFailure(Exception error) {
+                        if (isDestroyed()) {
+                            return;
+                        }
+                        showProgress(false);
+                        Toast.makeText(MainActivity.this,
+                                getString(R.string.error_load_data),
+                                Toast.LENGTH_SHORT).show();
+                    }
+                });
+    }
+
+    /**
+     * Display a stop board in a dialog
+     */
+    private void displayStopBoard(ScheduleStore schedules, BusStop stop) {
+        JankMonitor.beginStep(JankMonitor.DISPLAY_STOP_BOARD);
+        try {
+            Calendar now = Calendar.getInstance();
+            int nowMinute = ArrivalPredictionEngine.toMinuteOfDay(now.get(Calendar.HOUR_OF_DAY),
+                    now.get(Calendar.MINUTE));
+            int today = ScheduleStore.dayIndexOf(now.get(Calendar.DAY_OF_WEEK));
+            List<StopBoard.Departure> departures = StopBoard.nextDepartures(schedules,
+                    stop.getStopId(), today, nowMinute, STOP_BOARD_SIZE);
+
+            String[] rows = new String[departures.size()];
+            for (int i = 0; i < rows.length; i++) {
+                StopBoard.Departure departure = departures.get(i);
+                int route = indexOfRoute(departure.getRouteId());
+                String routeName = route >= 0 ? routeList.get(route).toString()
+                        : departure.getRouteId();
+                rows[i] = getString(R.string.stop_board_row, routeName, departure.getMinutesAway());
             }
-        }
 
-        if (arrivalMinutes.isEmpty()) {
-            showEmptyState(true);
-            return;
+            AlertDialog.Builder builder = new AlertDialog.Builder(this)
+                    .setTitle(getString(R.string.stop_board_title, stop.getStopName()))
+                    .setPositiveButton(android.R.string.ok, null);
+            if (rows.length == 0) {
+                builder.setMessage(R.string.no_buses);
+            } else {
+                builder.setItems(rows, null);
+            }
+            builder.show();
+        } finally {
+            JankMonitor.endStep();
         }
+    }
 
-        // Setup adapter
-        arrivalAdapter = new BusArrivalAdapter(this, selectedRoute, selectedStop, arrivalMinutes);
-        recyclerViewArrivals.setAdapter(arrivalAdapter);
-
-        showEmptyState(false);
+    /**
+     * Recompute the countdowns on screen from the schedules already loaded.
+     * Only the rows of the displayed route and stop are read and nothing is
+     * fetched, so this is cheap enough to run every minute.
+     */
+    private void refreshArrivals() {
+        if (loadedSchedules != null && arrivalsRoute != null && arrivalsStop != null) {
+            displayArrivals(loadedSchedules, arrivalsRoute, arrivalsStop);
+        }
     }
 
     /**
-     * Calculate next arrival time in minutes
+     * Display arrival predictions
      */
-    private int calculateNextArrival(BusSchedule schedule) {
+    private void displayArrivals(ScheduleStore schedules, BusRoute route, BusStop stop) {
+        JankMonitor.beginStep(JankMonitor.DISPLAY_ARRIVALS);
         try {
-            SimpleDateFormat sdf = new SimpleDateFormat("HH:mm", Locale.getDefault());
-            Date arrivalTime = sdf.parse(schedule.getArrivalTime());
-            
+            int liveMinutes = vehicleTracker.estimateMinutes(route.getRouteId(),
+                    stop.getStopId(), System.currentTimeMillis());
+
+            int firstRow = schedules.firstRow(route.getRouteId(), stop.getStopId());
+            int endRow = schedules.endRow(route.getRouteId(), stop.getStopId());
+            if (firstRow >= endRow && liveMinutes < 0) {
+                showEmptyState(true);
+                return;
+            }
+
+            // Calculate next arrivals
+            List<ArrivalItem> arrivals = new ArrayList<>();
             Calendar now = Calendar.getInstance();
-            Calendar arrival = Calendar.getInstance();
-            arrival.setTime(arrivalTime);
-            arrival.set(Calendar.YEAR, now.get(Calendar.YEAR));
-            arrival.set(Calendar.MONTH, now.get(Calendar.MONTH));
-            arrival.set(Calendar.DAY_OF_MONTH, now.get(Calendar.DAY_OF_MONTH));
+            int nowMinute = ArrivalPredictionEngine.toMinuteOfDay(now.get(Calendar.HOUR_OF_DAY),
+                    now.get(Calendar.MINUTE));
+            int today = ScheduleStore.dayIndexOf(now.get(Calendar.DAY_OF_WEEK));
+            String routeName = route.toString();
+            String stopName = stop.getStopName();
 
-            // If arrival time has passed, calculate next occurrence based on frequency
-            int frequency = schedule.getFrequency();
-            while (arrival.before(now)) {
-                arrival.add(Calendar.MINUTE, frequency);
+            for (int row = firstRow; row < endRow; row++) {
+                int minutes = calculateNextArrival(schedules, row, nowMinute, today);
+                if (minutes >= 0) {
+                    arrivals.add(new ArrivalItem(schedules.getScheduleId(row), routeName, stopName,
+                            minutes));
+                }
             }
 
-            long diffInMillis = arrival.getTimeInMillis() - now.getTimeInMillis();
-            return (int) (diffInMillis / (1000 * 60));
+            // The tracked bus replaces the scheduled arrival it is running as,
+            // if one is close enough to the estimate
+            if (liveMinutes >= 0) {
+                ArrivalItem matched = null;
+                for (ArrivalItem arrival : arrivals) {
+                    int distance = Math.abs(arrival.getMinutes() - liveMinutes);
+                    if (distance <= LIVE_MATCH_MINUTES && (matched == null
+                            || distance < Math.abs(matched.getMinutes() - liveMinutes))) {
+                        matched = arrival;
+                    }
+                }
+                if (matched != null) {
+                    arrivals.remove(matched);
+                }
+                arrivals.add(new ArrivalItem(LIVE_ARRIVAL_KEY + route.getRouteId(),
+                        routeName, stopName, liveMinutes));
+            }
 
-        } catch (ParseException e) {
-            e.printStackTrace();
-            return -1;
+            if (arrivals.isEmpty()) {
+                showEmptyState(true);
+                return;
+            }
+
+            // Diffed against the rows on screen, so unchanged rows are not rebound
+            Collections.sort(arrivals, ARRIVAL_ORDER);
+            arrivalAdapter.submitList(arrivals);
+            StartupTimer.mark(StartupTimer.FIRST_ARRIVAL);
+
+            showEmptyState(false);
+        } finally {
+            JankMonitor.endStep();
+        }
+    }
+
+    /**
+     * Calculate next arrival time in minutes: the scheduled arrival plus
+     * the delay learned for that route, stop and time of day. An arrival
+     * after midnight must run tomorrow, and a row not running today can
+     * still give tomorrow's first bus.
+     */
+    private int calculateNextArrival(ScheduleStore schedules, int row, int nowMinute, int today) {
+        int minutes = schedules.minutesUntilNextArrival(row, nowMinute);
+        if (minutes < 0) {
+            return minutes;
+        }
+        int tomorrow = (today + 1) % 7;
+        boolean arrivesTomorrow = nowMinute + minutes >= ArrivalPredictionEngine.MINUTES_PER_DAY;
+        int arrivalDay = arrivesTomorrow ? tomorrow : today;
+        if (!schedules.runsOn(row, arrivalDay)) {
+            if (arrivesTomorrow || !schedules.runsOn(row, tomorrow)) {
+                return ArrivalPredictionEngine.NO_ARRIVAL;
+            }
+            minutes = ArrivalPredictionEngine.MINUTES_PER_DAY - nowMinute
+                    + schedules.getArrivalMinute(row);
+            arrivalDay = tomorrow;
         }
+        int scheduledMinute = (nowMinute + minutes) % ArrivalPredictionEngine.MINUTES_PER_DAY;
+        float delay = delayModel.getExpectedDelay(schedules.getRouteId(row),
+                schedules.getStopId(row), arrivalDay, scheduledMinute);
+        return Math.max(0, Math.round(minutes + delay));
     }
 
     /**
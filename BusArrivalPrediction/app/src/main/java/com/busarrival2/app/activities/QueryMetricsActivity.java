@@ -0,0 +1,132 @@
+package com.busarrival2.app.activities;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.view.View;
+import android.widget.TextView;
+
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.appcompat.widget.Toolbar;
+
+import com.busarrival2.app.R;
+import com.busarrival2.app.data.LogHistogram;
+import com.busarrival2.app.data.QueryMetrics;
+import com.busarrival2.app.utils.FirebaseHelper;
+import com.google.android.material.button.MaterialButton;
+
+import java.util.Map;
+
+/**
+ * QueryMetricsActivity
+ * Debug screen listing the QueryMetrics histograms of every database path,
+ * refreshed while it is visible, with the JSON dump available to share
+ */
+public class QueryMetricsActivity extends AppCompatActivity {
+
+    private static final long REFRESH_INTERVAL_MILLIS = 1000;
+
+    private TextView metricsText;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    private final Runnable refreshRunnable = new Runnable() {
+        @Override
+        public void run() {
+            showMetrics();
+            handler.postDelayed(this, REFRESH_INTERVAL_MILLIS);
+        }
+    };
+
+    /**
+     * Check whether the screen should be offered, i.e. this is a debug build
+     * @param context Any context
+     * @return true if the app is debuggable
+     */
+    public static boolean isAvailable(Context context) {
+        return (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+    }
+
+    @Override
+    protected void onCreate(Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        setContentView(R.layout.activity_query_metrics);
+
+        Toolbar toolbar = findViewById(R.id.toolbar);
+        setSupportActionBar(toolbar);
+        metricsText = findViewById(R.id.metricsText);
+
+        MaterialButton shareButton = findViewById(R.id.shareJsonButton);
+        shareButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                shareJson();
+            }
+        });
+
+        MaterialButton resetButton = findViewById(R.id.resetButton);
+        resetButton.setOnClickListener(new View.OnClickListener() {
+            @Override
+            public void onClick(View v) {
+                FirebaseHelper.getQueryMetrics().reset();
+                showMetrics();
+            }
+        });
+    }
+
+    @Override
+    protected void onResume() {
+        super.onResume();
+        handler.post(refreshRunnable);
+    }
+
+    @Override
+    protected void onPause() {
+        handler.removeCallbacks(refreshRunnable);
+        super.onPause();
+    }
+
+    /**
+     * Show one block per path with a row per recorded metric
+     */
+    private void showMetrics() {
+        Map<String, QueryMetrics.PathMetrics> all = FirebaseHelper.getQueryMetrics().getAll();
+        if (all.isEmpty()) {
+            metricsText.setText(R.string.query_metrics_empty);
+            return;
+        }
+
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, QueryMetrics.PathMetrics> entry : all.entrySet()) {
+            QueryMetrics.PathMetrics pathMetrics = entry.getValue();
+            text.append(entry.getKey()).append("  ")
+                    .append(getString(R.string.query_metrics_errors, pathMetrics.getErrorCount()))
+                    .append('\n');
+            for (QueryMetrics.Metric metric : QueryMetrics.Metric.values()) {
+                LogHistogram.Snapshot snapshot = pathMetrics.get(metric).snapshot();
+                if (snapshot.getCount() == 0) {
+                    continue;
+                }
+                text.append("  ").append(getString(R.string.query_metrics_row, metric.getKey(),
+                        snapshot.getCount(), snapshot.getValueAtPercentile(50),
+                        snapshot.getValueAtPercentile(90), snapshot.getValueAtPercentile(99),
+                        snapshot.getMax())).append('\n');
+            }
+            text.append('\n');
+        }
+        metricsText.setText(text);
+    }
+
+    /**
+     * Hand the JSON dump to any app that accepts text
+     */
+    private void shareJson() {
+        Intent intent = new Intent(Intent.ACTION_SEND);
+        intent.setType("application/json");
+        intent.putExtra(Intent.EXTRA_SUBJECT, getString(R.string.query_metrics));
+        intent.putExtra(Intent.EXTRA_TEXT, FirebaseHelper.getQueryMetrics().toJson());
+        startActivity(Intent.createChooser(intent, getString(R.string.query_metrics_share)));
+    }
+}
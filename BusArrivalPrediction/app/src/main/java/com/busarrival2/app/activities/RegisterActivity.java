@@ -11,6 +11,7 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.busarrival2.app.R;
+import com.busarrival2.app.data.TransitDataSource;
 import com.busarrival2.app.models.User;
 import com.busarrival2.app.utils.FirebaseHelper;
 import com.busarrival2.app.utils.ValidationHelper;
@@ -199,27 +200,26 @@ public class RegisterActivity extends AppCompatActivity {
     private void saveUserData(String userId, String fullName, String email, String phone) {
         User user = new User(userId, fullName, email, phone, "user");
 
-        FirebaseHelper.getUserReference(userId)
-                .setValue(user)
-                .addOnCompleteListener(new OnCompleteListener<Void>() {
-                    @Override
-                    public void onComplete(@NonNull Task<Void> task) {
-                        showProgress(false);
+        FirebaseHelper.getDataSource().putUser(user, new TransitDataSource.Callback<Void>() {
+            @Override
+            public void onSuccess(Void result) {
+                showProgress(false);
+                // Data saved successfully
+                Toast.makeText(RegisterActivity.this,
+                        getString(R.string.success_register),
+                        Toast.LENGTH_SHORT).show();
+                navigateToMain();
+            }
 
-                        if (task.isSuccessful()) {
-                            // Data saved successfully
-                            Toast.makeText(RegisterActivity.this,
-                                    getString(R.string.success_register),
-                                    Toast.LENGTH_SHORT).show();
-                            navigateToMain();
-                        } else {
-                            // Failed to save data
-                            Toast.makeText(RegisterActivity.this,
-                                    "Registration successful but failed to save data",
-                                    Toast.LENGTH_SHORT).show();
-                        }
-                    }
-                });
+            @Override
+            public void onFailure(Exception error) {
+                showProgress(false);
+                // Failed to save data
+                Toast.makeText(RegisterActivity.this,
+                        "Registration successful but failed to save data",
+                        Toast.LENGTH_SHORT).show();
+            }
+        });
     }
 
     /**
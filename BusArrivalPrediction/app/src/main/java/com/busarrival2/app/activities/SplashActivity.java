@@ -2,14 +2,16 @@ package com.busarrival2.app.activities;
 
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.Looper;
 import android.util.Log;
 
+import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 
 import com.busarrival2.app.R;
 import com.busarrival2.app.utils.FirebaseHelper;
+import com.busarrival2.app.utils.JankMonitor;
+import com.busarrival2.app.utils.StartupOrchestrator;
+import com.busarrival2.app.utils.StartupTimer;
 import com.google.firebase.FirebaseApp;
 
 /**
@@ -20,12 +22,14 @@ import com.google.firebase.FirebaseApp;
 public class SplashActivity extends AppCompatActivity {
 
     private static final String TAG = "SplashActivity";
-    // Splash screen display duration in milliseconds
-    private static final int SPLASH_DURATION = 2000;
+
+    private StartupOrchestrator orchestrator;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
+        StartupTimer.mark(StartupTimer.SPLASH_CREATED);
+        JankMonitor.install(this);
         
         try {
             setContentView(R.layout.activity_splash);
@@ -37,14 +41,16 @@ public class SplashActivity extends AppCompatActivity {
             } catch (Exception e) {
                 Log.e(TAG, "Firebase initialization error: " + e.getMessage());
             }
+            FirebaseHelper.getQueryMetricsReporter(this).start();
 
-            // Delay navigation to show splash screen
-            new Handler(Looper.getMainLooper()).postDelayed(new Runnable() {
+            // Prefetch while the splash is showing, then go straight to the right screen
+            orchestrator = new StartupOrchestrator(this);
+            orchestrator.start(new StartupOrchestrator.Callback() {
                 @Override
-                public void run() {
-                    checkAuthenticationAndNavigate();
+                public void onReady(@NonNull StartupOrchestrator.Destination destination) {
+                    navigateTo(destination);
                 }
-            }, SPLASH_DURATION);
+            });
             
         } catch (Exception e) {
             Log.e(TAG, "onCreate error: " + e.getMessage());
@@ -54,30 +60,31 @@ public class SplashActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        if (orchestrator != null) {
+            orchestrator.cancel();
+        }
+        super.onDestroy();
+    }
+
     /**
-     * Check if user is authenticated and navigate to appropriate screen
+     * Navigate to the screen chosen by the startup orchestrator
      */
-    private void checkAuthenticationAndNavigate() {
-        try {
-            if (FirebaseHelper.isUserLoggedIn()) {
-                // User is logged in, check role and navigate
-                String userId = FirebaseHelper.getCurrentUserId();
-                if (userId != null) {
-                    // For now, just go to login - user will be redirected after login
-                    // This avoids crash if user data isn't loaded yet
-                    navigateToLogin();
-                } else {
-                    navigateToLogin();
-                }
-            } else {
-                // User is not logged in, navigate to login screen
+    private void navigateTo(StartupOrchestrator.Destination destination) {
+        if (isFinishing()) {
+            return;
+        }
+        switch (destination) {
+            case ADMIN:
+                navigateToAdmin();
+                break;
+            case MAIN:
+                navigateToMain();
+                break;
+            default:
                 navigateToLogin();
-            }
-        } catch (Exception e) {
-            // If Firebase is not configured or any error occurs, go to login
-            Log.e(TAG, "Authentication check error: " + e.getMessage());
-            e.printStackTrace();
-            navigateToLogin();
+                break;
         }
     }
 
@@ -109,4 +116,19 @@ public class SplashActivity extends AppCompatActivity {
             navigateToLogin();
         }
     }
+
+    /**
+     * Navigate to Admin Activity
+     */
+    private void navigateToAdmin() {
+        try {
+            Intent intent = new Intent(SplashActivity.this, AdminActivity.class);
+            startActivity(intent);
+            finish();
+        } catch (Exception e) {
+            Log.e(TAG, "Navigation error: " + e.getMessage());
+            e.printStackTrace();
+            navigateToLogin();
+        }
+    }
 }
@@ -0,0 +1,102 @@
+package com.busarrival2.app.adapters;
+
+import java.util.Objects;
+
+/**
+ * ArrivalItem Class
+ * Immutable row of the arrivals list. The key identifies the schedule the
+ * arrival belongs to, so a refresh that only moves the countdown is seen by
+ * the adapter as the same item with new minutes.
+ */
+public final class ArrivalItem {
+
+    private final String key;
+    private final long stableId;
+    private final String routeName;
+    private final String stopName;
+    private final int minutes;
+
+    /**
+     * Create an arrival row
+     * @param key Identity of the row, usually the schedule ID
+     * @param routeName Route label shown on the row
+     * @param stopName Stop label shown on the row
+     * @param minutes Minutes until the arrival
+     */
+    public ArrivalItem(String key, String routeName, String stopName, int minutes) {
+        this.key = key;
+        this.stableId = stableIdOf(key);
+        this.routeName = routeName;
+        this.stopName = stopName;
+        this.minutes = minutes;
+    }
+
+    /**
+     * Copy this row with a new countdown
+     * @param minutes Minutes until the arrival
+     * @return The updated row, or this row if the minutes did not change
+     */
+    public ArrivalItem withMinutes(int minutes) {
+        return minutes == this.minutes ? this
+                : new ArrivalItem(key, routeName, stopName, minutes);
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public long getStableId() {
+        return stableId;
+    }
+
+    public String getRouteName() {
+        return routeName;
+    }
+
+    public String getStopName() {
+        return stopName;
+    }
+
+    public int getMinutes() {
+        return minutes;
+    }
+
+    /**
+     * Check if two rows show the same text apart from the countdown
+     * @param other The row to compare with
+     * @return true if only the minutes can differ
+     */
+    public boolean sameLabels(ArrivalItem other) {
+        return Objects.equals(routeName, other.routeName)
+                && Objects.equals(stopName, other.stopName);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ArrivalItem)) {
+            return false;
+        }
+        ArrivalItem other = (ArrivalItem) o;
+        return minutes == other.minutes && Objects.equals(key, other.key) && sameLabels(other);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(key, routeName, stopName, minutes);
+    }
+
+    // 64-bit FNV-1a, so ids of distinct schedules practically never collide
+    private static long stableIdOf(String key) {
+        long hash = 0xcbf29ce484222325L;
+        if (key != null) {
+            for (int i = 0; i < key.length(); i++) {
+                hash ^= key.charAt(i);
+                hash *= 0x100000001b3L;
+            }
+        }
+        return hash;
+    }
+}
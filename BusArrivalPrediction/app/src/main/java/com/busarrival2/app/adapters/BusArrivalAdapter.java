@@ -1,59 +1,98 @@
 package com.busarrival2.app.adapters;
 
-import android.content.Context;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
 import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.busarrival2.app.R;
-import com.busarrival2.app.models.BusRoute;
-import com.busarrival2.app.models.BusStop;
 
 import java.util.List;
 
 /**
  * BusArrivalAdapter
- * RecyclerView adapter for displaying bus arrival predictions
+ * RecyclerView adapter for displaying bus arrival predictions.
+ * Lists are diffed on a background thread by ListAdapter. A row whose
+ * countdown is the only change is rebound with PAYLOAD_MINUTES, which
+ * updates the arrival time text and nothing else.
  */
-public class BusArrivalAdapter extends RecyclerView.Adapter<BusArrivalAdapter.ArrivalViewHolder> {
-
-    private Context context;
-    private BusRoute route;
-    private BusStop stop;
-    private List<Integer> arrivalMinutes;
-
-    public BusArrivalAdapter(Context context, BusRoute route, BusStop stop, 
-                            List<Integer> arrivalMinutes) {
-        this.context = context;
-        this.route = route;
-        this.stop = stop;
-        this.arrivalMinutes = arrivalMinutes;
+public class BusArrivalAdapter extends ListAdapter<ArrivalItem, BusArrivalAdapter.ArrivalViewHolder> {
+
+    // Change payload: only the minutes of the row changed
+    public static final Object PAYLOAD_MINUTES = new Object();
+
+    private static final DiffUtil.ItemCallback<ArrivalItem> DIFF_CALLBACK =
+            new DiffUtil.ItemCallback<ArrivalItem>() {
+                @Override
+                public boolean areItemsTheSame(@NonNull ArrivalItem oldItem,
+                                               @NonNull ArrivalItem newItem) {
+                    return oldItem.getStableId() == newItem.getStableId();
+                }
+
+                @Override
+                public boolean areContentsTheSame(@NonNull ArrivalItem oldItem,
+                                                  @NonNull ArrivalItem newItem) {
+                    return oldItem.equals(newItem);
+                }
+
+                @Nullable
+                @Override
+                public Object getChangePayload(@NonNull ArrivalItem oldItem,
+                                               @NonNull ArrivalItem newItem) {
+                    return oldItem.sameLabels(newItem) ? PAYLOAD_MINUTES : null;
+                }
+            };
+
+    public BusArrivalAdapter() {
+        super(DIFF_CALLBACK);
+        setHasStableIds(true);
+    }
+
+    @Override
+    public long getItemId(int position) {
+        return getItem(position).getStableId();
     }
 
     @NonNull
     @Override
     public ArrivalViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
-        View view = LayoutInflater.from(context).inflate(R.layout.item_bus_arrival, 
+        View view = LayoutInflater.from(parent.getContext()).inflate(R.layout.item_bus_arrival,
                 parent, false);
         return new ArrivalViewHolder(view);
     }
 
     @Override
     public void onBindViewHolder(@NonNull ArrivalViewHolder holder, int position) {
-        int minutes = arrivalMinutes.get(position);
+        ArrivalItem item = getItem(position);
 
-        holder.tvRouteName.setText(route.toString());
-        holder.tvStopName.setText(stop.getStopName());
-        holder.tvArrivalTime.setText(String.valueOf(minutes));
+        holder.tvRouteName.setText(item.getRouteName());
+        holder.tvStopName.setText(item.getStopName());
+        holder.bindMinutes(item.getMinutes());
     }
 
     @Override
-    public int getItemCount() {
-        return arrivalMinutes.size();
+    public void onBindViewHolder(@NonNull ArrivalViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty() || !onlyMinutes(payloads)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        holder.bindMinutes(getItem(position).getMinutes());
+    }
+
+    private static boolean onlyMinutes(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (payload != PAYLOAD_MINUTES) {
+                return false;
+            }
+        }
+        return true;
     }
 
     /**
@@ -68,5 +107,9 @@ public class BusArrivalAdapter extends RecyclerView.Adapter<BusArrivalAdapter.Ar
             tvStopName = itemView.findViewById(R.id.tvStopName);
             tvArrivalTime = itemView.findViewById(R.id.tvArrivalTime);
         }
+
+        void bindMinutes(int minutes) {
+            tvArrivalTime.setText(String.valueOf(minutes));
+        }
     }
 }
@@ -0,0 +1,444 @@
+package com.busarrival2.app.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+import com.busarrival2.app.utils.FirebaseHelper;
+import com.google.firebase.database.ChildEventListener;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * ChildSync Class
+ * Keeps an in-memory copy of a database location in sync using child
+ * added/changed/removed/moved events. Only the child that changed is
+ * decoded, on the SnapshotDecoder pool, and the changes decoded while the
+ * main thread is busy are applied and delivered together as one ChangeSet.
+ * @param <T> Model type of the children
+ */
+public class ChildSync<T> {
+
+    /**
+     * Decodes a single child snapshot into a model, on a worker thread
+     * @param <T> Model type
+     */
+    public interface Decoder<T> {
+        @Nullable
+        T decode(@NonNull DataSnapshot snapshot);
+    }
+
+    /**
+     * Receives batched changes on the main thread
+     * @param <T> Model type
+     */
+    public interface Listener<T> {
+        void onChanges(@NonNull ChangeSet<T> changes);
+
+        void onCancelled(@NonNull DatabaseError error);
+    }
+
+    private final Query query;
+    private final Decoder<T> decoder;
+    private final String path;
+    private final String metricsPath;
+    private final Executor decodeExecutor = SnapshotDecoder.getInstance().newSerialExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // In child order; lastKey is the key of the last item, null when empty
+    private final Map<String, T> items = new LinkedHashMap<>();
+    private String lastKey;
+    private final List<Listener<T>> listeners = new ArrayList<>();
+
+    // Decoded but not yet published events, guarded by itself
+    private final List<PendingEvent<T>> decoded = new ArrayList<>();
+    private boolean publishScheduled;
+
+    // Main thread state
+    private int generation;
+    private boolean loaded;
+    private boolean started;
+    private boolean initialLoad;
+    private long startedAt;
+
+    // Totals of the initial load, touched only by decode tasks, which run
+    // one at a time
+    private long loadDecodeNanos;
+    private long loadPayloadBytes;
+
+    /**
+     * One child event after decoding, waiting to be applied on the main thread
+     */
+    private static final class PendingEvent<T> {
+        final int generation;
+        final ChangeSet.Type type;
+        final String key;
+        final T item;
+        final String previousKey;
+
+        PendingEvent(int generation, ChangeSet.Type type, String key, T item, String previousKey) {
+            this.generation = generation;
+            this.type = type;
+            this.key = key;
+            this.item = item;
+            this.previousKey = previousKey;
+        }
+    }
+
+    private final Runnable publishRunnable = new Runnable() {
+        @Override
+        public void run() {
+            publish();
+        }
+    };
+
+    private final ChildEventListener childListener = new ChildEventListener() {
+        @Override
+        public void onChildAdded(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            decodeInBackground(ChangeSet.Type.ADDED, snapshot, previousChildName);
+        }
+
+        @Override
+        public void onChildChanged(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            decodeInBackground(ChangeSet.Type.CHANGED, snapshot, previousChildName);
+        }
+
+        @Override
+        public void onChildRemoved(@NonNull DataSnapshot snapshot) {
+            enqueueInOrder(ChangeSet.Type.REMOVED, snapshot.getKey(), null);
+        }
+
+        @Override
+        public void onChildMoved(@NonNull DataSnapshot snapshot, @Nullable String previousChildName) {
+            enqueueInOrder(ChangeSet.Type.MOVED, snapshot.getKey(), previousChildName);
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            dispatchCancelled(error);
+        }
+    };
+
+    // Value events fire after all child events for the same data,
+    // so this marks the end of the initial load
+    private final ValueEventListener loadedListener = new ValueEventListener() {
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            if (initialLoad) {
+                initialLoad = false;
+                QueryMetrics metrics = FirebaseHelper.getQueryMetrics();
+                metrics.record(metricsPath, QueryMetrics.Metric.FIRST_DATA_MILLIS,
+                        SystemClock.elapsedRealtime() - startedAt);
+                metrics.record(metricsPath, QueryMetrics.Metric.CHILD_COUNT,
+                        snapshot.getChildrenCount());
+                recordLoadTotals();
+            }
+            enqueueInOrder(null, null, null);
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            dispatchCancelled(error);
+        }
+    };
+
+    public ChildSync(Query query, Decoder<T> decoder) {
+        this.query = query;
+        this.decoder = decoder;
+        String key = query.getRef().getKey();
+        this.path = key != null ? key : "/";
+        this.metricsPath = topLevelKey(query.getRef());
+    }
+
+    /**
+     * Get the top-level node a reference is under, so every geohash cell
+     * or route is recorded under one QueryMetrics path
+     */
+    private static String topLevelKey(DatabaseReference reference) {
+        DatabaseReference parent = reference.getParent();
+        while (parent != null && parent.getKey() != null) {
+            reference = parent;
+            parent = reference.getParent();
+        }
+        return reference.getKey() != null ? reference.getKey() : "/";
+    }
+
+    /**
+     * Start listening for child events
+     */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        initialLoad = true;
+        startedAt = SystemClock.elapsedRealtime();
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                loadDecodeNanos = 0;
+                loadPayloadBytes = 0;
+            }
+        });
+        query.addChildEventListener(childListener);
+        query.addListenerForSingleValueEvent(loadedListener);
+    }
+
+    /**
+     * Stop listening and drop the in-memory copy
+     */
+    public void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        initialLoad = false;
+        generation++;
+        query.removeEventListener(childListener);
+        query.removeEventListener(loadedListener);
+        items.clear();
+        lastKey = null;
+        loaded = false;
+    }
+
+    public void addListener(Listener<T> listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Add a listener, optionally replaying the items already loaded
+     * @param listener The listener to add
+     * @param replay true to deliver the current items as ADDED changes first
+     */
+    public void addListener(Listener<T> listener, boolean replay) {
+        listeners.add(listener);
+        if (!replay || (items.isEmpty() && !loaded)) {
+            return;
+        }
+
+        // Events still being decoded are published to this listener later
+
+        List<ChangeSet.Change<T>> current = new ArrayList<>(items.size());
+        for (Map.Entry<String, T> entry : items.entrySet()) {
+            current.add(new ChangeSet.Change<>(ChangeSet.Type.ADDED, entry.getKey(),
+                    entry.getValue(), null));
+        }
+        listener.onChanges(new ChangeSet<>(current, loaded));
+    }
+
+    public void removeListener(Listener<T> listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Get the current items in child order
+     * @return Read-only view of the synced items
+     */
+    public Collection<T> getItems() {
+        return Collections.unmodifiableCollection(items.values());
+    }
+
+    /**
+     * Get a single item by key
+     * @param key The child key
+     * @return The item, or null if it is not present
+     */
+    public T getItem(String key) {
+        return items.get(key);
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Decode a child on the worker pool, keeping event order
+     */
+    private void decodeInBackground(ChangeSet.Type type, DataSnapshot snapshot, String previousKey) {
+        int eventGeneration = generation;
+        boolean initial = initialLoad;
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                T item = decoder.decode(snapshot);
+                long nanos = System.nanoTime() - start;
+                SnapshotDecoder.getInstance().getMetrics().record(path, nanos,
+                        item != null ? 1 : 0);
+                if (initial) {
+                    loadDecodeNanos += nanos;
+                    loadPayloadBytes += PayloadEstimator.entrySize(snapshot.getKey(),
+                            SnapshotDecoder.estimatePayload(snapshot));
+                }
+                // A child that no longer decodes is treated as removed
+                ChangeSet.Type eventType = item != null ? type : ChangeSet.Type.REMOVED;
+                post(new PendingEvent<>(eventGeneration, eventType, snapshot.getKey(),
+                        item, previousKey));
+            }
+        });
+    }
+
+    /**
+     * Record the decode time and size of the initial load once the children
+     * queued before this call are decoded, so the load counts as one read
+     */
+    private void recordLoadTotals() {
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                QueryMetrics metrics = FirebaseHelper.getQueryMetrics();
+                metrics.record(metricsPath, QueryMetrics.Metric.DECODE_MICROS,
+                        loadDecodeNanos / 1000);
+                metrics.record(metricsPath, QueryMetrics.Metric.PAYLOAD_BYTES,
+                        loadPayloadBytes + 2);
+            }
+        });
+    }
+
+    /**
+     * Queue an event that needs no decoding behind the events already decoding.
+     * A null type marks the end of the initial load.
+     */
+    private void enqueueInOrder(ChangeSet.Type type, String key, String previousKey) {
+        int eventGeneration = generation;
+        decodeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                post(new PendingEvent<>(eventGeneration, type, key, null, previousKey));
+            }
+        });
+    }
+
+    private void post(PendingEvent<T> event) {
+        synchronized (decoded) {
+            decoded.add(event);
+            if (!publishScheduled) {
+                publishScheduled = true;
+                mainHandler.post(publishRunnable);
+            }
+        }
+    }
+
+    /**
+     * Apply every decoded event to the items and notify listeners once
+     */
+    private void publish() {
+        List<PendingEvent<T>> events;
+        synchronized (decoded) {
+            events = new ArrayList<>(decoded);
+            decoded.clear();
+            publishScheduled = false;
+        }
+
+        boolean wasLoaded = loaded;
+        List<ChangeSet.Change<T>> changes = new ArrayList<>(events.size());
+        for (PendingEvent<T> event : events) {
+            if (event.generation != generation) {
+                continue;
+            }
+            if (event.type == null) {
+                loaded = true;
+                continue;
+            }
+            switch (event.type) {
+                case ADDED:
+                case CHANGED:
+                    T previous = items.get(event.key);
+                    if (previous != null) {
+                        // A change keeps its place; a new order comes as a move
+                        items.put(event.key, event.item);
+                    } else {
+                        place(event.key, event.item, event.previousKey);
+                    }
+                    changes.add(new ChangeSet.Change<>(previous != null
+                            ? ChangeSet.Type.CHANGED : ChangeSet.Type.ADDED,
+                            event.key, event.item, event.previousKey));
+                    break;
+                case REMOVED:
+                    T removed = remove(event.key);
+                    if (removed != null) {
+                        changes.add(new ChangeSet.Change<>(ChangeSet.Type.REMOVED,
+                                event.key, removed, null));
+                    }
+                    break;
+                case MOVED:
+                    T moved = remove(event.key);
+                    if (moved != null) {
+                        place(event.key, moved, event.previousKey);
+                        changes.add(new ChangeSet.Change<>(ChangeSet.Type.MOVED,
+                                event.key, moved, event.previousKey));
+                    }
+                    break;
+            }
+        }
+
+        if (changes.isEmpty() && wasLoaded == loaded) {
+            return;
+        }
+        ChangeSet<T> changeSet = new ChangeSet<>(changes, loaded);
+        for (Listener<T> listener : new ArrayList<>(listeners)) {
+            listener.onChanges(changeSet);
+        }
+    }
+
+    /**
+     * Insert an item that is not in the map right after its previous
+     * sibling, or first when there is none. Children arrive in order while
+     * loading, so the usual case appends; any other position rebuilds the map.
+     */
+    private void place(String key, T item, String previousKey) {
+        boolean append = previousKey == null ? items.isEmpty()
+                : previousKey.equals(lastKey) || !items.containsKey(previousKey);
+        if (append) {
+            items.put(key, item);
+            lastKey = key;
+            return;
+        }
+        Map<String, T> ordered = new LinkedHashMap<>(items);
+        items.clear();
+        if (previousKey == null) {
+            items.put(key, item);
+        }
+        for (Map.Entry<String, T> entry : ordered.entrySet()) {
+            items.put(entry.getKey(), entry.getValue());
+            if (entry.getKey().equals(previousKey)) {
+                items.put(key, item);
+            }
+        }
+    }
+
+    private T remove(String key) {
+        T removed = items.remove(key);
+        if (removed != null && key.equals(lastKey)) {
+            lastKey = null;
+            for (String remaining : items.keySet()) {
+                lastKey = remaining;
+            }
+        }
+        return removed;
+    }
+
+    private void dispatchCancelled(DatabaseError error) {
+        FirebaseHelper.getQueryMetrics().recordError(metricsPath);
+        for (Listener<T> listener : new ArrayList<>(listeners)) {
+            listener.onCancelled(error);
+        }
+    }
+}
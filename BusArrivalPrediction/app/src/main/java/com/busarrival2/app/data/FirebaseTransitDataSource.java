@@ -0,0 +1,145 @@
+package com.busarrival2.app.data;
+
+import androidx.annotation.NonNull;
+
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.ModelMapper;
+import com.busarrival2.app.models.ModelMappers;
+import com.busarrival2.app.models.User;
+import com.busarrival2.app.utils.FirebaseHelper;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * FirebaseTransitDataSource Class
+ * TransitDataSource backed by the Realtime Database. Lists are decoded off
+ * the main thread by SnapshotDecoder, schedules come from the shared
+ * ScheduleRepository cache and writes go out as WriteBatch updates.
+ * Callbacks arrive on the main thread.
+ */
+public class FirebaseTransitDataSource implements TransitDataSource {
+
+    @Override
+    public String newKey() {
+        return FirebaseHelper.getDatabase().getReference().push().getKey();
+    }
+
+    @Override
+    public void getRoutes(Callback<List<BusRoute>> callback) {
+        readList(FirebaseHelper.PATH_ROUTES, FirebaseHelper.getRoutesReference(),
+                ModelMappers.ROUTE, callback);
+    }
+
+    @Override
+    public void getStops(Callback<List<BusStop>> callback) {
+        readList(FirebaseHelper.PATH_STOPS, FirebaseHelper.getStopsReference(),
+                ModelMappers.STOP, callback);
+    }
+
+    @Override
+    public void getStop(String stopId, Callback<BusStop> callback) {
+        FirebaseHelper.getStopReference(stopId)
+                .addListenerForSingleValueEvent(new TimedValueEventListener(
+                        FirebaseHelper.PATH_STOPS, new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        callback.onSuccess(ModelMappers.STOP.fromValue(snapshot.getValue()));
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        callback.onFailure(error.toException());
+                    }
+                }));
+    }
+
+    @Override
+    public void getStopsInCell(String cell, Callback<List<BusStop>> callback) {
+        readList(FirebaseHelper.PATH_STOPS_BY_GEOHASH,
+                FirebaseHelper.getStopsByGeohashReference(cell), ModelMappers.STOP, callback);
+    }
+
+    @Override
+    public void getSchedules(String routeId, String stopId, Callback<ScheduleStore> callback) {
+        FirebaseHelper.getScheduleRepository().getSchedules(routeId, stopId, adapt(callback));
+    }
+
+    @Override
+    public void getStopSchedules(String stopId, Callback<ScheduleStore> callback) {
+        FirebaseHelper.getScheduleRepository().getStopSchedules(stopId, adapt(callback));
+    }
+
+    @Override
+    public void getUser(String userId, Callback<User> callback) {
+        FirebaseHelper.getUserReference(userId)
+                .addListenerForSingleValueEvent(new TimedValueEventListener(
+                        FirebaseHelper.PATH_USERS, new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot snapshot) {
+                        callback.onSuccess(ModelMappers.USER.fromValue(snapshot.getValue()));
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        callback.onFailure(error.toException());
+                    }
+                }));
+    }
+
+    @Override
+    public void putUser(User user, Callback<Void> callback) {
+        Map<String, Object> values = ModelMappers.USER.toMap(user);
+        FirebaseHelper.timeWrite(FirebaseHelper.PATH_USERS,
+                FirebaseHelper.getUserReference(user.getUserId()).setValue(values),
+                1, PayloadEstimator.estimate(values))
+                .addOnSuccessListener(aVoid -> callback.onSuccess(null))
+                .addOnFailureListener(callback::onFailure);
+    }
+
+    @Override
+    public Batch newBatch() {
+        return FirebaseHelper.newWriteBatch();
+    }
+
+    /**
+     * Read a node once and decode its children on a worker thread.
+     * Latency, size and decode time are recorded under the path, and reads
+     * of the same node still waiting for a worker are decoded once.
+     */
+    private static <T> void readList(String path, DatabaseReference reference,
+                                     ModelMapper<T> mapper, Callback<List<T>> callback) {
+        reference.addListenerForSingleValueEvent(new TimedValueEventListener(path,
+                new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                SnapshotDecoder.getInstance().decodeList(path, reference.toString(), snapshot,
+                        child -> mapper.fromValue(child.getValue()), callback::onSuccess);
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                callback.onFailure(error.toException());
+            }
+        }));
+    }
+
+    private static ScheduleRepository.Callback adapt(Callback<ScheduleStore> callback) {
+        return new ScheduleRepository.Callback() {
+            @Override
+            public void onSchedules(@NonNull ScheduleStore schedules) {
+                callback.onSuccess(schedules);
+            }
+
+            @Override
+            public void onError(@NonNull DatabaseError error) {
+                callback.onFailure(error.toException());
+            }
+        };
+    }
+}
@@ -0,0 +1,493 @@
+package com.busarrival2.app.data;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+import com.google.firebase.database.ValueEventListener;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * ScheduleRepository Class
+ * Serves schedule lookups from a bounded, least-recently-used memory cache.
+ * One read of busSchedules/{routeId} fills an entry, and every stop on that
+ * route is then answered from it, since a stop's rows are a contiguous range
+ * of the route's ScheduleStore. Until ScheduleMigrator has marked the
+ * migration complete, schedules not yet moved out of the old flat layout
+ * are read alongside, so lookups keep working during a migration; once it
+ * is complete those flat queries are no longer made.
+ * Each cached entry keeps its listeners attached and is rebuilt from the
+ * snapshots they deliver, so a change to the route's schedules reaches the
+ * cache without another read. Changes that arrive while a rebuild is running
+ * are folded into one more rebuild, so a burst of writes, such as a running
+ * migration, decodes the route at most twice. The time-to-live only bounds
+ * how long an entry can outlive a change that was missed while offline.
+ * All methods run on the main thread.
+ */
+public class ScheduleRepository {
+
+    public static final int DEFAULT_MAX_ROUTES = 16;
+    public static final long DEFAULT_TTL_MILLIS = 10 * 60 * 1000;
+
+    private static final String METRICS_PATH = "busSchedules";
+    private static final String LEGACY_METRICS_PATH = "busSchedulesFlat";
+    private static final String STOP_ROUTES_METRICS_PATH = "busStopRoutes";
+
+    /**
+     * Receives the schedules of a lookup on the main thread
+     */
+    public interface Callback {
+        void onSchedules(@NonNull ScheduleStore schedules);
+
+        void onError(@NonNull DatabaseError error);
+    }
+
+    /**
+     * Told when the cached schedules of a route changed in the database,
+     * once the entry holds the new schedules or was dropped
+     */
+    public interface InvalidationListener {
+        void onInvalidated(@NonNull String routeId);
+    }
+
+    private final class Entry {
+        final String routeId;
+        final Query routeQuery;
+        final Query legacyQuery;
+        final List<Callback> waiting = new ArrayList<>();
+        boolean attached;
+        boolean legacyAttached;
+        DataSnapshot routeSnapshot;
+        DataSnapshot legacySnapshot;
+        ScheduleStore schedules;
+        long loadedAt;
+        int generation;
+        boolean decoding;
+        // Snapshots changed while a decode was running
+        boolean changed;
+
+        // Entries are attached as soon as they are created, so the
+        // timing starts here
+        final ValueEventListener routeListener = new TimedValueEventListener(METRICS_PATH,
+                new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                routeSnapshot = snapshot;
+                onChanged();
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                fail(error);
+            }
+        });
+
+        final ValueEventListener legacyListener = new TimedValueEventListener(LEGACY_METRICS_PATH,
+                new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot snapshot) {
+                legacySnapshot = snapshot;
+                onChanged();
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                fail(error);
+            }
+        });
+
+        Entry(String routeId) {
+            this.routeId = routeId;
+            this.routeQuery = schedulesReference.child(routeId);
+            this.legacyQuery = schedulesReference.orderByChild("routeId").equalTo(routeId);
+        }
+
+        void attach() {
+            attached = true;
+            if (migrated == null) {
+                // Read the flat layout too until the flag says otherwise
+                whenMigrationKnown(this::attachRoute);
+            } else {
+                attachRoute();
+            }
+        }
+
+        void attachRoute() {
+            if (!attached) {
+                return;
+            }
+            if (!migrated) {
+                // The flat layout is read first: a schedule migrated in between
+                // then shows up in both reads instead of neither
+                legacyQuery.addValueEventListener(legacyListener);
+                legacyAttached = true;
+            }
+            routeQuery.addValueEventListener(routeListener);
+        }
+
+        void detachLegacy() {
+            if (legacyAttached) {
+                legacyQuery.removeEventListener(legacyListener);
+                legacyAttached = false;
+            }
+            legacySnapshot = null;
+        }
+
+        void detach() {
+            attached = false;
+            detachLegacy();
+            routeQuery.removeEventListener(routeListener);
+        }
+
+        void onChanged() {
+            if (routeSnapshot == null || (legacyAttached && legacySnapshot == null)) {
+                return;
+            }
+            if (decoding) {
+                changed = true;
+                return;
+            }
+            decoding = true;
+            // Entries that are removed meanwhile drop the result
+            int decoded = ++generation;
+            DataSnapshot legacy = legacyAttached ? legacySnapshot : null;
+            SnapshotDecoder.getInstance().decode(METRICS_PATH, METRICS_PATH + "/" + routeId,
+                    routeSnapshot,
+                    route -> ScheduleStoreLoader.fromSnapshots(legacy, childrenOf(route)),
+                    store -> {
+                        if (decoded != generation || entries.get(routeId) != Entry.this) {
+                            return;
+                        }
+                        decoding = false;
+                        boolean updated = schedules != null;
+                        schedules = store;
+                        loadedAt = SystemClock.elapsedRealtime();
+                        List<Callback> callbacks = new ArrayList<>(waiting);
+                        waiting.clear();
+                        for (Callback callback : callbacks) {
+                            callback.onSchedules(store);
+                        }
+                        if (updated) {
+                            updates++;
+                            notifyInvalidated(routeId);
+                        }
+                        if (changed) {
+                            changed = false;
+                            onChanged();
+                        }
+                        trim();
+                    });
+        }
+
+        void fail(DatabaseError error) {
+            remove(this);
+            List<Callback> callbacks = new ArrayList<>(waiting);
+            waiting.clear();
+            for (Callback callback : callbacks) {
+                callback.onError(error);
+            }
+        }
+    }
+
+    private final DatabaseReference schedulesReference;
+    private final DatabaseReference stopRoutesReference;
+    private final int maxRoutes;
+    private final long ttlMillis;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final List<InvalidationListener> invalidationListeners = new ArrayList<>();
+
+    // Whether the flat layout is gone; null until the flag has been read
+    private Boolean migrated;
+    private final List<Runnable> waitingForMigration = new ArrayList<>();
+
+    private final ValueEventListener migratedListener = new ValueEventListener() {
+        @Override
+        public void onDataChange(@NonNull DataSnapshot snapshot) {
+            setMigrated(Boolean.TRUE.equals(snapshot.getValue(Boolean.class)));
+        }
+
+        @Override
+        public void onCancelled(@NonNull DatabaseError error) {
+            // Without the flag, keep reading both layouts
+            setMigrated(false);
+        }
+    };
+
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long expirations;
+    private long invalidations;
+    private long updates;
+
+    public ScheduleRepository(@NonNull DatabaseReference schedulesReference,
+                              @NonNull DatabaseReference stopRoutesReference,
+                              @NonNull DatabaseReference migratedReference) {
+        this(schedulesReference, stopRoutesReference, migratedReference, DEFAULT_MAX_ROUTES,
+                DEFAULT_TTL_MILLIS);
+    }
+
+    public ScheduleRepository(@NonNull DatabaseReference schedulesReference,
+                              @NonNull DatabaseReference stopRoutesReference,
+                              @NonNull DatabaseReference migratedReference, int maxRoutes,
+                              long ttlMillis) {
+        this.schedulesReference = schedulesReference;
+        this.stopRoutesReference = stopRoutesReference;
+        this.maxRoutes = Math.max(1, maxRoutes);
+        this.ttlMillis = ttlMillis;
+        migratedReference.addValueEventListener(migratedListener);
+    }
+
+    /**
+     * Get the schedules that serve a stop on a route. A cached lookup calls
+     * back before this method returns; otherwise the route is fetched once,
+     * however many lookups are waiting for it.
+     * @param routeId The route ID
+     * @param stopId The stop ID; its rows are firstRow(routeId, stopId) .. endRow(routeId, stopId)
+     * @param callback Receives the route's schedules
+     */
+    public void getSchedules(@NonNull String routeId, @NonNull String stopId,
+                             @NonNull Callback callback) {
+        Entry entry = entries.get(routeId);
+        if (entry != null && entry.schedules != null
+                && SystemClock.elapsedRealtime() - entry.loadedAt > ttlMillis) {
+            expirations++;
+            remove(entry);
+            entry = null;
+        }
+
+        if (entry != null && entry.schedules != null) {
+            hits++;
+            callback.onSchedules(entry.schedules);
+            return;
+        }
+
+        misses++;
+        if (entry == null) {
+            entry = new Entry(routeId);
+            entries.put(routeId, entry);
+            entry.attach();
+        }
+        entry.waiting.add(callback);
+    }
+
+    /**
+     * Get the schedules of every route that serves a stop. The routes come
+     * from busStopRoutes/{stopId} and only their busSchedules/{routeId}/{stopId}
+     * subtrees are read. Stop lookups are not cached.
+     * @param stopId The stop ID
+     * @param callback Receives a store holding only that stop's schedules
+     */
+    public void getStopSchedules(@NonNull String stopId, @NonNull Callback callback) {
+        if (migrated == null) {
+            whenMigrationKnown(() -> getStopSchedules(stopId, callback));
+            return;
+        }
+        if (migrated) {
+            loadStopRoutes(stopId, null, callback);
+            return;
+        }
+        schedulesReference.orderByChild("stopId").equalTo(stopId)
+                .addListenerForSingleValueEvent(new TimedValueEventListener(LEGACY_METRICS_PATH,
+                        new ValueEventListener() {
+                    @Override
+                    public void onDataChange(@NonNull DataSnapshot legacy) {
+                        loadStopRoutes(stopId, legacy, callback);
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        callback.onError(error);
+                    }
+                }));
+    }
+
+    private void loadStopRoutes(String stopId, DataSnapshot legacy, Callback callback) {
+        stopRoutesReference.child(stopId).addListenerForSingleValueEvent(
+                new TimedValueEventListener(STOP_ROUTES_METRICS_PATH, new ValueEventListener() {
+            @Override
+            public void onDataChange(@NonNull DataSnapshot routes) {
+                List<DataSnapshot> stopNodes = new ArrayList<>();
+                int routeCount = (int) routes.getChildrenCount();
+                if (routeCount == 0) {
+                    decodeStop(legacy, routes, stopNodes, callback);
+                    return;
+                }
+                // Fetch each route's subtree for the stop in parallel
+                boolean[] failed = new boolean[1];
+                for (DataSnapshot route : routes.getChildren()) {
+                    schedulesReference.child(route.getKey()).child(stopId)
+                            .addListenerForSingleValueEvent(new TimedValueEventListener(
+                                    METRICS_PATH, new ValueEventListener() {
+                                @Override
+                                public void onDataChange(@NonNull DataSnapshot stopNode) {
+                                    stopNodes.add(stopNode);
+                                    if (!failed[0] && stopNodes.size() == routeCount) {
+                                        decodeStop(legacy, routes, stopNodes, callback);
+                                    }
+                                }
+
+                                @Override
+                                public void onCancelled(@NonNull DatabaseError error) {
+                                    if (!failed[0]) {
+                                        failed[0] = true;
+                                        callback.onError(error);
+                                    }
+                                }
+                            }));
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                callback.onError(error);
+            }
+        }));
+    }
+
+    private static void decodeStop(DataSnapshot legacy, DataSnapshot routes,
+                                   List<DataSnapshot> stopNodes, Callback callback) {
+        // Metrics are recorded against the flat read, or the route list once it is gone
+        SnapshotDecoder.getInstance().decode(METRICS_PATH, legacy != null ? legacy : routes,
+                snapshot -> ScheduleStoreLoader.fromSnapshots(legacy, stopNodes),
+                callback::onSchedules);
+    }
+
+    private void whenMigrationKnown(Runnable action) {
+        if (migrated != null) {
+            action.run();
+        } else {
+            waitingForMigration.add(action);
+        }
+    }
+
+    private void setMigrated(boolean value) {
+        boolean wasKnown = migrated != null;
+        if (wasKnown && (migrated || !value)) {
+            // The flat layout never comes back once it is gone
+            return;
+        }
+        migrated = value;
+        if (!wasKnown) {
+            List<Runnable> actions = new ArrayList<>(waitingForMigration);
+            waitingForMigration.clear();
+            for (Runnable action : actions) {
+                action.run();
+            }
+            return;
+        }
+        // Migration finished while running: stop the flat queries and
+        // rebuild every entry from its route alone
+        for (Entry entry : new ArrayList<>(entries.values())) {
+            entry.detachLegacy();
+            entry.onChanged();
+        }
+    }
+
+    private static List<DataSnapshot> childrenOf(DataSnapshot snapshot) {
+        List<DataSnapshot> children = new ArrayList<>((int) snapshot.getChildrenCount());
+        for (DataSnapshot child : snapshot.getChildren()) {
+            children.add(child);
+        }
+        return children;
+    }
+
+    /**
+     * Drop the cached schedules of a route. A route that is still loading
+     * is left alone, because its query already reports the newest data.
+     * Changes in the database do not need this; they update the entry.
+     * @param routeId The route ID
+     */
+    public void invalidate(@NonNull String routeId) {
+        Entry entry = entries.get(routeId);
+        if (entry == null || entry.schedules == null) {
+            return;
+        }
+        invalidations++;
+        remove(entry);
+        notifyInvalidated(routeId);
+    }
+
+    private void notifyInvalidated(String routeId) {
+        for (InvalidationListener listener : new ArrayList<>(invalidationListeners)) {
+            listener.onInvalidated(routeId);
+        }
+    }
+
+    public void addInvalidationListener(@NonNull InvalidationListener listener) {
+        invalidationListeners.add(listener);
+    }
+
+    public void removeInvalidationListener(@NonNull InvalidationListener listener) {
+        invalidationListeners.remove(listener);
+    }
+
+    /**
+     * Get the number of cached or loading routes
+     * @return Entry count
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    public long getHitCount() {
+        return hits;
+    }
+
+    public long getMissCount() {
+        return misses;
+    }
+
+    public long getEvictionCount() {
+        return evictions;
+    }
+
+    public long getExpiredCount() {
+        return expirations;
+    }
+
+    public long getInvalidationCount() {
+        return invalidations;
+    }
+
+    /**
+     * Get how often a cached route was rebuilt after a change in the database
+     * @return Update count
+     */
+    public long getUpdateCount() {
+        return updates;
+    }
+
+    /**
+     * Evict least recently used routes beyond the limit. Routes that are
+     * still loading are kept, so their callers always get an answer.
+     */
+    private void trim() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (entries.size() > maxRoutes && iterator.hasNext()) {
+            Entry eldest = iterator.next();
+            if (eldest.schedules == null) {
+                continue;
+            }
+            iterator.remove();
+            eldest.detach();
+            evictions++;
+        }
+    }
+
+    private void remove(Entry entry) {
+        if (entries.get(entry.routeId) == entry) {
+            entries.remove(entry.routeId);
+        }
+        entry.detach();
+        entry.generation++;
+    }
+}
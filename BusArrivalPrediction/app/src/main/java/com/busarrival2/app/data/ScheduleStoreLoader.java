@@ -0,0 +1,109 @@
+package com.busarrival2.app.data;
+
+import com.busarrival2.app.models.ModelMappers;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ScheduleStoreLoader Class
+ * Fills a ScheduleStore straight from busSchedules snapshots, reading each
+ * node's raw value map instead of materialising BusSchedule objects.
+ * Schedules live under busSchedules/{routeId}/{stopId}/{scheduleId}; while
+ * older data is being migrated some are still flat busSchedules/{scheduleId}
+ * nodes, so both layouts can be read into one store.
+ */
+public class ScheduleStoreLoader {
+
+    /**
+     * Build a store from a snapshot whose children are schedule nodes
+     * @param snapshot Snapshot of flat schedule nodes (or a query on them)
+     * @return Immutable schedule store
+     */
+    public static ScheduleStore fromSnapshot(DataSnapshot snapshot) {
+        ScheduleStore.Builder builder =
+                new ScheduleStore.Builder((int) snapshot.getChildrenCount());
+        for (DataSnapshot scheduleSnapshot : snapshot.getChildren()) {
+            addSchedule(builder, scheduleSnapshot);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Build a store from both layouts. A schedule that is found twice,
+     * because it was migrated between the two reads, is added once.
+     * @param legacy Query snapshot of flat schedule nodes, or null
+     * @param stopNodes Snapshots of busSchedules/{routeId}/{stopId}
+     * @return Immutable schedule store
+     */
+    public static ScheduleStore fromSnapshots(DataSnapshot legacy, List<DataSnapshot> stopNodes) {
+        ScheduleStore.Builder builder = new ScheduleStore.Builder();
+        Set<String> seen = new HashSet<>();
+        for (DataSnapshot stopNode : stopNodes) {
+            DatabaseReference route = stopNode.getRef().getParent();
+            String routeId = route != null ? route.getKey() : null;
+            for (DataSnapshot scheduleSnapshot : stopNode.getChildren()) {
+                addSchedule(builder, scheduleSnapshot, routeId, stopNode.getKey(), seen);
+            }
+        }
+        if (legacy != null) {
+            for (DataSnapshot scheduleSnapshot : legacy.getChildren()) {
+                addSchedule(builder, scheduleSnapshot, null, null, seen);
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Add a single schedule node to a builder
+     * @param builder The builder to fill
+     * @param scheduleSnapshot Snapshot of one schedule node
+     */
+    public static void addSchedule(ScheduleStore.Builder builder, DataSnapshot scheduleSnapshot) {
+        addSchedule(builder, scheduleSnapshot, null, null, null);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void addSchedule(ScheduleStore.Builder builder, DataSnapshot scheduleSnapshot,
+                                    String defaultRouteId, String defaultStopId,
+                                    Set<String> seen) {
+        Object value = scheduleSnapshot.getValue();
+        if (!(value instanceof Map)) {
+            return;
+        }
+        Map<String, Object> values = (Map<String, Object>) value;
+
+        String scheduleId = ModelMappers.asString(values.get("scheduleId"));
+        if (scheduleId == null) {
+            scheduleId = scheduleSnapshot.getKey();
+        }
+        if (seen != null && !seen.add(scheduleId)) {
+            return;
+        }
+        String routeId = ModelMappers.asString(values.get("routeId"));
+        if (routeId == null) {
+            routeId = defaultRouteId;
+        }
+        String stopId = ModelMappers.asString(values.get("stopId"));
+        if (stopId == null) {
+            stopId = defaultStopId;
+        }
+        int arrivalMinute = ArrivalPredictionEngine.parseMinuteOfDay(
+                ModelMappers.asString(values.get("arrivalTime")));
+        int frequency = (int) ModelMappers.asLong(values.get("frequency"));
+
+        byte dayMask = ScheduleStore.dayMaskOf(
+                ModelMappers.asStringList(values.get("daysOfWeek")));
+
+        String tripId = ModelMappers.asString(values.get("tripId"));
+        int stopSequence = (int) ModelMappers.asLong(values.get("stopSequence"));
+
+        builder.add(scheduleId, tripId, stopSequence, routeId, stopId, arrivalMinute, frequency,
+                dayMask);
+    }
+}
@@ -0,0 +1,322 @@
+package com.busarrival2.app.data;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import androidx.annotation.NonNull;
+
+import com.busarrival2.app.utils.FirebaseHelper;
+import com.google.firebase.database.DataSnapshot;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * SnapshotDecoder Class
+ * Decodes Firebase snapshots into models on a bounded pool of background
+ * threads and publishes each finished result to the main thread in one step.
+ * Decodes wait in a bounded queue. A decode with a key that is still queued
+ * under that key is merged into it: the newest snapshot is decoded once and
+ * every callback gets the result. Only when the queue is full and nothing
+ * can be merged does the caller decode itself.
+ */
+public final class SnapshotDecoder {
+
+    // Queued decodes beyond the running ones
+    private static final int QUEUE_CAPACITY = 64;
+
+    private static SnapshotDecoder instance;
+
+    /**
+     * Turns a whole snapshot into a result, on a worker thread
+     * @param <R> Result type
+     */
+    public interface Transform<R> {
+        R apply(@NonNull DataSnapshot snapshot);
+    }
+
+    /**
+     * Receives a decoded result on the main thread
+     * @param <R> Result type
+     */
+    public interface Callback<R> {
+        void onDecoded(R result);
+    }
+
+    private final ThreadPoolExecutor executor;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final DecodeMetrics metrics = new DecodeMetrics();
+    // Queued keyed decodes that have not started; guards their contents too
+    private final Map<Object, DecodeTask<?>> queued = new HashMap<>();
+    private final AtomicLong merged = new AtomicLong();
+    private final AtomicLong callerRuns = new AtomicLong();
+
+    private SnapshotDecoder() {
+        int threads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+        executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), new DecoderThreadFactory(),
+                new RejectedExecutionHandler() {
+                    @Override
+                    public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+                        callerRuns.incrementAndGet();
+                        if (!pool.isShutdown()) {
+                            task.run();
+                        }
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Get the shared decoder
+     * @return SnapshotDecoder instance
+     */
+    public static synchronized SnapshotDecoder getInstance() {
+        if (instance == null) {
+            instance = new SnapshotDecoder();
+        }
+        return instance;
+    }
+
+    /**
+     * Decode a snapshot with a custom transform
+     * @param path Path name used for metrics
+     * @param snapshot The snapshot to decode
+     * @param transform Runs on a worker thread
+     * @param callback Receives the result on the main thread
+     */
+    public <R> void decode(String path, DataSnapshot snapshot, Transform<R> transform,
+                           Callback<R> callback) {
+        decode(path, null, snapshot, transform, callback);
+    }
+
+    /**
+     * Decode a snapshot, merged with a queued decode of the same key
+     * @param path Path name used for metrics
+     * @param key Names what the snapshot is of, e.g. its query; decodes of one
+     *            key must have the same result type. Null never merges.
+     * @param snapshot The snapshot to decode
+     * @param transform Runs on a worker thread
+     * @param callback Receives the result on the main thread
+     */
+    @SuppressWarnings("unchecked")
+    public <R> void decode(String path, Object key, DataSnapshot snapshot,
+                           Transform<R> transform, Callback<R> callback) {
+        DecodeTask<R> task;
+        synchronized (queued) {
+            if (key != null) {
+                DecodeTask<R> pending = (DecodeTask<R>) queued.get(key);
+                if (pending != null) {
+                    // The newer snapshot supersedes the queued one
+                    pending.snapshot = snapshot;
+                    pending.transform = transform;
+                    pending.callbacks.add(callback);
+                    merged.incrementAndGet();
+                    return;
+                }
+            }
+            task = new DecodeTask<>(path, key, snapshot, transform, callback);
+            if (key != null) {
+                queued.put(key, task);
+            }
+        }
+        executor.execute(task);
+    }
+
+    /**
+     * Decode every child of a snapshot into an immutable list of models
+     * @param path Path name used for metrics
+     * @param key Merges queued decodes, as in decode; null never merges
+     * @param snapshot The snapshot whose children are decoded
+     * @param decoder Decodes one child; null results are skipped
+     * @param callback Receives the list on the main thread
+     */
+    public <T> void decodeList(String path, Object key, DataSnapshot snapshot,
+                               ChildSync.Decoder<T> decoder, Callback<List<T>> callback) {
+        decode(path, key, snapshot, new Transform<List<T>>() {
+            @Override
+            public List<T> apply(@NonNull DataSnapshot source) {
+                List<T> items = new ArrayList<>((int) source.getChildrenCount());
+                for (DataSnapshot child : source.getChildren()) {
+                    T item = decoder.decode(child);
+                    if (item != null) {
+                        items.add(item);
+                    }
+                }
+                return Collections.unmodifiableList(items);
+            }
+        }, callback);
+    }
+
+    /**
+     * Get how many decodes were merged into a queued one
+     * @return Merge count
+     */
+    public long getMergedCount() {
+        return merged.get();
+    }
+
+    /**
+     * Get how many decodes ran on the caller because the queue was full
+     * @return Caller run count
+     */
+    public long getCallerRunCount() {
+        return callerRuns.get();
+    }
+
+    /**
+     * Estimate the JSON size of a snapshot by walking its children. Meant
+     * for worker threads, after the snapshot has been decoded.
+     * @param snapshot The snapshot
+     * @return Approximate size in bytes
+     */
+    public static long estimatePayload(@NonNull DataSnapshot snapshot) {
+        if (!snapshot.hasChildren()) {
+            return PayloadEstimator.estimate(snapshot.getValue());
+        }
+        long size = 2;
+        for (DataSnapshot child : snapshot.getChildren()) {
+            size += PayloadEstimator.entrySize(child.getKey(), estimatePayload(child));
+        }
+        return size;
+    }
+
+    /**
+     * Create an executor that runs its tasks one at a time, in order,
+     * on the shared pool
+     * @return Serial executor
+     */
+    public Executor newSerialExecutor() {
+        return new SerialExecutor(executor);
+    }
+
+    /**
+     * Get the decode time metrics
+     * @return DecodeMetrics instance
+     */
+    public DecodeMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * One queued decode and every callback waiting for it
+     */
+    private final class DecodeTask<R> implements Runnable {
+        private final String path;
+        private final Object key;
+        private final List<Callback<R>> callbacks = new ArrayList<>();
+        private DataSnapshot snapshot;
+        private Transform<R> transform;
+
+        DecodeTask(String path, Object key, DataSnapshot snapshot, Transform<R> transform,
+                   Callback<R> callback) {
+            this.path = path;
+            this.key = key;
+            this.snapshot = snapshot;
+            this.transform = transform;
+            this.callbacks.add(callback);
+        }
+
+        @Override
+        public void run() {
+            DataSnapshot source;
+            Transform<R> decode;
+            List<Callback<R>> receivers;
+            synchronized (queued) {
+                // Started: later decodes of the key queue anew
+                if (key != null && queued.get(key) == this) {
+                    queued.remove(key);
+                }
+                source = snapshot;
+                decode = transform;
+                receivers = new ArrayList<>(callbacks);
+            }
+
+            long start = System.nanoTime();
+            R result = decode.apply(source);
+            long nanos = System.nanoTime() - start;
+            int children = (int) source.getChildrenCount();
+            metrics.record(path, nanos, children);
+
+            QueryMetrics queryMetrics = FirebaseHelper.getQueryMetrics();
+            queryMetrics.record(path, QueryMetrics.Metric.DECODE_MICROS, nanos / 1000);
+            queryMetrics.record(path, QueryMetrics.Metric.CHILD_COUNT, children);
+            queryMetrics.record(path, QueryMetrics.Metric.PAYLOAD_BYTES, estimatePayload(source));
+            mainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    for (Callback<R> callback : receivers) {
+                        callback.onDecoded(result);
+                    }
+                }
+            });
+        }
+    }
+
+    /**
+     * Runs tasks in submission order on a backing executor
+     */
+    private static class SerialExecutor implements Executor {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private final Executor backing;
+        private Runnable active;
+
+        SerialExecutor(Executor backing) {
+            this.backing = backing;
+        }
+
+        @Override
+        public synchronized void execute(@NonNull Runnable task) {
+            tasks.add(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        scheduleNext();
+                    }
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                backing.execute(active);
+            }
+        }
+    }
+
+    private static class DecoderThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "SnapshotDecoder-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
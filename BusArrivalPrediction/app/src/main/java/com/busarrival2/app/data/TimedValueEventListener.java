@@ -0,0 +1,50 @@
+package com.busarrival2.app.data;
+
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+
+import com.busarrival2.app.utils.FirebaseHelper;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseError;
+import com.google.firebase.database.ValueEventListener;
+
+/**
+ * TimedValueEventListener Class
+ * Wraps a ValueEventListener and records into QueryMetrics how long the
+ * first data took to arrive, counted from when the wrapper was created.
+ * Create it right where the listener is attached. Later updates of a
+ * persistent listener are passed on without being timed.
+ */
+public class TimedValueEventListener implements ValueEventListener {
+
+    private final String path;
+    private final ValueEventListener delegate;
+    private final long startedAt = SystemClock.elapsedRealtime();
+    private boolean received;
+
+    /**
+     * @param path Path name the read is recorded under
+     * @param delegate The listener that handles the data
+     */
+    public TimedValueEventListener(String path, ValueEventListener delegate) {
+        this.path = path;
+        this.delegate = delegate;
+    }
+
+    @Override
+    public void onDataChange(@NonNull DataSnapshot snapshot) {
+        if (!received) {
+            received = true;
+            FirebaseHelper.getQueryMetrics().record(path, QueryMetrics.Metric.FIRST_DATA_MILLIS,
+                    SystemClock.elapsedRealtime() - startedAt);
+        }
+        delegate.onDataChange(snapshot);
+    }
+
+    @Override
+    public void onCancelled(@NonNull DatabaseError error) {
+        FirebaseHelper.getQueryMetrics().recordError(path);
+        delegate.onCancelled(error);
+    }
+}
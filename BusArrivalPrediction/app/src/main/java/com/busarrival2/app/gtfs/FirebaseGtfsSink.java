@@ -0,0 +1,102 @@
+package com.busarrival2.app.gtfs;
+
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.ModelMappers;
+import com.busarrival2.app.utils.FirebaseHelper;
+import com.busarrival2.app.utils.WriteBatch;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * FirebaseGtfsSink Class
+ * Writes imported rows to Firebase through a WriteBatch per chunk and
+ * blocks in flush() until the chunk is acknowledged. Before a chunk of
+ * stops is written, only those stops are read back from the database, in
+ * parallel, so a stop that moved is taken out of its old geohash bucket
+ * without loading every stop. Must be used from a background thread.
+ */
+public class FirebaseGtfsSink implements GtfsImporter.Sink {
+
+    private WriteBatch batch = FirebaseHelper.newWriteBatch();
+    private final List<BusStop> pendingStops = new ArrayList<>();
+
+    @Override
+    public void writeRoute(BusRoute route) {
+        batch.putRoute(route);
+    }
+
+    @Override
+    public void writeStop(BusStop stop) {
+        // Written in flush(), once the stored stops are known
+        pendingStops.add(stop);
+    }
+
+    @Override
+    public void writeSchedule(BusSchedule schedule) {
+        batch.putSchedule(schedule);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        if (!pendingStops.isEmpty()) {
+            Map<String, BusStop> storedStops = loadStoredStops(pendingStops);
+            for (BusStop stop : pendingStops) {
+                // A stop listed twice replaces the copy written just before
+                batch.putStop(stop, storedStops.put(stop.getStopId(), stop));
+            }
+            pendingStops.clear();
+        }
+
+        WriteBatch chunk = batch;
+        batch = FirebaseHelper.newWriteBatch();
+        if (chunk.size() == 0) {
+            return;
+        }
+        await(chunk.commit(), "write GTFS chunk");
+    }
+
+    /**
+     * Read the stored version of each stop of a chunk, all reads in flight at once
+     * @return Stored stops by stop ID; new stops are missing
+     */
+    private static Map<String, BusStop> loadStoredStops(List<BusStop> chunk) throws IOException {
+        Map<String, Task<DataSnapshot>> reads = new LinkedHashMap<>();
+        for (BusStop stop : chunk) {
+            String stopId = stop.getStopId();
+            if (!reads.containsKey(stopId)) {
+                reads.put(stopId, FirebaseHelper.getStopReference(stopId).get());
+            }
+        }
+        Map<String, BusStop> stops = new HashMap<>();
+        for (Map.Entry<String, Task<DataSnapshot>> read : reads.entrySet()) {
+            DataSnapshot snapshot = await(read.getValue(), "read stored stop");
+            BusStop stop = ModelMappers.STOP.fromValue(snapshot.getValue());
+            if (stop != null) {
+                stops.put(read.getKey(), stop);
+            }
+        }
+        return stops;
+    }
+
+    private static <T> T await(Task<T> task, String step) throws IOException {
+        try {
+            return Tasks.await(task);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to " + step, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("GTFS import interrupted", e);
+        }
+    }
+}
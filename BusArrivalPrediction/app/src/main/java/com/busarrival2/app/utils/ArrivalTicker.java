@@ -0,0 +1,103 @@
+package com.busarrival2.app.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * ArrivalTicker Class
+ * One shared main-thread clock that fires on every minute boundary so
+ * countdowns change at the same moment as the device clock. Observers only
+ * receive ticks while their lifecycle is started, and the clock stops
+ * completely when no observer is started, so nothing runs in the background.
+ */
+public final class ArrivalTicker {
+
+    private static final long MINUTE_MILLIS = 60000;
+
+    private static ArrivalTicker instance;
+
+    /**
+     * Receives minute ticks on the main thread
+     */
+    public interface Listener {
+        void onMinuteTick(long nowMillis);
+    }
+
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> activeListeners = new ArrayList<>();
+    private final Runnable tick = new Runnable() {
+        @Override
+        public void run() {
+            long now = System.currentTimeMillis();
+            // Copy so a listener may stop observing from its callback
+            for (Listener listener : new ArrayList<>(activeListeners)) {
+                listener.onMinuteTick(now);
+            }
+            scheduleNext();
+        }
+    };
+
+    private ArrivalTicker() {
+    }
+
+    /**
+     * Get the shared ticker
+     * @return ArrivalTicker instance
+     */
+    public static synchronized ArrivalTicker getInstance() {
+        if (instance == null) {
+            instance = new ArrivalTicker();
+        }
+        return instance;
+    }
+
+    /**
+     * Receive minute ticks while the owner is started. Each time the owner
+     * starts again the listener gets one tick straight away, because the
+     * countdowns it shows went stale while it was in the background.
+     * Must be called on the main thread.
+     * @param owner Lifecycle that scopes the listener
+     * @param listener Receives the ticks
+     */
+    public void observe(@NonNull LifecycleOwner owner, @NonNull Listener listener) {
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            return;
+        }
+        owner.getLifecycle().addObserver(new DefaultLifecycleObserver() {
+            @Override
+            public void onStart(@NonNull LifecycleOwner owner) {
+                activeListeners.add(listener);
+                listener.onMinuteTick(System.currentTimeMillis());
+                if (activeListeners.size() == 1) {
+                    scheduleNext();
+                }
+            }
+
+            @Override
+            public void onStop(@NonNull LifecycleOwner owner) {
+                activeListeners.remove(listener);
+                if (activeListeners.isEmpty()) {
+                    mainHandler.removeCallbacks(tick);
+                }
+            }
+        });
+    }
+
+    private void scheduleNext() {
+        mainHandler.removeCallbacks(tick);
+        if (activeListeners.isEmpty()) {
+            return;
+        }
+        long delay = MINUTE_MILLIS - System.currentTimeMillis() % MINUTE_MILLIS;
+        mainHandler.postAtTime(tick, SystemClock.uptimeMillis() + delay);
+    }
+}
@@ -1,27 +1,63 @@
 package com.busarrival2.app.utils;
 
-import com.busarrival2.app.models.BusRoute;
+import android.content.Context;
+import android.os.SystemClock;
+
+import com.busarrival2.app.data.FirebaseTransitDataSource;
+import com.busarrival2.app.data.Geohash;
+import com.busarrival2.app.data.QueryMetrics;
+import com.busarrival2.app.data.ScheduleRepository;
+import com.busarrival2.app.data.TransitDataSource;
+import com.busarrival2.app.gtfs.NetworkGenerator;
 import com.busarrival2.app.models.BusSchedule;
 import com.busarrival2.app.models.BusStop;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.database.DatabaseReference;
 import com.google.firebase.database.FirebaseDatabase;
 
-import java.util.Arrays;
-
 /**
  * FirebaseHelper Class
  * Provides centralized access to Firebase services
  */
 public class FirebaseHelper {
 
+    // Database paths
+    public static final String PATH_USERS = "user";
+    public static final String PATH_ROUTES = "busRoutes";
+    public static final String PATH_STOPS = "busStops";
+    public static final String PATH_SCHEDULES = "busSchedules";
+    public static final String PATH_STOPS_BY_GEOHASH = "busStopsByGeohash";
+    public static final String PATH_POSITIONS = "busPositions";
+    public static final String PATH_STOP_ROUTES = "busStopRoutes";
+    public static final String PATH_SCHEDULES_MIGRATED = "meta/schedulesMigrated";
+
+    // Seed of the generated sample network
+    private static final long SAMPLE_DATA_SEED = 1;
+
     // Firebase Authentication instance
     private static FirebaseAuth mAuth;
     
     // Firebase Database instance
     private static FirebaseDatabase mDatabase;
 
+    // Shared listeners for database paths
+    private static ListenerRegistry mListenerRegistry;
+
+    // Cached schedules, shared by every screen
+    private static ScheduleRepository mScheduleRepository;
+
+    // Where screens read and write transit data
+    private static TransitDataSource mDataSource;
+
+    // Timings of every read and write; created up front because decoder
+    // threads record into it
+    private static final QueryMetrics mQueryMetrics = new QueryMetrics();
+
+    // Sends the query metrics to Firebase Analytics
+    private static QueryMetricsReporter mQueryMetricsReporter;
+
     /**
      * Get Firebase Authentication instance
      * @return FirebaseAuth instance
@@ -44,6 +80,95 @@ public class FirebaseHelper {
         return mDatabase;
     }
 
+    /**
+     * Get the registry that shares one live listener per database path
+     * @return ListenerRegistry instance
+     */
+    public static ListenerRegistry getListenerRegistry() {
+        if (mListenerRegistry == null) {
+            mListenerRegistry = new ListenerRegistry();
+        }
+        return mListenerRegistry;
+    }
+
+    /**
+     * Get the repository that caches schedules per route
+     * @return ScheduleRepository instance
+     */
+    public static ScheduleRepository getScheduleRepository() {
+        if (mScheduleRepository == null) {
+            mScheduleRepository = new ScheduleRepository(getSchedulesReference(),
+                    getDatabase().getReference(PATH_STOP_ROUTES),
+                    getSchedulesMigratedReference());
+        }
+        return mScheduleRepository;
+    }
+
+    /**
+     * Get the source screens read routes, stops, schedules and users from
+     * @return The source set with setDataSource, or the Firebase one
+     */
+    public static TransitDataSource getDataSource() {
+        if (mDataSource == null) {
+            mDataSource = new FirebaseTransitDataSource();
+        }
+        return mDataSource;
+    }
+
+    /**
+     * Replace the data source, e.g. with an InMemoryTransitDataSource for
+     * offline latency and load runs. Live listeners still use Firebase.
+     * @param dataSource The source to use, or null for the Firebase one
+     */
+    public static void setDataSource(TransitDataSource dataSource) {
+        mDataSource = dataSource;
+    }
+
+    /**
+     * Get the per-path timings of database reads and writes
+     * @return QueryMetrics instance
+     */
+    public static QueryMetrics getQueryMetrics() {
+        return mQueryMetrics;
+    }
+
+    /**
+     * Get the reporter that sends query metrics to Firebase Analytics
+     * @param context Any context; the application context is kept
+     * @return QueryMetricsReporter instance
+     */
+    public static QueryMetricsReporter getQueryMetricsReporter(Context context) {
+        if (mQueryMetricsReporter == null) {
+            mQueryMetricsReporter = new QueryMetricsReporter(context, mQueryMetrics);
+        }
+        return mQueryMetricsReporter;
+    }
+
+    /**
+     * Record the size of a write and, once the server acknowledges it,
+     * how long that took
+     * @param path Path name the write is recorded under
+     * @param task The pending write
+     * @param paths Number of database paths written
+     * @param payloadBytes Approximate size of the written values
+     * @return The same task
+     */
+    public static Task<Void> timeWrite(String path, Task<Void> task, int paths,
+                                       long payloadBytes) {
+        long startedAt = SystemClock.elapsedRealtime();
+        mQueryMetrics.record(path, QueryMetrics.Metric.CHILD_COUNT, paths);
+        mQueryMetrics.record(path, QueryMetrics.Metric.PAYLOAD_BYTES, payloadBytes);
+        task.addOnCompleteListener(done -> {
+            if (done.isSuccessful()) {
+                mQueryMetrics.record(path, QueryMetrics.Metric.WRITE_ACK_MILLIS,
+                        SystemClock.elapsedRealtime() - startedAt);
+            } else {
+                mQueryMetrics.recordError(path);
+            }
+        });
+        return task;
+    }
+
     /**
      * Get current logged in user
      * @return FirebaseUser or null if not logged in
@@ -74,7 +199,7 @@ public class FirebaseHelper {
      * @return DatabaseReference to user
      */
     public static DatabaseReference getUsersReference() {
-        return getDatabase().getReference("user");
+        return getDatabase().getReference(PATH_USERS);
     }
 
     /**
@@ -82,7 +207,7 @@ public class FirebaseHelper {
      * @return DatabaseReference to busRoutes
      */
     public static DatabaseReference getRoutesReference() {
-        return getDatabase().getReference("busRoutes");
+        return getDatabase().getReference(PATH_ROUTES);
     }
 
     /**
@@ -90,7 +215,7 @@ public class FirebaseHelper {
      * @return DatabaseReference to busStops
      */
     public static DatabaseReference getStopsReference() {
-        return getDatabase().getReference("busStops");
+        return getDatabase().getReference(PATH_STOPS);
     }
 
     /**
@@ -98,7 +223,84 @@ public class FirebaseHelper {
      * @return DatabaseReference to busSchedules
      */
     public static DatabaseReference getSchedulesReference() {
-        return getDatabase().getReference("busSchedules");
+        return getDatabase().getReference(PATH_SCHEDULES);
+    }
+
+    /**
+     * Get reference to the schedules of one route, grouped by stop
+     * @param routeId The route ID
+     * @return DatabaseReference to busSchedules/{routeId}
+     */
+    public static DatabaseReference getRouteSchedulesReference(String routeId) {
+        return getSchedulesReference().child(routeId);
+    }
+
+    /**
+     * Get reference to the schedules of one route at one stop
+     * @param routeId The route ID
+     * @param stopId The stop ID
+     * @return DatabaseReference to busSchedules/{routeId}/{stopId}
+     */
+    public static DatabaseReference getStopSchedulesReference(String routeId, String stopId) {
+        return getRouteSchedulesReference(routeId).child(stopId);
+    }
+
+    /**
+     * Get the flag ScheduleMigrator sets once no schedule is left in the old
+     * flat busSchedules/{scheduleId} layout; readers stop querying it then
+     * @return DatabaseReference to meta/schedulesMigrated, true when done
+     */
+    public static DatabaseReference getSchedulesMigratedReference() {
+        return getDatabase().getReference(PATH_SCHEDULES_MIGRATED);
+    }
+
+    /**
+     * Get reference to the routes that serve a stop
+     * @param stopId The stop ID
+     * @return DatabaseReference to busStopRoutes/{stopId}, a set of route IDs
+     */
+    public static DatabaseReference getStopRoutesReference(String stopId) {
+        return getDatabase().getReference(PATH_STOP_ROUTES).child(stopId);
+    }
+
+    /**
+     * Get the database path a schedule is stored under
+     * @param schedule The schedule
+     * @return busSchedules/{routeId}/{stopId}/{scheduleId}
+     */
+    public static String getSchedulePath(BusSchedule schedule) {
+        return PATH_SCHEDULES + "/" + schedule.getRouteId() + "/" + schedule.getStopId()
+                + "/" + schedule.getScheduleId();
+    }
+
+    /**
+     * Get reference to the live vehicle feed, one latest ping per vehicle
+     * @return DatabaseReference to busPositions
+     */
+    public static DatabaseReference getPositionsReference() {
+        return getDatabase().getReference(PATH_POSITIONS);
+    }
+
+    /**
+     * Get reference to the geohash bucket of stops inside one cell
+     * @param cell Geohash cell of Geohash.STOP_BUCKET_PRECISION characters
+     * @return DatabaseReference to busStopsByGeohash/{cell}
+     */
+    public static DatabaseReference getStopsByGeohashReference(String cell) {
+        return getDatabase().getReference(PATH_STOPS_BY_GEOHASH).child(cell);
+    }
+
+    /**
+     * Get the geohash bucket a stop is stored under
+     * @param stop The stop
+     * @return Geohash cell, or null if the stop has no location
+     */
+    public static String getGeohashCell(BusStop stop) {
+        if (stop.getLatitude() == 0.0 && stop.getLongitude() == 0.0) {
+            return null;
+        }
+        return Geohash.encode(stop.getLatitude(), stop.getLongitude(),
+                Geohash.STOP_BUCKET_PRECISION);
     }
 
     /**
@@ -130,11 +332,22 @@ public class FirebaseHelper {
 
     /**
      * Get reference to specific schedule in database
+     * @param routeId The route ID
+     * @param stopId The stop ID
      * @param scheduleId The schedule ID
      * @return DatabaseReference to specific schedule
      */
-    public static DatabaseReference getScheduleReference(String scheduleId) {
-        return getSchedulesReference().child(scheduleId);
+    public static DatabaseReference getScheduleReference(String routeId, String stopId,
+                                                         String scheduleId) {
+        return getStopSchedulesReference(routeId, stopId).child(scheduleId);
+    }
+
+    /**
+     * Start a batch of writes that is committed as one multi-path update
+     * @return New WriteBatch
+     */
+    public static WriteBatch newWriteBatch() {
+        return new WriteBatch(getDatabase().getReference());
     }
 
     /**
@@ -145,83 +358,14 @@ public class FirebaseHelper {
     }
 
     /**
-     * Create sample data in Firebase for testing
-     * This should be called once when database is empty
-     */
-    public static void createSampleData() {
-        // Create sample routes
-        // Constructor: routeId, routeNumber, routeName, startPoint, endPoint, active
-        BusRoute route1 = new BusRoute("R001", "Route 1", "City Center - Airport", "City Center", "Airport", true);
-        BusRoute route2 = new BusRoute("R002", "Route 2", "University - Mall", "University", "Mall", true);
-        BusRoute route3 = new BusRoute("R003", "Route 3", "Station - Beach", "Station", "Beach", true);
-
-        getRouteReference("R001").setValue(route1);
-        getRouteReference("R002").setValue(route2);
-        getRouteReference("R003").setValue(route3);
-
-        // Create sample stops for Route 1
-        // Constructor: stopId, stopName, latitude, longitude, routeId
-        BusStop stop1 = new BusStop("S001", "City Center Terminal", 25.2048, 55.2708, "R001");
-        BusStop stop2 = new BusStop("S002", "Mall Station", 25.2138, 55.2789, "R001");
-        BusStop stop3 = new BusStop("S003", "Airport Terminal", 25.2528, 55.3644, "R001");
-
-        getStopReference("S001").setValue(stop1);
-        getStopReference("S002").setValue(stop2);
-        getStopReference("S003").setValue(stop3);
-
-        // Create sample stops for Route 2
-        BusStop stop4 = new BusStop("S004", "University Gate", 25.1972, 55.2744, "R002");
-        BusStop stop5 = new BusStop("S005", "Central Park", 25.2050, 55.2850, "R002");
-        BusStop stop6 = new BusStop("S006", "Shopping Mall", 25.2100, 55.2900, "R002");
-
-        getStopReference("S004").setValue(stop4);
-        getStopReference("S005").setValue(stop5);
-        getStopReference("S006").setValue(stop6);
-
-        // Create sample stops for Route 3
-        BusStop stop7 = new BusStop("S007", "Train Station", 25.1900, 55.2600, "R003");
-        BusStop stop8 = new BusStop("S008", "Marina Walk", 25.0800, 55.1400, "R003");
-        BusStop stop9 = new BusStop("S009", "Beach Resort", 25.0700, 55.1300, "R003");
-
-        getStopReference("S007").setValue(stop7);
-        getStopReference("S008").setValue(stop8);
-        getStopReference("S009").setValue(stop9);
-
-        // Create sample schedules for Route 1
-        // Constructor: scheduleId, routeId, stopId, arrivalTime, departureTime, frequency, daysOfWeek
-        BusSchedule schedule1 = new BusSchedule("SCH001", "R001", "S001", "08:00", "08:05", 30, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-        BusSchedule schedule2 = new BusSchedule("SCH002", "R001", "S002", "08:15", "08:20", 30, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-        BusSchedule schedule3 = new BusSchedule("SCH003", "R001", "S003", "08:30", "08:35", 30, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-
-        getScheduleReference("SCH001").setValue(schedule1);
-        getScheduleReference("SCH002").setValue(schedule2);
-        getScheduleReference("SCH003").setValue(schedule3);
-
-        // Create sample schedules for Route 2
-        BusSchedule schedule4 = new BusSchedule("SCH004", "R002", "S004", "09:00", "09:05", 20, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-        BusSchedule schedule5 = new BusSchedule("SCH005", "R002", "S005", "09:10", "09:15", 20, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-        BusSchedule schedule6 = new BusSchedule("SCH006", "R002", "S006", "09:20", "09:25", 20, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-
-        getScheduleReference("SCH004").setValue(schedule4);
-        getScheduleReference("SCH005").setValue(schedule5);
-        getScheduleReference("SCH006").setValue(schedule6);
-
-        // Create sample schedules for Route 3
-        BusSchedule schedule7 = new BusSchedule("SCH007", "R003", "S007", "10:00", "10:05", 45, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-        BusSchedule schedule8 = new BusSchedule("SCH008", "R003", "S008", "10:30", "10:35", 45, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-        BusSchedule schedule9 = new BusSchedule("SCH009", "R003", "S009", "10:45", "10:50", 45, 
-                Arrays.asList("Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"));
-
-        getScheduleReference("SCH007").setValue(schedule7);
-        getScheduleReference("SCH008").setValue(schedule8);
-        getScheduleReference("SCH009").setValue(schedule9);
+     * Create sample data for testing: a small generated network around
+     * the default city centre. The same seed always writes the same keys,
+     * so running it again overwrites instead of duplicating.
+     * @param callback Told when the whole network is written
+     */
+    public static void createSampleData(TransitDataSource.Callback<Void> callback) {
+        TransitDataSource.Batch batch = getDataSource().newBatch();
+        new NetworkGenerator(NetworkGenerator.Size.SAMPLE, SAMPLE_DATA_SEED).generate(batch);
+        batch.commit(callback);
     }
 }
@@ -0,0 +1,439 @@
+package com.busarrival2.app.utils;
+
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import android.util.Printer;
+import android.view.FrameMetrics;
+import android.view.Window;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.LifecycleOwner;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * JankMonitor Class
+ * Finds what makes the UI thread stall. Named steps wrap the loading and
+ * binding work of a screen; each step is a systrace section and its time
+ * on the main thread is remembered. Slow frames reported by FrameMetrics,
+ * and in debug builds every main-thread message over the budget, are
+ * tagged with the step that took most of their time. The worst stalls of
+ * the session are kept for the report, logged as "JankMonitor: ..." lines.
+ * Steps must begin and end on the main thread.
+ */
+public final class JankMonitor {
+
+    private static final String TAG = "JankMonitor";
+
+    // Steps
+    public static final String LOAD_ROUTES = "loadRoutes";
+    public static final String APPLY_ROUTE_CHANGES = "applyRouteChanges";
+    public static final String UPDATE_ROUTE_SPINNER = "updateRouteSpinner";
+    public static final String LOAD_STOPS = "loadStops";
+    public static final String APPLY_STOP_CHANGES = "applyStopChanges";
+    public static final String UPDATE_STOP_SPINNER = "updateStopSpinner";
+    public static final String DISPLAY_ARRIVALS = "displayArrivals";
+    public static final String DISPLAY_STOP_BOARD = "displayStopBoard";
+
+    // Tag of a stall no step overlapped
+    public static final String UNTRACKED = "untracked";
+
+    // A main-thread message longer than this is a stall (debug builds)
+    private static final long MAIN_THREAD_BUDGET_MILLIS = 32;
+
+    // Frames longer than this count as frozen
+    private static final long FROZEN_FRAME_MILLIS = 700;
+
+    // Stalls kept for the report
+    private static final int WORST_STALL_COUNT = 10;
+
+    // Step segments remembered for tagging frames, which arrive late
+    private static final int SEGMENT_CAPACITY = 256;
+
+    /**
+     * What kind of stall was seen
+     */
+    public enum Kind {
+        SLOW_FRAME,
+        FROZEN_FRAME,
+        MAIN_THREAD
+    }
+
+    /**
+     * Stall Class
+     * One slow frame or long main-thread message
+     */
+    public static final class Stall {
+        private final Kind kind;
+        private final String step;
+        private final long durationMillis;
+        private final long atMillis;
+        private final String detail;
+
+        Stall(Kind kind, String step, long durationMillis, long atMillis, String detail) {
+            this.kind = kind;
+            this.step = step;
+            this.durationMillis = durationMillis;
+            this.atMillis = atMillis;
+            this.detail = detail;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        /**
+         * Get the step that took most of the stall
+         * @return Step name, or UNTRACKED
+         */
+        public String getStep() {
+            return step;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * Get when the stall ended
+         * @return Milliseconds since the monitor was installed
+         */
+        public long getAtMillis() {
+            return atMillis;
+        }
+
+        /**
+         * Get the screen or message the stall happened in
+         * @return Detail text
+         */
+        public String getDetail() {
+            return detail;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s %dms step=%s at=%dms %s",
+                    kind, durationMillis, step, atMillis, detail);
+        }
+    }
+
+    /**
+     * Time a step spent on the main thread without a nested step running
+     */
+    private static final class Segment {
+        String step;
+        long startNanos;
+        long endNanos;
+    }
+
+    /**
+     * A step that has begun and not yet ended
+     */
+    private static final class OpenStep {
+        final String step;
+        long segmentStartNanos;
+
+        OpenStep(String step, long segmentStartNanos) {
+            this.step = step;
+            this.segmentStartNanos = segmentStartNanos;
+        }
+    }
+
+    private static final long installedAt = SystemClock.elapsedRealtime();
+
+    // Main thread state
+    private static final ArrayDeque<OpenStep> openSteps = new ArrayDeque<>();
+    private static final Map<String, Long> messageStepNanos = new HashMap<>();
+    private static long messageStartNanos;
+    private static boolean installed;
+
+    // Ring of recent segments, guarded by itself
+    private static final Segment[] segments = new Segment[SEGMENT_CAPACITY];
+    private static int segmentCount;
+
+    // Worst stalls first out, guarded by itself
+    private static final PriorityQueue<Stall> worstStalls = new PriorityQueue<>(
+            WORST_STALL_COUNT + 1, (a, b) -> Long.compare(a.durationMillis, b.durationMillis));
+    private static long frameCount;
+    private static long slowFrameCount;
+    private static long frozenFrameCount;
+    private static long mainThreadStallCount;
+
+    private static HandlerThread frameThread;
+
+    private JankMonitor() {
+    }
+
+    /**
+     * Start watching main-thread messages against the budget. Only debug
+     * builds are watched, since the looper formats a string per message
+     * while a printer is set. Safe to call more than once.
+     * @param context Any context
+     */
+    public static void install(Context context) {
+        if (installed) {
+            return;
+        }
+        installed = true;
+        if ((context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return;
+        }
+        Looper.getMainLooper().setMessageLogging(new Printer() {
+            @Override
+            public void println(String line) {
+                if (line.startsWith(">>>>>")) {
+                    messageStartNanos = System.nanoTime();
+                    messageStepNanos.clear();
+                } else if (line.startsWith("<<<<<") && messageStartNanos != 0) {
+                    onMessageFinished(line, System.nanoTime());
+                }
+            }
+        });
+    }
+
+    /**
+     * Record the slow frames of an activity until it is destroyed, and
+     * install the monitor if the splash screen did not
+     * @param activity The activity to watch
+     */
+    public static void track(@NonNull AppCompatActivity activity) {
+        install(activity);
+        Window window = activity.getWindow();
+        String screen = activity.getClass().getSimpleName();
+        float refreshRate = activity.getWindowManager().getDefaultDisplay().getRefreshRate();
+        long budgetNanos = (long) (1_000_000_000L / (refreshRate > 0 ? refreshRate : 60));
+
+        Window.OnFrameMetricsAvailableListener listener =
+                new Window.OnFrameMetricsAvailableListener() {
+                    @Override
+                    public void onFrameMetricsAvailable(Window frameWindow, FrameMetrics metrics,
+                                                        int dropCount) {
+                        onFrame(screen, metrics, budgetNanos);
+                    }
+                };
+        window.addOnFrameMetricsAvailableListener(listener, getFrameHandler());
+        activity.getLifecycle().addObserver(new DefaultLifecycleObserver() {
+            @Override
+            public void onDestroy(@NonNull LifecycleOwner owner) {
+                owner.getLifecycle().removeObserver(this);
+                window.removeOnFrameMetricsAvailableListener(listener);
+            }
+        });
+    }
+
+    /**
+     * Begin a step. Every call must be matched by endStep, in a finally
+     * block, on the main thread.
+     * @param step Step name, also used as the trace section name
+     */
+    public static void beginStep(String step) {
+        Trace.beginSection(step);
+        long now = System.nanoTime();
+        OpenStep parent = openSteps.peek();
+        if (parent != null) {
+            closeSegment(parent, now);
+        }
+        openSteps.push(new OpenStep(step, now));
+    }
+
+    /**
+     * End the innermost step
+     */
+    public static void endStep() {
+        long now = System.nanoTime();
+        OpenStep step = openSteps.poll();
+        if (step != null) {
+            closeSegment(step, now);
+            OpenStep parent = openSteps.peek();
+            if (parent != null) {
+                parent.segmentStartNanos = now;
+            }
+        }
+        Trace.endSection();
+    }
+
+    /**
+     * Get the worst stalls of the session
+     * @return Stalls, longest first
+     */
+    public static List<Stall> getWorstStalls() {
+        List<Stall> stalls;
+        synchronized (worstStalls) {
+            stalls = new ArrayList<>(worstStalls);
+        }
+        Collections.sort(stalls, (a, b) -> Long.compare(b.durationMillis, a.durationMillis));
+        return stalls;
+    }
+
+    /**
+     * Get the session report: frame counts, then the worst stalls
+     * @return Report text, one line per entry
+     */
+    public static String getReport() {
+        StringBuilder report = new StringBuilder();
+        synchronized (worstStalls) {
+            report.append(String.format(Locale.US,
+                    "frames=%d slow=%d frozen=%d mainThreadStalls=%d",
+                    frameCount, slowFrameCount, frozenFrameCount, mainThreadStallCount));
+        }
+        for (Stall stall : getWorstStalls()) {
+            report.append('\n').append(stall);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Log the session report, e.g. when the main screen stops
+     */
+    public static void logReport() {
+        for (String line : getReport().split("\n")) {
+            Log.i(TAG, line);
+        }
+    }
+
+    private static void closeSegment(OpenStep step, long now) {
+        if (messageStartNanos != 0) {
+            Long total = messageStepNanos.get(step.step);
+            messageStepNanos.put(step.step,
+                    (total != null ? total : 0) + now - step.segmentStartNanos);
+        }
+        synchronized (segments) {
+            int index = segmentCount++ % SEGMENT_CAPACITY;
+            Segment segment = segments[index];
+            if (segment == null) {
+                segment = new Segment();
+                segments[index] = segment;
+            }
+            segment.step = step.step;
+            segment.startNanos = step.segmentStartNanos;
+            segment.endNanos = now;
+        }
+    }
+
+    /**
+     * Check a finished main-thread message against the budget
+     */
+    private static void onMessageFinished(String line, long now) {
+        // A step still open gets the time up to now
+        OpenStep innermost = openSteps.peek();
+        if (innermost != null) {
+            closeSegment(innermost, now);
+            innermost.segmentStartNanos = now;
+        }
+        long durationMillis = (now - messageStartNanos) / 1_000_000;
+        messageStartNanos = 0;
+        if (durationMillis <= MAIN_THREAD_BUDGET_MILLIS) {
+            return;
+        }
+
+        String step = UNTRACKED;
+        long longest = 0;
+        for (Map.Entry<String, Long> entry : messageStepNanos.entrySet()) {
+            if (entry.getValue() > longest) {
+                longest = entry.getValue();
+                step = entry.getKey();
+            }
+        }
+        // "<<<<< Finished to Handler (...) {...} callback"
+        String detail = line.length() > 15 ? line.substring(15) : line;
+        synchronized (worstStalls) {
+            mainThreadStallCount++;
+        }
+        addStall(new Stall(Kind.MAIN_THREAD, step, durationMillis,
+                SystemClock.elapsedRealtime() - installedAt, detail));
+    }
+
+    /**
+     * Count a frame and keep it if it missed its budget
+     */
+    private static void onFrame(String screen, FrameMetrics metrics, long budgetNanos) {
+        long total = metrics.getMetric(FrameMetrics.TOTAL_DURATION);
+        boolean slow = total > budgetNanos;
+        boolean frozen = total > FROZEN_FRAME_MILLIS * 1_000_000;
+        synchronized (worstStalls) {
+            frameCount++;
+            if (slow) {
+                slowFrameCount++;
+            }
+            if (frozen) {
+                frozenFrameCount++;
+            }
+        }
+        if (!slow) {
+            return;
+        }
+
+        long start;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            start = metrics.getMetric(FrameMetrics.INTENDED_VSYNC_TIMESTAMP);
+        } else {
+            // Reported just after the frame, so count back from now
+            start = System.nanoTime() - total;
+        }
+        addStall(new Stall(frozen ? Kind.FROZEN_FRAME : Kind.SLOW_FRAME,
+                stepDuring(start, start + total), total / 1_000_000,
+                SystemClock.elapsedRealtime() - installedAt, screen));
+    }
+
+    /**
+     * Find the step with the most main-thread time inside a time window
+     */
+    private static String stepDuring(long startNanos, long endNanos) {
+        Map<String, Long> overlap = new HashMap<>();
+        synchronized (segments) {
+            int count = Math.min(segmentCount, SEGMENT_CAPACITY);
+            for (int i = 0; i < count; i++) {
+                Segment segment = segments[i];
+                long overlapNanos = Math.min(endNanos, segment.endNanos)
+                        - Math.max(startNanos, segment.startNanos);
+                if (overlapNanos > 0) {
+                    Long total = overlap.get(segment.step);
+                    overlap.put(segment.step, (total != null ? total : 0) + overlapNanos);
+                }
+            }
+        }
+
+        String step = UNTRACKED;
+        long longest = 0;
+        for (Map.Entry<String, Long> entry : overlap.entrySet()) {
+            if (entry.getValue() > longest) {
+                longest = entry.getValue();
+                step = entry.getKey();
+            }
+        }
+        return step;
+    }
+
+    private static void addStall(Stall stall) {
+        synchronized (worstStalls) {
+            worstStalls.add(stall);
+            if (worstStalls.size() > WORST_STALL_COUNT) {
+                worstStalls.poll();
+            }
+        }
+    }
+
+    private static synchronized Handler getFrameHandler() {
+        if (frameThread == null) {
+            frameThread = new HandlerThread(TAG);
+            frameThread.start();
+        }
+        return new Handler(frameThread.getLooper());
+    }
+}
@@ -0,0 +1,185 @@
+package com.busarrival2.app.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.lifecycle.DefaultLifecycleObserver;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.busarrival2.app.data.ChildSync;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ListenerRegistry Class
+ * Shares one live Firebase listener per database path between all screens
+ * that observe it. Subscriptions are reference-counted and released
+ * automatically when the owning lifecycle is destroyed.
+ */
+public class ListenerRegistry {
+
+    // Keep an unused listener alive briefly so a screen rotation does not
+    // drop and re-download the whole path
+    private static final long LINGER_MILLIS = 5000;
+
+    private final Map<String, Entry<?>> entries = new HashMap<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Subscription Class
+     * Handle for one observer of a shared path
+     */
+    public class Subscription {
+        private final String key;
+        private final ChildSync.Listener<?> listener;
+        private boolean released;
+
+        private Subscription(String key, ChildSync.Listener<?> listener) {
+            this.key = key;
+            this.listener = listener;
+        }
+
+        /**
+         * Stop receiving changes. Safe to call more than once.
+         */
+        public void release() {
+            if (!released) {
+                released = true;
+                ListenerRegistry.this.release(key, listener);
+            }
+        }
+    }
+
+    private static class Entry<T> {
+        final ChildSync<T> sync;
+        int refCount;
+        Runnable pendingStop;
+
+        Entry(ChildSync<T> sync) {
+            this.sync = sync;
+        }
+    }
+
+    /**
+     * Observe the children of a path for as long as the owner is alive.
+     * The listener receives the items already loaded straight away and
+     * every change after that.
+     * @param owner Lifecycle that scopes the subscription
+     * @param reference The database path to observe
+     * @param decoder Decoder used if this is the first observer of the path
+     * @param listener Receives batched changes on the main thread
+     * @return Subscription handle
+     */
+    public <T> Subscription observeChildren(@NonNull LifecycleOwner owner,
+                                            @NonNull DatabaseReference reference,
+                                            @NonNull ChildSync.Decoder<T> decoder,
+                                            @NonNull ChildSync.Listener<T> listener) {
+        Subscription subscription = observeChildren(reference, decoder, listener);
+
+        if (owner.getLifecycle().getCurrentState() == Lifecycle.State.DESTROYED) {
+            subscription.release();
+            return subscription;
+        }
+        owner.getLifecycle().addObserver(new DefaultLifecycleObserver() {
+            @Override
+            public void onDestroy(@NonNull LifecycleOwner lifecycleOwner) {
+                lifecycleOwner.getLifecycle().removeObserver(this);
+                subscription.release();
+            }
+        });
+        return subscription;
+    }
+
+    /**
+     * Observe the children of a path until the subscription is released
+     * @param reference The database path to observe
+     * @param decoder Decoder used if this is the first observer of the path
+     * @param listener Receives batched changes on the main thread
+     * @return Subscription handle
+     */
+    @SuppressWarnings("unchecked")
+    public <T> Subscription observeChildren(@NonNull DatabaseReference reference,
+                                            @NonNull ChildSync.Decoder<T> decoder,
+                                            @NonNull ChildSync.Listener<T> listener) {
+        String key = reference.toString();
+        Entry<T> entry = (Entry<T>) entries.get(key);
+        if (entry == null) {
+            entry = new Entry<>(new ChildSync<>(reference, decoder));
+            entries.put(key, entry);
+        }
+        if (entry.pendingStop != null) {
+            mainHandler.removeCallbacks(entry.pendingStop);
+            entry.pendingStop = null;
+        }
+
+        entry.refCount++;
+        entry.sync.addListener(listener, true);
+        entry.sync.start();
+        return new Subscription(key, listener);
+    }
+
+    /**
+     * Get the shared sync of a path, if anyone is observing it
+     * @param reference The database path
+     * @return The shared sync, or null if the path is not observed
+     */
+    @SuppressWarnings("unchecked")
+    public <T> ChildSync<T> getSync(@NonNull DatabaseReference reference) {
+        Entry<T> entry = (Entry<T>) entries.get(reference.toString());
+        return entry != null ? entry.sync : null;
+    }
+
+    /**
+     * Get the number of live Firebase listeners held by the registry
+     * @return Active listener count
+     */
+    public int getActiveListenerCount() {
+        int count = 0;
+        for (Entry<?> entry : entries.values()) {
+            if (entry.sync.isStarted()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Get the number of subscriptions sharing a path
+     * @param reference The database path
+     * @return Subscriber count
+     */
+    public int getSubscriberCount(@NonNull DatabaseReference reference) {
+        Entry<?> entry = entries.get(reference.toString());
+        return entry != null ? entry.refCount : 0;
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private void release(String key, ChildSync.Listener<?> listener) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return;
+        }
+        entry.sync.removeListener(listener);
+        entry.refCount--;
+        if (entry.refCount > 0) {
+            return;
+        }
+
+        Entry<?> idleEntry = entry;
+        idleEntry.pendingStop = new Runnable() {
+            @Override
+            public void run() {
+                idleEntry.pendingStop = null;
+                if (idleEntry.refCount == 0) {
+                    idleEntry.sync.stop();
+                    entries.remove(key);
+                }
+            }
+        };
+        mainHandler.postDelayed(idleEntry.pendingStop, LINGER_MILLIS);
+    }
+}
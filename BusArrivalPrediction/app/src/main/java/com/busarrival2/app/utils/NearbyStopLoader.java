@@ -0,0 +1,181 @@
+package com.busarrival2.app.utils;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationManager;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.lifecycle.LifecycleOwner;
+
+import com.busarrival2.app.data.ChangeSet;
+import com.busarrival2.app.data.ChildSync;
+import com.busarrival2.app.data.Geohash;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.ModelMappers;
+import com.google.firebase.database.DatabaseError;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * NearbyStopLoader Class
+ * Loads only the stops around a position, from the busStopsByGeohash
+ * buckets of the cell containing it and the eight cells around it. As the
+ * position moves, buckets that come into range are observed and buckets
+ * that drop out are released, and their stops are reported as removed.
+ * Must be used on the main thread.
+ */
+public class NearbyStopLoader {
+
+    private final LifecycleOwner owner;
+    private final ChildSync.Listener<BusStop> listener;
+    private final Map<String, ListenerRegistry.Subscription> subscriptions = new LinkedHashMap<>();
+    private boolean released;
+
+    /**
+     * @param owner Lifecycle that scopes the bucket subscriptions
+     * @param listener Receives the merged changes of all observed buckets
+     */
+    public NearbyStopLoader(@NonNull LifecycleOwner owner,
+                            @NonNull ChildSync.Listener<BusStop> listener) {
+        this.owner = owner;
+        this.listener = listener;
+    }
+
+    /**
+     * Observe the buckets around a position
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     */
+    public void setPosition(double latitude, double longitude) {
+        if (released) {
+            return;
+        }
+        List<String> cells = Geohash.coveringCells(latitude, longitude,
+                Geohash.STOP_BUCKET_PRECISION);
+
+        // Release buckets that are no longer in range
+        for (String cell : new ArrayList<>(subscriptions.keySet())) {
+            if (!cells.contains(cell)) {
+                releaseCell(cell);
+            }
+        }
+
+        ListenerRegistry registry = FirebaseHelper.getListenerRegistry();
+        for (String cell : cells) {
+            if (subscriptions.containsKey(cell)) {
+                continue;
+            }
+            // Reserve the cell first, a shared bucket replays synchronously
+            subscriptions.put(cell, null);
+            subscriptions.put(cell, registry.observeChildren(owner,
+                    FirebaseHelper.getStopsByGeohashReference(cell),
+                    snapshot -> ModelMappers.STOP.fromValue(snapshot.getValue()),
+                    new ChildSync.Listener<BusStop>() {
+                        @Override
+                        public void onChanges(@NonNull ChangeSet<BusStop> changes) {
+                            if (subscriptions.containsKey(cell)) {
+                                listener.onChanges(new ChangeSet<>(
+                                        new ArrayList<>(changes.getChanges()), isLoaded()));
+                            }
+                        }
+
+                        @Override
+                        public void onCancelled(@NonNull DatabaseError error) {
+                            listener.onCancelled(error);
+                        }
+                    }));
+        }
+    }
+
+    /**
+     * Get the device's last known position without waiting for a fix. The
+     * splash screen and the main screen both start from it, so they
+     * observe the same buckets.
+     * @param context Any context
+     * @return Last known location, or null if there is none or no permission
+     */
+    public static Location getLastKnownLocation(@NonNull Context context) {
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_COARSE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return null;
+        }
+        LocationManager locationManager =
+                (LocationManager) context.getSystemService(Context.LOCATION_SERVICE);
+        if (locationManager == null) {
+            return null;
+        }
+        try {
+            Location location = locationManager.getLastKnownLocation(LocationManager.NETWORK_PROVIDER);
+            if (location == null) {
+                location = locationManager.getLastKnownLocation(LocationManager.PASSIVE_PROVIDER);
+            }
+            return location;
+        } catch (Exception e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    /**
+     * Check if every observed bucket has received its initial contents
+     * @return true once all buckets are loaded
+     */
+    public boolean isLoaded() {
+        if (subscriptions.isEmpty()) {
+            return false;
+        }
+        ListenerRegistry registry = FirebaseHelper.getListenerRegistry();
+        for (String cell : subscriptions.keySet()) {
+            ChildSync<BusStop> sync = registry.getSync(FirebaseHelper.getStopsByGeohashReference(cell));
+            if (sync == null || !sync.isLoaded()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the cells currently observed
+     * @return Geohash cells
+     */
+    public List<String> getCells() {
+        return new ArrayList<>(subscriptions.keySet());
+    }
+
+    /**
+     * Stop observing all buckets without reporting their stops as removed
+     */
+    public void release() {
+        released = true;
+        for (ListenerRegistry.Subscription subscription : subscriptions.values()) {
+            if (subscription != null) {
+                subscription.release();
+            }
+        }
+        subscriptions.clear();
+    }
+
+    private void releaseCell(String cell) {
+        ChildSync<BusStop> sync = FirebaseHelper.getListenerRegistry()
+                .getSync(FirebaseHelper.getStopsByGeohashReference(cell));
+        ListenerRegistry.Subscription subscription = subscriptions.remove(cell);
+        if (subscription != null) {
+            subscription.release();
+        }
+        if (sync == null || sync.getItems().isEmpty()) {
+            return;
+        }
+
+        List<ChangeSet.Change<BusStop>> removed = new ArrayList<>();
+        for (BusStop stop : sync.getItems()) {
+            removed.add(new ChangeSet.Change<>(ChangeSet.Type.REMOVED, stop.getStopId(), stop, null));
+        }
+        listener.onChanges(new ChangeSet<>(removed, isLoaded()));
+    }
+}
@@ -0,0 +1,101 @@
+package com.busarrival2.app.utils;
+
+import android.content.Context;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.busarrival2.app.data.LogHistogram;
+import com.busarrival2.app.data.QueryMetrics;
+import com.google.firebase.analytics.FirebaseAnalytics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * QueryMetricsReporter Class
+ * Sends QueryMetrics to Firebase Analytics as one "query_metrics" event per
+ * path and reporting window, holding percentiles of the values recorded
+ * since the previous window. Paths with nothing new are skipped, so a quiet
+ * session sends nothing. Runs on the main thread.
+ */
+public class QueryMetricsReporter {
+
+    public static final String EVENT_NAME = "query_metrics";
+
+    private static final long REPORT_INTERVAL_MILLIS = 15 * 60 * 1000;
+
+    private final FirebaseAnalytics analytics;
+    private final QueryMetrics metrics;
+    private final Handler handler = new Handler(Looper.getMainLooper());
+
+    // Snapshots sent last time, keyed by path and metric
+    private final Map<String, LogHistogram.Snapshot> reported = new HashMap<>();
+    private final Map<String, Long> reportedErrors = new HashMap<>();
+    private boolean started;
+
+    private final Runnable reportRunnable = new Runnable() {
+        @Override
+        public void run() {
+            report();
+            handler.postDelayed(this, REPORT_INTERVAL_MILLIS);
+        }
+    };
+
+    public QueryMetricsReporter(Context context, QueryMetrics metrics) {
+        this.analytics = FirebaseAnalytics.getInstance(context.getApplicationContext());
+        this.metrics = metrics;
+    }
+
+    /**
+     * Report every interval until the process ends. Safe to call more than once.
+     */
+    public void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        handler.postDelayed(reportRunnable, REPORT_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Send what was recorded since the last report now, e.g. when the app
+     * goes to the background
+     */
+    public void report() {
+        for (Map.Entry<String, QueryMetrics.PathMetrics> entry : metrics.getAll().entrySet()) {
+            String path = entry.getKey();
+            QueryMetrics.PathMetrics pathMetrics = entry.getValue();
+
+            Bundle params = new Bundle();
+            boolean changed = false;
+            for (QueryMetrics.Metric metric : QueryMetrics.Metric.values()) {
+                String key = path + "/" + metric.getKey();
+                LogHistogram.Snapshot current = pathMetrics.get(metric).snapshot();
+                LogHistogram.Snapshot window = current.since(reported.get(key));
+                reported.put(key, current);
+                if (window.getCount() == 0) {
+                    continue;
+                }
+                changed = true;
+                params.putLong(metric.getKey() + "_count", window.getCount());
+                params.putLong(metric.getKey() + "_p50", window.getValueAtPercentile(50));
+                params.putLong(metric.getKey() + "_p95", window.getValueAtPercentile(95));
+                params.putLong(metric.getKey() + "_max", window.getMax());
+            }
+
+            long errors = pathMetrics.getErrorCount();
+            Long previousErrors = reportedErrors.put(path, errors);
+            long newErrors = errors - (previousErrors != null ? previousErrors : 0);
+            if (newErrors > 0) {
+                changed = true;
+                params.putLong("errors", newErrors);
+            }
+
+            if (changed) {
+                params.putString("path", path);
+                analytics.logEvent(EVENT_NAME, params);
+            }
+        }
+    }
+}
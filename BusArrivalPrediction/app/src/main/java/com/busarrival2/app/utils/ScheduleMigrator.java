@@ -0,0 +1,175 @@
+package com.busarrival2.app.utils;
+
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.ModelMappers;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DataSnapshot;
+import com.google.firebase.database.DatabaseReference;
+import com.google.firebase.database.Query;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * ScheduleMigrator Class
+ * Moves schedules from the old flat busSchedules/{scheduleId} layout to
+ * busSchedules/{routeId}/{stopId}/{scheduleId}, one chunk at a time. Every
+ * schedule is copied and deleted in the same atomic update, and readers
+ * look in both layouts, so the app keeps working while it runs. Moved
+ * schedules no longer match the flat query, so running it again, or after
+ * it was cancelled or failed, just continues with what is left. A run that
+ * reaches the end sets the schedulesMigrated flag, after which readers stop
+ * querying the flat layout.
+ * Blocks on every chunk: run it from a background thread.
+ */
+public class ScheduleMigrator {
+
+    // Three paths per schedule keep a chunk inside one WriteBatch flush
+    public static final int DEFAULT_CHUNK_SIZE = 150;
+
+    /**
+     * Reports the running total after each chunk
+     */
+    public interface ProgressListener {
+        void onProgress(long moved);
+    }
+
+    /**
+     * Result Class
+     * Counts of a migration run
+     */
+    public static final class Result {
+        private long moved;
+        private long skipped;
+
+        public long getMoved() {
+            return moved;
+        }
+
+        /**
+         * Get the flat nodes left in place because they are not valid schedules
+         * @return Skipped count
+         */
+        public long getSkipped() {
+            return skipped;
+        }
+    }
+
+    private final DatabaseReference schedulesReference;
+    private final DatabaseReference migratedReference;
+    private final int chunkSize;
+    private ProgressListener progressListener;
+    private volatile boolean cancelled;
+
+    public ScheduleMigrator() {
+        this(FirebaseHelper.getSchedulesReference(),
+                FirebaseHelper.getSchedulesMigratedReference(), DEFAULT_CHUNK_SIZE);
+    }
+
+    public ScheduleMigrator(DatabaseReference schedulesReference,
+                            DatabaseReference migratedReference, int chunkSize) {
+        this.schedulesReference = schedulesReference;
+        this.migratedReference = migratedReference;
+        this.chunkSize = Math.max(1, Math.min(chunkSize, WriteBatch.DEFAULT_MAX_PATHS / 3));
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Stop after the chunk in progress
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Move every flat schedule into the route and stop layout, then mark
+     * the migration complete unless it was cancelled
+     * @return Counts of moved and skipped schedules
+     * @throws IOException if a chunk cannot be read or written
+     */
+    public Result run() throws IOException {
+        Result result = new Result();
+        // Nodes of the new layout have no routeId child, and a string
+        // startAt leaves them out of the query
+        String lastRouteId = "";
+        String lastKey = null;
+
+        while (!cancelled) {
+            Query page = schedulesReference.orderByChild("routeId");
+            page = lastKey == null
+                    ? page.startAt(lastRouteId).limitToFirst(chunkSize)
+                    : page.startAt(lastRouteId, lastKey).limitToFirst(chunkSize + 1);
+            DataSnapshot snapshot = await(page.get(), "read schedule chunk");
+
+            WriteBatch batch = FirebaseHelper.newWriteBatch();
+            int read = 0;
+            for (DataSnapshot node : snapshot.getChildren()) {
+                String key = node.getKey();
+                if (key.equals(lastKey)) {
+                    continue;
+                }
+                read++;
+                BusSchedule schedule = ModelMappers.SCHEDULE.fromValue(node.getValue());
+                String routeId = schedule != null ? schedule.getRouteId() : null;
+                lastKey = key;
+                if (routeId != null) {
+                    lastRouteId = routeId;
+                }
+                if (routeId == null || !isValidKey(routeId) || !isValidKey(schedule.getStopId())) {
+                    // Left where it is; the cursor moves past it
+                    result.skipped++;
+                    continue;
+                }
+                // The flat node is deleted by its key, whatever its scheduleId field says
+                schedule.setScheduleId(key);
+                batch.moveLegacySchedule(schedule);
+                result.moved++;
+            }
+            if (read == 0) {
+                break;
+            }
+
+            await(batch.commit(), "write schedule chunk");
+            if (progressListener != null) {
+                progressListener.onProgress(result.moved);
+            }
+        }
+        if (!cancelled) {
+            await(migratedReference.setValue(true), "mark the migration complete");
+        }
+        return result;
+    }
+
+    private static boolean isValidKey(String id) {
+        if (id == null || id.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            if (c == '.' || c == '#' || c == '$' || c == '[' || c == ']' || c == '/') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static <T> T await(Task<T> task, String step)
+            throws IOException {
+        try {
+            return Tasks.await(task);
+        } catch (ExecutionException e) {
+            throw new IOException("Failed to " + step, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Schedule migration interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.busarrival2.app.utils;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+import androidx.appcompat.app.AppCompatActivity;
+
+import com.busarrival2.app.data.ChangeSet;
+import com.busarrival2.app.data.ChildSync;
+import com.busarrival2.app.data.TransitDataSource;
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.ModelMappers;
+import com.busarrival2.app.models.User;
+import com.google.firebase.database.DatabaseError;
+
+/**
+ * StartupOrchestrator Class
+ * Runs while the splash screen is showing. For a signed-in user it fetches
+ * the role, the routes and the stops at the same time and reports where to
+ * go once the role is known and, for riders, the routes and stops are in.
+ * Routes and stops are observed through the shared ListenerRegistry, so the
+ * next screen picks them up from memory: the registry keeps a released
+ * path alive for a few seconds, which covers the activity switch.
+ * Must be used on the main thread.
+ */
+public class StartupOrchestrator {
+
+    // Never hold the splash screen longer than this on a slow network
+    public static final long MAX_WAIT_MILLIS = 3000;
+
+    /**
+     * Screen to open after the splash
+     */
+    public enum Destination {
+        LOGIN, MAIN, ADMIN
+    }
+
+    /**
+     * Receives the destination once, on the main thread
+     */
+    public interface Callback {
+        void onReady(@NonNull Destination destination);
+    }
+
+    private final AppCompatActivity activity;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private Callback callback;
+    private String role;
+    private boolean roleLoaded;
+    private boolean routesLoaded;
+    private boolean stopsLoaded;
+    private boolean finished;
+    private NearbyStopLoader nearbyStops;
+
+    private final Runnable timeout = new Runnable() {
+        @Override
+        public void run() {
+            finish(roleLoaded && "admin".equals(role) ? Destination.ADMIN : Destination.MAIN);
+        }
+    };
+
+    /**
+     * @param activity The splash activity; it scopes the prefetch listeners
+     */
+    public StartupOrchestrator(@NonNull AppCompatActivity activity) {
+        this.activity = activity;
+    }
+
+    /**
+     * Start loading. A signed-out user is sent to login straight away.
+     * @param callback Receives the destination
+     */
+    public void start(@NonNull Callback callback) {
+        this.callback = callback;
+        String userId = FirebaseHelper.isUserLoggedIn() ? FirebaseHelper.getCurrentUserId() : null;
+        if (userId == null) {
+            mainHandler.post(() -> finish(Destination.LOGIN));
+            return;
+        }
+
+        mainHandler.postDelayed(timeout, MAX_WAIT_MILLIS);
+        loadRole(userId);
+        loadRoutes();
+        loadStops();
+    }
+
+    /**
+     * Stop waiting; the callback is not called after this
+     */
+    public void cancel() {
+        finished = true;
+        mainHandler.removeCallbacks(timeout);
+    }
+
+    private void loadRole(String userId) {
+        FirebaseHelper.getDataSource().getUser(userId, new TransitDataSource.Callback<User>() {
+            @Override
+            public void onSuccess(User user) {
+                role = user != null ? user.getRole() : null;
+                roleLoaded = true;
+                StartupTimer.mark(StartupTimer.ROLE_LOADED);
+                checkReady();
+            }
+
+            @Override
+            public void onFailure(Exception error) {
+                // Same fallback as login: riders are the default
+                roleLoaded = true;
+                checkReady();
+            }
+        });
+    }
+
+    private void loadRoutes() {
+        FirebaseHelper.getListenerRegistry().observeChildren(activity,
+                FirebaseHelper.getRoutesReference(),
+                snapshot -> ModelMappers.ROUTE.fromValue(snapshot.getValue()),
+                new ChildSync.Listener<BusRoute>() {
+                    @Override
+                    public void onChanges(@NonNull ChangeSet<BusRoute> changes) {
+                        if (changes.isLoaded() && !routesLoaded) {
+                            routesLoaded = true;
+                            StartupTimer.mark(StartupTimer.ROUTES_LOADED);
+                            checkReady();
+                        }
+                    }
+
+                    @Override
+                    public void onCancelled(@NonNull DatabaseError error) {
+                        // The main screen reports the error when it retries
+                        routesLoaded = true;
+                        checkReady();
+                    }
+                });
+    }
+
+    /**
+     * Prefetch the same stops the main screen will ask for: the buckets
+     * around the last known position, or every stop without one
+     */
+    private void loadStops() {
+        ChildSync.Listener<BusStop> listener = new ChildSync.Listener<BusStop>() {
+            @Override
+            public void onChanges(@NonNull ChangeSet<BusStop> changes) {
+                boolean loaded = nearbyStops != null ? nearbyStops.isLoaded() : changes.isLoaded();
+                if (loaded && !stopsLoaded) {
+                    stopsLoaded = true;
+                    StartupTimer.mark(StartupTimer.STOPS_LOADED);
+                    checkReady();
+                }
+            }
+
+            @Override
+            public void onCancelled(@NonNull DatabaseError error) {
+                stopsLoaded = true;
+                checkReady();
+            }
+        };
+
+        Location location = NearbyStopLoader.getLastKnownLocation(activity);
+        if (location != null) {
+            nearbyStops = new NearbyStopLoader(activity, listener);
+            nearbyStops.setPosition(location.getLatitude(), location.getLongitude());
+        } else {
+            FirebaseHelper.getListenerRegistry().observeChildren(activity,
+                    FirebaseHelper.getStopsReference(),
+                    snapshot -> ModelMappers.STOP.fromValue(snapshot.getValue()), listener);
+        }
+    }
+
+    private void checkReady() {
+        if (!roleLoaded) {
+            return;
+        }
+        if ("admin".equals(role)) {
+            finish(Destination.ADMIN);
+        } else if (routesLoaded && stopsLoaded) {
+            finish(Destination.MAIN);
+        }
+    }
+
+    private void finish(Destination destination) {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        mainHandler.removeCallbacks(timeout);
+        StartupTimer.mark(StartupTimer.SPLASH_DONE);
+        callback.onReady(destination);
+    }
+}
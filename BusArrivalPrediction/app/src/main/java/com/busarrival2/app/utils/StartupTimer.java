@@ -0,0 +1,67 @@
+package com.busarrival2.app.utils;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * StartupTimer Class
+ * Records named milestones of app startup as milliseconds since the process
+ * started. Only the first occurrence of each milestone counts, so repeated
+ * actions later in the session do not move it. Every milestone is logged as
+ * "StartupTimer: name=123ms", which a benchmark can read from logcat to
+ * catch startup regressions.
+ */
+public final class StartupTimer {
+
+    private static final String TAG = "StartupTimer";
+
+    // Milestones
+    public static final String SPLASH_CREATED = "splash_created";
+    public static final String ROLE_LOADED = "role_loaded";
+    public static final String ROUTES_LOADED = "routes_loaded";
+    public static final String STOPS_LOADED = "stops_loaded";
+    public static final String SPLASH_DONE = "splash_done";
+    public static final String MAIN_CREATED = "main_created";
+    public static final String MAIN_READY = "main_ready";
+    public static final String FIRST_ARRIVAL = "first_arrival";
+
+    private static final Map<String, Long> marks = new LinkedHashMap<>();
+
+    private StartupTimer() {
+    }
+
+    /**
+     * Record a milestone, unless it was already recorded
+     * @param name Milestone name
+     */
+    public static synchronized void mark(String name) {
+        if (marks.containsKey(name)) {
+            return;
+        }
+        long elapsed = SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime();
+        marks.put(name, elapsed);
+        Log.i(TAG, name + "=" + elapsed + "ms");
+    }
+
+    /**
+     * Get the time of a milestone
+     * @param name Milestone name
+     * @return Milliseconds since the process started, or -1 if not reached
+     */
+    public static synchronized long getElapsed(String name) {
+        Long elapsed = marks.get(name);
+        return elapsed != null ? elapsed : -1;
+    }
+
+    /**
+     * Get every milestone reached so far
+     * @return Milestone times in the order they were reached
+     */
+    public static synchronized Map<String, Long> getMarks() {
+        return new LinkedHashMap<>(marks);
+    }
+}
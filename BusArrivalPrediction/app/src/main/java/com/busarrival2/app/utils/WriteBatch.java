@@ -0,0 +1,281 @@
+package com.busarrival2.app.utils;
+
+import com.busarrival2.app.data.PayloadEstimator;
+import com.busarrival2.app.data.TransitDataSource;
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.ModelMappers;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.database.DatabaseReference;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * WriteBatch Class
+ * Collects route, stop and schedule writes and commits them as a single
+ * multi-path updateChildren call, which Firebase applies atomically.
+ * Very large batches are flushed in chunks of maxPaths; each chunk is
+ * atomic on its own.
+ */
+public class WriteBatch implements TransitDataSource.Batch {
+
+    // Default number of paths per updateChildren call
+    public static final int DEFAULT_MAX_PATHS = 500;
+
+    // Metrics path of a chunk that writes under more than one top-level node
+    public static final String METRICS_PATH_MIXED = "multiPath";
+
+    private final DatabaseReference root;
+    private final int maxPaths;
+    private final List<Task<Void>> flushes = new ArrayList<>();
+    private Map<String, Object> updates = new LinkedHashMap<>();
+    private int totalPaths;
+
+    public WriteBatch(DatabaseReference root) {
+        this(root, DEFAULT_MAX_PATHS);
+    }
+
+    public WriteBatch(DatabaseReference root, int maxPaths) {
+        this.root = root;
+        this.maxPaths = Math.max(1, maxPaths);
+    }
+
+    /**
+     * Write a route under busRoutes/{routeId}
+     * @param route The route to write
+     * @return This batch
+     */
+    @Override
+    public WriteBatch putRoute(BusRoute route) {
+        return set(FirebaseHelper.PATH_ROUTES + "/" + route.getRouteId(),
+                ModelMappers.ROUTE.toMap(route));
+    }
+
+    /**
+     * Write a stop under busStops/{stopId} and its geohash bucket
+     * @param stop The stop to write
+     * @return This batch
+     */
+    @Override
+    public WriteBatch putStop(BusStop stop) {
+        return putStop(stop, null);
+    }
+
+    /**
+     * Write a stop under busStops/{stopId} and busStopsByGeohash/{cell}/{stopId},
+     * removing it from its old bucket if it moved to another cell
+     * @param stop The stop to write
+     * @param previous The stop as it was stored before, or null if it is new
+     * @return This batch
+     */
+    @Override
+    public WriteBatch putStop(BusStop stop, BusStop previous) {
+        reserve(3);
+        Map<String, Object> values = ModelMappers.STOP.toMap(stop);
+        set(FirebaseHelper.PATH_STOPS + "/" + stop.getStopId(), values);
+
+        String cell = FirebaseHelper.getGeohashCell(stop);
+        String previousCell = previous != null ? FirebaseHelper.getGeohashCell(previous) : null;
+        if (previousCell != null && !previousCell.equals(cell)) {
+            delete(FirebaseHelper.PATH_STOPS_BY_GEOHASH + "/" + previousCell + "/" + stop.getStopId());
+        }
+        if (cell != null) {
+            set(FirebaseHelper.PATH_STOPS_BY_GEOHASH + "/" + cell + "/" + stop.getStopId(), values);
+        }
+        return this;
+    }
+
+    /**
+     * Delete a stop and its geohash bucket entry
+     * @param stop The stop as it is stored
+     * @return This batch
+     */
+    @Override
+    public WriteBatch deleteStop(BusStop stop) {
+        reserve(2);
+        delete(FirebaseHelper.PATH_STOPS + "/" + stop.getStopId());
+        String cell = FirebaseHelper.getGeohashCell(stop);
+        if (cell != null) {
+            delete(FirebaseHelper.PATH_STOPS_BY_GEOHASH + "/" + cell + "/" + stop.getStopId());
+        }
+        return this;
+    }
+
+    /**
+     * Write a schedule under busSchedules/{routeId}/{stopId}/{scheduleId}
+     * @param schedule The schedule to write
+     * @return This batch
+     */
+    @Override
+    public WriteBatch putSchedule(BusSchedule schedule) {
+        return putSchedule(schedule, null);
+    }
+
+    /**
+     * Write a schedule under busSchedules/{routeId}/{stopId}/{scheduleId} and
+     * add its route to busStopRoutes/{stopId}, removing the old copy if the
+     * schedule moved to another route or stop
+     * @param schedule The schedule to write
+     * @param previous The schedule as it was stored before, or null if it is new
+     * @return This batch
+     */
+    @Override
+    public WriteBatch putSchedule(BusSchedule schedule, BusSchedule previous) {
+        reserve(3);
+        String path = FirebaseHelper.getSchedulePath(schedule);
+        if (previous != null) {
+            String previousPath = FirebaseHelper.getSchedulePath(previous);
+            if (!previousPath.equals(path)) {
+                delete(previousPath);
+            }
+        }
+        return writeSchedule(schedule);
+    }
+
+    /**
+     * Move a schedule from the old flat busSchedules/{scheduleId} node into
+     * the route and stop layout. The copy and the delete go out in the same
+     * update, so the schedule is never in both places or in neither.
+     * @param schedule The schedule as stored in the flat layout
+     * @return This batch
+     */
+    public WriteBatch moveLegacySchedule(BusSchedule schedule) {
+        reserve(3);
+        delete(FirebaseHelper.PATH_SCHEDULES + "/" + schedule.getScheduleId());
+        return writeSchedule(schedule);
+    }
+
+    /**
+     * Delete a schedule. busStopRoutes is left as it is, because other
+     * schedules of the route may still serve the stop.
+     * @param schedule The schedule as it is stored
+     * @return This batch
+     */
+    @Override
+    public WriteBatch deleteSchedule(BusSchedule schedule) {
+        return delete(FirebaseHelper.getSchedulePath(schedule));
+    }
+
+    /**
+     * Delete the node at a path
+     * @param path Path relative to the database root
+     * @return This batch
+     */
+    public WriteBatch delete(String path) {
+        return set(path, null);
+    }
+
+    /**
+     * Write a value at a path, replacing what is there
+     * @param path Path relative to the database root
+     * @param value Value to write, or null to delete
+     * @return This batch
+     */
+    public WriteBatch set(String path, Object value) {
+        updates.put(path, value);
+        totalPaths++;
+        if (updates.size() >= maxPaths) {
+            flush();
+        }
+        return this;
+    }
+
+    private WriteBatch writeSchedule(BusSchedule schedule) {
+        set(FirebaseHelper.getSchedulePath(schedule), ModelMappers.SCHEDULE.toMap(schedule));
+        return set(FirebaseHelper.PATH_STOP_ROUTES + "/" + schedule.getStopId() + "/"
+                + schedule.getRouteId(), Boolean.TRUE);
+    }
+
+    /**
+     * Flush first if the next paths would not fit in the pending chunk,
+     * so writes that belong together stay in one atomic update
+     */
+    private void reserve(int paths) {
+        if (updates.size() + paths > maxPaths) {
+            flush();
+        }
+    }
+
+    /**
+     * Get the number of paths written through this batch
+     * @return Path count
+     */
+    @Override
+    public int size() {
+        return totalPaths;
+    }
+
+    /**
+     * Get the number of paths waiting to be sent
+     * @return Pending path count
+     */
+    public int getPendingCount() {
+        return updates.size();
+    }
+
+    /**
+     * Send the pending paths now as one atomic update
+     * @return Task for this chunk, or null if nothing was pending
+     */
+    public Task<Void> flush() {
+        if (updates.isEmpty()) {
+            return null;
+        }
+        Task<Void> task = send(updates);
+        flushes.add(task);
+        updates = new LinkedHashMap<>();
+        return task;
+    }
+
+    /**
+     * Send one chunk as a single updateChildren call
+     * @param chunk Paths and values of the chunk
+     * @return Task of the update
+     */
+    Task<Void> send(Map<String, Object> chunk) {
+        return FirebaseHelper.timeWrite(getMetricsPath(chunk), root.updateChildren(chunk),
+                chunk.size(), PayloadEstimator.estimate(chunk));
+    }
+
+    /**
+     * Get the top-level node every path of a chunk is under, so writes are
+     * recorded next to the reads of the same node
+     */
+    private static String getMetricsPath(Map<String, Object> chunk) {
+        String common = null;
+        for (String path : chunk.keySet()) {
+            int slash = path.indexOf('/');
+            String top = slash >= 0 ? path.substring(0, slash) : path;
+            if (common == null) {
+                common = top;
+            } else if (!common.equals(top)) {
+                return METRICS_PATH_MIXED;
+            }
+        }
+        return common;
+    }
+
+    /**
+     * Send any pending paths and wait for every chunk of this batch
+     * @return Task that completes when all chunks are acknowledged
+     */
+    public Task<Void> commit() {
+        flush();
+        return Tasks.whenAll(flushes);
+    }
+
+    /**
+     * Send any pending paths and report when every chunk is acknowledged
+     * @param callback Receives the outcome on the main thread
+     */
+    @Override
+    public void commit(TransitDataSource.Callback<Void> callback) {
+        commit().addOnSuccessListener(aVoid -> callback.onSuccess(null))
+                .addOnFailureListener(callback::onFailure);
+    }
+}
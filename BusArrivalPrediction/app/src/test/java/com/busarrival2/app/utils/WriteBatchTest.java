@@ -0,0 +1,86 @@
+package com.busarrival2.app.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusStop;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class WriteBatchTest {
+
+    /**
+     * Batch that keeps each chunk instead of sending it
+     */
+    private static final class RecordingBatch extends WriteBatch {
+        final List<Map<String, Object>> chunks = new ArrayList<>();
+
+        RecordingBatch(int maxPaths) {
+            super(null, maxPaths);
+        }
+
+        @Override
+        Task<Void> send(Map<String, Object> chunk) {
+            chunks.add(new LinkedHashMap<>(chunk));
+            return Tasks.forResult(null);
+        }
+    }
+
+    private static BusRoute route(String routeId) {
+        return new BusRoute(routeId, routeId, routeId, "A", "B", true);
+    }
+
+    private static int chunkOf(RecordingBatch batch, String path) {
+        for (int i = 0; i < batch.chunks.size(); i++) {
+            if (batch.chunks.get(i).containsKey(path)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Test
+    public void keepsMovedStopInOneChunk() {
+        RecordingBatch batch = new RecordingBatch(4);
+        batch.putRoute(route("R1")).putRoute(route("R2"));
+        BusStop previous = new BusStop("S1", "Stop", 51.5, -0.1, "R1");
+        BusStop moved = new BusStop("S1", "Stop", 40.7, -74.0, "R1");
+        batch.putStop(moved, previous);
+        batch.flush();
+
+        String oldEntry = FirebaseHelper.PATH_STOPS_BY_GEOHASH + "/"
+                + FirebaseHelper.getGeohashCell(previous) + "/S1";
+        String newEntry = FirebaseHelper.PATH_STOPS_BY_GEOHASH + "/"
+                + FirebaseHelper.getGeohashCell(moved) + "/S1";
+        int chunk = chunkOf(batch, FirebaseHelper.PATH_STOPS + "/S1");
+        assertEquals(1, chunk);
+        assertEquals(chunk, chunkOf(batch, oldEntry));
+        assertEquals(chunk, chunkOf(batch, newEntry));
+        assertEquals(5, batch.size());
+    }
+
+    @Test
+    public void keepsDeletedStopInOneChunk() {
+        RecordingBatch batch = new RecordingBatch(4);
+        batch.putRoute(route("R1")).putRoute(route("R2")).putRoute(route("R3"));
+        BusStop stop = new BusStop("S1", "Stop", 51.5, -0.1, "R1");
+        batch.deleteStop(stop);
+        batch.flush();
+
+        int chunk = chunkOf(batch, FirebaseHelper.PATH_STOPS + "/S1");
+        assertEquals(1, chunk);
+        assertEquals(chunk, chunkOf(batch, FirebaseHelper.PATH_STOPS_BY_GEOHASH + "/"
+                + FirebaseHelper.getGeohashCell(stop) + "/S1"));
+        for (Map<String, Object> sent : batch.chunks) {
+            assertTrue(sent.size() <= 4);
+        }
+    }
+}
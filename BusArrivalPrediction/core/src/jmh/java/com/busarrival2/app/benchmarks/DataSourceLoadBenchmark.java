@@ -0,0 +1,112 @@
+package com.busarrival2.app.benchmarks;
+
+import com.busarrival2.app.data.InMemoryTransitDataSource;
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.data.TransitDataSource;
+import com.busarrival2.app.gtfs.NetworkGenerator;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * DataSourceLoadBenchmark Class
+ * Schedule lookups against InMemoryTransitDataSource with injected latency.
+ * Each invocation sends a burst of lookups at once and waits for all of
+ * them, the way a screen fans out over several routes, so the score is the
+ * time a burst takes end to end.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class DataSourceLoadBenchmark {
+
+    @Param({"SMALL"})
+    public NetworkGenerator.Size size;
+
+    @Param({"0", "20"})
+    public int latencyMillis;
+
+    @Param({"1", "32"})
+    public int burst;
+
+    private SyntheticNetwork network;
+    private InMemoryTransitDataSource dataSource;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        network = new SyntheticNetwork(size);
+        dataSource = new InMemoryTransitDataSource();
+
+        TransitDataSource.Batch batch = dataSource.newBatch();
+        network.generator.generate(batch);
+        CountDownLatch done = new CountDownLatch(1);
+        batch.commit(new Done<>(done, new AtomicReference<>()));
+        done.await();
+
+        dataSource.setLatency(latencyMillis, latencyMillis / 4, TimeUnit.MILLISECONDS);
+        dataSource.resetCallCounts();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        dataSource.shutdown();
+    }
+
+    @Benchmark
+    public Throwable routeSchedules() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(burst);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < burst; i++) {
+            String routeId = network.routeIds.get(next++ % network.routeIds.size());
+            dataSource.getSchedules(routeId, "", new Done<ScheduleStore>(done, failure));
+        }
+        done.await();
+        return failure.get();
+    }
+
+    @Benchmark
+    public Throwable stopSchedules() throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(burst);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        for (int i = 0; i < burst; i++) {
+            String stopId = network.stops.get(next++ % network.stops.size()).getStopId();
+            dataSource.getStopSchedules(stopId, new Done<ScheduleStore>(done, failure));
+        }
+        done.await();
+        return failure.get();
+    }
+
+    private static final class Done<T> implements TransitDataSource.Callback<T> {
+        private final CountDownLatch latch;
+        private final AtomicReference<Throwable> failure;
+
+        Done(CountDownLatch latch, AtomicReference<Throwable> failure) {
+            this.latch = latch;
+            this.failure = failure;
+        }
+
+        @Override
+        public void onSuccess(T result) {
+            latch.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception error) {
+            failure.set(error);
+            latch.countDown();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package com.busarrival2.app.benchmarks;
+
+import com.busarrival2.app.gtfs.NetworkGenerator;
+import com.busarrival2.app.planner.Journey;
+import com.busarrival2.app.planner.JourneyPlanner;
+import com.busarrival2.app.planner.TransitNetwork;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JourneyPlannerBenchmark Class
+ * Building the connection network of a day and planning journeys across it
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JourneyPlannerBenchmark {
+
+    private static final int QUERIES = 64;
+
+    @Param({"SMALL", "MEDIUM"})
+    public NetworkGenerator.Size size;
+
+    private SyntheticNetwork network;
+    private JourneyPlanner planner;
+    private String[] origins;
+    private String[] destinations;
+    private int query;
+
+    @Setup
+    public void setUp() {
+        network = new SyntheticNetwork(size);
+        planner = new JourneyPlanner(TransitNetwork.build(network.store, 2, network.stops,
+                TransitNetwork.DEFAULT_MAX_WALK_METERS));
+        Random random = new Random(7);
+        origins = new String[QUERIES];
+        destinations = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            origins[i] = network.stops.get(random.nextInt(network.stops.size())).getStopId();
+            destinations[i] = network.stops.get(random.nextInt(network.stops.size())).getStopId();
+        }
+    }
+
+    @Benchmark
+    public TransitNetwork buildNetwork() {
+        return TransitNetwork.build(network.store, 2, network.stops,
+                TransitNetwork.DEFAULT_MAX_WALK_METERS);
+    }
+
+    @Benchmark
+    public List<Journey> plan() {
+        query = (query + 1) & (QUERIES - 1);
+        return planner.plan(origins[query], destinations[query], 480);
+    }
+}
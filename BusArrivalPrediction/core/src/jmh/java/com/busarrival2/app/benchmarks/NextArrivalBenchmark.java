@@ -0,0 +1,148 @@
+package com.busarrival2.app.benchmarks;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.gtfs.NetworkGenerator;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+import com.busarrival2.app.prediction.StopBoard;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * NextArrivalBenchmark Class
+ * Next arrivals at one (route, stop) pair, from the original per-object
+ * Calendar arithmetic to the columnar store, plus a 20-row stop board
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class NextArrivalBenchmark {
+
+    private static final int QUERIES = 256;
+
+    @Param({"SMALL", "MEDIUM"})
+    public NetworkGenerator.Size size;
+
+    private SyntheticNetwork network;
+    private Map<String, List<BusSchedule>> schedulesByRoute;
+    private String[] queryRoutes;
+    private String[] queryStops;
+    private int query;
+
+    @Setup
+    public void setUp() {
+        network = new SyntheticNetwork(size);
+        schedulesByRoute = new HashMap<>();
+        for (BusSchedule schedule : network.schedules) {
+            schedulesByRoute.computeIfAbsent(schedule.getRouteId(), key -> new ArrayList<>())
+                    .add(schedule);
+        }
+        Random random = new Random(7);
+        queryRoutes = new String[QUERIES];
+        queryStops = new String[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            BusSchedule schedule = network.schedules.get(random.nextInt(network.schedules.size()));
+            queryRoutes[i] = schedule.getRouteId();
+            queryStops[i] = schedule.getStopId();
+        }
+    }
+
+    private int nextQuery() {
+        query = (query + 1) & (QUERIES - 1);
+        return query;
+    }
+
+    /**
+     * The original app: scan the route's schedules, parse each with
+     * SimpleDateFormat and step a Calendar forward one headway at a time
+     */
+    @Benchmark
+    public int legacyCalendar() throws ParseException {
+        int q = nextQuery();
+        int total = 0;
+        for (BusSchedule schedule : schedulesByRoute.get(queryRoutes[q])) {
+            if (!schedule.getStopId().equals(queryStops[q])) {
+                continue;
+            }
+            SimpleDateFormat format = new SimpleDateFormat("HH:mm", Locale.US);
+            Date arrivalTime = format.parse(schedule.getArrivalTime());
+            Calendar now = Calendar.getInstance();
+            Calendar arrival = Calendar.getInstance();
+            arrival.setTime(arrivalTime);
+            arrival.set(Calendar.YEAR, now.get(Calendar.YEAR));
+            arrival.set(Calendar.MONTH, now.get(Calendar.MONTH));
+            arrival.set(Calendar.DAY_OF_MONTH, now.get(Calendar.DAY_OF_MONTH));
+            if (schedule.getFrequency() <= 0) {
+                // A single trip: later today, or tomorrow
+                if (arrival.before(now)) {
+                    arrival.add(Calendar.DAY_OF_MONTH, 1);
+                }
+            }
+            while (arrival.before(now)) {
+                arrival.add(Calendar.MINUTE, schedule.getFrequency());
+            }
+            total += (int) ((arrival.getTimeInMillis() - now.getTimeInMillis()) / 60000);
+        }
+        return total;
+    }
+
+    /**
+     * Same scan over model objects, with the allocation-free engine
+     */
+    @Benchmark
+    public int objectScan() {
+        int q = nextQuery();
+        int nowMinute = 600 + q;
+        int total = 0;
+        for (BusSchedule schedule : schedulesByRoute.get(queryRoutes[q])) {
+            if (schedule.getStopId().equals(queryStops[q])) {
+                total += ArrivalPredictionEngine.minutesUntilNextArrival(schedule, nowMinute);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Binary search for the pair's row range in the columnar store
+     */
+    @Benchmark
+    public int columnarStore() {
+        int q = nextQuery();
+        int nowMinute = 600 + q;
+        ScheduleStore store = network.store;
+        int total = 0;
+        int end = store.endRow(queryRoutes[q], queryStops[q]);
+        for (int row = store.firstRow(queryRoutes[q], queryStops[q]); row < end; row++) {
+            total += store.minutesUntilNextArrival(row, nowMinute);
+        }
+        return total;
+    }
+
+    /**
+     * Next 20 departures from the stop across every route that serves it
+     */
+    @Benchmark
+    public List<StopBoard.Departure> stopBoard() {
+        int q = nextQuery();
+        return StopBoard.nextDepartures(network.store, queryStops[q], 2, 600 + q, 20);
+    }
+}
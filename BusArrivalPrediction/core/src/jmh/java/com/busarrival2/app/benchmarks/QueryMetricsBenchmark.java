@@ -0,0 +1,44 @@
+package com.busarrival2.app.benchmarks;
+
+import com.busarrival2.app.data.QueryMetrics;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * QueryMetricsBenchmark Class
+ * Cost of recording one value into QueryMetrics, alone and with the decoder
+ * pool's four threads recording into the same path at once
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class QueryMetricsBenchmark {
+
+    private final QueryMetrics metrics = new QueryMetrics();
+
+    @Benchmark
+    @Threads(1)
+    public void recordSingleThread() {
+        record();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void recordContended() {
+        record();
+    }
+
+    private void record() {
+        metrics.record("busSchedules", QueryMetrics.Metric.DECODE_MICROS,
+                ThreadLocalRandom.current().nextInt(100_000));
+    }
+}
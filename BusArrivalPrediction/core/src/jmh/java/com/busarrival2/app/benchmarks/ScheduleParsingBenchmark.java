@@ -0,0 +1,98 @@
+package com.busarrival2.app.benchmarks;
+
+import com.busarrival2.app.gtfs.CsvReader;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ScheduleParsingBenchmark Class
+ * Time-of-day parsing, by hand and with SimpleDateFormat, and streaming a
+ * GTFS stop_times.txt through CsvReader
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ScheduleParsingBenchmark {
+
+    private static final int TIMES = 1024;
+
+    @Param({"10000"})
+    public int stopTimeRows;
+
+    private String[] times;
+    private String stopTimes;
+    private final Calendar calendar = Calendar.getInstance();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        times = new String[TIMES];
+        for (int i = 0; i < TIMES; i++) {
+            times[i] = SyntheticNetwork.toClockTime(random.nextInt(ArrivalPredictionEngine.MINUTES_PER_DAY));
+        }
+
+        StringBuilder csv = new StringBuilder(stopTimeRows * 48);
+        csv.append("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+        for (int row = 0; row < stopTimeRows; row++) {
+            String time = times[row & (TIMES - 1)] + ":00";
+            csv.append("trip").append(row / 20).append(',')
+                    .append(time).append(',').append(time).append(',')
+                    .append("\"s").append(row % 400).append("\",")
+                    .append(row % 20).append('\n');
+        }
+        stopTimes = csv.toString();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TIMES)
+    public int parseMinuteOfDay() {
+        int total = 0;
+        for (String time : times) {
+            total += ArrivalPredictionEngine.parseMinuteOfDay(time);
+        }
+        return total;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(TIMES)
+    public int simpleDateFormat() throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("HH:mm", Locale.US);
+        int total = 0;
+        for (String time : times) {
+            calendar.setTime(format.parse(time));
+            total += calendar.get(Calendar.HOUR_OF_DAY) * 60 + calendar.get(Calendar.MINUTE);
+        }
+        return total;
+    }
+
+    @Benchmark
+    public long csvStopTimes() throws IOException {
+        long total = 0;
+        try (CsvReader reader = new CsvReader(new StringReader(stopTimes))) {
+            int arrivalColumn = reader.column("arrival_time");
+            String[] row;
+            while ((row = reader.readRow()) != null) {
+                total += CsvReader.get(row, arrivalColumn).length();
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,103 @@
+package com.busarrival2.app.benchmarks;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.gtfs.NetworkGenerator;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.ModelMappers;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * SnapshotMappingBenchmark Class
+ * Turning raw snapshot value maps into schedules: the bean mapping by
+ * reflection that DataSnapshot.getValue(Class) does, the hand-written
+ * ModelMappers, and straight into a columnar ScheduleStore
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SnapshotMappingBenchmark {
+
+    @Param({"SMALL", "MEDIUM"})
+    public NetworkGenerator.Size size;
+
+    private List<Map<String, Object>> values;
+    private final Map<String, Method> setters = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        values = new ArrayList<>();
+        for (BusSchedule schedule : new SyntheticNetwork(size).schedules) {
+            values.add(ModelMappers.SCHEDULE.toMap(schedule));
+        }
+        // Setters are looked up once and cached, as Firebase's mapper does
+        for (Method method : BusSchedule.class.getMethods()) {
+            if (method.getName().startsWith("set") && method.getParameterCount() == 1) {
+                String property = method.getName().substring(3);
+                setters.put(property.substring(0, 1).toLowerCase(Locale.US)
+                        + property.substring(1), method);
+            }
+        }
+    }
+
+    @Benchmark
+    public List<BusSchedule> reflection() throws ReflectiveOperationException {
+        List<BusSchedule> schedules = new ArrayList<>(values.size());
+        for (Map<String, Object> value : values) {
+            BusSchedule schedule = BusSchedule.class.getDeclaredConstructor().newInstance();
+            for (Map.Entry<String, Object> field : value.entrySet()) {
+                Method setter = setters.get(field.getKey());
+                if (setter == null) {
+                    continue;
+                }
+                Object argument = field.getValue();
+                if (setter.getParameterTypes()[0] == int.class && argument instanceof Number) {
+                    argument = ((Number) argument).intValue();
+                }
+                setter.invoke(schedule, argument);
+            }
+            schedules.add(schedule);
+        }
+        return schedules;
+    }
+
+    @Benchmark
+    public List<BusSchedule> modelMapper() {
+        List<BusSchedule> schedules = new ArrayList<>(values.size());
+        for (Map<String, Object> value : values) {
+            schedules.add(ModelMappers.SCHEDULE.fromMap(value));
+        }
+        return schedules;
+    }
+
+    @Benchmark
+    public ScheduleStore columnarStore() {
+        ScheduleStore.Builder builder = new ScheduleStore.Builder(values.size());
+        for (Map<String, Object> value : values) {
+            builder.add(ModelMappers.asString(value.get("scheduleId")),
+                    ModelMappers.asString(value.get("routeId")),
+                    ModelMappers.asString(value.get("stopId")),
+                    ArrivalPredictionEngine.parseMinuteOfDay(
+                            ModelMappers.asString(value.get("arrivalTime"))),
+                    (int) ModelMappers.asLong(value.get("frequency")),
+                    ScheduleStore.dayMaskOf(ModelMappers.asStringList(value.get("daysOfWeek"))));
+        }
+        return builder.build();
+    }
+}
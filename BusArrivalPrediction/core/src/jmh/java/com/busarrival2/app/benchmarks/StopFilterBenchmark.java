@@ -0,0 +1,120 @@
+package com.busarrival2.app.benchmarks;
+
+import com.busarrival2.app.data.RouteStopIndex;
+import com.busarrival2.app.data.StopSpatialIndex;
+import com.busarrival2.app.gtfs.NetworkGenerator;
+import com.busarrival2.app.models.BusStop;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * StopFilterBenchmark Class
+ * Stops of a route and stops near a position: linear scans against
+ * RouteStopIndex and the StopSpatialIndex k-d tree
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StopFilterBenchmark {
+
+    private static final int QUERIES = 256;
+    private static final int NEAREST = 5;
+
+    @Param({"SMALL", "MEDIUM", "CITY"})
+    public NetworkGenerator.Size size;
+
+    private SyntheticNetwork network;
+    private RouteStopIndex routeIndex;
+    private StopSpatialIndex spatialIndex;
+    private String[] queryRoutes;
+    private double[] queryLatitudes;
+    private double[] queryLongitudes;
+    private int query;
+
+    @Setup
+    public void setUp() {
+        network = new SyntheticNetwork(size);
+        routeIndex = new RouteStopIndex();
+        for (BusStop stop : network.stops) {
+            routeIndex.put(stop);
+        }
+        spatialIndex = new StopSpatialIndex(network.stops);
+
+        // Around random stops, up to about 500 m off
+        Random random = new Random(7);
+        queryRoutes = new String[QUERIES];
+        queryLatitudes = new double[QUERIES];
+        queryLongitudes = new double[QUERIES];
+        for (int i = 0; i < QUERIES; i++) {
+            BusStop near = network.stops.get(random.nextInt(network.stops.size()));
+            queryRoutes[i] = network.routeIds.get(random.nextInt(network.routeIds.size()));
+            queryLatitudes[i] = near.getLatitude() + (random.nextDouble() - 0.5) * 0.009;
+            queryLongitudes[i] = near.getLongitude() + (random.nextDouble() - 0.5) * 0.009;
+        }
+    }
+
+    private int nextQuery() {
+        query = (query + 1) & (QUERIES - 1);
+        return query;
+    }
+
+    @Benchmark
+    public List<BusStop> routeLinearScan() {
+        String routeId = queryRoutes[nextQuery()];
+        List<BusStop> result = new ArrayList<>();
+        for (BusStop stop : network.stops) {
+            if (routeId.equals(stop.getRouteId())) {
+                result.add(stop);
+            }
+        }
+        return result;
+    }
+
+    @Benchmark
+    public List<BusStop> routeIndex() {
+        return routeIndex.getStopsForRoute(queryRoutes[nextQuery()]);
+    }
+
+    @Benchmark
+    public BusStop[] nearestLinearScan() {
+        int q = nextQuery();
+        BusStop[] best = new BusStop[NEAREST];
+        double[] distances = new double[NEAREST];
+        Arrays.fill(distances, Double.MAX_VALUE);
+        for (BusStop stop : network.stops) {
+            double distance = StopSpatialIndex.distanceMeters(queryLatitudes[q],
+                    queryLongitudes[q], stop);
+            if (distance >= distances[NEAREST - 1]) {
+                continue;
+            }
+            int slot = NEAREST - 1;
+            while (slot > 0 && distances[slot - 1] > distance) {
+                distances[slot] = distances[slot - 1];
+                best[slot] = best[slot - 1];
+                slot--;
+            }
+            distances[slot] = distance;
+            best[slot] = stop;
+        }
+        return best;
+    }
+
+    @Benchmark
+    public List<BusStop> nearestSpatialIndex() {
+        int q = nextQuery();
+        return spatialIndex.findNearest(queryLatitudes[q], queryLongitudes[q], NEAREST);
+    }
+}
@@ -0,0 +1,66 @@
+package com.busarrival2.app.benchmarks;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.gtfs.GtfsImporter;
+import com.busarrival2.app.gtfs.NetworkGenerator;
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SyntheticNetwork Class
+ * A generated network held in the shapes the benchmarks need. Every
+ * benchmark builds it with NetworkGenerator and the same seed, so results
+ * for a size always refer to the same dataset.
+ */
+final class SyntheticNetwork {
+
+    static final long SEED = 42;
+
+    final NetworkGenerator generator;
+    final List<BusStop> stops;
+    final List<String> routeIds = new ArrayList<>();
+    final List<BusSchedule> schedules = new ArrayList<>();
+    final ScheduleStore store;
+
+    SyntheticNetwork(NetworkGenerator.Size size) {
+        generator = new NetworkGenerator(size, SEED);
+        stops = generator.getStops();
+        for (BusRoute route : generator.getRoutes()) {
+            routeIds.add(route.getRouteId());
+        }
+        try {
+            generator.generate(new GtfsImporter.Sink() {
+                @Override
+                public void writeRoute(BusRoute route) {
+                }
+
+                @Override
+                public void writeStop(BusStop stop) {
+                }
+
+                @Override
+                public void writeSchedule(BusSchedule schedule) {
+                    schedules.add(schedule);
+                }
+
+                @Override
+                public void flush() {
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        store = generator.buildScheduleStore();
+    }
+
+    static String toClockTime(int minuteOfDay) {
+        int hours = minuteOfDay / 60;
+        int minutes = minuteOfDay % 60;
+        return (hours < 10 ? "0" : "") + hours + (minutes < 10 ? ":0" : ":") + minutes;
+    }
+}
@@ -0,0 +1,97 @@
+package com.busarrival2.app.data;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * ChangeSet Class
+ * Ordered batch of child-level changes applied to a synced collection
+ * @param <T> Model type of the collection
+ */
+public final class ChangeSet<T> {
+
+    /**
+     * Kind of change applied to a single child
+     */
+    public enum Type {
+        ADDED,
+        CHANGED,
+        REMOVED,
+        MOVED
+    }
+
+    /**
+     * Change Class
+     * One child-level change
+     * @param <T> Model type of the collection
+     */
+    public static final class Change<T> {
+        private final Type type;
+        private final String key;
+        private final T item;
+        private final String previousKey;
+
+        public Change(Type type, String key, T item, String previousKey) {
+            this.type = type;
+            this.key = key;
+            this.item = item;
+            this.previousKey = previousKey;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Get the new item, or the removed item for REMOVED changes
+         * @return The item this change refers to
+         */
+        public T getItem() {
+            return item;
+        }
+
+        /**
+         * Get the key of the sibling this child now follows
+         * @return Previous sibling key, or null if it is first
+         */
+        public String getPreviousKey() {
+            return previousKey;
+        }
+    }
+
+    private final List<Change<T>> changes;
+    private final boolean loaded;
+
+    public ChangeSet(List<Change<T>> changes, boolean loaded) {
+        this.changes = Collections.unmodifiableList(changes);
+        this.loaded = loaded;
+    }
+
+    /**
+     * Get the changes in the order they were applied
+     * @return Read-only list of changes
+     */
+    public List<Change<T>> getChanges() {
+        return changes;
+    }
+
+    /**
+     * Check if the collection has received its initial contents
+     * @return true once the initial load is complete
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    public int size() {
+        return changes.size();
+    }
+}
@@ -0,0 +1,105 @@
+package com.busarrival2.app.data;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * DecodeMetrics Class
+ * Thread-safe totals of time spent decoding snapshots, per database path
+ */
+public class DecodeMetrics {
+
+    /**
+     * Stats Class
+     * Running totals for one path
+     */
+    public static final class Stats {
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong items = new AtomicLong();
+        private final AtomicLong totalNanos = new AtomicLong();
+        private final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos, int itemCount) {
+            count.incrementAndGet();
+            items.addAndGet(itemCount);
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+                max = maxNanos.get();
+            }
+        }
+
+        /**
+         * Get the number of decode passes
+         * @return Decode count
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * Get the number of models produced
+         * @return Item count
+         */
+        public long getItemCount() {
+            return items.get();
+        }
+
+        public long getTotalNanos() {
+            return totalNanos.get();
+        }
+
+        public long getMaxNanos() {
+            return maxNanos.get();
+        }
+
+        public double getTotalMillis() {
+            return totalNanos.get() / 1_000_000.0;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Stats> statsByPath = new ConcurrentHashMap<>();
+
+    /**
+     * Record one decode pass
+     * @param path Database path that was decoded
+     * @param nanos Time spent decoding
+     * @param itemCount Number of models produced
+     */
+    public void record(String path, long nanos, int itemCount) {
+        statsByPath.computeIfAbsent(path, key -> new Stats()).record(nanos, itemCount);
+    }
+
+    /**
+     * Get the stats for a path
+     * @param path The database path
+     * @return Stats, or null if the path was never decoded
+     */
+    public Stats getStats(String path) {
+        return statsByPath.get(path);
+    }
+
+    /**
+     * Get the total decode time for a path
+     * @param path The database path
+     * @return Milliseconds spent decoding the path
+     */
+    public double getDecodeTimeMillis(String path) {
+        Stats stats = statsByPath.get(path);
+        return stats != null ? stats.getTotalMillis() : 0;
+    }
+
+    /**
+     * Get a sorted copy of all stats
+     * @return Stats keyed by path
+     */
+    public Map<String, Stats> getAll() {
+        return new TreeMap<>(statsByPath);
+    }
+
+    public void reset() {
+        statsByPath.clear();
+    }
+}
@@ -0,0 +1,123 @@
+package com.busarrival2.app.data;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Geohash Class
+ * Encodes coordinates as base-32 geohash strings. Positions that share a
+ * prefix lie in the same cell, so a prefix can be used as a bucket key.
+ */
+public final class Geohash {
+
+    // Precision used to bucket stops; a 5-character cell is about 4.9 km x 4.9 km
+    public static final int STOP_BUCKET_PRECISION = 5;
+
+    private static final char[] BASE32 = "0123456789bcdefghjkmnpqrstuvwxyz".toCharArray();
+
+    private Geohash() {
+    }
+
+    /**
+     * Encode a position
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param precision Number of characters
+     * @return Geohash of the cell containing the position
+     */
+    public static String encode(double latitude, double longitude, int precision) {
+        double minLat = -90, maxLat = 90;
+        double minLon = -180, maxLon = 180;
+        char[] hash = new char[precision];
+        boolean evenBit = true;
+
+        for (int i = 0; i < precision; i++) {
+            int index = 0;
+            for (int bit = 0; bit < 5; bit++) {
+                index <<= 1;
+                if (evenBit) {
+                    double mid = (minLon + maxLon) / 2;
+                    if (longitude >= mid) {
+                        index |= 1;
+                        minLon = mid;
+                    } else {
+                        maxLon = mid;
+                    }
+                } else {
+                    double mid = (minLat + maxLat) / 2;
+                    if (latitude >= mid) {
+                        index |= 1;
+                        minLat = mid;
+                    } else {
+                        maxLat = mid;
+                    }
+                }
+                evenBit = !evenBit;
+            }
+            hash[i] = BASE32[index];
+        }
+        return new String(hash);
+    }
+
+    /**
+     * Get the height of a cell in degrees of latitude
+     * @param precision Number of characters
+     * @return Cell height
+     */
+    public static double cellHeight(int precision) {
+        int latBits = (5 * precision) / 2;
+        return 180.0 / (1L << latBits);
+    }
+
+    /**
+     * Get the width of a cell in degrees of longitude
+     * @param precision Number of characters
+     * @return Cell width
+     */
+    public static double cellWidth(int precision) {
+        int lonBits = (5 * precision + 1) / 2;
+        return 360.0 / (1L << lonBits);
+    }
+
+    /**
+     * Get the cell containing a position and the eight cells around it
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param precision Number of characters
+     * @return Distinct cells, the centre cell first
+     */
+    public static List<String> coveringCells(double latitude, double longitude, int precision) {
+        double height = cellHeight(precision);
+        double width = cellWidth(precision);
+        List<String> cells = new ArrayList<>(9);
+        cells.add(encode(latitude, longitude, precision));
+
+        for (int dy = -1; dy <= 1; dy++) {
+            for (int dx = -1; dx <= 1; dx++) {
+                if (dx == 0 && dy == 0) {
+                    continue;
+                }
+                double lat = latitude + dy * height;
+                if (lat > 90 || lat < -90) {
+                    continue;
+                }
+                double lon = wrapLongitude(longitude + dx * width);
+                String cell = encode(lat, lon, precision);
+                if (!cells.contains(cell)) {
+                    cells.add(cell);
+                }
+            }
+        }
+        return cells;
+    }
+
+    private static double wrapLongitude(double longitude) {
+        if (longitude >= 180) {
+            return longitude - 360;
+        }
+        if (longitude < -180) {
+            return longitude + 360;
+        }
+        return longitude;
+    }
+}
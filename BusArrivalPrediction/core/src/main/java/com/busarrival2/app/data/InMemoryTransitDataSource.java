@@ -0,0 +1,482 @@
+package com.busarrival2.app.data;
+
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.ModelMapper;
+import com.busarrival2.app.models.ModelMappers;
+import com.busarrival2.app.models.User;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+/**
+ * InMemoryTransitDataSource Class
+ * A TransitDataSource that keeps the database in memory, laid out like the
+ * Firebase tree: routes, stops, geohash buckets, schedules per route and
+ * the routes of each stop. Models are stored as maps and decoded on every
+ * read, so callers never share objects with the store. Every call is
+ * answered after an injectable latency and counted, which makes latency and
+ * throughput runs possible without a Firebase project. Reads see the data as
+ * it is when the latency has passed, and a batch is applied atomically at
+ * that point: its writes go into a copy of the tables, which replaces them
+ * only once every write succeeded. Callbacks run on the callback executor.
+ */
+public class InMemoryTransitDataSource implements TransitDataSource {
+
+    /**
+     * The calls that are counted
+     */
+    public enum Operation {
+        GET_ROUTES,
+        GET_STOPS,
+        GET_STOP,
+        GET_STOPS_IN_CELL,
+        GET_SCHEDULES,
+        GET_STOP_SCHEDULES,
+        GET_USER,
+        PUT_USER,
+        COMMIT
+    }
+
+    // Guarded by this; replaced as a whole when a batch commits
+    private Tables tables = new Tables();
+    private RuntimeException commitFailure;
+    private int commitFailureAfter;
+
+    private final ScheduledExecutorService scheduler;
+    private final Executor callbackExecutor;
+    private final AtomicLongArray calls = new AtomicLongArray(Operation.values().length);
+    private final AtomicLong keys = new AtomicLong();
+
+    private volatile long latencyNanos;
+    private volatile long jitterNanos;
+
+    /**
+     * Create an empty source whose callbacks run on its own thread
+     */
+    public InMemoryTransitDataSource() {
+        this(null);
+    }
+
+    /**
+     * Create an empty source
+     * @param callbackExecutor Runs the callbacks, e.g. the main thread;
+     *                         null runs them on the source's own thread
+     */
+    public InMemoryTransitDataSource(Executor callbackExecutor) {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "InMemoryTransitDataSource");
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.setRemoveOnCancelPolicy(true);
+        this.scheduler = executor;
+        this.callbackExecutor = callbackExecutor != null ? callbackExecutor : Runnable::run;
+    }
+
+    /**
+     * Delay every call by a fixed latency plus a uniformly random jitter
+     * @param latency Fixed part of the delay
+     * @param jitter Upper bound of the random part, 0 for none
+     * @param unit Unit of latency and jitter
+     */
+    public void setLatency(long latency, long jitter, TimeUnit unit) {
+        latencyNanos = Math.max(0, unit.toNanos(latency));
+        jitterNanos = Math.max(0, unit.toNanos(jitter));
+    }
+
+    /**
+     * Get how often an operation was called
+     * @param operation The operation
+     * @return Call count since creation or the last reset
+     */
+    public long getCallCount(Operation operation) {
+        return calls.get(operation.ordinal());
+    }
+
+    /**
+     * Get how often any operation was called
+     * @return Total call count since creation or the last reset
+     */
+    public long getCallCount() {
+        long total = 0;
+        for (int i = 0; i < calls.length(); i++) {
+            total += calls.get(i);
+        }
+        return total;
+    }
+
+    public void resetCallCounts() {
+        for (int i = 0; i < calls.length(); i++) {
+            calls.set(i, 0);
+        }
+    }
+
+    /**
+     * Make the next commit fail part way, to test how callers handle a
+     * failed batch. Nothing of that batch is applied.
+     * @param afterWrites Writes of the batch that run before the failure
+     * @param error Exception the commit fails with
+     */
+    public synchronized void failNextCommit(int afterWrites, RuntimeException error) {
+        commitFailureAfter = afterWrites;
+        commitFailure = error;
+    }
+
+    /**
+     * Stop answering calls; calls still waiting out their latency are dropped
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public String newKey() {
+        // Zero-padded, so keys sort in creation order like push keys
+        return String.format(Locale.US, "k%012d", keys.incrementAndGet());
+    }
+
+    @Override
+    public void getRoutes(Callback<List<BusRoute>> callback) {
+        submit(Operation.GET_ROUTES, () -> decodeAll(tables.routes.values(), ModelMappers.ROUTE), callback);
+    }
+
+    @Override
+    public void getStops(Callback<List<BusStop>> callback) {
+        submit(Operation.GET_STOPS, () -> decodeAll(tables.stops.values(), ModelMappers.STOP), callback);
+    }
+
+    @Override
+    public void getStop(String stopId, Callback<BusStop> callback) {
+        submit(Operation.GET_STOP, () -> ModelMappers.STOP.fromValue(tables.stops.get(stopId)), callback);
+    }
+
+    @Override
+    public void getStopsInCell(String cell, Callback<List<BusStop>> callback) {
+        submit(Operation.GET_STOPS_IN_CELL, () -> {
+            Map<String, Map<String, Object>> bucket = tables.stopsByCell.get(cell);
+            return bucket != null ? decodeAll(bucket.values(), ModelMappers.STOP)
+                    : Collections.<BusStop>emptyList();
+        }, callback);
+    }
+
+    @Override
+    public void getSchedules(String routeId, String stopId, Callback<ScheduleStore> callback) {
+        submit(Operation.GET_SCHEDULES, () -> {
+            ScheduleStore.Builder builder = new ScheduleStore.Builder();
+            Map<String, Map<String, Object>> route = tables.schedulesByRoute.get(routeId);
+            if (route != null) {
+                for (Map<String, Object> values : route.values()) {
+                    builder.add(ModelMappers.SCHEDULE.fromMap(values));
+                }
+            }
+            return builder.build();
+        }, callback);
+    }
+
+    @Override
+    public void getStopSchedules(String stopId, Callback<ScheduleStore> callback) {
+        submit(Operation.GET_STOP_SCHEDULES, () -> {
+            ScheduleStore.Builder builder = new ScheduleStore.Builder();
+            Set<String> routeIds = tables.stopRoutes.get(stopId);
+            if (routeIds != null) {
+                for (String routeId : routeIds) {
+                    Map<String, Map<String, Object>> route = tables.schedulesByRoute.get(routeId);
+                    if (route == null) {
+                        continue;
+                    }
+                    for (Map<String, Object> values : route.values()) {
+                        if (stopId.equals(values.get("stopId"))) {
+                            builder.add(ModelMappers.SCHEDULE.fromMap(values));
+                        }
+                    }
+                }
+            }
+            return builder.build();
+        }, callback);
+    }
+
+    @Override
+    public void getUser(String userId, Callback<User> callback) {
+        submit(Operation.GET_USER, () -> ModelMappers.USER.fromValue(tables.users.get(userId)), callback);
+    }
+
+    @Override
+    public void putUser(User user, Callback<Void> callback) {
+        Map<String, Object> values = ModelMappers.USER.toMap(user);
+        submit(Operation.PUT_USER, () -> {
+            tables.users.put(user.getUserId(), values);
+            return null;
+        }, callback);
+    }
+
+    @Override
+    public Batch newBatch() {
+        return new MemoryBatch();
+    }
+
+    /**
+     * Run a read or write against the store once the latency has passed
+     */
+    private <T> void submit(Operation operation, Action<T> action, Callback<T> callback) {
+        calls.incrementAndGet(operation.ordinal());
+        long delay = latencyNanos;
+        long jitter = jitterNanos;
+        if (jitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+        scheduler.schedule(() -> {
+            T result;
+            try {
+                synchronized (InMemoryTransitDataSource.this) {
+                    result = action.run();
+                }
+            } catch (RuntimeException e) {
+                callbackExecutor.execute(() -> callback.onFailure(e));
+                return;
+            }
+            callbackExecutor.execute(() -> callback.onSuccess(result));
+        }, delay, TimeUnit.NANOSECONDS);
+    }
+
+    private interface Action<T> {
+        T run();
+    }
+
+    private static <T> List<T> decodeAll(Iterable<Map<String, Object>> values, ModelMapper<T> mapper) {
+        List<T> items = new ArrayList<>();
+        for (Map<String, Object> value : values) {
+            items.add(mapper.fromMap(value));
+        }
+        return Collections.unmodifiableList(items);
+    }
+
+    /**
+     * Same bucket as FirebaseHelper.getGeohashCell: stops without a location have none
+     */
+    private static String cellOf(BusStop stop) {
+        if (stop.getLatitude() == 0.0 && stop.getLongitude() == 0.0) {
+            return null;
+        }
+        return Geohash.encode(stop.getLatitude(), stop.getLongitude(),
+                Geohash.STOP_BUCKET_PRECISION);
+    }
+
+    /**
+     * Collects writes as changes to apply under the store's lock. Paths are
+     * counted the way WriteBatch counts them, so sizes compare between sources.
+     */
+    private final class MemoryBatch implements Batch {
+        private final List<Consumer<Tables>> writes = new ArrayList<>();
+        private int paths;
+
+        @Override
+        public Batch putRoute(BusRoute route) {
+            Map<String, Object> values = ModelMappers.ROUTE.toMap(route);
+            writes.add(staged -> staged.routes.put(route.getRouteId(), values));
+            paths++;
+            return this;
+        }
+
+        @Override
+        public Batch putStop(BusStop stop, BusStop previous) {
+            Map<String, Object> values = ModelMappers.STOP.toMap(stop);
+            String stopId = stop.getStopId();
+            String cell = cellOf(stop);
+            String previousCell = previous != null ? cellOf(previous) : null;
+            writes.add(staged -> {
+                staged.stops.put(stopId, values);
+                if (previousCell != null && !previousCell.equals(cell)) {
+                    staged.removeFromCell(previousCell, stopId);
+                }
+                if (cell != null) {
+                    staged.cell(cell).put(stopId, values);
+                }
+            });
+            paths += 1 + (cell != null ? 1 : 0)
+                    + (previousCell != null && !previousCell.equals(cell) ? 1 : 0);
+            return this;
+        }
+
+        @Override
+        public Batch deleteStop(BusStop stop) {
+            String stopId = stop.getStopId();
+            String cell = cellOf(stop);
+            writes.add(staged -> {
+                staged.stops.remove(stopId);
+                if (cell != null) {
+                    staged.removeFromCell(cell, stopId);
+                }
+            });
+            paths += cell != null ? 2 : 1;
+            return this;
+        }
+
+        @Override
+        public Batch putSchedule(BusSchedule schedule, BusSchedule previous) {
+            Map<String, Object> values = ModelMappers.SCHEDULE.toMap(schedule);
+            String routeId = schedule.getRouteId();
+            String stopId = schedule.getStopId();
+            String scheduleId = schedule.getScheduleId();
+            boolean moved = previous != null && (!previous.getRouteId().equals(routeId)
+                    || !previous.getStopId().equals(stopId));
+            writes.add(staged -> {
+                if (moved) {
+                    staged.removeSchedule(previous.getRouteId(), scheduleId);
+                }
+                staged.route(routeId).put(scheduleId, values);
+                staged.routesOf(stopId).add(routeId);
+            });
+            paths += moved ? 3 : 2;
+            return this;
+        }
+
+        @Override
+        public Batch deleteSchedule(BusSchedule schedule) {
+            String routeId = schedule.getRouteId();
+            String scheduleId = schedule.getScheduleId();
+            // Like Firebase, busStopRoutes keeps the route
+            writes.add(staged -> staged.removeSchedule(routeId, scheduleId));
+            paths++;
+            return this;
+        }
+
+        @Override
+        public int size() {
+            return paths;
+        }
+
+        @Override
+        public void commit(Callback<Void> callback) {
+            List<Consumer<Tables>> pending = new ArrayList<>(writes);
+            writes.clear();
+            submit(Operation.COMMIT, () -> {
+                RuntimeException failure = commitFailure;
+                int failAfter = commitFailureAfter;
+                commitFailure = null;
+
+                Tables staged = new Tables(tables);
+                for (int i = 0; i < pending.size(); i++) {
+                    if (failure != null && i == failAfter) {
+                        throw failure;
+                    }
+                    pending.get(i).accept(staged);
+                }
+                if (failure != null) {
+                    throw failure;
+                }
+                tables = staged;
+                return null;
+            }, callback);
+        }
+    }
+
+    /**
+     * The stored tree. A copy shares the nested maps of the tables it was
+     * made from and copies each one the first time it writes to it, so a
+     * batch costs its own writes plus one copy of the top-level maps.
+     */
+    private static final class Tables {
+        final Map<String, Map<String, Object>> routes;
+        final Map<String, Map<String, Object>> stops;
+        final Map<String, Map<String, Map<String, Object>>> stopsByCell;
+        final Map<String, Map<String, Map<String, Object>>> schedulesByRoute;
+        final Map<String, Set<String>> stopRoutes;
+        final Map<String, Map<String, Object>> users;
+        // Nested maps and sets this copy made itself and may write to
+        private final Set<Object> owned = Collections.newSetFromMap(new IdentityHashMap<>());
+
+        Tables() {
+            routes = new LinkedHashMap<>();
+            stops = new LinkedHashMap<>();
+            stopsByCell = new LinkedHashMap<>();
+            schedulesByRoute = new LinkedHashMap<>();
+            stopRoutes = new LinkedHashMap<>();
+            users = new LinkedHashMap<>();
+        }
+
+        Tables(Tables from) {
+            routes = new LinkedHashMap<>(from.routes);
+            stops = new LinkedHashMap<>(from.stops);
+            stopsByCell = new LinkedHashMap<>(from.stopsByCell);
+            schedulesByRoute = new LinkedHashMap<>(from.schedulesByRoute);
+            stopRoutes = new LinkedHashMap<>(from.stopRoutes);
+            users = new LinkedHashMap<>(from.users);
+        }
+
+        /**
+         * Get the writable bucket of a geohash cell, creating it if needed
+         */
+        Map<String, Map<String, Object>> cell(String cell) {
+            return writable(stopsByCell, cell,
+                    bucket -> bucket != null ? new LinkedHashMap<>(bucket) : new LinkedHashMap<>());
+        }
+
+        /**
+         * Get the writable schedules of a route, creating them if needed
+         */
+        Map<String, Map<String, Object>> route(String routeId) {
+            return writable(schedulesByRoute, routeId,
+                    route -> route != null ? new LinkedHashMap<>(route) : new LinkedHashMap<>());
+        }
+
+        /**
+         * Get the writable routes of a stop, creating them if needed
+         */
+        Set<String> routesOf(String stopId) {
+            return writable(stopRoutes, stopId,
+                    routes -> routes != null ? new LinkedHashSet<>(routes) : new LinkedHashSet<>());
+        }
+
+        void removeFromCell(String cell, String stopId) {
+            if (stopsByCell.containsKey(cell)) {
+                Map<String, Map<String, Object>> bucket = cell(cell);
+                bucket.remove(stopId);
+                if (bucket.isEmpty()) {
+                    stopsByCell.remove(cell);
+                }
+            }
+        }
+
+        void removeSchedule(String routeId, String scheduleId) {
+            if (schedulesByRoute.containsKey(routeId)) {
+                Map<String, Map<String, Object>> route = route(routeId);
+                route.remove(scheduleId);
+                if (route.isEmpty()) {
+                    schedulesByRoute.remove(routeId);
+                }
+            }
+        }
+
+        /**
+         * Get a nested value this copy may write to, copying the shared one
+         * @param copy Copies a value, or creates an empty one from null
+         */
+        private <V> V writable(Map<String, V> table, String key, UnaryOperator<V> copy) {
+            V value = table.get(key);
+            if (value == null || !owned.contains(value)) {
+                value = copy.apply(value);
+                table.put(key, value);
+                owned.add(value);
+            }
+            return value;
+        }
+    }
+}
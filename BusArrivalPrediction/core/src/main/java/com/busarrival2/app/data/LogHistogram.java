@@ -0,0 +1,197 @@
+package com.busarrival2.app.data;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LogHistogram Class
+ * Lock-free histogram of non-negative values. Buckets grow by powers of two,
+ * each split into eight, so a value is kept to within 12.5% whatever its
+ * size and the whole long range fits in a few hundred counters. Any thread
+ * can record without blocking; readers take a Snapshot.
+ */
+public class LogHistogram {
+
+    // Each power of two is split into 2^SUB_BITS buckets
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKET_COUNT = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Record one value
+     * @param value The value; negative values are counted as 0
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        buckets.incrementAndGet(bucketOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+
+        long low = min.get();
+        while (value < low && !min.compareAndSet(low, value)) {
+            low = min.get();
+        }
+        long high = max.get();
+        while (value > high && !max.compareAndSet(high, value)) {
+            high = max.get();
+        }
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * Copy the current state. Values recorded while copying may be
+     * partly included, which only moves the totals by those values.
+     * @return Snapshot of this histogram
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+        long total = count.get();
+        return new Snapshot(counts, total, sum.get(),
+                total > 0 ? min.get() : 0, total > 0 ? max.get() : 0);
+    }
+
+    /**
+     * Forget every value. Not atomic with concurrent records.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            buckets.set(i, 0);
+        }
+        count.set(0);
+        sum.set(0);
+        min.set(Long.MAX_VALUE);
+        max.set(Long.MIN_VALUE);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_COUNT) {
+            return (int) value;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_COUNT - 1);
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    static long lowerBoundOf(int bucket) {
+        if (bucket < SUB_COUNT) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_COUNT + SUB_BITS - 1;
+        long sub = bucket % SUB_COUNT;
+        return (SUB_COUNT + sub) << (exponent - SUB_BITS);
+    }
+
+    static long upperBoundOf(int bucket) {
+        return bucket + 1 < BUCKET_COUNT ? lowerBoundOf(bucket + 1) - 1 : Long.MAX_VALUE;
+    }
+
+    /**
+     * Snapshot Class
+     * Immutable copy of a histogram at one moment
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        private Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = min;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        /**
+         * Get the value below which a share of the values fall
+         * @param percentile Share from 0 to 100
+         * @return Upper bound of the bucket holding that value, or 0 if empty
+         */
+        public long getValueAtPercentile(double percentile) {
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100.0));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long value = upperBoundOf(i);
+                    return max > 0 ? Math.min(value, max) : value;
+                }
+            }
+            return max;
+        }
+
+        /**
+         * Get the values recorded after an earlier snapshot of the same
+         * histogram. Min and max are bucket bounds of the difference, since
+         * the exact values are not kept.
+         * @param earlier Snapshot taken before this one, or null
+         * @return Snapshot of the difference
+         */
+        public Snapshot since(Snapshot earlier) {
+            if (earlier == null) {
+                return this;
+            }
+            long[] difference = new long[counts.length];
+            int lowest = -1;
+            int highest = -1;
+            for (int i = 0; i < counts.length; i++) {
+                difference[i] = Math.max(0, counts[i] - earlier.counts[i]);
+                if (difference[i] > 0) {
+                    if (lowest < 0) {
+                        lowest = i;
+                    }
+                    highest = i;
+                }
+            }
+            long total = Math.max(0, count - earlier.count);
+            if (lowest < 0) {
+                return new Snapshot(difference, 0, 0, 0, 0);
+            }
+            return new Snapshot(difference, total, Math.max(0, sum - earlier.sum),
+                    Math.max(min, lowerBoundOf(lowest)), Math.min(max, upperBoundOf(highest)));
+        }
+    }
+}
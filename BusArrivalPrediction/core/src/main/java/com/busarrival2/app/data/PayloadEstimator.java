@@ -0,0 +1,62 @@
+package com.busarrival2.app.data;
+
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * PayloadEstimator Class
+ * Estimates how many bytes a database value takes as JSON, the form it
+ * goes over the wire in. Characters are counted as one byte each and
+ * nothing is escaped, so the result is a close lower bound, not exact.
+ */
+public final class PayloadEstimator {
+
+    private PayloadEstimator() {
+    }
+
+    /**
+     * Estimate the JSON size of a value made of maps, lists, strings,
+     * numbers and booleans
+     * @param value The value, or null
+     * @return Approximate size in bytes
+     */
+    public static long estimate(Object value) {
+        if (value == null) {
+            return 4;
+        }
+        if (value instanceof String) {
+            return ((String) value).length() + 2;
+        }
+        if (value instanceof Boolean) {
+            return (Boolean) value ? 4 : 5;
+        }
+        if (value instanceof Number) {
+            return String.valueOf(value).length();
+        }
+        if (value instanceof Map) {
+            long size = 2;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                size += entrySize(String.valueOf(entry.getKey()), estimate(entry.getValue()));
+            }
+            return size;
+        }
+        if (value instanceof Collection) {
+            long size = 2;
+            for (Object item : (Collection<?>) value) {
+                size += estimate(item) + 1;
+            }
+            return size;
+        }
+        return String.valueOf(value).length() + 2;
+    }
+
+    /**
+     * Get the size of one "key":value member of an object, with its comma
+     * @param key The member key
+     * @param valueSize Size of the member value
+     * @return Size in bytes
+     */
+    public static long entrySize(String key, long valueSize) {
+        return key.length() + 4 + valueSize;
+    }
+}
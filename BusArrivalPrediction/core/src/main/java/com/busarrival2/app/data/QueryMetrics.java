@@ -0,0 +1,179 @@
+package com.busarrival2.app.data;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * QueryMetrics Class
+ * Per-path histograms of database reads and writes: how long the first data
+ * takes to arrive, how many children and bytes come back, how long decoding
+ * takes and how long writes take to be acknowledged. Recording is lock-free
+ * and safe from any thread.
+ */
+public class QueryMetrics {
+
+    // Percentiles written to the JSON dump
+    private static final double[] PERCENTILES = {50, 90, 99};
+
+    /**
+     * What a histogram measures, and the unit it is recorded in
+     */
+    public enum Metric {
+        FIRST_DATA_MILLIS("first_data_ms"),
+        CHILD_COUNT("children"),
+        PAYLOAD_BYTES("payload_bytes"),
+        DECODE_MICROS("decode_us"),
+        WRITE_ACK_MILLIS("write_ack_ms");
+
+        private final String key;
+
+        Metric(String key) {
+            this.key = key;
+        }
+
+        /**
+         * Get the name used in the JSON dump and analytics events
+         * @return Metric key
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+
+    /**
+     * PathMetrics Class
+     * Histograms and error count of one path
+     */
+    public static final class PathMetrics {
+        private final LogHistogram[] histograms = new LogHistogram[Metric.values().length];
+        private final AtomicLong errors = new AtomicLong();
+
+        PathMetrics() {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] = new LogHistogram();
+            }
+        }
+
+        public LogHistogram get(Metric metric) {
+            return histograms[metric.ordinal()];
+        }
+
+        /**
+         * Get the number of reads and writes that failed
+         * @return Error count
+         */
+        public long getErrorCount() {
+            return errors.get();
+        }
+    }
+
+    private final ConcurrentHashMap<String, PathMetrics> metricsByPath = new ConcurrentHashMap<>();
+
+    /**
+     * Record one measurement
+     * @param path Database path name, e.g. "busRoutes"
+     * @param metric What was measured
+     * @param value The value, in the unit of the metric
+     */
+    public void record(String path, Metric metric, long value) {
+        getOrCreate(path).get(metric).record(value);
+    }
+
+    /**
+     * Record a read or write that failed
+     * @param path Database path name
+     */
+    public void recordError(String path) {
+        getOrCreate(path).errors.incrementAndGet();
+    }
+
+    /**
+     * Get the metrics of a path
+     * @param path Database path name
+     * @return Metrics, or null if nothing was recorded for the path
+     */
+    public PathMetrics get(String path) {
+        return metricsByPath.get(path);
+    }
+
+    /**
+     * Get a sorted view of every path
+     * @return Metrics keyed by path
+     */
+    public Map<String, PathMetrics> getAll() {
+        return new TreeMap<>(metricsByPath);
+    }
+
+    public void reset() {
+        metricsByPath.clear();
+    }
+
+    /**
+     * Write every path as JSON, e.g.
+     * {"busRoutes":{"errors":0,"first_data_ms":{"count":3,"min":80,...}}}
+     * Empty histograms are left out.
+     * @return JSON text
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        boolean firstPath = true;
+        for (Map.Entry<String, PathMetrics> entry : getAll().entrySet()) {
+            if (!firstPath) {
+                json.append(',');
+            }
+            firstPath = false;
+            appendString(json, entry.getKey());
+            json.append(":{\"errors\":").append(entry.getValue().getErrorCount());
+            for (Metric metric : Metric.values()) {
+                LogHistogram.Snapshot snapshot = entry.getValue().get(metric).snapshot();
+                if (snapshot.getCount() == 0) {
+                    continue;
+                }
+                json.append(',');
+                appendString(json, metric.getKey());
+                json.append(':');
+                appendSnapshot(json, snapshot);
+            }
+            json.append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    private PathMetrics getOrCreate(String path) {
+        PathMetrics metrics = metricsByPath.get(path);
+        // Paths are few and long-lived, so skip the locking of computeIfAbsent
+        // once they exist
+        return metrics != null ? metrics
+                : metricsByPath.computeIfAbsent(path, key -> new PathMetrics());
+    }
+
+    private static void appendSnapshot(StringBuilder json, LogHistogram.Snapshot snapshot) {
+        json.append("{\"count\":").append(snapshot.getCount())
+                .append(",\"min\":").append(snapshot.getMin())
+                .append(",\"max\":").append(snapshot.getMax())
+                .append(",\"mean\":").append(String.format(Locale.US, "%.1f", snapshot.getMean()));
+        for (double percentile : PERCENTILES) {
+            json.append(",\"p").append((int) percentile).append("\":")
+                    .append(snapshot.getValueAtPercentile(percentile));
+        }
+        json.append('}');
+    }
+
+    private static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format(Locale.US, "\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -0,0 +1,116 @@
+package com.busarrival2.app.data;
+
+import com.busarrival2.app.models.BusStop;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * RouteStopIndex Class
+ * Multimap from route ID to the stops on that route. It is kept up to date
+ * with individual add/change/remove events, so looking up the stops of a
+ * route costs O(k) in the number of stops on that route.
+ */
+public class RouteStopIndex {
+
+    private final Map<String, List<BusStop>> stopsByRoute = new HashMap<>();
+    private final Map<String, BusStop> stopsById = new HashMap<>();
+
+    /**
+     * Add a stop, or replace the stop with the same ID
+     * @param stop The stop to add or update
+     */
+    public void put(BusStop stop) {
+        if (stop == null || stop.getStopId() == null) {
+            return;
+        }
+
+        BusStop previous = stopsById.put(stop.getStopId(), stop);
+        if (previous != null && equalRoutes(previous.getRouteId(), stop.getRouteId())) {
+            // Same route, keep the stop's position in the route list
+            List<BusStop> stops = stopsByRoute.get(stop.getRouteId());
+            int position = stops.indexOf(previous);
+            if (position >= 0) {
+                stops.set(position, stop);
+                return;
+            }
+        } else if (previous != null) {
+            removeFromRoute(previous);
+        }
+
+        List<BusStop> stops = stopsByRoute.get(stop.getRouteId());
+        if (stops == null) {
+            stops = new ArrayList<>();
+            stopsByRoute.put(stop.getRouteId(), stops);
+        }
+        stops.add(stop);
+    }
+
+    /**
+     * Remove a stop by ID
+     * @param stopId The stop ID
+     * @return The removed stop, or null if it was not indexed
+     */
+    public BusStop remove(String stopId) {
+        BusStop previous = stopsById.remove(stopId);
+        if (previous != null) {
+            removeFromRoute(previous);
+        }
+        return previous;
+    }
+
+    /**
+     * Get a stop by ID
+     * @param stopId The stop ID
+     * @return The stop, or null if it is not indexed
+     */
+    public BusStop getStop(String stopId) {
+        return stopsById.get(stopId);
+    }
+
+    /**
+     * Get the stops on a route, in the order they were added
+     * @param routeId The route ID
+     * @return Read-only view of the route's stops
+     */
+    public List<BusStop> getStopsForRoute(String routeId) {
+        List<BusStop> stops = stopsByRoute.get(routeId);
+        if (stops == null) {
+            return Collections.emptyList();
+        }
+        return Collections.unmodifiableList(stops);
+    }
+
+    /**
+     * Get the number of indexed stops
+     * @return Stop count
+     */
+    public int size() {
+        return stopsById.size();
+    }
+
+    /**
+     * Remove all stops
+     */
+    public void clear() {
+        stopsByRoute.clear();
+        stopsById.clear();
+    }
+
+    private void removeFromRoute(BusStop stop) {
+        List<BusStop> stops = stopsByRoute.get(stop.getRouteId());
+        if (stops != null) {
+            stops.remove(stop);
+            if (stops.isEmpty()) {
+                stopsByRoute.remove(stop.getRouteId());
+            }
+        }
+    }
+
+    private static boolean equalRoutes(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
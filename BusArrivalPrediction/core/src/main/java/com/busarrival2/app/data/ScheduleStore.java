@@ -0,0 +1,548 @@
+package com.busarrival2.app.data;
+
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * ScheduleStore Class
+ * Immutable, columnar in-memory store for bus schedules.
+ * Each schedule is one row spread over parallel primitive arrays, with
+ * route and stop ids dictionary-encoded to ints. Rows are sorted by
+ * (route, stop, arrival minute) so every (route, stop) pair is a
+ * contiguous row range. Rows of a timetabled trip carry its trip ID and
+ * their stop sequence; headway rows have no trip.
+ */
+public final class ScheduleStore {
+
+    // Day-of-week bits, Monday is bit 0
+    public static final byte ALL_DAYS = 0x7F;
+    private static final String[] DAY_NAMES = {"Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"};
+
+    // Dictionaries
+    private final String[] routeIds;
+    private final String[] stopIds;
+    private final Map<String, Integer> routeLookup;
+    private final Map<String, Integer> stopLookup;
+
+    // Columns
+    private final int size;
+    private final String[] scheduleIds;
+    private final String[] tripIds;
+    private final int[] stopSequences;
+    private final int[] routes;
+    private final int[] stops;
+    private final int[] arrivalMinutes;
+    private final int[] frequencies;
+    private final byte[] dayMasks;
+
+    // Rows of each stop across all routes: stopRows[stopRowOffsets[s] .. stopRowOffsets[s + 1])
+    private final int[] stopRowOffsets;
+    private final int[] stopRows;
+
+    private ScheduleStore(Builder builder, int[] order) {
+        this.size = order.length;
+        this.routeIds = builder.routeIds.toArray(new String[0]);
+        this.stopIds = builder.stopIds.toArray(new String[0]);
+        this.routeLookup = new HashMap<>(builder.routeLookup);
+        this.stopLookup = new HashMap<>(builder.stopLookup);
+
+        this.scheduleIds = new String[size];
+        this.tripIds = new String[size];
+        this.stopSequences = new int[size];
+        this.routes = new int[size];
+        this.stops = new int[size];
+        this.arrivalMinutes = new int[size];
+        this.frequencies = new int[size];
+        this.dayMasks = new byte[size];
+
+        for (int row = 0; row < size; row++) {
+            int source = order[row];
+            scheduleIds[row] = builder.scheduleIds[source];
+            tripIds[row] = builder.tripIds[source];
+            stopSequences[row] = builder.stopSequences[source];
+            routes[row] = builder.routes[source];
+            stops[row] = builder.stops[source];
+            arrivalMinutes[row] = builder.arrivalMinutes[source];
+            frequencies[row] = builder.frequencies[source];
+            dayMasks[row] = builder.dayMasks[source];
+        }
+
+        // Counting sort of the rows by stop
+        this.stopRowOffsets = new int[stopIds.length + 1];
+        this.stopRows = new int[size];
+        for (int row = 0; row < size; row++) {
+            stopRowOffsets[stops[row] + 1]++;
+        }
+        for (int stop = 0; stop < stopIds.length; stop++) {
+            stopRowOffsets[stop + 1] += stopRowOffsets[stop];
+        }
+        int[] next = Arrays.copyOf(stopRowOffsets, stopIds.length);
+        for (int row = 0; row < size; row++) {
+            stopRows[next[stops[row]]++] = row;
+        }
+    }
+
+    /**
+     * Get the number of schedule rows
+     * @return Row count
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Get the dictionary index of a route
+     * @param routeId The route ID
+     * @return Route index, or -1 if the route has no schedules
+     */
+    public int routeIndexOf(String routeId) {
+        Integer index = routeLookup.get(routeId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Get the dictionary index of a stop
+     * @param stopId The stop ID
+     * @return Stop index, or -1 if the stop has no schedules
+     */
+    public int stopIndexOf(String stopId) {
+        Integer index = stopLookup.get(stopId);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Get the first row of a (route, stop) range
+     * @param routeId The route ID
+     * @param stopId The stop ID
+     * @return First row index; equals endRow when there are no rows
+     */
+    public int firstRow(String routeId, String stopId) {
+        return lowerBound(routeIndexOf(routeId), stopIndexOf(stopId));
+    }
+
+    /**
+     * Get the row after the last row of a (route, stop) range
+     * @param routeId The route ID
+     * @param stopId The stop ID
+     * @return Exclusive end row index
+     */
+    public int endRow(String routeId, String stopId) {
+        int route = routeIndexOf(routeId);
+        int stop = stopIndexOf(stopId);
+        if (route < 0 || stop < 0) {
+            return lowerBound(route, stop);
+        }
+        return stop + 1 < stopIds.length
+                ? lowerBound(route, stop + 1)
+                : lowerBound(route + 1, 0);
+    }
+
+    /**
+     * Binary search for the first row whose (route, stop) is not less than the given pair
+     */
+    private int lowerBound(int route, int stop) {
+        if (route < 0 || stop < 0) {
+            return size;
+        }
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (routes[mid] < route || (routes[mid] == route && stops[mid] < stop)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Get every row that serves a stop, on any route
+     * @param stopId The stop ID
+     * @return Row indexes in route order; empty if the stop has no schedules
+     */
+    public int[] rowsAtStop(String stopId) {
+        int stop = stopIndexOf(stopId);
+        if (stop < 0) {
+            return new int[0];
+        }
+        return Arrays.copyOfRange(stopRows, stopRowOffsets[stop], stopRowOffsets[stop + 1]);
+    }
+
+    /**
+     * Get the stop sequences a route runs, one per distinct stop pattern of
+     * its trips, so each direction has its own. Longer patterns come first.
+     * A route without timetabled trips gives one pattern: its stops in the
+     * order of their first arrival of the day.
+     * @param routeId The route ID
+     * @return Stop IDs of each pattern in travel order; empty if the route has no schedules
+     */
+    public List<List<String>> getStopPatterns(String routeId) {
+        int route = routeIndexOf(routeId);
+        if (route < 0) {
+            return Collections.emptyList();
+        }
+        int from = lowerBound(route, 0);
+        int to = lowerBound(route + 1, 0);
+
+        // Keys pack (stop sequence, row) so sorting puts a trip in travel order
+        Map<String, List<Long>> trips = new LinkedHashMap<>();
+        for (int row = from; row < to; row++) {
+            if (tripIds[row] != null) {
+                trips.computeIfAbsent(tripIds[row], key -> new ArrayList<>())
+                        .add(((long) stopSequences[row] << 32) | row);
+            }
+        }
+
+        Set<List<String>> patterns = new LinkedHashSet<>();
+        if (trips.isEmpty()) {
+            // A stop's rows are sorted by arrival, so its first row is its earliest
+            List<Long> firstArrivals = new ArrayList<>();
+            for (int row = from; row < to; row++) {
+                if (row == from || stops[row] != stops[row - 1]) {
+                    firstArrivals.add(((long) arrivalMinutes[row] << 32) | row);
+                }
+            }
+            trips.put(null, firstArrivals);
+        }
+        for (List<Long> trip : trips.values()) {
+            Collections.sort(trip);
+            List<String> pattern = new ArrayList<>(trip.size());
+            for (long key : trip) {
+                String stopId = stopIds[stops[(int) key]];
+                if (pattern.isEmpty() || !pattern.get(pattern.size() - 1).equals(stopId)) {
+                    pattern.add(stopId);
+                }
+            }
+            patterns.add(pattern);
+        }
+
+        List<List<String>> sorted = new ArrayList<>(patterns);
+        Collections.sort(sorted, (a, b) -> Integer.compare(b.size(), a.size()));
+        return sorted;
+    }
+
+    public String getScheduleId(int row) {
+        return scheduleIds[row];
+    }
+
+    /**
+     * Get the trip a row belongs to
+     * @param row The row index
+     * @return Trip ID, or null for a headway row
+     */
+    public String getTripId(int row) {
+        return tripIds[row];
+    }
+
+    public int getStopSequence(int row) {
+        return stopSequences[row];
+    }
+
+    public String getRouteId(int row) {
+        return routeIds[routes[row]];
+    }
+
+    public String getStopId(int row) {
+        return stopIds[stops[row]];
+    }
+
+    public int getRouteIndex(int row) {
+        return routes[row];
+    }
+
+    public int getStopIndex(int row) {
+        return stops[row];
+    }
+
+    public int getArrivalMinute(int row) {
+        return arrivalMinutes[row];
+    }
+
+    public int getFrequency(int row) {
+        return frequencies[row];
+    }
+
+    public byte getDayMask(int row) {
+        return dayMasks[row];
+    }
+
+    /**
+     * Check if a row runs on the given day
+     * @param row The row index
+     * @param dayIndex Day index, 0 = Monday ... 6 = Sunday
+     * @return true if the schedule runs on that day
+     */
+    public boolean runsOn(int row, int dayIndex) {
+        return (dayMasks[row] & (1 << dayIndex)) != 0;
+    }
+
+    /**
+     * Calculate minutes until the next arrival of a row
+     * @param row The row index
+     * @param nowMinute Current time, in minutes since midnight
+     * @return Minutes until the next arrival, or NO_ARRIVAL
+     */
+    public int minutesUntilNextArrival(int row, int nowMinute) {
+        return ArrivalPredictionEngine.minutesUntilNextArrival(arrivalMinutes[row],
+                frequencies[row], nowMinute);
+    }
+
+    /**
+     * Convert a java.util.Calendar DAY_OF_WEEK value into a day index
+     * @param calendarDay Calendar.SUNDAY (1) ... Calendar.SATURDAY (7)
+     * @return Day index, 0 = Monday ... 6 = Sunday
+     */
+    public static int dayIndexOf(int calendarDay) {
+        return (calendarDay + 5) % 7;
+    }
+
+    /**
+     * Encode a list of day names into a bitmask.
+     * A missing list means the schedule runs every day.
+     * @param daysOfWeek Day names such as "Mon" or "Monday"
+     * @return Day-of-week bitmask
+     */
+    public static byte dayMaskOf(List<String> daysOfWeek) {
+        if (daysOfWeek == null) {
+            return ALL_DAYS;
+        }
+        int mask = 0;
+        for (String day : daysOfWeek) {
+            mask |= dayBitOf(day);
+        }
+        return (byte) mask;
+    }
+
+    /**
+     * Decode a bitmask into day names
+     * @param dayMask Day-of-week bitmask
+     * @return Day names, "Mon" first
+     */
+    public static List<String> dayNamesOf(byte dayMask) {
+        List<String> days = new ArrayList<>(7);
+        for (int i = 0; i < DAY_NAMES.length; i++) {
+            if ((dayMask & (1 << i)) != 0) {
+                days.add(DAY_NAMES[i]);
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Move a day mask later in the week, e.g. for the part of a trip that
+     * runs past midnight. Sunday wraps round to Monday.
+     * @param dayMask Day-of-week bitmask
+     * @param days Number of days to move by
+     * @return Shifted bitmask
+     */
+    public static byte shiftDays(byte dayMask, int days) {
+        int shift = ((days % 7) + 7) % 7;
+        int mask = dayMask & ALL_DAYS;
+        return (byte) (((mask << shift) | (mask >>> (7 - shift))) & ALL_DAYS);
+    }
+
+    /**
+     * Get the bit for a single day name
+     * @param day Day name such as "Mon" or "Monday"
+     * @return Bit for the day, or 0 if the name is not recognised
+     */
+    public static int dayBitOf(String day) {
+        if (day == null || day.length() < 3) {
+            return 0;
+        }
+        for (int i = 0; i < DAY_NAMES.length; i++) {
+            if (day.regionMatches(true, 0, DAY_NAMES[i], 0, 3)) {
+                return 1 << i;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Builder Class
+     * Collects schedule rows and sorts them into an immutable store
+     */
+    public static final class Builder {
+        private final ArrayList<String> routeIds = new ArrayList<>();
+        private final ArrayList<String> stopIds = new ArrayList<>();
+        private final Map<String, Integer> routeLookup = new HashMap<>();
+        private final Map<String, Integer> stopLookup = new HashMap<>();
+
+        private int count;
+        private String[] scheduleIds;
+        private String[] tripIds;
+        private int[] stopSequences;
+        private int[] routes;
+        private int[] stops;
+        private int[] arrivalMinutes;
+        private int[] frequencies;
+        private byte[] dayMasks;
+
+        public Builder() {
+            this(16);
+        }
+
+        public Builder(int expectedRows) {
+            int capacity = Math.max(expectedRows, 1);
+            scheduleIds = new String[capacity];
+            tripIds = new String[capacity];
+            stopSequences = new int[capacity];
+            routes = new int[capacity];
+            stops = new int[capacity];
+            arrivalMinutes = new int[capacity];
+            frequencies = new int[capacity];
+            dayMasks = new byte[capacity];
+        }
+
+        /**
+         * Add a schedule row that is not part of a timetabled trip.
+         * Rows without a valid arrival time are skipped.
+         * @return This builder
+         */
+        public Builder add(String scheduleId, String routeId, String stopId,
+                           int arrivalMinute, int frequency, byte dayMask) {
+            return add(scheduleId, null, 0, routeId, stopId, arrivalMinute, frequency, dayMask);
+        }
+
+        /**
+         * Add a schedule row. Rows without a valid arrival time are skipped.
+         * @param tripId Trip the row belongs to, or null for a headway row
+         * @param stopSequence Position of the stop within the trip
+         * @return This builder
+         */
+        public Builder add(String scheduleId, String tripId, int stopSequence, String routeId,
+                           String stopId, int arrivalMinute, int frequency, byte dayMask) {
+            if (routeId == null || stopId == null || arrivalMinute < 0) {
+                return this;
+            }
+            if (count == routes.length) {
+                grow();
+            }
+            scheduleIds[count] = scheduleId;
+            tripIds[count] = tripId;
+            stopSequences[count] = stopSequence;
+            routes[count] = encode(routeId, routeIds, routeLookup);
+            stops[count] = encode(stopId, stopIds, stopLookup);
+            arrivalMinutes[count] = arrivalMinute;
+            frequencies[count] = frequency;
+            dayMasks[count] = dayMask;
+            count++;
+            return this;
+        }
+
+        /**
+         * Add a schedule model
+         * @param schedule The schedule to add
+         * @return This builder
+         */
+        public Builder add(BusSchedule schedule) {
+            if (schedule == null) {
+                return this;
+            }
+            return add(schedule.getScheduleId(), schedule.getTripId(),
+                    schedule.getStopSequence(), schedule.getRouteId(), schedule.getStopId(),
+                    ArrivalPredictionEngine.parseMinuteOfDay(schedule.getArrivalTime()),
+                    schedule.getFrequency(), dayMaskOf(schedule.getDaysOfWeek()));
+        }
+
+        /**
+         * Sort the collected rows and build the store
+         * @return Immutable schedule store
+         */
+        public ScheduleStore build() {
+            // Renumber dictionaries in id order so row order is stable across loads
+            int[] routeRemap = sortDictionary(routeIds, routeLookup);
+            int[] stopRemap = sortDictionary(stopIds, stopLookup);
+            for (int i = 0; i < count; i++) {
+                routes[i] = routeRemap[routes[i]];
+                stops[i] = stopRemap[stops[i]];
+            }
+
+            int[] order = new int[count];
+            for (int i = 0; i < count; i++) {
+                order[i] = i;
+            }
+            mergeSort(order, new int[count], 0, count);
+            return new ScheduleStore(this, order);
+        }
+
+        private void grow() {
+            int capacity = routes.length * 2;
+            scheduleIds = Arrays.copyOf(scheduleIds, capacity);
+            tripIds = Arrays.copyOf(tripIds, capacity);
+            stopSequences = Arrays.copyOf(stopSequences, capacity);
+            routes = Arrays.copyOf(routes, capacity);
+            stops = Arrays.copyOf(stops, capacity);
+            arrivalMinutes = Arrays.copyOf(arrivalMinutes, capacity);
+            frequencies = Arrays.copyOf(frequencies, capacity);
+            dayMasks = Arrays.copyOf(dayMasks, capacity);
+        }
+
+        private static int encode(String id, ArrayList<String> ids,
+                                  Map<String, Integer> lookup) {
+            Integer index = lookup.get(id);
+            if (index == null) {
+                index = ids.size();
+                ids.add(id);
+                lookup.put(id, index);
+            }
+            return index;
+        }
+
+        private static int[] sortDictionary(ArrayList<String> ids,
+                                            Map<String, Integer> lookup) {
+            Collections.sort(ids);
+            int[] remap = new int[ids.size()];
+            for (int i = 0; i < ids.size(); i++) {
+                String id = ids.get(i);
+                remap[lookup.get(id)] = i;
+                lookup.put(id, i);
+            }
+            return remap;
+        }
+
+        private int compareRows(int a, int b) {
+            if (routes[a] != routes[b]) {
+                return Integer.compare(routes[a], routes[b]);
+            }
+            if (stops[a] != stops[b]) {
+                return Integer.compare(stops[a], stops[b]);
+            }
+            return Integer.compare(arrivalMinutes[a], arrivalMinutes[b]);
+        }
+
+        private void mergeSort(int[] order, int[] scratch, int from, int to) {
+            if (to - from < 2) {
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            mergeSort(order, scratch, from, mid);
+            mergeSort(order, scratch, mid, to);
+            if (compareRows(order[mid - 1], order[mid]) <= 0) {
+                return;
+            }
+            System.arraycopy(order, from, scratch, from, to - from);
+            int left = from;
+            int right = mid;
+            for (int i = from; i < to; i++) {
+                if (right >= to || (left < mid && compareRows(scratch[left], scratch[right]) <= 0)) {
+                    order[i] = scratch[left++];
+                } else {
+                    order[i] = scratch[right++];
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,313 @@
+package com.busarrival2.app.data;
+
+import com.busarrival2.app.models.BusStop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * StopSpatialIndex Class
+ * Immutable k-d tree over bus stop coordinates for nearest-stop and
+ * radius queries. Each stop is stored as a point on the unit sphere
+ * (x, y, z), computed once when the index is built. Straight-line
+ * distance between those points grows with great-circle distance, so the
+ * tree can prune with plain squared distances and only the results are
+ * converted to metres.
+ */
+public final class StopSpatialIndex {
+
+    // Mean Earth radius used for all distances
+    public static final double EARTH_RADIUS_METERS = 6371008.8;
+
+    private final BusStop[] stops;
+    private final double[] xs;
+    private final double[] ys;
+    private final double[] zs;
+
+    /**
+     * Build an index over stops. Stops at (0, 0) are treated as having no
+     * location and are left out.
+     * @param stops The stops to index
+     */
+    public StopSpatialIndex(Collection<BusStop> stops) {
+        List<BusStop> located = new ArrayList<>(stops.size());
+        for (BusStop stop : stops) {
+            if (stop != null && (stop.getLatitude() != 0.0 || stop.getLongitude() != 0.0)) {
+                located.add(stop);
+            }
+        }
+
+        int size = located.size();
+        this.stops = located.toArray(new BusStop[0]);
+        this.xs = new double[size];
+        this.ys = new double[size];
+        this.zs = new double[size];
+        for (int i = 0; i < size; i++) {
+            double lat = Math.toRadians(this.stops[i].getLatitude());
+            double lon = Math.toRadians(this.stops[i].getLongitude());
+            xs[i] = Math.cos(lat) * Math.cos(lon);
+            ys[i] = Math.cos(lat) * Math.sin(lon);
+            zs[i] = Math.sin(lat);
+        }
+        build(0, size, 0);
+    }
+
+    /**
+     * Get the number of indexed stops
+     * @return Stop count
+     */
+    public int size() {
+        return stops.length;
+    }
+
+    /**
+     * Find the k stops closest to a position
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param k Maximum number of stops to return
+     * @return Stops ordered from nearest to farthest
+     */
+    public List<BusStop> findNearest(double latitude, double longitude, int k) {
+        k = Math.min(k, stops.length);
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        Search search = new Search(Math.cos(lat) * Math.cos(lon),
+                Math.cos(lat) * Math.sin(lon), Math.sin(lat), k, Double.POSITIVE_INFINITY);
+        nearest(search, 0, stops.length, 0);
+        return search.results();
+    }
+
+    /**
+     * Find every stop within a distance of a position
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param radiusMeters Search radius in metres
+     * @return Stops ordered from nearest to farthest
+     */
+    public List<BusStop> findWithinRadius(double latitude, double longitude, double radiusMeters) {
+        if (stops.length == 0 || radiusMeters < 0) {
+            return new ArrayList<>();
+        }
+        double lat = Math.toRadians(latitude);
+        double lon = Math.toRadians(longitude);
+        // Chord length on the unit sphere for the given arc
+        double angle = Math.min(Math.PI, radiusMeters / EARTH_RADIUS_METERS);
+        double chord = 2.0 * Math.sin(angle / 2.0);
+        Search search = new Search(Math.cos(lat) * Math.cos(lon),
+                Math.cos(lat) * Math.sin(lon), Math.sin(lat), stops.length, chord * chord);
+        nearest(search, 0, stops.length, 0);
+        return search.results();
+    }
+
+    /**
+     * Great-circle distance between two positions (haversine formula)
+     * @return Distance in metres
+     */
+    public static double distanceMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    /**
+     * Great-circle distance from a position to a stop
+     * @return Distance in metres
+     */
+    public static double distanceMeters(double latitude, double longitude, BusStop stop) {
+        return distanceMeters(latitude, longitude, stop.getLatitude(), stop.getLongitude());
+    }
+
+    /**
+     * Arrange [from, to) so its median on the split axis sits in the middle,
+     * with smaller points to the left and larger to the right
+     */
+    private void build(int from, int to, int depth) {
+        if (to - from <= 1) {
+            return;
+        }
+        int mid = (from + to) >>> 1;
+        select(from, to - 1, mid, depth % 3);
+        build(from, mid, depth + 1);
+        build(mid + 1, to, depth + 1);
+    }
+
+    private void select(int left, int right, int k, int axis) {
+        while (right > left) {
+            double pivot = coordinate(axis, (left + right) >>> 1);
+            int i = left;
+            int j = right;
+            while (i <= j) {
+                while (coordinate(axis, i) < pivot) {
+                    i++;
+                }
+                while (coordinate(axis, j) > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    swap(i++, j--);
+                }
+            }
+            if (k <= j) {
+                right = j;
+            } else if (k >= i) {
+                left = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void nearest(Search search, int from, int to, int depth) {
+        while (from < to) {
+            int mid = (from + to) >>> 1;
+            search.offer(mid);
+
+            int axis = depth % 3;
+            double delta = search.coordinate(axis) - coordinate(axis, mid);
+            depth++;
+            // Near side first, far side only if the split plane is close enough
+            if (delta < 0) {
+                nearest(search, from, mid, depth);
+                from = mid + 1;
+            } else {
+                nearest(search, mid + 1, to, depth);
+                to = mid;
+            }
+            if (delta * delta >= search.bound()) {
+                return;
+            }
+        }
+    }
+
+    private double coordinate(int axis, int i) {
+        return axis == 0 ? xs[i] : axis == 1 ? ys[i] : zs[i];
+    }
+
+    private void swap(int i, int j) {
+        BusStop stop = stops[i];
+        stops[i] = stops[j];
+        stops[j] = stop;
+        double t = xs[i];
+        xs[i] = xs[j];
+        xs[j] = t;
+        t = ys[i];
+        ys[i] = ys[j];
+        ys[j] = t;
+        t = zs[i];
+        zs[i] = zs[j];
+        zs[j] = t;
+    }
+
+    /**
+     * Search Class
+     * State of one query: the query point and a bounded max-heap of the
+     * best candidates by squared chord distance
+     */
+    private final class Search {
+        private final double x;
+        private final double y;
+        private final double z;
+        private final int capacity;
+        private final double maxDistance;
+        private int[] heap;
+        private double[] distances;
+        private int count;
+
+        Search(double x, double y, double z, int capacity, double maxDistance) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.capacity = capacity;
+            this.maxDistance = maxDistance;
+            int initial = Math.min(capacity, 16);
+            this.heap = new int[initial];
+            this.distances = new double[initial];
+        }
+
+        double coordinate(int axis) {
+            return axis == 0 ? x : axis == 1 ? y : z;
+        }
+
+        /**
+         * Squared distance a point must beat to enter the results
+         */
+        double bound() {
+            return count < capacity ? maxDistance : distances[0];
+        }
+
+        void offer(int i) {
+            double dx = xs[i] - x;
+            double dy = ys[i] - y;
+            double dz = zs[i] - z;
+            double distance = dx * dx + dy * dy + dz * dz;
+            if (count < capacity) {
+                if (distance > maxDistance) {
+                    return;
+                }
+                if (count == heap.length) {
+                    int grown = Math.min(capacity, heap.length * 2);
+                    heap = Arrays.copyOf(heap, grown);
+                    distances = Arrays.copyOf(distances, grown);
+                }
+                int position = count++;
+                // Sift up
+                while (position > 0) {
+                    int parent = (position - 1) >>> 1;
+                    if (distances[parent] >= distance) {
+                        break;
+                    }
+                    heap[position] = heap[parent];
+                    distances[position] = distances[parent];
+                    position = parent;
+                }
+                heap[position] = i;
+                distances[position] = distance;
+            } else if (distance < distances[0]) {
+                siftDown(0, i, distance);
+            }
+        }
+
+        private void siftDown(int position, int i, double distance) {
+            while (true) {
+                int child = 2 * position + 1;
+                if (child >= count) {
+                    break;
+                }
+                if (child + 1 < count && distances[child + 1] > distances[child]) {
+                    child++;
+                }
+                if (distances[child] <= distance) {
+                    break;
+                }
+                heap[position] = heap[child];
+                distances[position] = distances[child];
+                position = child;
+            }
+            heap[position] = i;
+            distances[position] = distance;
+        }
+
+        /**
+         * Drain the heap into a list ordered nearest first
+         */
+        List<BusStop> results() {
+            BusStop[] ordered = new BusStop[count];
+            while (count > 0) {
+                ordered[count - 1] = stops[heap[0]];
+                int last = --count;
+                if (last > 0) {
+                    siftDown(0, heap[last], distances[last]);
+                }
+            }
+            return new ArrayList<>(Arrays.asList(ordered));
+        }
+    }
+}
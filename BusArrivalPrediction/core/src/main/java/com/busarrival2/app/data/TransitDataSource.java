@@ -0,0 +1,144 @@
+package com.busarrival2.app.data;
+
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.User;
+
+import java.util.List;
+
+/**
+ * TransitDataSource Interface
+ * One-shot reads and batched writes of routes, stops, schedules and users,
+ * independent of where they are stored. Screens go through this instead of
+ * database references, so the same code runs against Firebase or against an
+ * in-memory backend. Each implementation documents the thread its callbacks
+ * arrive on.
+ */
+public interface TransitDataSource {
+
+    /**
+     * Receives the result of one call
+     * @param <T> Result type
+     */
+    interface Callback<T> {
+        void onSuccess(T result);
+
+        void onFailure(Exception error);
+    }
+
+    /**
+     * Writes collected and committed together. Writes that belong to one
+     * model are never split between atomic updates.
+     */
+    interface Batch {
+        Batch putRoute(BusRoute route);
+
+        /**
+         * Write a stop and its geohash bucket entry
+         * @param stop The stop to write
+         * @param previous The stop as it was stored before, or null if it is new
+         * @return This batch
+         */
+        Batch putStop(BusStop stop, BusStop previous);
+
+        Batch deleteStop(BusStop stop);
+
+        /**
+         * Write a schedule and add its route to the routes of its stop
+         * @param schedule The schedule to write
+         * @param previous The schedule as it was stored before, or null if it is new
+         * @return This batch
+         */
+        Batch putSchedule(BusSchedule schedule, BusSchedule previous);
+
+        Batch deleteSchedule(BusSchedule schedule);
+
+        /**
+         * Get the number of database paths written through this batch
+         * @return Path count
+         */
+        int size();
+
+        /**
+         * Send every write of this batch
+         * @param callback Told once all writes are applied, or of the first failure
+         */
+        void commit(Callback<Void> callback);
+
+        default Batch putStop(BusStop stop) {
+            return putStop(stop, null);
+        }
+
+        default Batch putSchedule(BusSchedule schedule) {
+            return putSchedule(schedule, null);
+        }
+    }
+
+    /**
+     * Create a new unique, time-ordered key for a route, stop or schedule
+     * @return New key
+     */
+    String newKey();
+
+    /**
+     * Get every route
+     * @param callback Receives the routes
+     */
+    void getRoutes(Callback<List<BusRoute>> callback);
+
+    /**
+     * Get every stop
+     * @param callback Receives the stops
+     */
+    void getStops(Callback<List<BusStop>> callback);
+
+    /**
+     * Get one stop
+     * @param stopId The stop ID
+     * @param callback Receives the stop, or null if there is no such stop
+     */
+    void getStop(String stopId, Callback<BusStop> callback);
+
+    /**
+     * Get the stops of one geohash bucket
+     * @param cell Geohash cell of Geohash.STOP_BUCKET_PRECISION characters
+     * @param callback Receives the stops inside the cell
+     */
+    void getStopsInCell(String cell, Callback<List<BusStop>> callback);
+
+    /**
+     * Get the schedules of a route
+     * @param routeId The route ID
+     * @param stopId The stop being looked up; its rows are firstRow(routeId, stopId) .. endRow(routeId, stopId)
+     * @param callback Receives the route's schedules
+     */
+    void getSchedules(String routeId, String stopId, Callback<ScheduleStore> callback);
+
+    /**
+     * Get the schedules of every route that serves a stop
+     * @param stopId The stop ID
+     * @param callback Receives a store holding only that stop's schedules
+     */
+    void getStopSchedules(String stopId, Callback<ScheduleStore> callback);
+
+    /**
+     * Get a user profile
+     * @param userId The user ID
+     * @param callback Receives the user, or null if there is no profile
+     */
+    void getUser(String userId, Callback<User> callback);
+
+    /**
+     * Write a user profile, replacing what is stored
+     * @param user The user to write
+     * @param callback Told when the write is applied
+     */
+    void putUser(User user, Callback<Void> callback);
+
+    /**
+     * Start a batch of writes
+     * @return New batch
+     */
+    Batch newBatch();
+}
@@ -0,0 +1,172 @@
+package com.busarrival2.app.gtfs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * CsvReader Class
+ * Streaming reader for GTFS-style CSV files. Reads one record at a time,
+ * supports quoted fields (including embedded commas, quotes and line
+ * breaks) and looks columns up by header name.
+ */
+public class CsvReader implements Closeable {
+
+    private final Reader reader;
+    private final char[] buffer = new char[64 * 1024];
+    private int position;
+    private int limit;
+    private final Map<String, Integer> columns = new HashMap<>();
+    private final StringBuilder field = new StringBuilder();
+    private final List<String> record = new ArrayList<>();
+    private long rowNumber;
+
+    /**
+     * Open a reader and consume the header row
+     * @param source Character source of the CSV file
+     * @throws IOException if the header cannot be read
+     */
+    public CsvReader(Reader source) throws IOException {
+        this.reader = source;
+        String[] header = readRecord();
+        if (header != null) {
+            for (int i = 0; i < header.length; i++) {
+                String name = header[i].trim();
+                // Strip a UTF-8 byte order mark from the first column
+                if (i == 0 && !name.isEmpty() && name.charAt(0) == '\uFEFF') {
+                    name = name.substring(1);
+                }
+                columns.put(name, i);
+            }
+        }
+        rowNumber = 0;
+    }
+
+    /**
+     * Get the index of a column
+     * @param name Column name from the header
+     * @return Column index, or -1 if the column is not present
+     */
+    public int column(String name) {
+        Integer index = columns.get(name);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Read the next data row
+     * @return Field values, or null at end of file
+     * @throws IOException on read errors
+     */
+    public String[] readRow() throws IOException {
+        String[] row = readRecord();
+        if (row != null) {
+            rowNumber++;
+        }
+        return row;
+    }
+
+    /**
+     * Get the number of data rows read so far
+     * @return Row count
+     */
+    public long getRowNumber() {
+        return rowNumber;
+    }
+
+    /**
+     * Get a field from a row, or null if the column is missing or empty
+     * @param row The row returned by readRow
+     * @param column Column index from column()
+     * @return Trimmed field value or null
+     */
+    public static String get(String[] row, int column) {
+        if (column < 0 || column >= row.length) {
+            return null;
+        }
+        String value = row[column].trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private String[] readRecord() throws IOException {
+        record.clear();
+        field.setLength(0);
+        boolean quoted = false;
+        boolean sawAny = false;
+
+        while (true) {
+            int c = read();
+            if (c == -1) {
+                if (!sawAny) {
+                    return null;
+                }
+                record.add(field.toString());
+                return record.toArray(new String[0]);
+            }
+            sawAny = true;
+
+            if (quoted) {
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append((char) c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                record.add(field.toString());
+                field.setLength(0);
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                if (record.isEmpty() && field.length() == 0) {
+                    // Skip blank lines
+                    sawAny = false;
+                    continue;
+                }
+                record.add(field.toString());
+                return record.toArray(new String[0]);
+            } else {
+                field.append((char) c);
+            }
+        }
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int count = reader.read(buffer, 0, buffer.length);
+        if (count <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = count;
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
@@ -0,0 +1,95 @@
+package com.busarrival2.app.gtfs;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+/**
+ * GtfsCheckpoint Class
+ * Remembers how many rows of each GTFS file have been committed, so an
+ * interrupted import can resume where it stopped. State is kept in a
+ * small properties file that is rewritten after every committed chunk.
+ */
+public class GtfsCheckpoint {
+
+    private static final String COMPLETE_SUFFIX = ".complete";
+
+    private final File file;
+    private final Properties state = new Properties();
+
+    /**
+     * Open a checkpoint file, loading any saved progress
+     * @param file Where progress is stored
+     * @throws IOException if an existing file cannot be read
+     */
+    public GtfsCheckpoint(File file) throws IOException {
+        this.file = file;
+        if (file.exists()) {
+            try (InputStream in = new FileInputStream(file)) {
+                state.load(in);
+            }
+        }
+    }
+
+    /**
+     * Get the number of data rows of a file already committed
+     * @param fileName GTFS file name, e.g. "stop_times.txt"
+     * @return Committed row count
+     */
+    public long getCommittedRows(String fileName) {
+        String value = state.getProperty(fileName);
+        return value != null ? Long.parseLong(value) : 0L;
+    }
+
+    /**
+     * Check if a file was imported completely
+     * @param fileName GTFS file name
+     * @return true if the file is done
+     */
+    public boolean isComplete(String fileName) {
+        return Boolean.parseBoolean(state.getProperty(fileName + COMPLETE_SUFFIX));
+    }
+
+    /**
+     * Record committed rows of a file
+     * @param fileName GTFS file name
+     * @param rows Number of data rows committed so far
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    public void markCommitted(String fileName, long rows) throws IOException {
+        state.setProperty(fileName, Long.toString(rows));
+        save();
+    }
+
+    /**
+     * Record that a file was imported completely
+     * @param fileName GTFS file name
+     * @throws IOException if the checkpoint cannot be saved
+     */
+    public void markComplete(String fileName) throws IOException {
+        state.setProperty(fileName + COMPLETE_SUFFIX, "true");
+        save();
+    }
+
+    /**
+     * Forget all progress, e.g. after a successful import
+     */
+    public void clear() {
+        state.clear();
+        file.delete();
+    }
+
+    private void save() throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (OutputStream out = new FileOutputStream(temp)) {
+            state.store(out, null);
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not save import checkpoint " + file);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+package com.busarrival2.app.gtfs;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * GtfsImporter Class
+ * Streams routes.txt, trips.txt, calendar.txt, stop_times.txt and
+ * stops.txt out of a GTFS zip and maps the rows onto BusRoute, BusStop and
+ * BusSchedule. Rows are written to a Sink in chunks; each chunk is
+ * committed before the next one is read, so memory stays bounded no matter
+ * how large stop_times.txt is. Only the trip, calendar and stop-to-route
+ * lookups are held in memory.
+ */
+public class GtfsImporter {
+
+    public static final String ROUTES = "routes.txt";
+    public static final String TRIPS = "trips.txt";
+    public static final String CALENDAR = "calendar.txt";
+    public static final String STOP_TIMES = "stop_times.txt";
+    public static final String STOPS = "stops.txt";
+
+    // Default number of rows per committed chunk
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private static final String[] CALENDAR_DAYS = {
+            "monday", "tuesday", "wednesday", "thursday", "friday", "saturday", "sunday"};
+
+    /**
+     * Receives mapped models. flush() must block until the rows written so
+     * far are durably stored.
+     */
+    public interface Sink {
+        void writeRoute(BusRoute route);
+
+        void writeStop(BusStop stop);
+
+        void writeSchedule(BusSchedule schedule);
+
+        void flush() throws IOException;
+    }
+
+    /**
+     * Opens a fresh stream over the zip file; called once per GTFS file
+     */
+    public interface ZipSource {
+        InputStream open() throws IOException;
+    }
+
+    /**
+     * Receives progress after every committed chunk
+     */
+    public interface ProgressListener {
+        void onProgress(String fileName, long rowsCommitted);
+    }
+
+    /**
+     * Result Class
+     * Counts of the rows written by one run
+     */
+    public static final class Result {
+        private long routes;
+        private long stops;
+        private long schedules;
+
+        public long getRoutes() {
+            return routes;
+        }
+
+        public long getStops() {
+            return stops;
+        }
+
+        public long getSchedules() {
+            return schedules;
+        }
+    }
+
+    /**
+     * Handles one CSV row. Rows at or below the checkpoint are passed with
+     * write set to false so lookups can still be rebuilt.
+     */
+    private interface RowHandler {
+        boolean handle(CsvReader reader, String[] row, boolean write);
+    }
+
+    private final ZipSource source;
+    private final Sink sink;
+    private final GtfsCheckpoint checkpoint;
+    private final Result result = new Result();
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+    private ProgressListener progressListener;
+    private volatile boolean cancelled;
+
+    // Lookups built while streaming
+    private final Map<String, String> tripRoutes = new HashMap<>();
+    private final Map<String, String> tripServices = new HashMap<>();
+    private final Map<String, Byte> serviceDays = new HashMap<>();
+    private final Map<String, String> stopRoutes = new HashMap<>();
+
+    public GtfsImporter(ZipSource source, Sink sink, GtfsCheckpoint checkpoint) {
+        this.source = source;
+        this.sink = sink;
+        this.checkpoint = checkpoint;
+    }
+
+    public void setChunkSize(int chunkSize) {
+        this.chunkSize = Math.max(1, chunkSize);
+    }
+
+    public void setProgressListener(ProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    /**
+     * Stop the import after the current chunk. Progress so far is kept
+     * in the checkpoint.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Run the import, resuming from the checkpoint if there is one
+     * @return Counts of the rows written in this run
+     * @throws IOException if the feed cannot be read or a chunk fails to commit
+     */
+    public Result run() throws IOException {
+        importFile(ROUTES, true, this::handleRoute);
+        importFile(TRIPS, true, this::handleTrip);
+        importFile(CALENDAR, false, this::handleCalendar);
+        // stop_times is scanned again on resume if stops still need their routes
+        importFile(STOP_TIMES, true, this::handleStopTime);
+        importFile(STOPS, true, this::handleStop);
+        return result;
+    }
+
+    private void importFile(String fileName, boolean required, RowHandler handler)
+            throws IOException {
+        if (cancelled) {
+            return;
+        }
+        boolean complete = checkpoint.isComplete(fileName);
+        boolean lookupOnly = fileName.equals(TRIPS) || fileName.equals(CALENDAR)
+                || (fileName.equals(STOP_TIMES) && !checkpoint.isComplete(STOPS));
+        if (complete && !lookupOnly) {
+            return;
+        }
+
+        try (InputStream in = openEntry(fileName)) {
+            if (in == null) {
+                if (required) {
+                    throw new IOException("GTFS feed has no " + fileName);
+                }
+                return;
+            }
+
+            CsvReader reader = new CsvReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            long committed = complete ? Long.MAX_VALUE : checkpoint.getCommittedRows(fileName);
+            int pending = 0;
+            String[] row;
+            while ((row = reader.readRow()) != null) {
+                boolean write = reader.getRowNumber() > committed;
+                if (handler.handle(reader, row, write) && write) {
+                    pending++;
+                }
+                if (pending >= chunkSize) {
+                    commit(fileName, reader.getRowNumber());
+                    pending = 0;
+                    if (cancelled) {
+                        return;
+                    }
+                }
+            }
+            if (!complete) {
+                commit(fileName, reader.getRowNumber());
+                checkpoint.markComplete(fileName);
+            }
+        }
+    }
+
+    private void commit(String fileName, long rows) throws IOException {
+        sink.flush();
+        checkpoint.markCommitted(fileName, rows);
+        if (progressListener != null) {
+            progressListener.onProgress(fileName, rows);
+        }
+    }
+
+    private InputStream openEntry(String fileName) throws IOException {
+        ZipInputStream zip = new ZipInputStream(new BufferedInputStream(source.open()));
+        ZipEntry entry;
+        while ((entry = zip.getNextEntry()) != null) {
+            String name = entry.getName();
+            if (name.equals(fileName) || name.endsWith("/" + fileName)) {
+                return zip;
+            }
+        }
+        zip.close();
+        return null;
+    }
+
+    private boolean handleRoute(CsvReader reader, String[] row, boolean write) {
+        String routeId = toKey(CsvReader.get(row, reader.column("route_id")));
+        if (routeId == null || !write) {
+            return false;
+        }
+        String shortName = CsvReader.get(row, reader.column("route_short_name"));
+        String longName = CsvReader.get(row, reader.column("route_long_name"));
+        sink.writeRoute(new BusRoute(routeId,
+                shortName != null ? shortName : routeId,
+                longName != null ? longName : (shortName != null ? shortName : routeId),
+                null, null, true));
+        result.routes++;
+        return true;
+    }
+
+    private boolean handleTrip(CsvReader reader, String[] row, boolean write) {
+        String tripId = CsvReader.get(row, reader.column("trip_id"));
+        String routeId = toKey(CsvReader.get(row, reader.column("route_id")));
+        if (tripId != null && routeId != null) {
+            tripRoutes.put(tripId, routeId);
+            String serviceId = CsvReader.get(row, reader.column("service_id"));
+            if (serviceId != null) {
+                tripServices.put(tripId, serviceId);
+            }
+        }
+        return false;
+    }
+
+    private boolean handleCalendar(CsvReader reader, String[] row, boolean write) {
+        String serviceId = CsvReader.get(row, reader.column("service_id"));
+        if (serviceId == null) {
+            return false;
+        }
+        int mask = 0;
+        for (int i = 0; i < CALENDAR_DAYS.length; i++) {
+            if ("1".equals(CsvReader.get(row, reader.column(CALENDAR_DAYS[i])))) {
+                mask |= 1 << i;
+            }
+        }
+        serviceDays.put(serviceId, (byte) mask);
+        return false;
+    }
+
+    private boolean handleStopTime(CsvReader reader, String[] row, boolean write) {
+        String tripId = CsvReader.get(row, reader.column("trip_id"));
+        String stopId = toKey(CsvReader.get(row, reader.column("stop_id")));
+        String routeId = tripId != null ? tripRoutes.get(tripId) : null;
+        if (stopId == null || routeId == null) {
+            return false;
+        }
+        if (!stopRoutes.containsKey(stopId)) {
+            stopRoutes.put(stopId, routeId);
+        }
+        if (!write || checkpoint.isComplete(STOP_TIMES)) {
+            return false;
+        }
+
+        String arrivalTime = CsvReader.get(row, reader.column("arrival_time"));
+        String departureTime = CsvReader.get(row, reader.column("departure_time"));
+        String arrival = toClockTime(arrivalTime);
+        String departure = toClockTime(departureTime);
+        if (arrival == null) {
+            arrival = departure;
+            arrivalTime = departureTime;
+        }
+        if (arrival == null) {
+            // Untimed stop between timepoints
+            return false;
+        }
+        String sequence = CsvReader.get(row, reader.column("stop_sequence"));
+        String scheduleId = toKey(tripId + "_" + (sequence != null ? sequence : stopId));
+
+        // A stop time of 25:10 is 01:10 on the day after the service day
+        Byte days = serviceDays.get(tripServices.get(tripId));
+        List<String> daysOfWeek = ScheduleStore.dayNamesOf(ScheduleStore.shiftDays(
+                days != null ? days : ScheduleStore.ALL_DAYS, daysAfterServiceDay(arrivalTime)));
+
+        // Each stop time is one trip passing the stop, so it has no headway
+        BusSchedule schedule = new BusSchedule(scheduleId, routeId, stopId, arrival,
+                departure != null ? departure : arrival, 0, daysOfWeek);
+        schedule.setTripId(toKey(tripId));
+        schedule.setStopSequence(parseSequence(sequence));
+        sink.writeSchedule(schedule);
+        result.schedules++;
+        return true;
+    }
+
+    private boolean handleStop(CsvReader reader, String[] row, boolean write) {
+        String stopId = toKey(CsvReader.get(row, reader.column("stop_id")));
+        if (stopId == null || !write) {
+            return false;
+        }
+        String name = CsvReader.get(row, reader.column("stop_name"));
+        sink.writeStop(new BusStop(stopId, name != null ? name : stopId,
+                parseDouble(CsvReader.get(row, reader.column("stop_lat"))),
+                parseDouble(CsvReader.get(row, reader.column("stop_lon"))),
+                stopRoutes.get(stopId)));
+        result.stops++;
+        return true;
+    }
+
+    /**
+     * Convert a GTFS "H:MM:SS" time, which may run past 24:00, to "HH:mm"
+     * @param time GTFS time
+     * @return Clock time, or null if the value is missing or invalid
+     */
+    static String toClockTime(String time) {
+        if (time == null) {
+            return null;
+        }
+        int colon = time.indexOf(':');
+        if (colon < 1 || time.length() < colon + 3) {
+            return null;
+        }
+        int hours = 0;
+        for (int i = 0; i < colon; i++) {
+            char c = time.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+            hours = hours * 10 + (c - '0');
+        }
+        hours %= 24;
+        return (hours < 10 ? "0" : "") + hours + ":" + time.substring(colon + 1, colon + 3);
+    }
+
+    /**
+     * Get the number of days a GTFS time runs past its service day
+     * @param time GTFS "H:MM:SS" time, e.g. "25:10:00"
+     * @return Whole days past midnight, 0 if the time is missing or invalid
+     */
+    static int daysAfterServiceDay(String time) {
+        int colon = time != null ? time.indexOf(':') : -1;
+        if (colon < 1) {
+            return 0;
+        }
+        int hours = 0;
+        for (int i = 0; i < colon; i++) {
+            char c = time.charAt(i);
+            if (c < '0' || c > '9') {
+                return 0;
+            }
+            hours = hours * 10 + (c - '0');
+        }
+        return hours / 24;
+    }
+
+    /**
+     * Read a GTFS stop_sequence
+     * @param sequence Raw value
+     * @return The sequence, or 0 if it is missing or not a whole number
+     */
+    static int parseSequence(String sequence) {
+        if (sequence == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(sequence.trim());
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Make an ID safe to use as a Firebase key
+     * @param id Raw GTFS ID
+     * @return Key with . # $ [ ] / replaced, or null if the ID is missing
+     */
+    static String toKey(String id) {
+        if (id == null) {
+            return null;
+        }
+        StringBuilder key = null;
+        for (int i = 0; i < id.length(); i++) {
+            char c = id.charAt(i);
+            boolean invalid = c == '.' || c == '#' || c == '$' || c == '[' || c == ']'
+                    || c == '/' || c < 0x20;
+            if (invalid && key == null) {
+                key = new StringBuilder(id);
+            }
+            if (invalid) {
+                key.setCharAt(i, '_');
+            }
+        }
+        return key != null ? key.toString() : id;
+    }
+
+    private static double parseDouble(String value) {
+        if (value == null) {
+            return 0.0;
+        }
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0.0;
+        }
+    }
+}
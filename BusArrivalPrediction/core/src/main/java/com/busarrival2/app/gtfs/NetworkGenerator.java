@@ -0,0 +1,753 @@
+package com.busarrival2.app.gtfs;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.data.StopSpatialIndex;
+import com.busarrival2.app.data.TransitDataSource;
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * NetworkGenerator Class
+ * Builds a synthetic bus network of any size from a seed. Stops are spread
+ * over a city centre and outlying districts; routes run radially or across
+ * town through the nearest stops, preferring stops few routes serve yet.
+ * Every route runs both ways with peak, base and evening headways on
+ * weekdays, and a thinner service on the weekends it runs. Each trip
+ * passing a stop is one schedule row, as GtfsImporter produces.
+ * The same size and seed always give the same network, whether it is
+ * streamed to a Sink, put in a batch, built into a ScheduleStore or
+ * written as a GTFS zip; importing that zip gives back the same rows.
+ */
+public class NetworkGenerator {
+
+    /**
+     * Preset network sizes
+     */
+    public enum Size {
+        SAMPLE(6, 40, 1_500),
+        SMALL(150, 2_000, 100_000),
+        MEDIUM(400, 10_000, 500_000),
+        CITY(1_000, 50_000, 2_000_000);
+
+        final int routes;
+        final int stops;
+        final long scheduleRows;
+
+        Size(int routes, int stops, long scheduleRows) {
+            this.routes = routes;
+            this.stops = stops;
+            this.scheduleRows = scheduleRows;
+        }
+    }
+
+    // Default city centre (Muscat)
+    public static final double DEFAULT_CENTER_LATITUDE = 23.5880;
+    public static final double DEFAULT_CENTER_LONGITUDE = 58.3829;
+
+    private static final double KM_PER_DEGREE = 111.32;
+    private static final double MIN_RADIUS_KM = 2.0;
+    private static final int STOPS_PER_DISTRICT = 4000;
+    private static final double BACKGROUND_SHARE = 0.1;
+    private static final int CANDIDATE_STOPS = 6;
+    private static final int ATTACH_CANDIDATES = 32;
+    private static final double DWELL_MINUTES = 0.4;
+    private static final double PEAK_SLOWDOWN = 1.15;
+    private static final int MIN_HEADWAY = 2;
+    private static final int MAX_HEADWAY = 240;
+    private static final long ZIP_ENTRY_TIME = 1735689600000L;
+
+    // Services: weekdays, Saturday, Sunday
+    private static final int WEEKDAY = 0;
+    private static final int SATURDAY = 1;
+    private static final int SUNDAY = 2;
+    private static final String[] SERVICE_IDS = {"WD", "SA", "SU"};
+    private static final byte[] SERVICE_DAYS = {0x1F, 0x20, 0x40};
+    private static final int[] SERVICE_START = {5 * 60, 6 * 60, 7 * 60};
+    private static final int[] SERVICE_END = {24 * 60, 24 * 60, 23 * 60};
+
+    // Headways in minutes per route class: {peak, base, evening}
+    private static final int PEAK = 0;
+    private static final int BASE = 1;
+    private static final int EVENING = 2;
+    private static final int[][] HEADWAYS = {{6, 10, 15}, {10, 15, 30}, {20, 30, 60}};
+    private static final double[] SPEEDS_KMH = {18, 22, 26};
+
+    private static final List<List<String>> SERVICE_DAY_NAMES = new ArrayList<>();
+
+    static {
+        for (byte days : SERVICE_DAYS) {
+            SERVICE_DAY_NAMES.add(Collections.unmodifiableList(ScheduleStore.dayNamesOf(days)));
+        }
+    }
+
+    /**
+     * Receives each generated trip
+     */
+    private interface TripVisitor {
+        void visit(int route, int service, int direction, int trip, int departure) throws IOException;
+    }
+
+    private final long seed;
+    private final int routeCount;
+    private final int stopCount;
+    private final long scheduleRowTarget;
+    private final double centerLatitude;
+    private final double centerLongitude;
+
+    // Layout, built on first use
+    private List<BusStop> stops;
+    private List<BusRoute> routes;
+    private int[][] routeStops;
+    private double[][] routeOffsets;
+    private int[] routeClasses;
+    private int[] routeServices;
+    private double headwayScale = 1.0;
+    private long scheduleRows;
+
+    public NetworkGenerator(Size size, long seed) {
+        this(size.routes, size.stops, size.scheduleRows, seed);
+    }
+
+    /**
+     * @param routeCount Number of routes
+     * @param stopCount Number of stops
+     * @param scheduleRows Schedule rows to aim for; headways are scaled to get close
+     * @param seed Random seed
+     */
+    public NetworkGenerator(int routeCount, int stopCount, long scheduleRows, long seed) {
+        this(routeCount, stopCount, scheduleRows, seed,
+                DEFAULT_CENTER_LATITUDE, DEFAULT_CENTER_LONGITUDE);
+    }
+
+    public NetworkGenerator(int routeCount, int stopCount, long scheduleRows, long seed,
+                            double centerLatitude, double centerLongitude) {
+        this.routeCount = Math.max(1, routeCount);
+        this.stopCount = Math.max(2, stopCount);
+        this.scheduleRowTarget = Math.max(1, scheduleRows);
+        this.seed = seed;
+        this.centerLatitude = centerLatitude;
+        this.centerLongitude = centerLongitude;
+    }
+
+    /**
+     * Get the generated stops. A stop's routeId is the first route that serves it,
+     * or null if no route does.
+     * @return Stops in ID order
+     */
+    public List<BusStop> getStops() {
+        buildLayout();
+        return stops;
+    }
+
+    /**
+     * Get the generated routes
+     * @return Routes in ID order
+     */
+    public List<BusRoute> getRoutes() {
+        buildLayout();
+        return routes;
+    }
+
+    /**
+     * Get the exact number of schedule rows the network has
+     * @return Schedule row count
+     */
+    public long getScheduleRowCount() {
+        buildLayout();
+        return scheduleRows;
+    }
+
+    /**
+     * Stream the network to a sink: routes, stops, then schedules. The sink
+     * is flushed every GtfsImporter.DEFAULT_CHUNK_SIZE rows and at the end.
+     * @param sink Receives the models
+     * @throws IOException if a flush fails
+     */
+    public void generate(GtfsImporter.Sink sink) throws IOException {
+        buildLayout();
+        int[] pending = new int[1];
+        for (BusRoute route : routes) {
+            sink.writeRoute(route);
+            flushEvery(sink, pending);
+        }
+        for (BusStop stop : stops) {
+            sink.writeStop(stop);
+            flushEvery(sink, pending);
+        }
+        int[] minutes = new int[maxStopsPerRoute()];
+        forEachTrip((route, service, direction, trip, departure) -> {
+            String routeId = routes.get(route).getRouteId();
+            String tripId = tripId(route, service, direction, trip);
+            int count = fillArrivals(route, service, direction, departure, minutes);
+            for (int i = 0; i < count; i++) {
+                String time = toClockTime(minutes[i] % ArrivalPredictionEngine.MINUTES_PER_DAY);
+                // Stops reached after midnight run on the following day
+                int daysLater = minutes[i] / ArrivalPredictionEngine.MINUTES_PER_DAY;
+                List<String> days = daysLater == 0 ? SERVICE_DAY_NAMES.get(service)
+                        : ScheduleStore.dayNamesOf(ScheduleStore.shiftDays(SERVICE_DAYS[service], daysLater));
+                BusSchedule schedule = new BusSchedule(tripId + "_" + (i + 1), routeId,
+                        stopIdAt(route, direction, i), time, time, 0, days);
+                schedule.setTripId(tripId);
+                schedule.setStopSequence(i + 1);
+                sink.writeSchedule(schedule);
+                flushEvery(sink, pending);
+            }
+        });
+        sink.flush();
+    }
+
+    /**
+     * Put the whole network in a batch, e.g. of an InMemoryTransitDataSource.
+     * Nothing is committed.
+     * @param batch The batch to write into
+     */
+    public void generate(TransitDataSource.Batch batch) {
+        try {
+            generate(new GtfsImporter.Sink() {
+                @Override
+                public void writeRoute(BusRoute route) {
+                    batch.putRoute(route);
+                }
+
+                @Override
+                public void writeStop(BusStop stop) {
+                    batch.putStop(stop);
+                }
+
+                @Override
+                public void writeSchedule(BusSchedule schedule) {
+                    batch.putSchedule(schedule);
+                }
+
+                @Override
+                public void flush() {
+                    // Committed by the caller
+                }
+            });
+        } catch (IOException e) {
+            // flush() above never throws
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Build the schedules straight into a columnar store, without
+     * creating a BusSchedule per row
+     * @return Store holding every schedule row
+     */
+    public ScheduleStore buildScheduleStore() {
+        buildLayout();
+        ScheduleStore.Builder builder = new ScheduleStore.Builder((int) Math.min(scheduleRows, Integer.MAX_VALUE));
+        int[] minutes = new int[maxStopsPerRoute()];
+        try {
+            forEachTrip((route, service, direction, trip, departure) -> {
+                String routeId = routes.get(route).getRouteId();
+                String tripId = tripId(route, service, direction, trip);
+                int count = fillArrivals(route, service, direction, departure, minutes);
+                for (int i = 0; i < count; i++) {
+                    // Stops reached after midnight run on the following day
+                    builder.add(tripId + "_" + (i + 1), tripId, i + 1, routeId,
+                            stopIdAt(route, direction, i),
+                            minutes[i] % ArrivalPredictionEngine.MINUTES_PER_DAY, 0,
+                            ScheduleStore.shiftDays(SERVICE_DAYS[service],
+                                    minutes[i] / ArrivalPredictionEngine.MINUTES_PER_DAY));
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Write the network as a GTFS zip that GtfsImporter reads back.
+     * Times past midnight run on as 24:xx, as GTFS allows.
+     * @param out Receives the zip; it is finished but not closed
+     * @throws IOException if writing fails
+     */
+    public void writeGtfs(OutputStream out) throws IOException {
+        buildLayout();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        Writer writer = new BufferedWriter(new OutputStreamWriter(zip, StandardCharsets.UTF_8), 1 << 16);
+
+        startEntry(zip, writer, GtfsImporter.ROUTES);
+        writer.write("route_id,route_short_name,route_long_name,route_type\n");
+        for (BusRoute route : routes) {
+            writer.write(route.getRouteId() + "," + route.getRouteNumber() + ","
+                    + route.getRouteName() + ",3\n");
+        }
+
+        startEntry(zip, writer, GtfsImporter.CALENDAR);
+        writer.write("service_id,monday,tuesday,wednesday,thursday,friday,saturday,sunday,"
+                + "start_date,end_date\n");
+        for (int service = 0; service < SERVICE_IDS.length; service++) {
+            StringBuilder row = new StringBuilder(SERVICE_IDS[service]);
+            for (int day = 0; day < 7; day++) {
+                row.append((SERVICE_DAYS[service] & (1 << day)) != 0 ? ",1" : ",0");
+            }
+            writer.write(row.append(",20250101,20301231\n").toString());
+        }
+
+        startEntry(zip, writer, GtfsImporter.TRIPS);
+        writer.write("route_id,service_id,trip_id,direction_id\n");
+        forEachTrip((route, service, direction, trip, departure) ->
+                writer.write(routes.get(route).getRouteId() + "," + SERVICE_IDS[service] + ","
+                        + tripId(route, service, direction, trip) + "," + direction + "\n"));
+
+        startEntry(zip, writer, GtfsImporter.STOP_TIMES);
+        writer.write("trip_id,arrival_time,departure_time,stop_id,stop_sequence\n");
+        int[] minutes = new int[maxStopsPerRoute()];
+        StringBuilder row = new StringBuilder(64);
+        forEachTrip((route, service, direction, trip, departure) -> {
+            String tripId = tripId(route, service, direction, trip);
+            int count = fillArrivals(route, service, direction, departure, minutes);
+            for (int i = 0; i < count; i++) {
+                String time = toGtfsTime(minutes[i]);
+                row.setLength(0);
+                row.append(tripId).append(',').append(time).append(',').append(time).append(',')
+                        .append(stopIdAt(route, direction, i)).append(',').append(i + 1).append('\n');
+                writer.write(row.toString());
+            }
+        });
+
+        startEntry(zip, writer, GtfsImporter.STOPS);
+        writer.write("stop_id,stop_name,stop_lat,stop_lon\n");
+        for (BusStop stop : stops) {
+            writer.write(stop.getStopId() + "," + stop.getStopName() + ","
+                    + stop.getLatitude() + "," + stop.getLongitude() + "\n");
+        }
+
+        writer.flush();
+        zip.closeEntry();
+        zip.finish();
+    }
+
+    private static void startEntry(ZipOutputStream zip, Writer writer, String name)
+            throws IOException {
+        writer.flush();
+        ZipEntry entry = new ZipEntry(name);
+        // A fixed time keeps the zip byte for byte the same between runs
+        entry.setTime(ZIP_ENTRY_TIME);
+        zip.putNextEntry(entry);
+    }
+
+    private static void flushEvery(GtfsImporter.Sink sink, int[] pending) throws IOException {
+        if (++pending[0] >= GtfsImporter.DEFAULT_CHUNK_SIZE) {
+            sink.flush();
+            pending[0] = 0;
+        }
+    }
+
+    /**
+     * Place stops and routes, then scale headways towards the row target
+     */
+    private void buildLayout() {
+        if (stops != null) {
+            return;
+        }
+        Random random = new Random(seed);
+        double radiusKm = Math.max(MIN_RADIUS_KM, 4.0 * Math.sqrt(stopCount / 2000.0));
+        double cosCenter = Math.cos(Math.toRadians(centerLatitude));
+
+        // District 0 is the centre; the rest sit around it
+        int districtCount = Math.max(3, 1 + stopCount / STOPS_PER_DISTRICT);
+        double[] districtX = new double[districtCount];
+        double[] districtY = new double[districtCount];
+        double[] districtSigma = new double[districtCount];
+        double[] districtWeight = new double[districtCount];
+        districtSigma[0] = radiusKm * 0.15;
+        districtWeight[0] = 2.0;
+        double totalWeight = districtWeight[0];
+        for (int d = 1; d < districtCount; d++) {
+            double angle = random.nextDouble() * 2 * Math.PI;
+            double distance = radiusKm * (0.3 + 0.6 * random.nextDouble());
+            districtX[d] = Math.cos(angle) * distance;
+            districtY[d] = Math.sin(angle) * distance;
+            districtSigma[d] = radiusKm * (0.04 + 0.06 * random.nextDouble());
+            districtWeight[d] = 0.4 + 0.8 * random.nextDouble();
+            totalWeight += districtWeight[d];
+        }
+
+        // Stops: clustered around districts, plus a thin background
+        List<BusStop> stopList = new ArrayList<>(stopCount);
+        Map<String, Integer> stopIndex = new HashMap<>(stopCount * 2);
+        int[] districtStops = new int[districtCount];
+        for (int s = 0; s < stopCount; s++) {
+            double x;
+            double y;
+            int district;
+            if (random.nextDouble() < BACKGROUND_SHARE) {
+                double angle = random.nextDouble() * 2 * Math.PI;
+                double distance = radiusKm * Math.sqrt(random.nextDouble());
+                x = Math.cos(angle) * distance;
+                y = Math.sin(angle) * distance;
+                district = nearestDistrict(districtX, districtY, x, y);
+            } else {
+                district = pickDistrict(districtWeight, totalWeight, random.nextDouble());
+                x = districtX[district] + random.nextGaussian() * districtSigma[district];
+                y = districtY[district] + random.nextGaussian() * districtSigma[district];
+            }
+            String stopId = String.format(Locale.US, "S%05d", s + 1);
+            BusStop stop = new BusStop(stopId,
+                    districtName(district) + " " + (++districtStops[district]),
+                    round6(centerLatitude + y / KM_PER_DEGREE),
+                    round6(centerLongitude + x / (KM_PER_DEGREE * cosCenter)), null);
+            stopList.add(stop);
+            stopIndex.put(stopId, s);
+        }
+
+        // Routes: a wavy line between two districts, snapped to nearby stops
+        StopSpatialIndex index = new StopSpatialIndex(stopList);
+        int averageStops = (int) Math.max(4, Math.min(120, Math.round(stopCount * 1.25 / routeCount)));
+        int[] served = new int[stopCount];
+        List<List<Integer>> paths = new ArrayList<>(routeCount);
+        List<BusRoute> routeList = new ArrayList<>(routeCount);
+        routeStops = new int[routeCount][];
+        routeOffsets = new double[routeCount][];
+        routeClasses = new int[routeCount];
+        routeServices = new int[routeCount];
+        for (int r = 0; r < routeCount; r++) {
+            int from;
+            int to;
+            if (random.nextDouble() < 0.6) {
+                from = 0;
+                to = 1 + random.nextInt(districtCount - 1);
+            } else {
+                from = 1 + random.nextInt(districtCount - 1);
+                to = 1 + random.nextInt(districtCount - 1);
+                if (to == from) {
+                    to = 0;
+                }
+            }
+            double ax = districtX[from] + random.nextGaussian() * districtSigma[from] * 0.5;
+            double ay = districtY[from] + random.nextGaussian() * districtSigma[from] * 0.5;
+            double bx = districtX[to] + random.nextGaussian() * districtSigma[to] * 1.5;
+            double by = districtY[to] + random.nextGaussian() * districtSigma[to] * 1.5;
+            double length = Math.hypot(bx - ax, by - ay);
+            double wave = (random.nextDouble() - 0.5) * 0.16 * length;
+            double waves = 1 + random.nextInt(3);
+            int waypoints = Math.max(2, (int) Math.round(averageStops * (0.65 + 0.7 * random.nextDouble())));
+
+            List<Integer> sequence = new ArrayList<>(waypoints);
+            Set<Integer> onRoute = new HashSet<>();
+            for (int w = 0; w < waypoints; w++) {
+                double f = (double) w / (waypoints - 1);
+                double offset = wave * Math.sin(Math.PI * waves * f);
+                double x = ax + f * (bx - ax) - offset * (by - ay) / Math.max(length, 1e-9);
+                double y = ay + f * (by - ay) + offset * (bx - ax) / Math.max(length, 1e-9);
+                double latitude = centerLatitude + y / KM_PER_DEGREE;
+                double longitude = centerLongitude + x / (KM_PER_DEGREE * cosCenter);
+
+                // Nearby stops few routes serve yet win over the very nearest
+                int best = -1;
+                double bestScore = Double.MAX_VALUE;
+                for (BusStop candidate : index.findNearest(latitude, longitude, CANDIDATE_STOPS)) {
+                    int s = stopIndex.get(candidate.getStopId());
+                    if (onRoute.contains(s)) {
+                        continue;
+                    }
+                    double score = StopSpatialIndex.distanceMeters(latitude, longitude, candidate)
+                            * (1 + served[s]);
+                    if (score < bestScore) {
+                        bestScore = score;
+                        best = s;
+                    }
+                }
+                if (best >= 0) {
+                    onRoute.add(best);
+                    sequence.add(best);
+                }
+            }
+
+            paths.add(sequence);
+            for (int stop : sequence) {
+                served[stop]++;
+            }
+            routeClasses[r] = pickRouteClass(random.nextDouble());
+            double service = random.nextDouble();
+            routeServices[r] = 1 << WEEKDAY
+                    | (service < 0.85 ? 1 << SATURDAY : 0)
+                    | (service < 0.65 ? 1 << SUNDAY : 0);
+
+            String start = districtName(from);
+            String end = districtName(to);
+            routeList.add(new BusRoute(String.format(Locale.US, "R%04d", r + 1),
+                    String.valueOf(r + 1), start + " - " + end, start, end, true));
+        }
+        attachUnservedStops(stopList, index, stopIndex, paths, served);
+
+        for (int r = 0; r < routeCount; r++) {
+            List<Integer> sequence = paths.get(r);
+            int[] path = new int[sequence.size()];
+            double[] offsets = new double[path.length];
+            for (int i = 0; i < path.length; i++) {
+                path[i] = sequence.get(i);
+                if (i > 0) {
+                    BusStop previous = stopList.get(path[i - 1]);
+                    double km = StopSpatialIndex.distanceMeters(previous.getLatitude(),
+                            previous.getLongitude(), stopList.get(path[i])) / 1000.0;
+                    offsets[i] = offsets[i - 1] + km / SPEEDS_KMH[routeClasses[r]] * 60 + DWELL_MINUTES;
+                }
+                // As in an import, a stop belongs to the first route that serves it
+                if (path.length > 1 && stopList.get(path[i]).getRouteId() == null) {
+                    stopList.get(path[i]).setRouteId(routeList.get(r).getRouteId());
+                }
+            }
+            routeStops[r] = path;
+            routeOffsets[r] = offsets;
+        }
+        stops = Collections.unmodifiableList(stopList);
+        routes = Collections.unmodifiableList(routeList);
+
+        // Headways grow or shrink together until the row count is close to the target
+        scheduleRows = countRows();
+        for (int pass = 0; pass < 8 && Math.abs(scheduleRows - scheduleRowTarget) > scheduleRowTarget / 50; pass++) {
+            headwayScale = Math.max(0.05, Math.min(50.0, headwayScale * scheduleRows / scheduleRowTarget));
+            scheduleRows = countRows();
+        }
+    }
+
+    /**
+     * Give every stop no route reached a route: it is inserted next to the
+     * nearest served stop, on the side that makes the shorter detour
+     */
+    private static void attachUnservedStops(List<BusStop> stopList, StopSpatialIndex index,
+                                            Map<String, Integer> stopIndex,
+                                            List<List<Integer>> paths, int[] served) {
+        int[] routeOf = new int[served.length];
+        Arrays.fill(routeOf, -1);
+        for (int r = 0; r < paths.size(); r++) {
+            if (paths.get(r).size() < 2) {
+                continue;
+            }
+            for (int stop : paths.get(r)) {
+                if (routeOf[stop] < 0) {
+                    routeOf[stop] = r;
+                }
+            }
+        }
+
+        for (int s = 0; s < served.length; s++) {
+            if (routeOf[s] >= 0) {
+                continue;
+            }
+            BusStop stop = stopList.get(s);
+            int anchor = -1;
+            for (BusStop candidate : index.findNearest(stop.getLatitude(), stop.getLongitude(),
+                    ATTACH_CANDIDATES)) {
+                int c = stopIndex.get(candidate.getStopId());
+                if (routeOf[c] >= 0) {
+                    anchor = c;
+                    break;
+                }
+            }
+            if (anchor < 0) {
+                continue;
+            }
+
+            List<Integer> path = paths.get(routeOf[anchor]);
+            int position = path.indexOf(anchor);
+            double before = position > 0
+                    ? detour(stopList, path.get(position - 1), s, anchor) : Double.MAX_VALUE;
+            double after = position < path.size() - 1
+                    ? detour(stopList, anchor, s, path.get(position + 1)) : Double.MAX_VALUE;
+            path.add(before < after ? position : position + 1, s);
+            routeOf[s] = routeOf[anchor];
+            served[s]++;
+        }
+    }
+
+    /**
+     * Extra distance of going from a to b by way of via
+     */
+    private static double detour(List<BusStop> stopList, int a, int via, int b) {
+        BusStop from = stopList.get(a);
+        BusStop middle = stopList.get(via);
+        BusStop to = stopList.get(b);
+        return StopSpatialIndex.distanceMeters(from.getLatitude(), from.getLongitude(), middle)
+                + StopSpatialIndex.distanceMeters(middle.getLatitude(), middle.getLongitude(), to)
+                - StopSpatialIndex.distanceMeters(from.getLatitude(), from.getLongitude(), to);
+    }
+
+    private long countRows() {
+        long[] rows = new long[1];
+        try {
+            forEachTrip((route, service, direction, trip, departure) ->
+                    rows[0] += routeStops[route].length);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return rows[0];
+    }
+
+    /**
+     * Visit every trip in a fixed order. Each route draws from its own
+     * random stream, so the trips do not depend on who is visiting.
+     */
+    private void forEachTrip(TripVisitor visitor) throws IOException {
+        for (int route = 0; route < routeStops.length; route++) {
+            if (routeStops[route].length < 2) {
+                continue;
+            }
+            Random random = new Random(seed ^ (0x9E3779B97F4A7C15L * (route + 1)));
+            for (int service = 0; service < SERVICE_IDS.length; service++) {
+                if ((routeServices[route] & (1 << service)) == 0) {
+                    continue;
+                }
+                for (int direction = 0; direction < 2; direction++) {
+                    int departure = SERVICE_START[service]
+                            + random.nextInt(headway(route, service, SERVICE_START[service]));
+                    int trip = 0;
+                    while (departure < SERVICE_END[service]) {
+                        visitor.visit(route, service, direction, trip++, departure);
+                        departure += headway(route, service, departure);
+                    }
+                }
+            }
+        }
+    }
+
+    private int headway(int route, int service, int minute) {
+        int base = HEADWAYS[routeClasses[route]][period(service, minute)];
+        return (int) Math.max(MIN_HEADWAY, Math.min(MAX_HEADWAY, Math.round(base * headwayScale)));
+    }
+
+    private static int period(int service, int minute) {
+        switch (service) {
+            case WEEKDAY:
+                if ((minute >= 7 * 60 && minute < 9 * 60) || (minute >= 16 * 60 && minute < 19 * 60)) {
+                    return PEAK;
+                }
+                return minute >= 9 * 60 && minute < 16 * 60 ? BASE : EVENING;
+            case SATURDAY:
+                return minute >= 10 * 60 && minute < 19 * 60 ? BASE : EVENING;
+            default:
+                return EVENING;
+        }
+    }
+
+    /**
+     * Fill in the arrival minute at each stop of a trip, in travel order.
+     * Weekday peak trips run slower.
+     * @return Number of stops
+     */
+    private int fillArrivals(int route, int service, int direction, int departure, int[] minutes) {
+        double[] offsets = routeOffsets[route];
+        int last = offsets.length - 1;
+        double slowdown = period(service, departure) == PEAK && service == WEEKDAY ? PEAK_SLOWDOWN : 1.0;
+        for (int i = 0; i <= last; i++) {
+            double offset = direction == 0 ? offsets[i] : offsets[last] - offsets[last - i];
+            minutes[i] = departure + (int) Math.round(offset * slowdown);
+        }
+        return offsets.length;
+    }
+
+    private String stopIdAt(int route, int direction, int i) {
+        int[] path = routeStops[route];
+        return stops.get(path[direction == 0 ? i : path.length - 1 - i]).getStopId();
+    }
+
+    private String tripId(int route, int service, int direction, int trip) {
+        return routes.get(route).getRouteId() + "_" + SERVICE_IDS[service] + direction + "_" + trip;
+    }
+
+    private int maxStopsPerRoute() {
+        int max = 0;
+        for (int[] path : routeStops) {
+            max = Math.max(max, path.length);
+        }
+        return max;
+    }
+
+    private static int pickDistrict(double[] weights, double total, double draw) {
+        double target = draw * total;
+        for (int d = 0; d < weights.length; d++) {
+            target -= weights[d];
+            if (target < 0) {
+                return d;
+            }
+        }
+        return weights.length - 1;
+    }
+
+    private static int nearestDistrict(double[] xs, double[] ys, double x, double y) {
+        int nearest = 0;
+        double best = Double.MAX_VALUE;
+        for (int d = 0; d < xs.length; d++) {
+            double distance = Math.hypot(xs[d] - x, ys[d] - y);
+            if (distance < best) {
+                best = distance;
+                nearest = d;
+            }
+        }
+        return nearest;
+    }
+
+    private static int pickRouteClass(double draw) {
+        // Frequent trunk routes, standard routes, local feeders
+        return draw < 0.15 ? 0 : (draw < 0.7 ? 1 : 2);
+    }
+
+    private static String districtName(int district) {
+        return district == 0 ? "Centre" : "District " + district;
+    }
+
+    /**
+     * Round to six decimals, which survives a trip through GTFS text
+     */
+    private static double round6(double value) {
+        return Math.round(value * 1e6) / 1e6;
+    }
+
+    private static String toClockTime(int minuteOfDay) {
+        int hours = minuteOfDay / 60;
+        int minutes = minuteOfDay % 60;
+        return (hours < 10 ? "0" : "") + hours + (minutes < 10 ? ":0" : ":") + minutes;
+    }
+
+    private static String toGtfsTime(int minute) {
+        int minutes = minute % 60;
+        return (minute / 60) + (minutes < 10 ? ":0" : ":") + minutes + ":00";
+    }
+
+    /**
+     * Write a GTFS zip: NetworkGenerator &lt;sample|small|medium|city&gt; &lt;seed&gt; &lt;output.zip&gt;
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 3) {
+            System.err.println("Usage: NetworkGenerator <"
+                    + Arrays.toString(Size.values()).toLowerCase(Locale.US) + "> <seed> <output.zip>");
+            System.exit(2);
+        }
+        NetworkGenerator generator = new NetworkGenerator(
+                Size.valueOf(args[0].toUpperCase(Locale.US)), Long.parseLong(args[1]));
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(args[2]))) {
+            generator.writeGtfs(out);
+        }
+        System.out.println(generator.getRoutes().size() + " routes, " + generator.getStops().size()
+                + " stops, " + generator.getScheduleRowCount() + " schedule rows -> " + args[2]);
+    }
+}
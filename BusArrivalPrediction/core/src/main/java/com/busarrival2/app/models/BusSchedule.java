@@ -14,6 +14,8 @@ public class BusSchedule {
     private String departureTime; // Format: "HH:mm"
     private int frequency; // Frequency in minutes
     private List<String> daysOfWeek; // ["Mon", "Tue", "Wed", "Thu", "Fri", "Sat", "Sun"]
+    private String tripId; // Trip this stop time belongs to, null for headway schedules
+    private int stopSequence; // Position of the stop within the trip
 
     // Default constructor required for Firebase
     public BusSchedule() {
@@ -89,6 +91,22 @@ public class BusSchedule {
         this.daysOfWeek = daysOfWeek;
     }
 
+    public String getTripId() {
+        return tripId;
+    }
+
+    public void setTripId(String tripId) {
+        this.tripId = tripId;
+    }
+
+    public int getStopSequence() {
+        return stopSequence;
+    }
+
+    public void setStopSequence(int stopSequence) {
+        this.stopSequence = stopSequence;
+    }
+
     @Override
     public String toString() {
         return "BusSchedule{" +
@@ -97,6 +115,8 @@ public class BusSchedule {
                 ", stopId='" + stopId + '\'' +
                 ", arrivalTime='" + arrivalTime + '\'' +
                 ", frequency=" + frequency +
+                ", tripId='" + tripId + '\'' +
+                ", stopSequence=" + stopSequence +
                 '}';
     }
 }
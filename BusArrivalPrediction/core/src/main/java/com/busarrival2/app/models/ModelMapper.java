@@ -0,0 +1,39 @@
+package com.busarrival2.app.models;
+
+import java.util.Map;
+
+/**
+ * ModelMapper Interface
+ * Converts a model to and from the plain Map form used by Firebase,
+ * without going through reflection
+ * @param <T> Model type
+ */
+public interface ModelMapper<T> {
+
+    /**
+     * Build a model from a map of field values
+     * @param values Field values keyed by property name
+     * @return The model
+     */
+    T fromMap(Map<String, Object> values);
+
+    /**
+     * Convert a model into a map of field values for setValue/updateChildren
+     * @param model The model to convert
+     * @return Field values keyed by property name
+     */
+    Map<String, Object> toMap(T model);
+
+    /**
+     * Build a model from a raw snapshot value
+     * @param value Value returned by DataSnapshot.getValue()
+     * @return The model, or null if the value is not an object
+     */
+    @SuppressWarnings("unchecked")
+    default T fromValue(Object value) {
+        if (value instanceof Map) {
+            return fromMap((Map<String, Object>) value);
+        }
+        return null;
+    }
+}
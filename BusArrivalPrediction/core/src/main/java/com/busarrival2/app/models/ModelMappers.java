@@ -0,0 +1,212 @@
+package com.busarrival2.app.models;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ModelMappers Class
+ * Hand-written mappers for the Firebase models. Property names match the
+ * ones Firebase derives from the getters, so data written either way can
+ * be read by both.
+ */
+public final class ModelMappers {
+
+    public static final ModelMapper<BusRoute> ROUTE = new ModelMapper<BusRoute>() {
+        @Override
+        public BusRoute fromMap(Map<String, Object> values) {
+            BusRoute route = new BusRoute();
+            route.setRouteId(asString(values.get("routeId")));
+            route.setRouteNumber(asString(values.get("routeNumber")));
+            route.setRouteName(asString(values.get("routeName")));
+            route.setStartPoint(asString(values.get("startPoint")));
+            route.setEndPoint(asString(values.get("endPoint")));
+            route.setActive(asBoolean(values.get("active")));
+            return route;
+        }
+
+        @Override
+        public Map<String, Object> toMap(BusRoute route) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("routeId", route.getRouteId());
+            values.put("routeNumber", route.getRouteNumber());
+            values.put("routeName", route.getRouteName());
+            values.put("startPoint", route.getStartPoint());
+            values.put("endPoint", route.getEndPoint());
+            values.put("active", route.isActive());
+            return values;
+        }
+    };
+
+    public static final ModelMapper<BusStop> STOP = new ModelMapper<BusStop>() {
+        @Override
+        public BusStop fromMap(Map<String, Object> values) {
+            BusStop stop = new BusStop();
+            stop.setStopId(asString(values.get("stopId")));
+            stop.setStopName(asString(values.get("stopName")));
+            stop.setLatitude(asDouble(values.get("latitude")));
+            stop.setLongitude(asDouble(values.get("longitude")));
+            stop.setRouteId(asString(values.get("routeId")));
+            return stop;
+        }
+
+        @Override
+        public Map<String, Object> toMap(BusStop stop) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("stopId", stop.getStopId());
+            values.put("stopName", stop.getStopName());
+            values.put("latitude", stop.getLatitude());
+            values.put("longitude", stop.getLongitude());
+            values.put("routeId", stop.getRouteId());
+            return values;
+        }
+    };
+
+    public static final ModelMapper<BusSchedule> SCHEDULE = new ModelMapper<BusSchedule>() {
+        @Override
+        public BusSchedule fromMap(Map<String, Object> values) {
+            BusSchedule schedule = new BusSchedule();
+            schedule.setScheduleId(asString(values.get("scheduleId")));
+            schedule.setRouteId(asString(values.get("routeId")));
+            schedule.setStopId(asString(values.get("stopId")));
+            schedule.setArrivalTime(asString(values.get("arrivalTime")));
+            schedule.setDepartureTime(asString(values.get("departureTime")));
+            schedule.setFrequency((int) asLong(values.get("frequency")));
+            schedule.setDaysOfWeek(asStringList(values.get("daysOfWeek")));
+            schedule.setTripId(asString(values.get("tripId")));
+            schedule.setStopSequence((int) asLong(values.get("stopSequence")));
+            return schedule;
+        }
+
+        @Override
+        public Map<String, Object> toMap(BusSchedule schedule) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("scheduleId", schedule.getScheduleId());
+            values.put("routeId", schedule.getRouteId());
+            values.put("stopId", schedule.getStopId());
+            values.put("arrivalTime", schedule.getArrivalTime());
+            values.put("departureTime", schedule.getDepartureTime());
+            values.put("frequency", schedule.getFrequency());
+            values.put("daysOfWeek", schedule.getDaysOfWeek());
+            values.put("tripId", schedule.getTripId());
+            values.put("stopSequence", schedule.getStopSequence());
+            return values;
+        }
+    };
+
+    public static final ModelMapper<User> USER = new ModelMapper<User>() {
+        @Override
+        public User fromMap(Map<String, Object> values) {
+            User user = new User();
+            user.setUserId(asString(values.get("userId")));
+            user.setName(asString(values.get("name")));
+            user.setEmail(asString(values.get("email")));
+            user.setPhone(asString(values.get("phone")));
+            user.setRole(asString(values.get("role")));
+            user.setCreatedAt(asLong(values.get("createdAt")));
+            return user;
+        }
+
+        @Override
+        public Map<String, Object> toMap(User user) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("userId", user.getUserId());
+            values.put("name", user.getName());
+            values.put("email", user.getEmail());
+            values.put("phone", user.getPhone());
+            values.put("role", user.getRole());
+            values.put("createdAt", user.getCreatedAt());
+            return values;
+        }
+    };
+
+    public static final ModelMapper<VehiclePosition> POSITION = new ModelMapper<VehiclePosition>() {
+        @Override
+        public VehiclePosition fromMap(Map<String, Object> values) {
+            VehiclePosition position = new VehiclePosition();
+            position.setVehicleId(asString(values.get("vehicleId")));
+            position.setRouteId(asString(values.get("routeId")));
+            position.setLatitude(asDouble(values.get("latitude")));
+            position.setLongitude(asDouble(values.get("longitude")));
+            position.setTimestamp(asLong(values.get("timestamp")));
+            return position;
+        }
+
+        @Override
+        public Map<String, Object> toMap(VehiclePosition position) {
+            Map<String, Object> values = new LinkedHashMap<>();
+            values.put("vehicleId", position.getVehicleId());
+            values.put("routeId", position.getRouteId());
+            values.put("latitude", position.getLatitude());
+            values.put("longitude", position.getLongitude());
+            values.put("timestamp", position.getTimestamp());
+            return values;
+        }
+    };
+
+    private ModelMappers() {
+    }
+
+    /**
+     * Read a string value
+     * @param value Raw value
+     * @return The string, or null if the value is missing
+     */
+    public static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    /**
+     * Read a whole number. Firebase returns whole numbers as Long and
+     * fractional numbers as Double.
+     * @param value Raw value
+     * @return The number, or 0 if the value is missing or not numeric
+     */
+    public static long asLong(Object value) {
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    /**
+     * Read a decimal number
+     * @param value Raw value
+     * @return The number, or 0 if the value is missing or not numeric
+     */
+    public static double asDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    /**
+     * Read a boolean value
+     * @param value Raw value
+     * @return The boolean, or false if the value is missing
+     */
+    public static boolean asBoolean(Object value) {
+        return value instanceof Boolean && (Boolean) value;
+    }
+
+    /**
+     * Read a list of strings. Firebase returns arrays as a List, or as a
+     * Map when the indices are sparse.
+     * @param value Raw value
+     * @return The strings, or null if the value is missing
+     */
+    public static List<String> asStringList(Object value) {
+        Collection<?> items;
+        if (value instanceof List) {
+            items = (List<?>) value;
+        } else if (value instanceof Map) {
+            items = ((Map<?, ?>) value).values();
+        } else {
+            return null;
+        }
+        List<String> strings = new ArrayList<>(items.size());
+        for (Object item : items) {
+            if (item != null) {
+                strings.add(item.toString());
+            }
+        }
+        return strings;
+    }
+}
@@ -0,0 +1,69 @@
+package com.busarrival2.app.models;
+
+/**
+ * VehiclePosition Model Class
+ * Represents one location ping sent by a bus
+ */
+public class VehiclePosition {
+    private String vehicleId;
+    private String routeId;
+    private double latitude;
+    private double longitude;
+    private long timestamp;
+
+    // Default constructor required for Firebase
+    public VehiclePosition() {
+    }
+
+    // Constructor with parameters
+    public VehiclePosition(String vehicleId, String routeId, double latitude,
+                           double longitude, long timestamp) {
+        this.vehicleId = vehicleId;
+        this.routeId = routeId;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.timestamp = timestamp;
+    }
+
+    // Getters and Setters
+    public String getVehicleId() {
+        return vehicleId;
+    }
+
+    public void setVehicleId(String vehicleId) {
+        this.vehicleId = vehicleId;
+    }
+
+    public String getRouteId() {
+        return routeId;
+    }
+
+    public void setRouteId(String routeId) {
+        this.routeId = routeId;
+    }
+
+    public double getLatitude() {
+        return latitude;
+    }
+
+    public void setLatitude(double latitude) {
+        this.latitude = latitude;
+    }
+
+    public double getLongitude() {
+        return longitude;
+    }
+
+    public void setLongitude(double longitude) {
+        this.longitude = longitude;
+    }
+
+    // Milliseconds since the epoch
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+}
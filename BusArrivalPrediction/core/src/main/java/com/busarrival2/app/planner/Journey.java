@@ -0,0 +1,119 @@
+package com.busarrival2.app.planner;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Journey Class
+ * One itinerary from the journey planner: a sequence of bus rides and
+ * walks, with times in minutes since midnight
+ */
+public final class Journey {
+
+    /**
+     * Leg Class
+     * One ride on a route, or a walk when the route ID is null
+     */
+    public static final class Leg {
+        private final String routeId;
+        private final String fromStopId;
+        private final String toStopId;
+        private final int departureMinute;
+        private final int arrivalMinute;
+
+        public Leg(String routeId, String fromStopId, String toStopId,
+                   int departureMinute, int arrivalMinute) {
+            this.routeId = routeId;
+            this.fromStopId = fromStopId;
+            this.toStopId = toStopId;
+            this.departureMinute = departureMinute;
+            this.arrivalMinute = arrivalMinute;
+        }
+
+        public String getRouteId() {
+            return routeId;
+        }
+
+        public String getFromStopId() {
+            return fromStopId;
+        }
+
+        public String getToStopId() {
+            return toStopId;
+        }
+
+        public int getDepartureMinute() {
+            return departureMinute;
+        }
+
+        public int getArrivalMinute() {
+            return arrivalMinute;
+        }
+
+        public boolean isWalk() {
+            return routeId == null;
+        }
+
+        @Override
+        public String toString() {
+            return (isWalk() ? "Walk" : "Route " + routeId) + " " + fromStopId + " -> "
+                    + toStopId + " (" + departureMinute + "-" + arrivalMinute + ")";
+        }
+    }
+
+    private final List<Leg> legs;
+    private final int departureMinute;
+    private final int arrivalMinute;
+    private final int rides;
+
+    public Journey(List<Leg> legs, int departureMinute, int arrivalMinute) {
+        this.legs = Collections.unmodifiableList(legs);
+        this.departureMinute = departureMinute;
+        this.arrivalMinute = arrivalMinute;
+        int count = 0;
+        for (Leg leg : legs) {
+            if (!leg.isWalk()) {
+                count++;
+            }
+        }
+        this.rides = count;
+    }
+
+    /**
+     * Get the legs in travel order
+     * @return Read-only list of legs
+     */
+    public List<Leg> getLegs() {
+        return legs;
+    }
+
+    /**
+     * Get the time the rider leaves the origin stop
+     * @return Minute of day
+     */
+    public int getDepartureMinute() {
+        return departureMinute;
+    }
+
+    /**
+     * Get the time the rider reaches the destination stop
+     * @return Minute of day
+     */
+    public int getArrivalMinute() {
+        return arrivalMinute;
+    }
+
+    /**
+     * Get the number of changes between buses
+     * @return Transfer count
+     */
+    public int getTransfers() {
+        return Math.max(0, rides - 1);
+    }
+
+    @Override
+    public String toString() {
+        return "Journey{arrival=" + arrivalMinute + ", transfers=" + getTransfers()
+                + ", legs=" + legs + "}";
+    }
+}
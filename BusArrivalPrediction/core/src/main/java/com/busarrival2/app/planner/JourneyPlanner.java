@@ -0,0 +1,197 @@
+package com.busarrival2.app.planner;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JourneyPlanner Class
+ * Finds itineraries between two stops with a round-based Connection Scan.
+ * Round k holds the earliest arrival at every stop using exactly k rides,
+ * so a single pass over the connections yields the Pareto-optimal set of
+ * (arrival time, transfers) trade-offs.
+ *
+ * Label arrays are reused between queries, so one planner must not be
+ * used by several threads at once.
+ */
+public class JourneyPlanner {
+
+    // Default limit on changes between buses
+    public static final int DEFAULT_MAX_TRANSFERS = 3;
+
+    private static final int UNREACHED = Integer.MAX_VALUE;
+
+    private final TransitNetwork network;
+
+    // Labels per round, indexed [round * stopCount + stop]
+    private int[] arrivals = new int[0];
+    private int[] inConnections = new int[0];
+    private int[] walkedFrom = new int[0];
+    // First connection where a trip was boarded, indexed [round * tripCount + trip]
+    private int[] boardedAt = new int[0];
+
+    public JourneyPlanner(TransitNetwork network) {
+        this.network = network;
+    }
+
+    /**
+     * Plan with the default transfer limit
+     * @see #plan(String, String, int, int)
+     */
+    public List<Journey> plan(String fromStopId, String toStopId, int departureMinute) {
+        return plan(fromStopId, toStopId, departureMinute, DEFAULT_MAX_TRANSFERS);
+    }
+
+    /**
+     * Find the Pareto-optimal journeys between two stops: each journey in
+     * the result arrives strictly earlier than every journey with fewer
+     * transfers
+     * @param fromStopId Origin stop ID
+     * @param toStopId Destination stop ID
+     * @param departureMinute Earliest departure, in minutes since midnight
+     * @param maxTransfers Maximum number of changes between buses
+     * @return Journeys ordered by transfers, empty if the destination cannot be reached today
+     */
+    public List<Journey> plan(String fromStopId, String toStopId, int departureMinute,
+                              int maxTransfers) {
+        int origin = network.stopIndexOf(fromStopId);
+        int target = network.stopIndexOf(toStopId);
+        if (origin < 0 || target < 0 || maxTransfers < 0) {
+            return new ArrayList<>();
+        }
+        if (origin == target) {
+            return Collections.singletonList(new Journey(new ArrayList<>(),
+                    departureMinute, departureMinute));
+        }
+
+        int rounds = maxTransfers + 1;
+        int stopCount = network.getStopCount();
+        int tripCount = network.getTripCount();
+        reset(rounds, stopCount, tripCount);
+
+        // Round 0: the origin and the stops within walking distance of it
+        arrivals[origin] = departureMinute;
+        relaxFootpaths(0, origin, departureMinute, stopCount);
+
+        // bounds[k]: earliest arrival at the target using at most k rides. A
+        // connection departing at or after it cannot improve round k or any
+        // later round, so it only has to be scanned for the rounds before.
+        int[] bounds = new int[rounds + 1];
+        Arrays.fill(bounds, arrivals[target]);
+        int connectionCount = network.getConnectionCount();
+        for (int c = network.firstConnectionAfter(departureMinute); c < connectionCount; c++) {
+            int departure = network.getDepartureTime(c);
+            if (departure >= bounds[1]) {
+                // Nothing departing now can improve any round
+                break;
+            }
+            int trip = network.getTrip(c);
+            int from = network.getDepartureStop(c);
+            int to = network.getArrivalStop(c);
+            int arrival = network.getArrivalTime(c);
+
+            for (int k = 1; k <= rounds && departure < bounds[k]; k++) {
+                int tripSlot = k * tripCount + trip;
+                if (boardedAt[tripSlot] < 0) {
+                    if (arrivals[(k - 1) * stopCount + from] > departure) {
+                        continue;
+                    }
+                    boardedAt[tripSlot] = c;
+                }
+                int slot = k * stopCount + to;
+                if (arrival < arrivals[slot]) {
+                    arrivals[slot] = arrival;
+                    inConnections[slot] = c;
+                    walkedFrom[slot] = -1;
+                    relaxFootpaths(k, to, arrival, stopCount);
+                    int targetArrival = arrivals[k * stopCount + target];
+                    for (int j = k; j <= rounds && targetArrival < bounds[j]; j++) {
+                        bounds[j] = targetArrival;
+                    }
+                }
+            }
+        }
+
+        // Keep each round only if it beats every round with fewer rides
+        List<Journey> journeys = new ArrayList<>();
+        int earliest = UNREACHED;
+        for (int k = 0; k <= rounds; k++) {
+            int arrival = arrivals[k * stopCount + target];
+            if (arrival < earliest) {
+                earliest = arrival;
+                journeys.add(reconstruct(k, origin, target, departureMinute, stopCount));
+            }
+        }
+        return journeys;
+    }
+
+    private void reset(int rounds, int stopCount, int tripCount) {
+        int labelSize = (rounds + 1) * stopCount;
+        if (arrivals.length < labelSize) {
+            arrivals = new int[labelSize];
+            inConnections = new int[labelSize];
+            walkedFrom = new int[labelSize];
+        }
+        int tripSize = (rounds + 1) * tripCount;
+        if (boardedAt.length < tripSize) {
+            boardedAt = new int[tripSize];
+        }
+        Arrays.fill(arrivals, 0, labelSize, UNREACHED);
+        Arrays.fill(inConnections, 0, labelSize, -1);
+        Arrays.fill(walkedFrom, 0, labelSize, -1);
+        Arrays.fill(boardedAt, 0, tripSize, -1);
+    }
+
+    private void relaxFootpaths(int round, int stop, int time, int stopCount) {
+        int end = network.getFootpathEnd(stop);
+        for (int f = network.getFootpathStart(stop); f < end; f++) {
+            int slot = round * stopCount + network.getFootpathTarget(f);
+            int arrival = time + network.getFootpathMinutes(f);
+            if (arrival < arrivals[slot]) {
+                arrivals[slot] = arrival;
+                inConnections[slot] = -1;
+                walkedFrom[slot] = stop;
+            }
+        }
+    }
+
+    /**
+     * Walk the labels back from the target to build the legs of round k
+     */
+    private Journey reconstruct(int round, int origin, int target, int departureMinute,
+                                int stopCount) {
+        List<Journey.Leg> legs = new ArrayList<>();
+        int stop = target;
+        int k = round;
+        // Every step moves back one leg, so this bound is never reached on valid labels
+        int guard = 2 * (round + 1) + stopCount;
+
+        while (stop != origin && guard-- > 0) {
+            int slot = k * stopCount + stop;
+            if (walkedFrom[slot] >= 0) {
+                int from = walkedFrom[slot];
+                legs.add(new Journey.Leg(null, network.getStopId(from), network.getStopId(stop),
+                        arrivals[k * stopCount + from], arrivals[slot]));
+                stop = from;
+                continue;
+            }
+            int arrivalConnection = inConnections[slot];
+            if (k == 0 || arrivalConnection < 0) {
+                break;
+            }
+            int trip = network.getTrip(arrivalConnection);
+            int boarding = boardedAt[k * network.getTripCount() + trip];
+            int from = network.getDepartureStop(boarding);
+            legs.add(new Journey.Leg(network.getTripRouteId(trip), network.getStopId(from),
+                    network.getStopId(stop), network.getDepartureTime(boarding),
+                    network.getArrivalTime(arrivalConnection)));
+            stop = from;
+            k--;
+        }
+
+        Collections.reverse(legs);
+        int departure = legs.isEmpty() ? departureMinute : legs.get(0).getDepartureMinute();
+        return new Journey(legs, departure, arrivals[round * stopCount + target]);
+    }
+}
@@ -0,0 +1,494 @@
+package com.busarrival2.app.planner;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.data.StopSpatialIndex;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * TransitNetwork Class
+ * Immutable timetable of one service day laid out for the Connection Scan
+ * Algorithm: every hop of every trip between two consecutive stops is a
+ * connection, stored in parallel int arrays sorted by departure time.
+ * Walking transfers between nearby stops are kept in a compact adjacency
+ * list.
+ *
+ * Rows that carry a trip ID, as imported from GTFS or generated, are
+ * joined into their real trips in stop sequence order, so each direction
+ * and pattern of a route keeps its own trips. Rows with a frequency, or
+ * without a trip, only give a (route, stop) an anchor time, so their trips
+ * are rebuilt by chaining departures.
+ */
+public final class TransitNetwork {
+
+    // Walking speed used for transfers, about 4.8 km/h
+    public static final double WALK_METERS_PER_MINUTE = 80.0;
+
+    // Default maximum walking distance between two stops
+    public static final double DEFAULT_MAX_WALK_METERS = 400.0;
+
+    // Stops
+    private final String[] stopIds;
+    private final Map<String, Integer> stopLookup;
+
+    // Trips
+    private final String[] routeIds;
+    private final int[] tripRoutes;
+
+    // Connections, sorted by departure time
+    private final int connectionCount;
+    private final int[] departureStops;
+    private final int[] arrivalStops;
+    private final int[] departureTimes;
+    private final int[] arrivalTimes;
+    private final int[] connectionTrips;
+
+    // Footpaths, stored per stop in [footpathStart[stop], footpathStart[stop + 1])
+    private final int[] footpathStart;
+    private final int[] footpathTargets;
+    private final int[] footpathMinutes;
+
+    private TransitNetwork(String[] stopIds, Map<String, Integer> stopLookup,
+                           String[] routeIds, int[] tripRoutes, Connections connections,
+                           int[] footpathStart, int[] footpathTargets, int[] footpathMinutes) {
+        this.stopIds = stopIds;
+        this.stopLookup = stopLookup;
+        this.routeIds = routeIds;
+        this.tripRoutes = tripRoutes;
+        this.connectionCount = connections.size;
+        this.departureStops = connections.departureStops;
+        this.arrivalStops = connections.arrivalStops;
+        this.departureTimes = connections.departureTimes;
+        this.arrivalTimes = connections.arrivalTimes;
+        this.connectionTrips = connections.trips;
+        this.footpathStart = footpathStart;
+        this.footpathTargets = footpathTargets;
+        this.footpathMinutes = footpathMinutes;
+    }
+
+    /**
+     * Build the network of one day
+     * @param schedules All schedules
+     * @param dayIndex Day index, 0 = Monday ... 6 = Sunday
+     * @param stops Stops with coordinates, used for walking transfers; may be empty
+     * @param maxWalkMeters Maximum walking distance between two stops
+     * @return Immutable network
+     */
+    public static TransitNetwork build(ScheduleStore schedules, int dayIndex,
+                                       Collection<BusStop> stops, double maxWalkMeters) {
+        Map<String, Integer> stopLookup = new HashMap<>();
+        List<String> stopIds = new ArrayList<>();
+        for (BusStop stop : stops) {
+            indexOf(stop.getStopId(), stopLookup, stopIds);
+        }
+
+        List<String> routeIds = new ArrayList<>();
+        IntList tripRoutes = new IntList();
+        Connections connections = new Connections();
+
+        int row = 0;
+        while (row < schedules.size()) {
+            int route = schedules.getRouteIndex(row);
+            int routeEnd = row;
+            while (routeEnd < schedules.size() && schedules.getRouteIndex(routeEnd) == route) {
+                routeEnd++;
+            }
+            addRoute(schedules, row, routeEnd, dayIndex, stopLookup, stopIds,
+                    routeIds, tripRoutes, connections);
+            row = routeEnd;
+        }
+        connections.sort();
+
+        String[] stopIdArray = stopIds.toArray(new String[0]);
+        int[] footpathStart = new int[stopIdArray.length + 1];
+        IntList footpathTargets = new IntList();
+        IntList footpathMinutes = new IntList();
+        buildFootpaths(stops, stopLookup, stopIdArray.length, maxWalkMeters,
+                footpathStart, footpathTargets, footpathMinutes);
+
+        return new TransitNetwork(stopIdArray, stopLookup, routeIds.toArray(new String[0]),
+                tripRoutes.toArray(), connections, footpathStart,
+                footpathTargets.toArray(), footpathMinutes.toArray());
+    }
+
+    /**
+     * Expand the rows of one route into trips and connections. Rows with a
+     * trip ID are joined into their own trip; the rest are chained by
+     * addHeadwayTrips.
+     */
+    private static void addRoute(ScheduleStore schedules, int from, int to, int dayIndex,
+                                 Map<String, Integer> stopLookup, List<String> stopIds,
+                                 List<String> routeIds, IntList tripRoutes,
+                                 Connections connections) {
+        // Keys pack (stop sequence, row) so sorting puts a trip in travel order
+        Map<String, List<Long>> trips = new LinkedHashMap<>();
+        IntList headwayRows = new IntList();
+        for (int row = from; row < to; row++) {
+            if (schedules.getArrivalMinute(row) < 0 || !schedules.runsOn(row, dayIndex)) {
+                continue;
+            }
+            String tripId = schedules.getTripId(row);
+            if (schedules.getFrequency(row) > 0 || tripId == null) {
+                headwayRows.add(row);
+                continue;
+            }
+            List<Long> stops = trips.get(tripId);
+            if (stops == null) {
+                stops = new ArrayList<>();
+                trips.put(tripId, stops);
+            }
+            stops.add(((long) schedules.getStopSequence(row) << 32) | row);
+        }
+
+        int routeIndex = -1;
+        for (List<Long> stops : trips.values()) {
+            Collections.sort(stops);
+            int trip = -1;
+            int hop = 0;
+            int previous = (int) (long) stops.get(0);
+            for (int i = 1; i < stops.size(); i++) {
+                int row = (int) (long) stops.get(i);
+                int departure = schedules.getArrivalMinute(previous);
+                int arrival = schedules.getArrivalMinute(row);
+                if (arrival < departure) {
+                    // The rest of the trip runs after midnight, on the next
+                    // service day; its rows there start a trip of their own
+                    trip = -1;
+                } else {
+                    if (trip < 0) {
+                        if (routeIndex < 0) {
+                            routeIndex = routeIds.size();
+                            routeIds.add(schedules.getRouteId(from));
+                        }
+                        trip = tripRoutes.size;
+                        tripRoutes.add(routeIndex);
+                        hop = 0;
+                    }
+                    connections.add(indexOf(schedules.getStopId(previous), stopLookup, stopIds),
+                            indexOf(schedules.getStopId(row), stopLookup, stopIds),
+                            departure, arrival, trip, ++hop);
+                }
+                previous = row;
+            }
+        }
+
+        if (headwayRows.size > 0) {
+            Arrays.sort(headwayRows.values, 0, headwayRows.size);
+            if (routeIndex < 0) {
+                routeIndex = routeIds.size();
+                routeIds.add(schedules.getRouteId(from));
+            }
+            addHeadwayTrips(schedules, headwayRows, routeIndex, stopLookup, stopIds,
+                    tripRoutes, connections);
+        }
+    }
+
+    /**
+     * Rebuild trips from rows that only give a (route, stop) an anchor time
+     * and a frequency: the stops are ordered by their first arrival of the
+     * day, and each departure from the first stop is chained to the next
+     * unused departure at every following stop. The rows must be in store
+     * order and run on the day being built.
+     */
+    private static void addHeadwayTrips(ScheduleStore schedules, IntList rows, int routeIndex,
+                                        Map<String, Integer> stopLookup, List<String> stopIds,
+                                        IntList tripRoutes, Connections connections) {
+        // Departures of the day at each stop of the route
+        List<int[]> departures = new ArrayList<>();
+        IntList routeStops = new IntList();
+        int i = 0;
+        while (i < rows.size) {
+            int stop = schedules.getStopIndex(rows.get(i));
+            IntList times = new IntList();
+            for (; i < rows.size && schedules.getStopIndex(rows.get(i)) == stop; i++) {
+                int row = rows.get(i);
+                int anchor = schedules.getArrivalMinute(row);
+                int frequency = schedules.getFrequency(row);
+                if (frequency > 0) {
+                    for (int t = anchor; t < ArrivalPredictionEngine.MINUTES_PER_DAY; t += frequency) {
+                        times.add(t);
+                    }
+                } else {
+                    times.add(anchor);
+                }
+            }
+            int[] sorted = times.toArray();
+            Arrays.sort(sorted);
+            departures.add(sorted);
+            routeStops.add(indexOf(schedules.getStopId(rows.get(i - 1)), stopLookup, stopIds));
+        }
+        if (departures.size() < 2) {
+            return;
+        }
+
+        // Order the stops along the route by their first arrival of the day
+        Integer[] order = new Integer[departures.size()];
+        for (int j = 0; j < order.length; j++) {
+            order[j] = j;
+        }
+        Arrays.sort(order, (a, b) -> Integer.compare(departures.get(a)[0], departures.get(b)[0]));
+
+        int[] next = new int[order.length];
+        int[] first = departures.get(order[0]);
+        for (int departure : first) {
+            int trip = tripRoutes.size;
+            int time = departure;
+            int previousStop = routeStops.get(order[0]);
+            boolean used = false;
+            for (int j = 1; j < order.length; j++) {
+                int[] times = departures.get(order[j]);
+                while (next[j] < times.length && times[next[j]] < time) {
+                    next[j]++;
+                }
+                if (next[j] == times.length) {
+                    break;
+                }
+                int arrival = times[next[j]++];
+                int stop = routeStops.get(order[j]);
+                connections.add(previousStop, stop, time, arrival, trip, j);
+                used = true;
+                time = arrival;
+                previousStop = stop;
+            }
+            if (used) {
+                tripRoutes.add(routeIndex);
+            }
+        }
+    }
+
+    private static void buildFootpaths(Collection<BusStop> stops, Map<String, Integer> stopLookup,
+                                       int stopCount, double maxWalkMeters, int[] footpathStart,
+                                       IntList targets, IntList minutes) {
+        List<List<int[]>> adjacency = new ArrayList<>(stopCount);
+        for (int i = 0; i < stopCount; i++) {
+            adjacency.add(null);
+        }
+        if (maxWalkMeters > 0 && !stops.isEmpty()) {
+            StopSpatialIndex index = new StopSpatialIndex(stops);
+            for (BusStop stop : stops) {
+                int from = stopLookup.get(stop.getStopId());
+                for (BusStop nearby : index.findWithinRadius(stop.getLatitude(),
+                        stop.getLongitude(), maxWalkMeters)) {
+                    int to = stopLookup.get(nearby.getStopId());
+                    if (to == from) {
+                        continue;
+                    }
+                    double meters = StopSpatialIndex.distanceMeters(stop.getLatitude(),
+                            stop.getLongitude(), nearby);
+                    int walk = Math.max(1, (int) Math.ceil(meters / WALK_METERS_PER_MINUTE));
+                    if (adjacency.get(from) == null) {
+                        adjacency.set(from, new ArrayList<>());
+                    }
+                    adjacency.get(from).add(new int[]{to, walk});
+                }
+            }
+        }
+
+        for (int stop = 0; stop < stopCount; stop++) {
+            footpathStart[stop] = targets.size;
+            List<int[]> edges = adjacency.get(stop);
+            if (edges != null) {
+                for (int[] edge : edges) {
+                    targets.add(edge[0]);
+                    minutes.add(edge[1]);
+                }
+            }
+        }
+        footpathStart[stopCount] = targets.size;
+    }
+
+    private static int indexOf(String stopId, Map<String, Integer> stopLookup, List<String> stopIds) {
+        Integer index = stopLookup.get(stopId);
+        if (index == null) {
+            index = stopIds.size();
+            stopLookup.put(stopId, index);
+            stopIds.add(stopId);
+        }
+        return index;
+    }
+
+    public int getStopCount() {
+        return stopIds.length;
+    }
+
+    public int getTripCount() {
+        return tripRoutes.length;
+    }
+
+    public int getConnectionCount() {
+        return connectionCount;
+    }
+
+    /**
+     * Get the index of a stop
+     * @param stopId The stop ID
+     * @return Stop index, or -1 if the stop is not in the network
+     */
+    public int stopIndexOf(String stopId) {
+        Integer index = stopLookup.get(stopId);
+        return index != null ? index : -1;
+    }
+
+    public String getStopId(int stop) {
+        return stopIds[stop];
+    }
+
+    public String getTripRouteId(int trip) {
+        return routeIds[tripRoutes[trip]];
+    }
+
+    int getDepartureStop(int connection) {
+        return departureStops[connection];
+    }
+
+    int getArrivalStop(int connection) {
+        return arrivalStops[connection];
+    }
+
+    int getDepartureTime(int connection) {
+        return departureTimes[connection];
+    }
+
+    int getArrivalTime(int connection) {
+        return arrivalTimes[connection];
+    }
+
+    int getTrip(int connection) {
+        return connectionTrips[connection];
+    }
+
+    int getFootpathStart(int stop) {
+        return footpathStart[stop];
+    }
+
+    int getFootpathEnd(int stop) {
+        return footpathStart[stop + 1];
+    }
+
+    int getFootpathTarget(int footpath) {
+        return footpathTargets[footpath];
+    }
+
+    int getFootpathMinutes(int footpath) {
+        return footpathMinutes[footpath];
+    }
+
+    /**
+     * Find the first connection departing at or after a time
+     * @param minute Minute of day
+     * @return Connection index, or getConnectionCount() if there is none
+     */
+    int firstConnectionAfter(int minute) {
+        int low = 0;
+        int high = connectionCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (departureTimes[mid] < minute) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Growable int array
+     */
+    private static final class IntList {
+        int[] values = new int[16];
+        int size;
+
+        void add(int value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+
+        int get(int index) {
+            return values[index];
+        }
+
+        int[] toArray() {
+            return Arrays.copyOf(values, size);
+        }
+    }
+
+    /**
+     * Connection columns while the network is being built
+     */
+    private static final class Connections {
+        int[] departureStops = new int[64];
+        int[] arrivalStops = new int[64];
+        int[] departureTimes = new int[64];
+        int[] arrivalTimes = new int[64];
+        int[] trips = new int[64];
+        int[] sequences = new int[64];
+        int size;
+
+        void add(int departureStop, int arrivalStop, int departureTime, int arrivalTime,
+                 int trip, int sequence) {
+            if (size == trips.length) {
+                int capacity = size * 2;
+                departureStops = Arrays.copyOf(departureStops, capacity);
+                arrivalStops = Arrays.copyOf(arrivalStops, capacity);
+                departureTimes = Arrays.copyOf(departureTimes, capacity);
+                arrivalTimes = Arrays.copyOf(arrivalTimes, capacity);
+                trips = Arrays.copyOf(trips, capacity);
+                sequences = Arrays.copyOf(sequences, capacity);
+            }
+            departureStops[size] = departureStop;
+            arrivalStops[size] = arrivalStop;
+            departureTimes[size] = departureTime;
+            arrivalTimes[size] = arrivalTime;
+            trips[size] = trip;
+            sequences[size] = sequence;
+            size++;
+        }
+
+        /**
+         * Sort by departure, then arrival, then position in the trip, so a
+         * zero-minute hop is always scanned before the hop that follows it
+         */
+        void sort() {
+            // 11 bits each for departure, arrival and sequence, then the
+            // 31-bit connection index; the sign bit is flipped so a signed
+            // sort gives the unsigned order
+            long[] keys = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = (((long) departureTimes[i] << 53) | ((long) arrivalTimes[i] << 42)
+                        | ((long) Math.min(sequences[i], 0x7FF) << 31) | i) ^ Long.MIN_VALUE;
+            }
+            Arrays.sort(keys);
+
+            int[] sortedDepartureStops = new int[size];
+            int[] sortedArrivalStops = new int[size];
+            int[] sortedDepartureTimes = new int[size];
+            int[] sortedArrivalTimes = new int[size];
+            int[] sortedTrips = new int[size];
+            for (int i = 0; i < size; i++) {
+                int source = (int) (keys[i] & 0x7FFFFFFF);
+                sortedDepartureStops[i] = departureStops[source];
+                sortedArrivalStops[i] = arrivalStops[source];
+                sortedDepartureTimes[i] = departureTimes[source];
+                sortedArrivalTimes[i] = arrivalTimes[source];
+                sortedTrips[i] = trips[source];
+            }
+            departureStops = sortedDepartureStops;
+            arrivalStops = sortedArrivalStops;
+            departureTimes = sortedDepartureTimes;
+            arrivalTimes = sortedArrivalTimes;
+            trips = sortedTrips;
+        }
+    }
+}
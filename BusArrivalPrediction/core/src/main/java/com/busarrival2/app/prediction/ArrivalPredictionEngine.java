@@ -0,0 +1,130 @@
+package com.busarrival2.app.prediction;
+
+import com.busarrival2.app.models.BusSchedule;
+
+/**
+ * ArrivalPredictionEngine Class
+ * Computes next arrivals on minute-of-day integers using modular arithmetic.
+ * None of the methods allocate, so they are safe to call for every schedule
+ * on every refresh.
+ */
+public final class ArrivalPredictionEngine {
+
+    // Number of minutes in a service day
+    public static final int MINUTES_PER_DAY = 24 * 60;
+
+    // Returned when a schedule has no usable arrival time
+    public static final int NO_ARRIVAL = -1;
+
+    private ArrivalPredictionEngine() {
+    }
+
+    /**
+     * Parse an "HH:mm" (or "H:mm") string into minutes since midnight.
+     * Parsing is done by hand so it does not depend on the device locale.
+     * @param time The time string to parse
+     * @return Minute of day in [0, 1440), or NO_ARRIVAL if the string is invalid
+     */
+    public static int parseMinuteOfDay(String time) {
+        if (time == null) {
+            return NO_ARRIVAL;
+        }
+        int length = time.length();
+        int colon = time.indexOf(':');
+        if (colon < 1 || colon > 2 || length - colon != 3) {
+            return NO_ARRIVAL;
+        }
+
+        int hours = 0;
+        for (int i = 0; i < colon; i++) {
+            int digit = time.charAt(i) - '0';
+            if (digit < 0 || digit > 9) {
+                return NO_ARRIVAL;
+            }
+            hours = hours * 10 + digit;
+        }
+
+        int tens = time.charAt(colon + 1) - '0';
+        int ones = time.charAt(colon + 2) - '0';
+        if (tens < 0 || tens > 5 || ones < 0 || ones > 9 || hours > 23) {
+            return NO_ARRIVAL;
+        }
+        return hours * 60 + tens * 10 + ones;
+    }
+
+    /**
+     * Calculate the minutes until the next arrival of a schedule.
+     * Buses run every {@code frequency} minutes from the anchor time until
+     * midnight. Once the last bus of the day has passed, the next arrival
+     * rolls over to the anchor time of the following day. A zero or negative
+     * frequency means the schedule has a single daily arrival.
+     * @param anchorMinute First arrival of the day, in minutes since midnight
+     * @param frequency Headway in minutes
+     * @param nowMinute Current time, in minutes since midnight
+     * @return Minutes until the next arrival, or NO_ARRIVAL if the input is invalid
+     */
+    public static int minutesUntilNextArrival(int anchorMinute, int frequency, int nowMinute) {
+        if (anchorMinute < 0 || anchorMinute >= MINUTES_PER_DAY
+                || nowMinute < 0 || nowMinute >= MINUTES_PER_DAY) {
+            return NO_ARRIVAL;
+        }
+
+        if (nowMinute <= anchorMinute) {
+            return anchorMinute - nowMinute;
+        }
+
+        if (frequency > 0) {
+            int sinceAnchor = nowMinute - anchorMinute;
+            int wait = (frequency - sinceAnchor % frequency) % frequency;
+            if (nowMinute + wait < MINUTES_PER_DAY) {
+                return wait;
+            }
+        }
+
+        // No more arrivals today, roll over to tomorrow's first arrival
+        return MINUTES_PER_DAY - nowMinute + anchorMinute;
+    }
+
+    /**
+     * Find the scheduled arrival of the day closest to a given minute
+     * @param anchorMinute First arrival of the day, in minutes since midnight
+     * @param frequency Headway in minutes
+     * @param minute Minute of day to match
+     * @return Closest scheduled minute of day, or NO_ARRIVAL if the input is invalid
+     */
+    public static int nearestArrivalMinute(int anchorMinute, int frequency, int minute) {
+        if (anchorMinute < 0 || anchorMinute >= MINUTES_PER_DAY) {
+            return NO_ARRIVAL;
+        }
+        if (frequency <= 0 || minute <= anchorMinute) {
+            return anchorMinute;
+        }
+        int lastTrip = (MINUTES_PER_DAY - 1 - anchorMinute) / frequency;
+        int trip = Math.min(lastTrip, (minute - anchorMinute + frequency / 2) / frequency);
+        return anchorMinute + trip * frequency;
+    }
+
+    /**
+     * Calculate the minutes until the next arrival of a schedule model
+     * @param schedule The schedule to evaluate
+     * @param nowMinute Current time, in minutes since midnight
+     * @return Minutes until the next arrival, or NO_ARRIVAL if the schedule is invalid
+     */
+    public static int minutesUntilNextArrival(BusSchedule schedule, int nowMinute) {
+        if (schedule == null) {
+            return NO_ARRIVAL;
+        }
+        int anchorMinute = parseMinuteOfDay(schedule.getArrivalTime());
+        return minutesUntilNextArrival(anchorMinute, schedule.getFrequency(), nowMinute);
+    }
+
+    /**
+     * Convert hours and minutes into a minute of day
+     * @param hourOfDay Hour in [0, 23]
+     * @param minute Minute in [0, 59]
+     * @return Minute of day
+     */
+    public static int toMinuteOfDay(int hourOfDay, int minute) {
+        return hourOfDay * 60 + minute;
+    }
+}
@@ -0,0 +1,284 @@
+package com.busarrival2.app.prediction;
+
+import com.busarrival2.app.data.ScheduleStore;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * DelayModel Class
+ * Learns how late each route runs at each stop, by weekday and 15-minute
+ * slot of the day. Every slot keeps an exponentially weighted mean and
+ * variance of the observed delay, so an update is O(1) and old behaviour
+ * fades out. Each (route, stop) pair gets one block of 7 x 96 slots in
+ * flat float arrays, allocated the first time the pair is observed.
+ * Not thread-safe: call every method from the same thread.
+ */
+public final class DelayModel {
+
+    public static final int DAYS = 7;
+    public static final int SLOT_MINUTES = 15;
+    public static final int SLOTS_PER_DAY = ArrivalPredictionEngine.MINUTES_PER_DAY / SLOT_MINUTES;
+    private static final int BLOCK_SIZE = DAYS * SLOTS_PER_DAY;
+
+    // Weight of a new observation
+    public static final float DEFAULT_ALPHA = 0.2f;
+
+    // Observations a slot needs before its mean is trusted
+    public static final int MIN_SAMPLES = 3;
+
+    // File format
+    private static final int MAGIC = 0x444C4159;
+    private static final int VERSION = 1;
+    private static final int BLOCK_BYTES = BLOCK_SIZE * (2 + 4 + 4);
+
+    private final float alpha;
+    private final Map<String, Map<String, Integer>> blocks = new HashMap<>();
+    private final List<String> blockRoutes = new ArrayList<>();
+    private final List<String> blockStops = new ArrayList<>();
+    private float[] means = new float[0];
+    private float[] variances = new float[0];
+    private short[] samples = new short[0];
+    private boolean dirty;
+
+    public DelayModel() {
+        this(DEFAULT_ALPHA);
+    }
+
+    public DelayModel(float alpha) {
+        this.alpha = alpha;
+    }
+
+    /**
+     * Record an observed delay
+     * @param routeId The route ID
+     * @param stopId The stop ID
+     * @param dayIndex Day index, 0 = Monday ... 6 = Sunday
+     * @param scheduledMinute Scheduled arrival, in minutes since midnight
+     * @param delayMinutes Observed minus scheduled arrival; negative if early
+     */
+    public void record(String routeId, String stopId, int dayIndex, int scheduledMinute,
+                       float delayMinutes) {
+        if (!isValid(dayIndex, scheduledMinute)) {
+            return;
+        }
+        int cell = blockOf(routeId, stopId, true) * BLOCK_SIZE + slotOf(dayIndex, scheduledMinute);
+        if (samples[cell] == 0) {
+            means[cell] = delayMinutes;
+            variances[cell] = 0f;
+        } else {
+            float difference = delayMinutes - means[cell];
+            float increment = alpha * difference;
+            means[cell] += increment;
+            variances[cell] = (1f - alpha) * (variances[cell] + difference * increment);
+        }
+        if (samples[cell] < Short.MAX_VALUE) {
+            samples[cell]++;
+        }
+        dirty = true;
+    }
+
+    /**
+     * Match a bus passing a stop with the closest scheduled arrival and
+     * record the difference. Arrivals of the service days before and after
+     * the pass are matched too, so a pass just after midnight can belong to
+     * the previous day's last trip and is recorded against that day.
+     * @param schedules Schedules to match against
+     * @param routeId The route ID
+     * @param stopId The stop ID
+     * @param dayIndex Day index of the pass, 0 = Monday ... 6 = Sunday
+     * @param minute Minute of day of the pass
+     * @param maxDelayMinutes Largest difference still taken as the same arrival
+     * @return true if an observation was recorded
+     */
+    public boolean recordPass(ScheduleStore schedules, String routeId, String stopId,
+                              int dayIndex, int minute, int maxDelayMinutes) {
+        int firstRow = schedules.firstRow(routeId, stopId);
+        int endRow = schedules.endRow(routeId, stopId);
+        int bestDay = -1;
+        int bestMinute = ArrivalPredictionEngine.NO_ARRIVAL;
+        int bestDelay = 0;
+        for (int offset = -1; offset <= 1; offset++) {
+            int day = (dayIndex + offset + DAYS) % DAYS;
+            // The pass counted from that service day's midnight
+            int passMinute = minute - offset * ArrivalPredictionEngine.MINUTES_PER_DAY;
+            for (int row = firstRow; row < endRow; row++) {
+                if (!schedules.runsOn(row, day)) {
+                    continue;
+                }
+                int nearest = ArrivalPredictionEngine.nearestArrivalMinute(
+                        schedules.getArrivalMinute(row), schedules.getFrequency(row), passMinute);
+                if (nearest < 0) {
+                    continue;
+                }
+                int delay = passMinute - nearest;
+                if (bestDay < 0 || Math.abs(delay) < Math.abs(bestDelay)) {
+                    bestDay = day;
+                    bestMinute = nearest;
+                    bestDelay = delay;
+                }
+            }
+        }
+        if (bestDay < 0 || Math.abs(bestDelay) > maxDelayMinutes) {
+            return false;
+        }
+        record(routeId, stopId, bestDay, bestMinute, bestDelay);
+        return true;
+    }
+
+    /**
+     * Get the expected delay of an arrival
+     * @param routeId The route ID
+     * @param stopId The stop ID
+     * @param dayIndex Day index, 0 = Monday ... 6 = Sunday
+     * @param scheduledMinute Scheduled arrival, in minutes since midnight
+     * @return Expected delay in minutes, 0 if the slot has too few observations
+     */
+    public float getExpectedDelay(String routeId, String stopId, int dayIndex, int scheduledMinute) {
+        int cell = cellOf(routeId, stopId, dayIndex, scheduledMinute);
+        return cell >= 0 && samples[cell] >= MIN_SAMPLES ? means[cell] : 0f;
+    }
+
+    /**
+     * Get the variance of the delay of an arrival
+     * @return Variance in square minutes, 0 if the slot has too few observations
+     */
+    public float getDelayVariance(String routeId, String stopId, int dayIndex, int scheduledMinute) {
+        int cell = cellOf(routeId, stopId, dayIndex, scheduledMinute);
+        return cell >= 0 && samples[cell] >= MIN_SAMPLES ? variances[cell] : 0f;
+    }
+
+    /**
+     * Get the number of (route, stop) pairs with observations
+     * @return Pair count
+     */
+    public int getPairCount() {
+        return blockRoutes.size();
+    }
+
+    /**
+     * Check if the model changed since it was loaded or last written
+     * @return true if there are unsaved observations
+     */
+    public boolean isDirty() {
+        return dirty;
+    }
+
+    /**
+     * Write the model as one fixed-size binary block (about 6.7 KB) per pair
+     * @param out Destination stream; it is flushed but not closed
+     * @throws IOException on write errors
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out, 64 * 1024));
+        data.writeInt(MAGIC);
+        data.writeInt(VERSION);
+        data.writeFloat(alpha);
+        int pairs = blockRoutes.size();
+        data.writeInt(pairs);
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_BYTES);
+        for (int block = 0; block < pairs; block++) {
+            data.writeUTF(blockRoutes.get(block));
+            data.writeUTF(blockStops.get(block));
+            // Each block is copied in bulk rather than value by value
+            int base = block * BLOCK_SIZE;
+            buffer.clear();
+            buffer.asShortBuffer().put(samples, base, BLOCK_SIZE);
+            buffer.position(BLOCK_SIZE * 2);
+            buffer.asFloatBuffer().put(means, base, BLOCK_SIZE);
+            buffer.position(BLOCK_SIZE * 6);
+            buffer.asFloatBuffer().put(variances, base, BLOCK_SIZE);
+            data.write(buffer.array(), 0, BLOCK_BYTES);
+        }
+        data.flush();
+        dirty = false;
+    }
+
+    /**
+     * Read a model written by writeTo
+     * @param in Source stream; it is not closed
+     * @return The model
+     * @throws IOException if the data is not a delay model or cannot be read
+     */
+    public static DelayModel readFrom(InputStream in) throws IOException {
+        DataInputStream data = new DataInputStream(new BufferedInputStream(in, 64 * 1024));
+        if (data.readInt() != MAGIC || data.readInt() != VERSION) {
+            throw new IOException("Not a delay model file");
+        }
+        DelayModel model = new DelayModel(data.readFloat());
+        int pairs = data.readInt();
+        model.ensureCapacity(pairs);
+        ByteBuffer buffer = ByteBuffer.allocate(BLOCK_BYTES);
+        for (int p = 0; p < pairs; p++) {
+            int block = model.blockOf(data.readUTF(), data.readUTF(), true);
+            int base = block * BLOCK_SIZE;
+            data.readFully(buffer.array(), 0, BLOCK_BYTES);
+            buffer.clear();
+            buffer.asShortBuffer().get(model.samples, base, BLOCK_SIZE);
+            buffer.position(BLOCK_SIZE * 2);
+            buffer.asFloatBuffer().get(model.means, base, BLOCK_SIZE);
+            buffer.position(BLOCK_SIZE * 6);
+            buffer.asFloatBuffer().get(model.variances, base, BLOCK_SIZE);
+        }
+        model.dirty = false;
+        return model;
+    }
+
+    private int cellOf(String routeId, String stopId, int dayIndex, int scheduledMinute) {
+        if (!isValid(dayIndex, scheduledMinute)) {
+            return -1;
+        }
+        int block = blockOf(routeId, stopId, false);
+        return block >= 0 ? block * BLOCK_SIZE + slotOf(dayIndex, scheduledMinute) : -1;
+    }
+
+    private static boolean isValid(int dayIndex, int minute) {
+        return dayIndex >= 0 && dayIndex < DAYS
+                && minute >= 0 && minute < ArrivalPredictionEngine.MINUTES_PER_DAY;
+    }
+
+    private static int slotOf(int dayIndex, int minute) {
+        return dayIndex * SLOTS_PER_DAY + minute / SLOT_MINUTES;
+    }
+
+    private int blockOf(String routeId, String stopId, boolean create) {
+        Map<String, Integer> stops = blocks.get(routeId);
+        Integer block = stops != null ? stops.get(stopId) : null;
+        if (block != null || !create) {
+            return block != null ? block : -1;
+        }
+
+        if (stops == null) {
+            stops = new HashMap<>();
+            blocks.put(routeId, stops);
+        }
+        int newBlock = blockRoutes.size();
+        ensureCapacity(newBlock + 1);
+        stops.put(stopId, newBlock);
+        blockRoutes.add(routeId);
+        blockStops.add(stopId);
+        return newBlock;
+    }
+
+    private void ensureCapacity(int pairs) {
+        int size = pairs * BLOCK_SIZE;
+        if (size <= means.length) {
+            return;
+        }
+        int capacity = Math.max(size, means.length * 2);
+        means = Arrays.copyOf(means, capacity);
+        variances = Arrays.copyOf(variances, capacity);
+        samples = Arrays.copyOf(samples, capacity);
+    }
+}
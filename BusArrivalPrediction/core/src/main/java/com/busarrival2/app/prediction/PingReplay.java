@@ -0,0 +1,82 @@
+package com.busarrival2.app.prediction;
+
+import com.busarrival2.app.gtfs.CsvReader;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * PingReplay Class
+ * Feeds a recorded ping file into a VehiclePositionTracker, so live
+ * predictions can be reproduced without buses on the road. The file is a
+ * CSV with the columns vehicleId, routeId, latitude, longitude and
+ * timestamp (milliseconds since the epoch), in the order recorded.
+ */
+public class PingReplay {
+
+    /**
+     * Receives the replay clock after each ping, e.g. to sample estimates
+     */
+    public interface Observer {
+        void onPing(long timestamp);
+    }
+
+    private final CsvReader reader;
+    private final int vehicleColumn;
+    private final int routeColumn;
+    private final int latitudeColumn;
+    private final int longitudeColumn;
+    private final int timestampColumn;
+
+    /**
+     * Open a recorded ping file
+     * @param source Character source of the CSV file
+     * @throws IOException if the header cannot be read or a column is missing
+     */
+    public PingReplay(Reader source) throws IOException {
+        reader = new CsvReader(source);
+        vehicleColumn = requireColumn("vehicleId");
+        routeColumn = requireColumn("routeId");
+        latitudeColumn = requireColumn("latitude");
+        longitudeColumn = requireColumn("longitude");
+        timestampColumn = requireColumn("timestamp");
+    }
+
+    /**
+     * Replay every ping into a tracker
+     * @param tracker The tracker to feed
+     * @param observer Called after each ping, or null
+     * @return Number of pings replayed
+     * @throws IOException on read errors or malformed rows
+     */
+    public long replay(VehiclePositionTracker tracker, Observer observer) throws IOException {
+        long count = 0;
+        String[] row;
+        try {
+            while ((row = reader.readRow()) != null) {
+                long timestamp = Long.parseLong(CsvReader.get(row, timestampColumn));
+                tracker.ingest(CsvReader.get(row, vehicleColumn), CsvReader.get(row, routeColumn),
+                        Double.parseDouble(CsvReader.get(row, latitudeColumn)),
+                        Double.parseDouble(CsvReader.get(row, longitudeColumn)), timestamp);
+                count++;
+                if (observer != null) {
+                    observer.onPing(timestamp);
+                }
+            }
+        } catch (NumberFormatException | NullPointerException e) {
+            throw new IOException("Malformed ping at row " + reader.getRowNumber(), e);
+        } finally {
+            reader.close();
+        }
+        return count;
+    }
+
+    private int requireColumn(String name) throws IOException {
+        int column = reader.column(name);
+        if (column < 0) {
+            reader.close();
+            throw new IOException("Ping file has no " + name + " column");
+        }
+        return column;
+    }
+}
@@ -0,0 +1,192 @@
+package com.busarrival2.app.prediction;
+
+import com.busarrival2.app.data.ScheduleStore;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * StopBoard Class
+ * Builds the departure board of a stop: the next departures across every
+ * route that serves it. Each schedule row is walked lazily, one departure
+ * at a time, and the rows are merged through a min-heap, so a board of N
+ * departures over R rows costs O((N + R) log R) and never expands a
+ * full-day timetable. The board looks at most one day ahead and respects
+ * the day masks of today and tomorrow.
+ */
+public final class StopBoard {
+
+    private StopBoard() {
+    }
+
+    /**
+     * Departure Class
+     * One row of a stop board
+     */
+    public static final class Departure {
+        private final int row;
+        private final String scheduleId;
+        private final String routeId;
+        private final int departureMinute;
+        private final int minutesAway;
+
+        public Departure(int row, String scheduleId, String routeId, int departureMinute,
+                         int minutesAway) {
+            this.row = row;
+            this.scheduleId = scheduleId;
+            this.routeId = routeId;
+            this.departureMinute = departureMinute;
+            this.minutesAway = minutesAway;
+        }
+
+        public int getRow() {
+            return row;
+        }
+
+        public String getScheduleId() {
+            return scheduleId;
+        }
+
+        public String getRouteId() {
+            return routeId;
+        }
+
+        /**
+         * @return Scheduled departure, in minutes since midnight
+         */
+        public int getDepartureMinute() {
+            return departureMinute;
+        }
+
+        public int getMinutesAway() {
+            return minutesAway;
+        }
+    }
+
+    /**
+     * Get the next departures from a stop
+     * @param schedules The loaded schedules; they must include every route of the stop
+     * @param stopId The stop ID
+     * @param dayIndex Today, 0 = Monday ... 6 = Sunday
+     * @param nowMinute Current time, in minutes since midnight
+     * @param limit Maximum number of departures
+     * @return Departures in time order, ties broken by row order
+     */
+    public static List<Departure> nextDepartures(ScheduleStore schedules, String stopId,
+                                                 int dayIndex, int nowMinute, int limit) {
+        List<Departure> board = new ArrayList<>(Math.max(0, Math.min(limit, 64)));
+        int[] rows = schedules.rowsAtStop(stopId);
+        if (limit <= 0 || rows.length == 0 || nowMinute < 0
+                || nowMinute >= ArrivalPredictionEngine.MINUTES_PER_DAY) {
+            return board;
+        }
+
+        // Cursor state per row: next departure in minutes since midnight today
+        // (tomorrow's departures are >= 1440) and the day it belongs to
+        int horizon = nowMinute + ArrivalPredictionEngine.MINUTES_PER_DAY;
+        int tomorrow = (dayIndex + 1) % 7;
+        int[] next = new int[rows.length];
+        boolean[] onTomorrow = new boolean[rows.length];
+
+        // Heap keys pack (departure, cursor), so the smallest key is the
+        // earliest departure and ties fall back to row order
+        long[] heap = new long[rows.length];
+        int heapSize = 0;
+        for (int cursor = 0; cursor < rows.length; cursor++) {
+            int row = rows[cursor];
+            int first = ArrivalPredictionEngine.NO_ARRIVAL;
+            if (schedules.runsOn(row, dayIndex)) {
+                int wait = ArrivalPredictionEngine.minutesUntilNextArrival(
+                        schedules.getArrivalMinute(row), schedules.getFrequency(row), nowMinute);
+                if (wait >= 0 && nowMinute + wait < ArrivalPredictionEngine.MINUTES_PER_DAY) {
+                    first = nowMinute + wait;
+                }
+            }
+            if (first < 0 && schedules.runsOn(row, tomorrow)) {
+                first = ArrivalPredictionEngine.MINUTES_PER_DAY + schedules.getArrivalMinute(row);
+                onTomorrow[cursor] = true;
+            }
+            if (first >= 0 && first < horizon) {
+                next[cursor] = first;
+                heapSize = push(heap, heapSize, pack(first, cursor));
+            }
+        }
+
+        while (heapSize > 0 && board.size() < limit) {
+            long top = heap[0];
+            heapSize = pop(heap, heapSize);
+            int cursor = (int) top;
+            int row = rows[cursor];
+            int departure = next[cursor];
+            board.add(new Departure(row, schedules.getScheduleId(row), schedules.getRouteId(row),
+                    departure % ArrivalPredictionEngine.MINUTES_PER_DAY, departure - nowMinute));
+
+            int following = advance(schedules, row, departure, onTomorrow[cursor], tomorrow);
+            onTomorrow[cursor] |= following >= ArrivalPredictionEngine.MINUTES_PER_DAY;
+            if (following >= 0 && following < horizon) {
+                next[cursor] = following;
+                heapSize = push(heap, heapSize, pack(following, cursor));
+            }
+        }
+        return board;
+    }
+
+    /**
+     * Get the departure of a row after the given one
+     * @return Next departure on the same timeline, or NO_ARRIVAL if there is none
+     */
+    private static int advance(ScheduleStore schedules, int row, int departure,
+                               boolean onTomorrow, int tomorrow) {
+        int dayStart = onTomorrow ? ArrivalPredictionEngine.MINUTES_PER_DAY : 0;
+        int frequency = schedules.getFrequency(row);
+        if (frequency > 0 && departure + frequency < dayStart + ArrivalPredictionEngine.MINUTES_PER_DAY) {
+            return departure + frequency;
+        }
+        if (!onTomorrow && schedules.runsOn(row, tomorrow)) {
+            return ArrivalPredictionEngine.MINUTES_PER_DAY + schedules.getArrivalMinute(row);
+        }
+        return ArrivalPredictionEngine.NO_ARRIVAL;
+    }
+
+    private static long pack(int departure, int cursor) {
+        return ((long) departure << 32) | cursor;
+    }
+
+    private static int push(long[] heap, int size, long key) {
+        int child = size;
+        while (child > 0) {
+            int parent = (child - 1) >>> 1;
+            if (heap[parent] <= key) {
+                break;
+            }
+            heap[child] = heap[parent];
+            child = parent;
+        }
+        heap[child] = key;
+        return size + 1;
+    }
+
+    private static int pop(long[] heap, int size) {
+        int last = size - 1;
+        long key = heap[last];
+        int parent = 0;
+        while (true) {
+            int child = 2 * parent + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (key <= heap[child]) {
+                break;
+            }
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        if (last > 0) {
+            heap[parent] = key;
+        }
+        return last;
+    }
+}
@@ -0,0 +1,447 @@
+package com.busarrival2.app.prediction;
+
+import com.busarrival2.app.data.StopSpatialIndex;
+import com.busarrival2.app.models.BusStop;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * VehiclePositionTracker Class
+ * Keeps the most recent pings of every bus in fixed-size ring buffers and
+ * turns them into live arrival estimates. Each ping is projected onto its
+ * route's stop sequence once, when it arrives, so an estimate is just the
+ * remaining distance along the route divided by the bus's recent speed.
+ * A route may run several stop sequences, e.g. one per direction; each bus
+ * follows the one it is moving forward along.
+ *
+ * All state lives in primitive arrays indexed by vehicle slot; ingesting a
+ * ping from a known vehicle does not allocate. Not thread-safe: call every
+ * method from the same thread.
+ */
+public final class VehiclePositionTracker {
+
+    // Pings kept per vehicle
+    public static final int DEFAULT_HISTORY = 16;
+
+    // Vehicles that have not reported for this long are ignored
+    public static final long STALE_AFTER_MILLIS = 5 * 60 * 1000L;
+
+    // Speed assumed until a bus has moved enough to measure, about 18 km/h
+    private static final double DEFAULT_METERS_PER_MINUTE = 300.0;
+
+    // Window of history used to measure speed
+    private static final long SPEED_WINDOW_MILLIS = 10 * 60 * 1000L;
+    private static final long MIN_SPEED_SAMPLE_MILLIS = 30 * 1000L;
+
+    // Pings farther than this from the route are not projected
+    private static final double MAX_OFF_ROUTE_METERS = 300.0;
+
+    // A stop counts as passed once the bus is this far beyond it
+    private static final double PASSED_TOLERANCE_METERS = 30.0;
+
+    // Movement that tells which of a route's stop sequences a bus is on
+    private static final double MIN_PROGRESS_METERS = 20.0;
+
+    // A bus this far backwards along its sequence has turned round
+    private static final double MAX_BACKWARDS_METERS = 100.0;
+
+    /**
+     * Receives the time a tracked bus passed a stop, interpolated between
+     * the pings before and after it
+     */
+    public interface StopPassListener {
+        void onStopPassed(String routeId, String stopId, long timestamp);
+    }
+
+    private final int history;
+    private StopPassListener stopPassListener;
+    private final Map<String, Integer> vehicleSlots = new HashMap<>();
+    private final Map<String, RouteLine[]> routes = new HashMap<>();
+    private int vehicleCount;
+
+    // Per vehicle slot
+    private String[] slotRoutes = new String[0];
+    // Stop sequence of the route the vehicle follows, -1 until it is known
+    private int[] slotLines = new int[0];
+    private int[] heads = new int[0];
+    private int[] counts = new int[0];
+
+    // Per ping, indexed [slot * history + position]
+    private double[] latitudes = new double[0];
+    private double[] longitudes = new double[0];
+    private double[] alongMeters = new double[0];
+    private long[] timestamps = new long[0];
+
+    public VehiclePositionTracker() {
+        this(DEFAULT_HISTORY);
+    }
+
+    public VehiclePositionTracker(int history) {
+        this.history = Math.max(2, history);
+        ensureCapacity(16);
+    }
+
+    public void setStopPassListener(StopPassListener stopPassListener) {
+        this.stopPassListener = stopPassListener;
+    }
+
+    /**
+     * Set the stop sequence of a route that runs one way only. Pings
+     * already received for the route are projected again.
+     * @param routeId The route ID
+     * @param orderedStops Stops in travel order
+     */
+    public void setRoute(String routeId, List<BusStop> orderedStops) {
+        setRoute(routeId, Collections.singletonList(orderedStops));
+    }
+
+    /**
+     * Set the stop sequences of a route, e.g. one per direction. A bus is
+     * matched to the first sequence it moves forward along, so longer
+     * sequences should come first. Pings already received for the route
+     * are projected again.
+     * @param routeId The route ID
+     * @param sequences Stops of each sequence in travel order
+     */
+    public void setRoute(String routeId, Collection<List<BusStop>> sequences) {
+        RouteLine[] lines = new RouteLine[sequences.size()];
+        int i = 0;
+        for (List<BusStop> stops : sequences) {
+            lines[i++] = new RouteLine(stops);
+        }
+        routes.put(routeId, lines);
+        for (int slot = 0; slot < vehicleCount; slot++) {
+            if (routeId.equals(slotRoutes[slot])) {
+                slotLines[slot] = -1;
+                if (counts[slot] > 0) {
+                    int newest = slot * history + latest(slot);
+                    int previous = counts[slot] > 1
+                            ? slot * history + (latest(slot) - 1 + history) % history : newest;
+                    slotLines[slot] = pickLine(lines, previous, newest);
+                }
+                project(slot, lines);
+            }
+        }
+    }
+
+    /**
+     * Record a ping. Pings older than the vehicle's latest ping are ignored.
+     * @param vehicleId The vehicle ID
+     * @param routeId The route the vehicle is serving
+     * @param latitude Latitude in degrees
+     * @param longitude Longitude in degrees
+     * @param timestamp Time of the fix, in milliseconds since the epoch
+     */
+    public void ingest(String vehicleId, String routeId, double latitude, double longitude,
+                       long timestamp) {
+        if (vehicleId == null || routeId == null) {
+            return;
+        }
+        int slot = slotOf(vehicleId);
+        int base = slot * history;
+
+        if (!routeId.equals(slotRoutes[slot])) {
+            // Vehicle switched routes, its history no longer applies
+            slotRoutes[slot] = routeId;
+            slotLines[slot] = -1;
+            counts[slot] = 0;
+            heads[slot] = 0;
+        } else if (counts[slot] > 0 && timestamp <= timestamps[base + latest(slot)]) {
+            return;
+        }
+
+        int position = heads[slot];
+        int previous = base + latest(slot);
+        boolean hasPrevious = counts[slot] > 0;
+        latitudes[base + position] = latitude;
+        longitudes[base + position] = longitude;
+        timestamps[base + position] = timestamp;
+
+        RouteLine[] lines = routes.get(routeId);
+        RouteLine line = null;
+        double along = Double.NaN;
+        if (lines != null) {
+            int lineIndex = slotLines[slot];
+            if (lineIndex >= 0) {
+                along = lines[lineIndex].project(latitude, longitude);
+                if (lines.length > 1 && hasPrevious && (Double.isNaN(along)
+                        || along < alongMeters[previous] - MAX_BACKWARDS_METERS)) {
+                    // Turned round or left the sequence, e.g. at the end of the line
+                    lineIndex = -1;
+                }
+            }
+            if (lineIndex < 0) {
+                lineIndex = pickLine(lines, hasPrevious ? previous : base + position,
+                        base + position);
+                if (lineIndex >= 0 && hasPrevious) {
+                    // Older pings were on another sequence; keep just the one before
+                    latitudes[base] = latitudes[previous];
+                    longitudes[base] = longitudes[previous];
+                    timestamps[base] = timestamps[previous];
+                    alongMeters[base] = lines[lineIndex].project(latitudes[base], longitudes[base]);
+                    previous = base;
+                    latitudes[base + 1] = latitude;
+                    longitudes[base + 1] = longitude;
+                    timestamps[base + 1] = timestamp;
+                    position = 1;
+                    counts[slot] = 1;
+                }
+                slotLines[slot] = lineIndex;
+                along = lineIndex >= 0 ? lines[lineIndex].project(latitude, longitude)
+                        : Double.NaN;
+            }
+            line = lineIndex >= 0 ? lines[lineIndex] : null;
+        }
+        alongMeters[base + position] = along;
+
+        if (hasPrevious && stopPassListener != null && line != null) {
+            line.reportPassedStops(routeId, alongMeters[previous], timestamps[previous],
+                    along, timestamp, stopPassListener);
+        }
+
+        heads[slot] = (position + 1) % history;
+        if (counts[slot] < history) {
+            counts[slot]++;
+        }
+    }
+
+    /**
+     * Estimate minutes until the next tracked bus reaches a stop
+     * @param routeId The route ID
+     * @param stopId The stop ID
+     * @param nowMillis Current time, in milliseconds since the epoch
+     * @return Estimated minutes, or ArrivalPredictionEngine.NO_ARRIVAL if no live bus is approaching
+     */
+    public int estimateMinutes(String routeId, String stopId, long nowMillis) {
+        RouteLine[] lines = routes.get(routeId);
+        if (lines == null) {
+            return ArrivalPredictionEngine.NO_ARRIVAL;
+        }
+
+        double best = Double.MAX_VALUE;
+        for (int slot = 0; slot < vehicleCount; slot++) {
+            if (counts[slot] == 0 || slotLines[slot] < 0 || !routeId.equals(slotRoutes[slot])) {
+                continue;
+            }
+            // Only buses heading through the stop on their own sequence
+            double stopAlong = lines[slotLines[slot]].alongOf(stopId);
+            if (Double.isNaN(stopAlong)) {
+                continue;
+            }
+            int index = slot * history + latest(slot);
+            if (nowMillis - timestamps[index] > STALE_AFTER_MILLIS) {
+                continue;
+            }
+            double along = alongMeters[index];
+            if (Double.isNaN(along) || along > stopAlong + PASSED_TOLERANCE_METERS) {
+                continue;
+            }
+            double elapsedMinutes = Math.max(0, nowMillis - timestamps[index]) / 60000.0;
+            double minutes = Math.max(0, stopAlong - along) / speedOf(slot) - elapsedMinutes;
+            best = Math.min(best, Math.max(0, minutes));
+        }
+        return best == Double.MAX_VALUE ? ArrivalPredictionEngine.NO_ARRIVAL : (int) Math.ceil(best);
+    }
+
+    /**
+     * Get the number of vehicles seen so far
+     * @return Vehicle count
+     */
+    public int getVehicleCount() {
+        return vehicleCount;
+    }
+
+    /**
+     * Forget all pings, keeping the route shapes
+     */
+    public void clear() {
+        vehicleSlots.clear();
+        Arrays.fill(slotRoutes, null);
+        vehicleCount = 0;
+    }
+
+    /**
+     * Recent speed along the route, from the oldest ping inside the window
+     */
+    private double speedOf(int slot) {
+        int base = slot * history;
+        int newest = latest(slot);
+        double newestAlong = alongMeters[base + newest];
+        long newestTime = timestamps[base + newest];
+
+        double speed = 0;
+        for (int i = 1; i < counts[slot]; i++) {
+            int index = base + (newest - i + history) % history;
+            long elapsed = newestTime - timestamps[index];
+            if (elapsed > SPEED_WINDOW_MILLIS) {
+                break;
+            }
+            if (elapsed >= MIN_SPEED_SAMPLE_MILLIS && !Double.isNaN(alongMeters[index])) {
+                speed = (newestAlong - alongMeters[index]) / (elapsed / 60000.0);
+            }
+        }
+        // A bus that is standing still or measured backwards is about to move on
+        return speed > DEFAULT_METERS_PER_MINUTE / 10 ? speed : DEFAULT_METERS_PER_MINUTE;
+    }
+
+    /**
+     * Find the sequence a bus is on from two of its pings: the only one
+     * there is, or the first one it moved forward along between them
+     * @return Index into lines, or -1 if that is not known yet
+     */
+    private int pickLine(RouteLine[] lines, int fromIndex, int toIndex) {
+        if (lines.length == 1) {
+            return 0;
+        }
+        for (int i = 0; i < lines.length; i++) {
+            double from = lines[i].project(latitudes[fromIndex], longitudes[fromIndex]);
+            double to = lines[i].project(latitudes[toIndex], longitudes[toIndex]);
+            if (!Double.isNaN(from) && !Double.isNaN(to) && to - from >= MIN_PROGRESS_METERS) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Project every ping of a vehicle onto the sequence it follows
+     */
+    private void project(int slot, RouteLine[] lines) {
+        RouteLine line = slotLines[slot] >= 0 ? lines[slotLines[slot]] : null;
+        for (int i = 0; i < counts[slot]; i++) {
+            int index = slot * history + i;
+            alongMeters[index] = line != null
+                    ? line.project(latitudes[index], longitudes[index]) : Double.NaN;
+        }
+    }
+
+    private int latest(int slot) {
+        return (heads[slot] - 1 + history) % history;
+    }
+
+    private int slotOf(String vehicleId) {
+        Integer slot = vehicleSlots.get(vehicleId);
+        if (slot != null) {
+            return slot;
+        }
+        ensureCapacity(vehicleCount + 1);
+        int newSlot = vehicleCount++;
+        vehicleSlots.put(vehicleId, newSlot);
+        slotRoutes[newSlot] = null;
+        slotLines[newSlot] = -1;
+        counts[newSlot] = 0;
+        heads[newSlot] = 0;
+        return newSlot;
+    }
+
+    private void ensureCapacity(int vehicles) {
+        if (vehicles <= heads.length) {
+            return;
+        }
+        int capacity = Math.max(vehicles, heads.length * 2);
+        slotRoutes = Arrays.copyOf(slotRoutes, capacity);
+        slotLines = Arrays.copyOf(slotLines, capacity);
+        heads = Arrays.copyOf(heads, capacity);
+        counts = Arrays.copyOf(counts, capacity);
+        latitudes = Arrays.copyOf(latitudes, capacity * history);
+        longitudes = Arrays.copyOf(longitudes, capacity * history);
+        alongMeters = Arrays.copyOf(alongMeters, capacity * history);
+        timestamps = Arrays.copyOf(timestamps, capacity * history);
+    }
+
+    /**
+     * RouteLine Class
+     * A route as a polyline through its stops, with the distance of each
+     * stop from the start of the route
+     */
+    private static final class RouteLine {
+        private final Map<String, Integer> stopPositions = new HashMap<>();
+        private final String[] stopIds;
+        private final double[] latitudes;
+        private final double[] longitudes;
+        private final double[] cumulativeMeters;
+
+        RouteLine(List<BusStop> stops) {
+            int size = stops.size();
+            stopIds = new String[size];
+            latitudes = new double[size];
+            longitudes = new double[size];
+            cumulativeMeters = new double[size];
+            for (int i = 0; i < size; i++) {
+                BusStop stop = stops.get(i);
+                latitudes[i] = stop.getLatitude();
+                longitudes[i] = stop.getLongitude();
+                if (i > 0) {
+                    cumulativeMeters[i] = cumulativeMeters[i - 1] + StopSpatialIndex.distanceMeters(
+                            latitudes[i - 1], longitudes[i - 1], latitudes[i], longitudes[i]);
+                }
+                stopIds[i] = stop.getStopId();
+                stopPositions.put(stop.getStopId(), i);
+            }
+        }
+
+        double alongOf(String stopId) {
+            Integer position = stopPositions.get(stopId);
+            return position != null ? cumulativeMeters[position] : Double.NaN;
+        }
+
+        /**
+         * Report every stop between two consecutive positions of a bus
+         * moving forward along the route
+         */
+        void reportPassedStops(String routeId, double fromAlong, long fromTime, double toAlong,
+                               long toTime, StopPassListener listener) {
+            if (Double.isNaN(fromAlong) || Double.isNaN(toAlong) || toAlong <= fromAlong) {
+                return;
+            }
+            for (int i = 0; i < cumulativeMeters.length; i++) {
+                double stopAlong = cumulativeMeters[i];
+                if (stopAlong > fromAlong && stopAlong <= toAlong) {
+                    double fraction = (stopAlong - fromAlong) / (toAlong - fromAlong);
+                    listener.onStopPassed(routeId, stopIds[i],
+                            fromTime + Math.round(fraction * (toTime - fromTime)));
+                }
+            }
+        }
+
+        /**
+         * Distance along the route of the closest point to a position
+         * @return Metres from the first stop, or NaN if the position is off the route
+         */
+        double project(double latitude, double longitude) {
+            if (latitudes.length == 1) {
+                return 0;
+            }
+            double metersPerDegree = Math.toRadians(StopSpatialIndex.EARTH_RADIUS_METERS);
+            double bestDistance = Double.MAX_VALUE;
+            double bestAlong = Double.NaN;
+
+            for (int i = 0; i + 1 < latitudes.length; i++) {
+                // Flat projection around the segment start is accurate at stop spacing
+                double scale = Math.cos(Math.toRadians(latitudes[i])) * metersPerDegree;
+                double bx = (longitudes[i + 1] - longitudes[i]) * scale;
+                double by = (latitudes[i + 1] - latitudes[i]) * metersPerDegree;
+                double px = (longitude - longitudes[i]) * scale;
+                double py = (latitude - latitudes[i]) * metersPerDegree;
+
+                double lengthSquared = bx * bx + by * by;
+                double t = lengthSquared > 0 ? (px * bx + py * by) / lengthSquared : 0;
+                t = Math.max(0, Math.min(1, t));
+                double dx = px - t * bx;
+                double dy = py - t * by;
+                double distance = dx * dx + dy * dy;
+                if (distance < bestDistance) {
+                    bestDistance = distance;
+                    bestAlong = cumulativeMeters[i]
+                            + t * (cumulativeMeters[i + 1] - cumulativeMeters[i]);
+                }
+            }
+            return bestDistance <= MAX_OFF_ROUTE_METERS * MAX_OFF_ROUTE_METERS ? bestAlong : Double.NaN;
+        }
+    }
+}
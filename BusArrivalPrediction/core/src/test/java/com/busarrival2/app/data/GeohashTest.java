@@ -0,0 +1,95 @@
+package com.busarrival2.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+public class GeohashTest {
+
+    private static final int PRECISION = Geohash.STOP_BUCKET_PRECISION;
+
+    private static double wrap(double longitude) {
+        return longitude >= 180 ? longitude - 360 : longitude < -180 ? longitude + 360 : longitude;
+    }
+
+    /**
+     * Every position up to one cell away in each direction lies in a covering cell
+     */
+    private static void assertCovers(double latitude, double longitude, Random random) {
+        List<String> cells = Geohash.coveringCells(latitude, longitude, PRECISION);
+        assertEquals(cells.size(), new HashSet<>(cells).size());
+        assertEquals(Geohash.encode(latitude, longitude, PRECISION), cells.get(0));
+
+        double height = Geohash.cellHeight(PRECISION);
+        double width = Geohash.cellWidth(PRECISION);
+        for (int i = 0; i < 200; i++) {
+            double lat = latitude + (random.nextDouble() * 2 - 1) * height;
+            double lon = wrap(longitude + (random.nextDouble() * 2 - 1) * width);
+            if (lat > 90 || lat < -90) {
+                continue;
+            }
+            String cell = Geohash.encode(lat, lon, PRECISION);
+            assertTrue(cell + " near " + latitude + "," + longitude, cells.contains(cell));
+        }
+    }
+
+    @Test
+    public void encodesKnownPositions() {
+        assertEquals("gcpvj", Geohash.encode(51.5074, -0.1278, 5));
+        assertEquals("dr5re", Geohash.encode(40.7128, -74.0060, 5));
+        assertEquals("s0000", Geohash.encode(0.0, 0.0, 5));
+        assertEquals("zzzzz", Geohash.encode(90.0, 179.9999, 5));
+        assertEquals("00000", Geohash.encode(-90.0, -180.0, 5));
+    }
+
+    @Test
+    public void cellSizeMatchesBits() {
+        // 25 bits: 13 for longitude and 12 for latitude
+        assertEquals(360.0 / 8192, Geohash.cellWidth(5), 0.0);
+        assertEquals(180.0 / 4096, Geohash.cellHeight(5), 0.0);
+    }
+
+    @Test
+    public void neighboursWrapAroundTheAntimeridian() {
+        double width = Geohash.cellWidth(PRECISION);
+        List<String> east = Geohash.coveringCells(10.0, 180 - width / 4, PRECISION);
+        assertEquals(9, east.size());
+        assertTrue(east.contains(Geohash.encode(10.0, -180 + width / 4, PRECISION)));
+
+        List<String> west = Geohash.coveringCells(10.0, -180.0, PRECISION);
+        assertEquals(9, west.size());
+        assertTrue(west.contains(Geohash.encode(10.0, 180 - width / 4, PRECISION)));
+
+        Random random = new Random(180);
+        assertCovers(-33.9, 179.99, random);
+        assertCovers(-33.9, -179.99, random);
+    }
+
+    @Test
+    public void neighboursStopAtThePoles() {
+        double height = Geohash.cellHeight(PRECISION);
+        // No row beyond the pole
+        assertEquals(6, Geohash.coveringCells(90 - height / 4, 45.0, PRECISION).size());
+        assertEquals(6, Geohash.coveringCells(-90.0, 0.0, PRECISION).size());
+        // The pole itself is the top edge of its cell, so one row is a cell deep
+        assertEquals(3, Geohash.coveringCells(90.0, 0.0, PRECISION).size());
+
+        Random random = new Random(90);
+        assertCovers(89.99, 179.99, random);
+        assertCovers(-89.99, -179.99, random);
+        assertCovers(90.0, 0.0, random);
+    }
+
+    @Test
+    public void coversRandomPositions() {
+        Random random = new Random(1);
+        for (int i = 0; i < 100; i++) {
+            assertCovers(random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180, random);
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.busarrival2.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.models.User;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class InMemoryTransitDataSourceTest {
+
+    // Two stops far enough apart to fall into different geohash buckets
+    private static final double LAT_A = 51.500;
+    private static final double LAT_B = 51.600;
+    private static final double LONGITUDE = -0.1;
+
+    private InMemoryTransitDataSource source;
+
+    /**
+     * Waits for one callback and keeps what it was given
+     */
+    private static final class Result<T> implements TransitDataSource.Callback<T> {
+        private final CountDownLatch done = new CountDownLatch(1);
+        private final List<String> threads = new ArrayList<>();
+        private T value;
+        private Exception error;
+
+        @Override
+        public void onSuccess(T result) {
+            value = result;
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Exception e) {
+            error = e;
+            threads.add(Thread.currentThread().getName());
+            done.countDown();
+        }
+
+        T get() throws Exception {
+            assertTrue("no callback", done.await(5, TimeUnit.SECONDS));
+            if (error != null) {
+                throw error;
+            }
+            return value;
+        }
+
+        Exception failure() throws InterruptedException {
+            assertTrue("no callback", done.await(5, TimeUnit.SECONDS));
+            return error;
+        }
+    }
+
+    private static BusStop stop(String stopId, double latitude) {
+        return new BusStop(stopId, "Stop " + stopId, latitude, LONGITUDE, "R1");
+    }
+
+    private static BusSchedule schedule(String scheduleId, String routeId, String stopId) {
+        return new BusSchedule(scheduleId, routeId, stopId, "08:00", "08:01", 0, null);
+    }
+
+    private static String cellOf(double latitude) {
+        return Geohash.encode(latitude, LONGITUDE, Geohash.STOP_BUCKET_PRECISION);
+    }
+
+    private void commit(TransitDataSource.Batch batch) throws Exception {
+        Result<Void> result = new Result<>();
+        batch.commit(result);
+        result.get();
+    }
+
+    private List<BusStop> stopsInCell(String cell) throws Exception {
+        Result<List<BusStop>> result = new Result<>();
+        source.getStopsInCell(cell, result);
+        return result.get();
+    }
+
+    private List<String> routeIds() throws Exception {
+        Result<List<BusRoute>> result = new Result<>();
+        source.getRoutes(result);
+        List<String> ids = new ArrayList<>();
+        for (BusRoute route : result.get()) {
+            ids.add(route.getRouteId());
+        }
+        return ids;
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        source = new InMemoryTransitDataSource();
+        commit(source.newBatch()
+                .putRoute(new BusRoute("R1", "1", "Line 1", "A", "B", true))
+                .putStop(stop("A", LAT_A))
+                .putSchedule(schedule("s1", "R1", "A")));
+    }
+
+    @After
+    public void tearDown() {
+        source.shutdown();
+    }
+
+    @Test
+    public void readsBackWhatWasWritten() throws Exception {
+        assertEquals(Arrays.asList("R1"), routeIds());
+
+        Result<BusStop> stop = new Result<>();
+        source.getStop("A", stop);
+        assertEquals("Stop A", stop.get().getStopName());
+        Result<BusStop> missing = new Result<>();
+        source.getStop("Z", missing);
+        assertNull(missing.get());
+
+        assertEquals(1, stopsInCell(cellOf(LAT_A)).size());
+
+        Result<ScheduleStore> schedules = new Result<>();
+        source.getStopSchedules("A", schedules);
+        assertEquals(1, schedules.get().size());
+        assertEquals("s1", schedules.get().getScheduleId(0));
+    }
+
+    @Test
+    public void movesAndDeletesStopsAndSchedules() throws Exception {
+        commit(source.newBatch()
+                .putStop(stop("A", LAT_B), stop("A", LAT_A))
+                .putSchedule(schedule("s1", "R2", "A"), schedule("s1", "R1", "A")));
+        assertTrue(stopsInCell(cellOf(LAT_A)).isEmpty());
+        assertEquals(1, stopsInCell(cellOf(LAT_B)).size());
+        Result<ScheduleStore> moved = new Result<>();
+        source.getSchedules("R1", "A", moved);
+        assertEquals(0, moved.get().size());
+
+        commit(source.newBatch()
+                .deleteStop(stop("A", LAT_B))
+                .deleteSchedule(schedule("s1", "R2", "A")));
+        assertTrue(stopsInCell(cellOf(LAT_B)).isEmpty());
+        Result<List<BusStop>> stops = new Result<>();
+        source.getStops(stops);
+        assertTrue(stops.get().isEmpty());
+        Result<ScheduleStore> deleted = new Result<>();
+        source.getSchedules("R2", "A", deleted);
+        assertEquals(0, deleted.get().size());
+    }
+
+    @Test
+    public void storesUsers() throws Exception {
+        Result<Void> put = new Result<>();
+        source.putUser(new User("u1", "Ann", "ann@example.com", "555", "user"), put);
+        put.get();
+
+        Result<User> user = new Result<>();
+        source.getUser("u1", user);
+        assertEquals("Ann", user.get().getName());
+        Result<User> missing = new Result<>();
+        source.getUser("u2", missing);
+        assertNull(missing.get());
+        assertEquals(1, source.getCallCount(InMemoryTransitDataSource.Operation.PUT_USER));
+    }
+
+    @Test
+    public void countsPathsLikeWriteBatch() {
+        TransitDataSource.Batch batch = source.newBatch()
+                .putRoute(new BusRoute("R2", "2", "Line 2", "A", "B", true))
+                .putStop(stop("B", LAT_B), stop("B", LAT_A))
+                .putSchedule(schedule("s2", "R2", "B"));
+        assertEquals(1 + 3 + 2, batch.size());
+    }
+
+    @Test
+    public void callbacksRunOnTheCallbackExecutor() throws Exception {
+        List<String> executed = new ArrayList<>();
+        InMemoryTransitDataSource posted = new InMemoryTransitDataSource(runnable -> {
+            executed.add("posted");
+            runnable.run();
+        });
+        try {
+            Result<List<BusRoute>> result = new Result<>();
+            posted.getRoutes(result);
+            assertTrue(result.get().isEmpty());
+            assertEquals(Arrays.asList("posted"), executed);
+            assertEquals(Arrays.asList("InMemoryTransitDataSource"), result.threads);
+        } finally {
+            posted.shutdown();
+        }
+    }
+
+    @Test
+    public void failedBatchAppliesNothing() throws Exception {
+        IllegalStateException error = new IllegalStateException("disk full");
+        source.failNextCommit(2, error);
+
+        Result<Void> failed = new Result<>();
+        source.newBatch()
+                .putRoute(new BusRoute("R2", "2", "Line 2", "A", "B", true))
+                .putStop(stop("A", LAT_B), stop("A", LAT_A))
+                .putSchedule(schedule("s2", "R2", "A"))
+                .commit(failed);
+        assertSame(error, failed.failure());
+
+        assertEquals(Arrays.asList("R1"), routeIds());
+        assertEquals(1, stopsInCell(cellOf(LAT_A)).size());
+        assertTrue(stopsInCell(cellOf(LAT_B)).isEmpty());
+        Result<ScheduleStore> schedules = new Result<>();
+        source.getStopSchedules("A", schedules);
+        assertEquals(1, schedules.get().size());
+
+        // Only the next commit fails
+        commit(source.newBatch().putRoute(new BusRoute("R2", "2", "Line 2", "A", "B", true)));
+        assertEquals(Arrays.asList("R1", "R2"), routeIds());
+    }
+
+    @Test
+    public void failureAfterLastWriteAppliesNothing() throws Exception {
+        source.failNextCommit(1, new IllegalStateException("lost ack"));
+        Result<Void> failed = new Result<>();
+        source.newBatch()
+                .putRoute(new BusRoute("R2", "2", "Line 2", "A", "B", true))
+                .commit(failed);
+        assertTrue(failed.failure() instanceof IllegalStateException);
+        assertEquals(Arrays.asList("R1"), routeIds());
+    }
+}
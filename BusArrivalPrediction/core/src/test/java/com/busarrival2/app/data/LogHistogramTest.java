@@ -0,0 +1,147 @@
+package com.busarrival2.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogHistogramTest {
+
+    // Buckets up to and including the one holding Long.MAX_VALUE
+    private static final int BUCKETS = LogHistogram.bucketOf(Long.MAX_VALUE) + 1;
+
+    @Test
+    public void bucketBoundsAreContiguous() {
+        assertEquals(0, LogHistogram.lowerBoundOf(0));
+        assertEquals(Long.MAX_VALUE, LogHistogram.upperBoundOf(BUCKETS - 1));
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            long lower = LogHistogram.lowerBoundOf(bucket);
+            long upper = LogHistogram.upperBoundOf(bucket);
+            assertEquals(bucket, LogHistogram.bucketOf(lower));
+            assertEquals(bucket, LogHistogram.bucketOf(upper));
+            if (bucket + 1 < BUCKETS) {
+                assertEquals(upper + 1, LogHistogram.lowerBoundOf(bucket + 1));
+            }
+        }
+    }
+
+    @Test
+    public void bucketsKeepValuesWithinAnEighth() {
+        // Small values get a bucket each
+        for (int value = 0; value < 16; value++) {
+            int bucket = LogHistogram.bucketOf(value);
+            assertEquals(value, LogHistogram.lowerBoundOf(bucket));
+            assertEquals(value, LogHistogram.upperBoundOf(bucket));
+        }
+        for (int bucket = LogHistogram.bucketOf(8); bucket < BUCKETS; bucket++) {
+            double lower = LogHistogram.lowerBoundOf(bucket);
+            double width = (double) LogHistogram.upperBoundOf(bucket) - lower + 1;
+            assertTrue(width / lower <= 0.125 + 1e-12);
+        }
+        assertEquals(16, LogHistogram.lowerBoundOf(LogHistogram.bucketOf(17)));
+        assertEquals(18, LogHistogram.lowerBoundOf(LogHistogram.bucketOf(18)));
+    }
+
+    @Test
+    public void percentilesReportBucketUpperBounds() {
+        LogHistogram histogram = new LogHistogram();
+        for (int value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        LogHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(100, snapshot.getCount());
+        assertEquals(5050, snapshot.getSum());
+        assertEquals(1, snapshot.getMin());
+        assertEquals(100, snapshot.getMax());
+        assertEquals(50.5, snapshot.getMean(), 1e-9);
+
+        // The 50th value sits in the bucket 48..51
+        assertEquals(51, snapshot.getValueAtPercentile(50));
+        assertEquals(1, snapshot.getValueAtPercentile(0));
+        assertEquals(1, snapshot.getValueAtPercentile(1));
+        // Capped at the largest value instead of the bucket bound 103
+        assertEquals(100, snapshot.getValueAtPercentile(100));
+        assertEquals(100, snapshot.getValueAtPercentile(150));
+    }
+
+    @Test
+    public void percentileRankRoundsUp() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(1);
+        histogram.record(1000);
+        LogHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1, snapshot.getValueAtPercentile(50));
+        // Just past half needs the second value
+        assertEquals(1000, snapshot.getValueAtPercentile(50.1));
+    }
+
+    @Test
+    public void emptyAndNegativeValues() {
+        LogHistogram histogram = new LogHistogram();
+        LogHistogram.Snapshot empty = histogram.snapshot();
+        assertEquals(0, empty.getCount());
+        assertEquals(0, empty.getMin());
+        assertEquals(0, empty.getMax());
+        assertEquals(0.0, empty.getMean(), 0.0);
+        assertEquals(0, empty.getValueAtPercentile(99));
+
+        histogram.record(-5);
+        assertEquals(0, histogram.snapshot().getMax());
+        assertEquals(0, histogram.snapshot().getValueAtPercentile(50));
+
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(Long.MAX_VALUE, histogram.snapshot().getValueAtPercentile(100));
+
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.snapshot().getMax());
+    }
+
+    @Test
+    public void sinceKeepsOnlyLaterValues() {
+        LogHistogram histogram = new LogHistogram();
+        histogram.record(3);
+        histogram.record(1000);
+        LogHistogram.Snapshot before = histogram.snapshot();
+        histogram.record(20);
+        histogram.record(21);
+
+        LogHistogram.Snapshot later = histogram.snapshot().since(before);
+        assertEquals(2, later.getCount());
+        assertEquals(41, later.getSum());
+        // Bounds of the bucket 20..21, since the exact values are not kept
+        assertEquals(20, later.getMin());
+        assertEquals(21, later.getMax());
+        assertEquals(21, later.getValueAtPercentile(100));
+
+        assertEquals(0, histogram.snapshot().since(histogram.snapshot()).getCount());
+        assertEquals(4, histogram.snapshot().since(null).getCount());
+    }
+
+    @Test
+    public void recordsFromManyThreads() throws InterruptedException {
+        LogHistogram histogram = new LogHistogram();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int offset = t;
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    histogram.record(i * 4 + offset);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        LogHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(40000, snapshot.getCount());
+        assertEquals(39999L * 40000 / 2, snapshot.getSum());
+        assertEquals(0, snapshot.getMin());
+        assertEquals(39999, snapshot.getMax());
+    }
+}
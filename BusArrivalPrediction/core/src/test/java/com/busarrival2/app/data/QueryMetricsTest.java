@@ -0,0 +1,92 @@
+package com.busarrival2.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+public class QueryMetricsTest {
+
+    @Test
+    public void recordsPerPathAndMetric() {
+        QueryMetrics metrics = new QueryMetrics();
+        metrics.record("busStops", QueryMetrics.Metric.FIRST_DATA_MILLIS, 80);
+        metrics.record("busStops", QueryMetrics.Metric.FIRST_DATA_MILLIS, 120);
+        metrics.record("busStops", QueryMetrics.Metric.CHILD_COUNT, 40);
+        metrics.record("busRoutes", QueryMetrics.Metric.WRITE_ACK_MILLIS, 15);
+        metrics.recordError("busRoutes");
+        metrics.recordError("busRoutes");
+
+        QueryMetrics.PathMetrics stops = metrics.get("busStops");
+        assertEquals(2, stops.get(QueryMetrics.Metric.FIRST_DATA_MILLIS).getCount());
+        assertEquals(1, stops.get(QueryMetrics.Metric.CHILD_COUNT).getCount());
+        assertEquals(0, stops.get(QueryMetrics.Metric.DECODE_MICROS).getCount());
+        assertEquals(0, stops.getErrorCount());
+        assertEquals(2, metrics.get("busRoutes").getErrorCount());
+        assertNull(metrics.get("users"));
+
+        assertEquals(Arrays.asList("busRoutes", "busStops"),
+                new ArrayList<>(metrics.getAll().keySet()));
+
+        metrics.reset();
+        assertNull(metrics.get("busStops"));
+        assertTrue(metrics.getAll().isEmpty());
+    }
+
+    @Test
+    public void writesJsonWithoutEmptyHistograms() {
+        QueryMetrics metrics = new QueryMetrics();
+        assertEquals("{}", metrics.toJson());
+
+        metrics.record("busStops", QueryMetrics.Metric.FIRST_DATA_MILLIS, 5);
+        metrics.recordError("busRoutes");
+        assertEquals("{\"busRoutes\":{\"errors\":1},"
+                        + "\"busStops\":{\"errors\":0,\"first_data_ms\":{\"count\":1,\"min\":5,"
+                        + "\"max\":5,\"mean\":5.0,\"p50\":5,\"p90\":5,\"p99\":5}}}",
+                metrics.toJson());
+    }
+
+    @Test
+    public void escapesPathNames() {
+        QueryMetrics metrics = new QueryMetrics();
+        metrics.recordError("a\"b\\c\n");
+        assertEquals("{\"a\\\"b\\\\c\\u000a\":{\"errors\":1}}", metrics.toJson());
+    }
+
+    @Test
+    public void metricKeysAreStable() {
+        // Used as analytics event names, so renaming one breaks dashboards
+        assertEquals("first_data_ms", QueryMetrics.Metric.FIRST_DATA_MILLIS.getKey());
+        assertEquals("children", QueryMetrics.Metric.CHILD_COUNT.getKey());
+        assertEquals("payload_bytes", QueryMetrics.Metric.PAYLOAD_BYTES.getKey());
+        assertEquals("decode_us", QueryMetrics.Metric.DECODE_MICROS.getKey());
+        assertEquals("write_ack_ms", QueryMetrics.Metric.WRITE_ACK_MILLIS.getKey());
+    }
+
+    @Test
+    public void recordsFromManyThreads() throws InterruptedException {
+        QueryMetrics metrics = new QueryMetrics();
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < 1000; i++) {
+                    metrics.record("path" + (i % 8), QueryMetrics.Metric.DECODE_MICROS, i);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(8, metrics.getAll().size());
+        long total = 0;
+        for (QueryMetrics.PathMetrics path : metrics.getAll().values()) {
+            total += path.get(QueryMetrics.Metric.DECODE_MICROS).getCount();
+        }
+        assertEquals(4000, total);
+    }
+}
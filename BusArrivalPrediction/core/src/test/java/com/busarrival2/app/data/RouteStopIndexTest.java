@@ -0,0 +1,105 @@
+package com.busarrival2.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.models.BusStop;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class RouteStopIndexTest {
+
+    private RouteStopIndex index;
+
+    private static BusStop stop(String stopId, String routeId) {
+        return new BusStop(stopId, "Stop " + stopId, 51.5, -0.1, routeId);
+    }
+
+    private List<String> stopIdsOf(String routeId) {
+        List<String> ids = new ArrayList<>();
+        for (BusStop stop : index.getStopsForRoute(routeId)) {
+            ids.add(stop.getStopId());
+        }
+        return ids;
+    }
+
+    @Before
+    public void setUp() {
+        index = new RouteStopIndex();
+        index.put(stop("A", "R1"));
+        index.put(stop("B", "R1"));
+        index.put(stop("C", "R2"));
+    }
+
+    @Test
+    public void groupsStopsByRouteInInsertionOrder() {
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("A", "B"), stopIdsOf("R1"));
+        assertEquals(Arrays.asList("C"), stopIdsOf("R2"));
+        assertTrue(index.getStopsForRoute("R9").isEmpty());
+        assertEquals("R2", index.getStop("C").getRouteId());
+        assertNull(index.getStop("Z"));
+    }
+
+    @Test
+    public void updateOnSameRouteKeepsPosition() {
+        BusStop renamed = new BusStop("A", "Renamed", 51.6, -0.1, "R1");
+        index.put(renamed);
+
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("A", "B"), stopIdsOf("R1"));
+        assertSame(renamed, index.getStopsForRoute("R1").get(0));
+        assertSame(renamed, index.getStop("A"));
+    }
+
+    @Test
+    public void updateOnOtherRouteMovesStop() {
+        index.put(stop("B", "R2"));
+
+        assertEquals(Arrays.asList("A"), stopIdsOf("R1"));
+        assertEquals(Arrays.asList("C", "B"), stopIdsOf("R2"));
+        assertEquals(3, index.size());
+    }
+
+    @Test
+    public void removeDropsEmptyRoutes() {
+        assertEquals("C", index.remove("C").getStopId());
+        assertNull(index.remove("C"));
+        assertTrue(index.getStopsForRoute("R2").isEmpty());
+        assertEquals(2, index.size());
+
+        index.clear();
+        assertEquals(0, index.size());
+        assertTrue(index.getStopsForRoute("R1").isEmpty());
+    }
+
+    @Test
+    public void ignoresStopsWithoutId() {
+        index.put(null);
+        index.put(stop(null, "R1"));
+        assertEquals(3, index.size());
+        assertEquals(Arrays.asList("A", "B"), stopIdsOf("R1"));
+    }
+
+    @Test
+    public void handlesStopsWithoutRoute() {
+        index.put(stop("D", null));
+        assertEquals(Arrays.asList("D"), stopIdsOf(null));
+
+        index.put(stop("D", "R1"));
+        assertTrue(index.getStopsForRoute(null).isEmpty());
+        assertEquals(Arrays.asList("A", "B", "D"), stopIdsOf("R1"));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void routeListIsReadOnly() {
+        index.getStopsForRoute("R1").clear();
+    }
+}
@@ -0,0 +1,153 @@
+package com.busarrival2.app.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.models.BusSchedule;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.List;
+
+public class ScheduleStoreTest {
+
+    private static final byte WEEKDAYS = 0x1F;
+
+    private static ScheduleStore sample() {
+        return new ScheduleStore.Builder()
+                .add("s3", "R2", "B", 500, 0, ScheduleStore.ALL_DAYS)
+                .add("s2", "R1", "B", 480, 15, WEEKDAYS)
+                .add("s1", "R1", "A", 470, 15, WEEKDAYS)
+                .add("s4", "R1", "A", 420, 0, WEEKDAYS)
+                .build();
+    }
+
+    @Test
+    public void rowsAreSortedByRouteStopAndArrival() {
+        ScheduleStore store = sample();
+        assertEquals(4, store.size());
+        assertEquals("s4", store.getScheduleId(0));
+        assertEquals("s1", store.getScheduleId(1));
+        assertEquals("s2", store.getScheduleId(2));
+        assertEquals("s3", store.getScheduleId(3));
+    }
+
+    @Test
+    public void routeStopRangeCoversItsRows() {
+        ScheduleStore store = sample();
+        int first = store.firstRow("R1", "A");
+        int end = store.endRow("R1", "A");
+        assertEquals(2, end - first);
+        for (int row = first; row < end; row++) {
+            assertEquals("R1", store.getRouteId(row));
+            assertEquals("A", store.getStopId(row));
+        }
+        assertEquals(store.firstRow("R2", "A"), store.endRow("R2", "A"));
+        assertEquals(store.firstRow("R9", "A"), store.endRow("R9", "A"));
+    }
+
+    @Test
+    public void rowsAtStopSpanRoutes() {
+        ScheduleStore store = sample();
+        int[] rows = store.rowsAtStop("B");
+        assertEquals(2, rows.length);
+        assertEquals("s2", store.getScheduleId(rows[0]));
+        assertEquals("s3", store.getScheduleId(rows[1]));
+        assertEquals(0, store.rowsAtStop("Z").length);
+    }
+
+    @Test
+    public void rowsWithoutArrivalAreSkipped() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("bad", "R1", "A", -1, 0, ScheduleStore.ALL_DAYS)
+                .add(new BusSchedule("bad2", "R1", "A", "25:00", "25:00", 0, null))
+                .add(new BusSchedule("ok", "R1", "A", "07:30", "07:30", 0, null))
+                .build();
+        assertEquals(1, store.size());
+        assertEquals(450, store.getArrivalMinute(0));
+        // A model without days runs every day
+        assertEquals(ScheduleStore.ALL_DAYS, store.getDayMask(0));
+    }
+
+    @Test
+    public void runsOnFollowsDayMask() {
+        ScheduleStore store = sample();
+        int row = store.firstRow("R1", "A");
+        assertTrue(store.runsOn(row, 0));
+        assertTrue(store.runsOn(row, 4));
+        assertFalse(store.runsOn(row, 5));
+        assertFalse(store.runsOn(row, 6));
+    }
+
+    @Test
+    public void nextArrivalUsesRowFrequency() {
+        ScheduleStore store = sample();
+        int row = store.firstRow("R1", "B");
+        assertEquals(20, store.minutesUntilNextArrival(row, 460));
+        assertEquals(5, store.minutesUntilNextArrival(row, 490));
+    }
+
+    @Test
+    public void dayHelpersRoundTrip() {
+        assertEquals(0, ScheduleStore.dayIndexOf(Calendar.MONDAY));
+        assertEquals(6, ScheduleStore.dayIndexOf(Calendar.SUNDAY));
+        byte mask = ScheduleStore.dayMaskOf(Arrays.asList("Monday", "Sunday"));
+        assertEquals(0x41, mask);
+        assertArrayEquals(new String[]{"Mon", "Sun"},
+                ScheduleStore.dayNamesOf(mask).toArray(new String[0]));
+    }
+
+    @Test
+    public void shiftsDayMaskAcrossTheWeek() {
+        assertEquals(0x3E, ScheduleStore.shiftDays(WEEKDAYS, 1));
+        // Sunday wraps round to Monday
+        assertEquals(0x01, ScheduleStore.shiftDays((byte) 0x40, 1));
+        assertEquals(0x41, ScheduleStore.shiftDays((byte) 0x60, 1));
+        assertEquals(WEEKDAYS, ScheduleStore.shiftDays(WEEKDAYS, 7));
+        assertEquals(ScheduleStore.ALL_DAYS, ScheduleStore.shiftDays(ScheduleStore.ALL_DAYS, 3));
+    }
+
+    @Test
+    public void stopPatternsFollowEachDirection() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("o1_1", "o1", 1, "R1", "A", 480, 0, WEEKDAYS)
+                .add("o1_2", "o1", 2, "R1", "B", 485, 0, WEEKDAYS)
+                .add("o1_3", "o1", 3, "R1", "C", 490, 0, WEEKDAYS)
+                .add("i1_1", "i1", 1, "R1", "C", 470, 0, WEEKDAYS)
+                .add("i1_2", "i1", 2, "R1", "B", 475, 0, WEEKDAYS)
+                .add("i1_3", "i1", 3, "R1", "A", 481, 0, WEEKDAYS)
+                // Short turn of the outbound direction
+                .add("o2_1", "o2", 1, "R1", "A", 500, 0, WEEKDAYS)
+                .add("o2_2", "o2", 2, "R1", "B", 505, 0, WEEKDAYS)
+                // Same pattern as o1
+                .add("o3_1", "o3", 1, "R1", "A", 510, 0, WEEKDAYS)
+                .add("o3_2", "o3", 2, "R1", "B", 515, 0, WEEKDAYS)
+                .add("o3_3", "o3", 3, "R1", "C", 520, 0, WEEKDAYS)
+                .build();
+
+        List<List<String>> patterns = store.getStopPatterns("R1");
+        assertEquals(3, patterns.size());
+        assertTrue(patterns.contains(Arrays.asList("A", "B", "C")));
+        assertTrue(patterns.contains(Arrays.asList("C", "B", "A")));
+        assertEquals(Arrays.asList("A", "B"), patterns.get(2));
+        assertTrue(store.getStopPatterns("R9").isEmpty());
+    }
+
+    @Test
+    public void headwayRouteGivesStopsByFirstArrival() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("h1", "R1", "C", 440, 10, WEEKDAYS)
+                .add("h2", "R1", "A", 420, 10, WEEKDAYS)
+                .add("h3", "R1", "B", 430, 10, WEEKDAYS)
+                .add("h4", "R1", "A", 300, 10, ScheduleStore.ALL_DAYS)
+                .build();
+
+        assertEquals(Collections.singletonList(Arrays.asList("A", "B", "C")),
+                store.getStopPatterns("R1"));
+    }
+}
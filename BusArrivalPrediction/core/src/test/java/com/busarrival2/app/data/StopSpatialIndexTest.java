@@ -0,0 +1,128 @@
+package com.busarrival2.app.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.models.BusStop;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+public class StopSpatialIndexTest {
+
+    private static List<BusStop> randomStops(Random random, int count, double latitude,
+                                             double longitude, double spread) {
+        List<BusStop> stops = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            double lat = latitude + (random.nextDouble() - 0.5) * spread;
+            lat = Math.max(-90, Math.min(90, lat));
+            double lon = longitude + (random.nextDouble() - 0.5) * spread;
+            if (lon >= 180) {
+                lon -= 360;
+            } else if (lon < -180) {
+                lon += 360;
+            }
+            stops.add(new BusStop("S" + i, "Stop " + i, lat, lon, "R1"));
+        }
+        return stops;
+    }
+
+    private static List<BusStop> byDistance(List<BusStop> stops, double latitude,
+                                            double longitude) {
+        List<BusStop> sorted = new ArrayList<>(stops);
+        sorted.sort(Comparator.comparingDouble(
+                stop -> StopSpatialIndex.distanceMeters(latitude, longitude, stop)));
+        return sorted;
+    }
+
+    /**
+     * Compare by distance rather than identity, so ties in either order pass
+     */
+    private static void assertSameDistances(List<BusStop> expected, List<BusStop> actual,
+                                            double latitude, double longitude) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(StopSpatialIndex.distanceMeters(latitude, longitude, expected.get(i)),
+                    StopSpatialIndex.distanceMeters(latitude, longitude, actual.get(i)), 1e-6);
+        }
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        Random random = new Random(42);
+        // A city, a spot across the antimeridian and one near the pole
+        double[][] areas = {{51.5, -0.1, 0.5}, {-17.8, 179.9, 2.0}, {89.5, 0.0, 2.0}};
+        for (double[] area : areas) {
+            List<BusStop> stops = randomStops(random, 500, area[0], area[1], area[2]);
+            StopSpatialIndex index = new StopSpatialIndex(stops);
+            for (int query = 0; query < 50; query++) {
+                BusStop at = randomStops(random, 1, area[0], area[1], area[2]).get(0);
+                double lat = at.getLatitude();
+                double lon = at.getLongitude();
+                for (int k : new int[] {1, 5, 40}) {
+                    List<BusStop> expected = byDistance(stops, lat, lon).subList(0, k);
+                    assertSameDistances(expected, index.findNearest(lat, lon, k), lat, lon);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void radiusMatchesBruteForce() {
+        Random random = new Random(7);
+        List<BusStop> stops = randomStops(random, 1000, 51.5, -0.1, 0.5);
+        StopSpatialIndex index = new StopSpatialIndex(stops);
+        for (int query = 0; query < 50; query++) {
+            double lat = 51.5 + (random.nextDouble() - 0.5) * 0.5;
+            double lon = -0.1 + (random.nextDouble() - 0.5) * 0.5;
+            for (double radius : new double[] {0, 250, 2000, 10000}) {
+                List<BusStop> expected = new ArrayList<>();
+                for (BusStop stop : byDistance(stops, lat, lon)) {
+                    if (StopSpatialIndex.distanceMeters(lat, lon, stop) <= radius) {
+                        expected.add(stop);
+                    }
+                }
+                List<BusStop> found = index.findWithinRadius(lat, lon, radius);
+                // Chord and haversine distances may disagree right at the edge
+                assertTrue(Math.abs(expected.size() - found.size()) <= 1);
+                for (BusStop stop : found) {
+                    assertTrue(StopSpatialIndex.distanceMeters(lat, lon, stop) <= radius + 1e-3);
+                }
+                int common = Math.min(expected.size(), found.size());
+                assertSameDistances(expected.subList(0, common), found.subList(0, common),
+                        lat, lon);
+            }
+        }
+    }
+
+    @Test
+    public void edgeCases() {
+        BusStop a = new BusStop("A", "A", 51.5, -0.1, "R1");
+        BusStop unplaced = new BusStop("B", "B", 0.0, 0.0, "R1");
+        StopSpatialIndex index = new StopSpatialIndex(Arrays.asList(a, unplaced, null));
+
+        // Stops at (0, 0) have no location
+        assertEquals(1, index.size());
+        assertEquals(Arrays.asList(a), index.findNearest(0.0, 0.0, 5));
+        assertTrue(index.findNearest(51.5, -0.1, 0).isEmpty());
+        assertTrue(index.findWithinRadius(51.5, -0.1, -1).isEmpty());
+        assertEquals(Arrays.asList(a), index.findWithinRadius(51.5, -0.1, 0));
+
+        StopSpatialIndex empty = new StopSpatialIndex(new ArrayList<>());
+        assertTrue(empty.findNearest(51.5, -0.1, 3).isEmpty());
+        assertTrue(empty.findWithinRadius(51.5, -0.1, 1000).isEmpty());
+    }
+
+    @Test
+    public void distanceAcrossAntimeridian() {
+        // 0.2 degrees of longitude at the equator, not 359.8
+        double meters = StopSpatialIndex.distanceMeters(0.0, 179.9, 0.0, -179.9);
+        assertEquals(22239, meters, 1.0);
+        assertEquals(0.0, StopSpatialIndex.distanceMeters(90.0, 10.0, 90.0, -170.0), 1e-6);
+    }
+}
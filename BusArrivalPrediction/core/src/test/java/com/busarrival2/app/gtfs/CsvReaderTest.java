@@ -0,0 +1,57 @@
+package com.busarrival2.app.gtfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class CsvReaderTest {
+
+    @Test
+    public void readsColumnsByHeaderName() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("\uFEFFstop_id, stop_name\nS1,Main\n"));
+        assertEquals(0, reader.column("stop_id"));
+        assertEquals(1, reader.column("stop_name"));
+        assertEquals(-1, reader.column("stop_lat"));
+
+        String[] row = reader.readRow();
+        assertEquals("S1", CsvReader.get(row, reader.column("stop_id")));
+        assertEquals("Main", CsvReader.get(row, reader.column("stop_name")));
+        assertNull(CsvReader.get(row, reader.column("stop_lat")));
+        assertNull(reader.readRow());
+        assertEquals(1, reader.getRowNumber());
+    }
+
+    @Test
+    public void handlesQuotedFields() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader(
+                "a,b,c\r\n\"x, y\",\"say \"\"hi\"\"\",\"two\nlines\"\r\n"));
+        assertArrayEquals(new String[]{"x, y", "say \"hi\"", "two\nlines"}, reader.readRow());
+        assertNull(reader.readRow());
+    }
+
+    @Test
+    public void emptyAndMissingFieldsAreNull() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("a,b,c\n1,,\n2\n"));
+        String[] first = reader.readRow();
+        assertEquals("1", CsvReader.get(first, 0));
+        assertNull(CsvReader.get(first, 1));
+        assertNull(CsvReader.get(first, 2));
+
+        String[] second = reader.readRow();
+        assertEquals("2", CsvReader.get(second, 0));
+        assertNull(CsvReader.get(second, 2));
+    }
+
+    @Test
+    public void lastRowWithoutNewlineIsRead() throws IOException {
+        CsvReader reader = new CsvReader(new StringReader("a\n1\n2"));
+        assertEquals("1", reader.readRow()[0]);
+        assertEquals("2", reader.readRow()[0]);
+        assertNull(reader.readRow());
+    }
+}
@@ -0,0 +1,224 @@
+package com.busarrival2.app.gtfs;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class GtfsImporterTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Sink that keeps everything it is given
+     */
+    private static final class RecordingSink implements GtfsImporter.Sink {
+        final List<BusRoute> routes = new ArrayList<>();
+        final List<BusStop> stops = new ArrayList<>();
+        final List<BusSchedule> schedules = new ArrayList<>();
+        int flushes;
+
+        @Override
+        public void writeRoute(BusRoute route) {
+            routes.add(route);
+        }
+
+        @Override
+        public void writeStop(BusStop stop) {
+            stops.add(stop);
+        }
+
+        @Override
+        public void writeSchedule(BusSchedule schedule) {
+            schedules.add(schedule);
+        }
+
+        @Override
+        public void flush() {
+            flushes++;
+        }
+    }
+
+    private static byte[] sampleFeed() throws IOException {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put(GtfsImporter.ROUTES, "route_id,route_short_name,route_long_name\n"
+                + "R1,1,Downtown\nR.2,,Airport\n");
+        files.put(GtfsImporter.TRIPS, "route_id,service_id,trip_id\n"
+                + "R1,WK,T1\nR.2,SA,T2\n");
+        files.put(GtfsImporter.CALENDAR, "service_id,monday,tuesday,wednesday,thursday,"
+                + "friday,saturday,sunday\nWK,1,1,1,1,1,0,0\nSA,0,0,0,0,0,1,0\n");
+        files.put(GtfsImporter.STOP_TIMES, "trip_id,arrival_time,departure_time,stop_id,"
+                + "stop_sequence\nT1,08:00:00,08:01:00,S1,1\nT1,,,S2,2\nT1,8:20:00,8:20:00,S3,3\n"
+                + "T2,9:00:00,9:00:00,S3,1\n");
+        files.put(GtfsImporter.STOPS, "stop_id,stop_name,stop_lat,stop_lon\n"
+                + "S1,First,51.5,-0.1\nS2,Second,51.6,-0.2\nS3,Third,bad,-0.3\n");
+
+        return zip(files);
+    }
+
+    private static byte[] zip(Map<String, String> files) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, String> file : files.entrySet()) {
+                zip.putNextEntry(new ZipEntry("feed/" + file.getKey()));
+                zip.write(file.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private GtfsImporter importer(byte[] feed, RecordingSink sink, File checkpoint)
+            throws IOException {
+        return new GtfsImporter(() -> new ByteArrayInputStream(feed), sink,
+                new GtfsCheckpoint(checkpoint));
+    }
+
+    @Test
+    public void mapsFeedOntoModels() throws IOException {
+        RecordingSink sink = new RecordingSink();
+        GtfsImporter.Result result = importer(sampleFeed(), sink,
+                new File(folder.getRoot(), "checkpoint")).run();
+
+        assertEquals(2, result.getRoutes());
+        assertEquals(3, result.getSchedules());
+        assertEquals(3, result.getStops());
+        assertTrue(sink.flushes > 0);
+
+        assertEquals("Downtown", sink.routes.get(0).getRouteName());
+        // Firebase keys cannot contain '.'
+        assertEquals("R_2", sink.routes.get(1).getRouteId());
+        assertEquals("R_2", sink.routes.get(1).getRouteNumber());
+        assertEquals("Airport", sink.routes.get(1).getRouteName());
+
+        BusSchedule first = sink.schedules.get(0);
+        assertEquals("T1_1", first.getScheduleId());
+        assertEquals("T1", first.getTripId());
+        assertEquals(1, first.getStopSequence());
+        assertEquals("R1", first.getRouteId());
+        assertEquals("08:00", first.getArrivalTime());
+        assertEquals("08:01", first.getDepartureTime());
+        assertEquals(0, first.getFrequency());
+        assertArrayEquals(new String[]{"Mon", "Tue", "Wed", "Thu", "Fri"},
+                first.getDaysOfWeek().toArray(new String[0]));
+
+        // The untimed stop is skipped
+        assertEquals("S3", sink.schedules.get(1).getStopId());
+        assertEquals("08:20", sink.schedules.get(1).getArrivalTime());
+        assertArrayEquals(new String[]{"Sat"},
+                sink.schedules.get(2).getDaysOfWeek().toArray(new String[0]));
+
+        BusStop third = sink.stops.get(2);
+        assertEquals("R1", third.getRouteId());
+        assertEquals(0.0, third.getLatitude(), 0.0);
+        assertEquals(-0.3, third.getLongitude(), 1e-9);
+    }
+
+    @Test
+    public void resumesFromCheckpoint() throws IOException {
+        byte[] feed = sampleFeed();
+        File checkpoint = new File(folder.getRoot(), "checkpoint");
+        RecordingSink firstSink = new RecordingSink();
+        GtfsImporter first = importer(feed, firstSink, checkpoint);
+        first.setChunkSize(1);
+        first.setProgressListener((fileName, rows) -> {
+            if (fileName.equals(GtfsImporter.STOP_TIMES) && rows == 1) {
+                first.cancel();
+            }
+        });
+        first.run();
+        assertTrue(first.isCancelled());
+        assertEquals(1, firstSink.schedules.size());
+        assertTrue(firstSink.stops.isEmpty());
+
+        RecordingSink secondSink = new RecordingSink();
+        GtfsImporter.Result result = importer(feed, secondSink, checkpoint).run();
+        assertEquals(0, result.getRoutes());
+        assertEquals(2, result.getSchedules());
+        assertEquals(3, result.getStops());
+        assertEquals("T1_3", secondSink.schedules.get(0).getScheduleId());
+        // Stop routes are rebuilt from the already imported stop times
+        assertEquals("R1", secondSink.stops.get(0).getRouteId());
+    }
+
+    @Test(expected = IOException.class)
+    public void missingRequiredFileFails() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            zip.putNextEntry(new ZipEntry(GtfsImporter.ROUTES));
+            zip.write("route_id\nR1\n".getBytes(StandardCharsets.UTF_8));
+            zip.closeEntry();
+        }
+        importer(bytes.toByteArray(), new RecordingSink(),
+                new File(folder.getRoot(), "checkpoint")).run();
+    }
+
+    @Test
+    public void movesStopTimesPastMidnightToNextDay() throws IOException {
+        Map<String, String> files = new LinkedHashMap<>();
+        files.put(GtfsImporter.ROUTES, "route_id\nR1\n");
+        files.put(GtfsImporter.TRIPS, "route_id,service_id,trip_id\nR1,SU,T1\n");
+        files.put(GtfsImporter.CALENDAR, "service_id,monday,tuesday,wednesday,thursday,"
+                + "friday,saturday,sunday\nSU,0,0,0,0,0,0,1\n");
+        files.put(GtfsImporter.STOP_TIMES, "trip_id,arrival_time,departure_time,stop_id,"
+                + "stop_sequence\nT1,23:55:00,23:55:00,S1,1\nT1,24:10:00,24:10:00,S2,2\n"
+                + "T1,,25:00:00,S3,3\n");
+        files.put(GtfsImporter.STOPS, "stop_id\nS1\nS2\nS3\n");
+        RecordingSink sink = new RecordingSink();
+        importer(zip(files), sink, new File(folder.getRoot(), "checkpoint")).run();
+
+        assertEquals("[Sun]", sink.schedules.get(0).getDaysOfWeek().toString());
+        assertEquals("00:10", sink.schedules.get(1).getArrivalTime());
+        // A Sunday trip reaches these stops early on Monday
+        assertEquals("[Mon]", sink.schedules.get(1).getDaysOfWeek().toString());
+        assertEquals("[Mon]", sink.schedules.get(2).getDaysOfWeek().toString());
+    }
+
+    @Test
+    public void countsDaysAfterServiceDay() {
+        assertEquals(0, GtfsImporter.daysAfterServiceDay("23:59:00"));
+        assertEquals(1, GtfsImporter.daysAfterServiceDay("24:00:00"));
+        assertEquals(1, GtfsImporter.daysAfterServiceDay("47:59:00"));
+        assertEquals(2, GtfsImporter.daysAfterServiceDay("48:00:00"));
+        assertEquals(0, GtfsImporter.daysAfterServiceDay(null));
+        assertEquals(0, GtfsImporter.daysAfterServiceDay("x5:00:00"));
+    }
+
+    @Test
+    public void convertsClockTimes() {
+        assertEquals("08:05", GtfsImporter.toClockTime("8:05:00"));
+        assertEquals("23:59", GtfsImporter.toClockTime("23:59:59"));
+        assertEquals("01:30", GtfsImporter.toClockTime("25:30:00"));
+        assertNull(GtfsImporter.toClockTime(null));
+        assertNull(GtfsImporter.toClockTime("8"));
+        assertNull(GtfsImporter.toClockTime("x8:00:00"));
+    }
+
+    @Test
+    public void makesFirebaseSafeKeys() {
+        assertEquals("a_b_c_d_e_f_", GtfsImporter.toKey("a.b#c$d[e]f/"));
+        assertEquals("plain", GtfsImporter.toKey("plain"));
+        assertNull(GtfsImporter.toKey(null));
+    }
+}
@@ -0,0 +1,94 @@
+package com.busarrival2.app.gtfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.models.BusRoute;
+import com.busarrival2.app.models.BusSchedule;
+import com.busarrival2.app.models.BusStop;
+import com.busarrival2.app.prediction.ArrivalPredictionEngine;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class NetworkGeneratorTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    /**
+     * Sink that keeps the schedule rows as strings
+     */
+    private static final class ScheduleSink implements GtfsImporter.Sink {
+        final List<String> rows = new ArrayList<>();
+
+        @Override
+        public void writeRoute(BusRoute route) {
+        }
+
+        @Override
+        public void writeStop(BusStop stop) {
+        }
+
+        @Override
+        public void writeSchedule(BusSchedule schedule) {
+            rows.add(schedule.getScheduleId() + " " + schedule.getStopId() + " "
+                    + schedule.getArrivalTime() + " " + schedule.getDaysOfWeek());
+        }
+
+        @Override
+        public void flush() {
+        }
+    }
+
+    @Test
+    public void gtfsZipImportsToTheSameRows() throws IOException {
+        NetworkGenerator generator = new NetworkGenerator(NetworkGenerator.Size.SAMPLE, 42);
+        ScheduleSink generated = new ScheduleSink();
+        generator.generate(generated);
+
+        ByteArrayOutputStream zip = new ByteArrayOutputStream();
+        generator.writeGtfs(zip);
+        ScheduleSink imported = new ScheduleSink();
+        new GtfsImporter(() -> new ByteArrayInputStream(zip.toByteArray()), imported,
+                new GtfsCheckpoint(new File(folder.getRoot(), "checkpoint"))).run();
+
+        assertEquals(generator.getScheduleRowCount(), generated.rows.size());
+        assertEquals(generated.rows, imported.rows);
+    }
+
+    @Test
+    public void tripsPastMidnightRunOnTheNextDay() throws IOException {
+        NetworkGenerator generator = new NetworkGenerator(NetworkGenerator.Size.SAMPLE, 42);
+        ScheduleStore store = generator.buildScheduleStore();
+        ScheduleSink generated = new ScheduleSink();
+        generator.generate(generated);
+
+        // Weekday trips leaving late on Friday reach their last stops on Saturday
+        int nextDayRows = 0;
+        for (String row : generated.rows) {
+            if (row.contains("_WD") && row.endsWith("[Tue, Wed, Thu, Fri, Sat]")) {
+                nextDayRows++;
+                String time = row.split(" ")[2];
+                assertTrue(time, ArrivalPredictionEngine.parseMinuteOfDay(time) < 6 * 60);
+            }
+        }
+        assertTrue(nextDayRows > 0);
+
+        for (int row = 0; row < store.size(); row++) {
+            if (store.getScheduleId(row).contains("_WD")
+                    && store.getDayMask(row) != 0x1F) {
+                assertEquals(0x3E, store.getDayMask(row));
+            }
+        }
+    }
+}
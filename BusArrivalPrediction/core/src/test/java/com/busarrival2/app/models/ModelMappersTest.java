@@ -0,0 +1,164 @@
+package com.busarrival2.app.models;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class ModelMappersTest {
+
+    @Test
+    public void routeRoundTrips() {
+        BusRoute route = new BusRoute("R1", "12", "Line 12", "North", "South", true);
+        BusRoute copy = ModelMappers.ROUTE.fromMap(ModelMappers.ROUTE.toMap(route));
+        assertEquals("R1", copy.getRouteId());
+        assertEquals("12", copy.getRouteNumber());
+        assertEquals("Line 12", copy.getRouteName());
+        assertEquals("North", copy.getStartPoint());
+        assertEquals("South", copy.getEndPoint());
+        assertTrue(copy.isActive());
+    }
+
+    @Test
+    public void stopRoundTrips() {
+        BusStop stop = new BusStop("S1", "High St", 51.5, -0.125, "R1");
+        BusStop copy = ModelMappers.STOP.fromMap(ModelMappers.STOP.toMap(stop));
+        assertEquals("S1", copy.getStopId());
+        assertEquals("High St", copy.getStopName());
+        assertEquals(51.5, copy.getLatitude(), 0.0);
+        assertEquals(-0.125, copy.getLongitude(), 0.0);
+        assertEquals("R1", copy.getRouteId());
+    }
+
+    @Test
+    public void scheduleRoundTrips() {
+        BusSchedule schedule = new BusSchedule("T1_3", "R1", "S1", "08:15", "08:16", 10,
+                Arrays.asList("Mon", "Tue"));
+        schedule.setTripId("T1");
+        schedule.setStopSequence(3);
+        BusSchedule copy = ModelMappers.SCHEDULE.fromMap(ModelMappers.SCHEDULE.toMap(schedule));
+        assertEquals("T1_3", copy.getScheduleId());
+        assertEquals("R1", copy.getRouteId());
+        assertEquals("S1", copy.getStopId());
+        assertEquals("08:15", copy.getArrivalTime());
+        assertEquals("08:16", copy.getDepartureTime());
+        assertEquals(10, copy.getFrequency());
+        assertEquals(Arrays.asList("Mon", "Tue"), copy.getDaysOfWeek());
+        assertEquals("T1", copy.getTripId());
+        assertEquals(3, copy.getStopSequence());
+    }
+
+    @Test
+    public void userAndPositionRoundTrip() {
+        User user = new User("u1", "Ann", "ann@example.com", "555", "admin");
+        user.setCreatedAt(1_700_000_000_000L);
+        User userCopy = ModelMappers.USER.fromMap(ModelMappers.USER.toMap(user));
+        assertEquals("u1", userCopy.getUserId());
+        assertEquals("Ann", userCopy.getName());
+        assertEquals("ann@example.com", userCopy.getEmail());
+        assertEquals("555", userCopy.getPhone());
+        assertEquals("admin", userCopy.getRole());
+        assertEquals(1_700_000_000_000L, userCopy.getCreatedAt());
+
+        VehiclePosition position = new VehiclePosition();
+        position.setVehicleId("bus7");
+        position.setRouteId("R1");
+        position.setLatitude(51.5);
+        position.setLongitude(-0.1);
+        position.setTimestamp(1_700_000_000_000L);
+        VehiclePosition positionCopy =
+                ModelMappers.POSITION.fromMap(ModelMappers.POSITION.toMap(position));
+        assertEquals("bus7", positionCopy.getVehicleId());
+        assertEquals("R1", positionCopy.getRouteId());
+        assertEquals(51.5, positionCopy.getLatitude(), 0.0);
+        assertEquals(-0.1, positionCopy.getLongitude(), 0.0);
+        assertEquals(1_700_000_000_000L, positionCopy.getTimestamp());
+    }
+
+    @Test
+    public void readsValuesAsFirebaseReturnsThem() {
+        // Whole numbers come back as Long, even for double fields
+        Map<String, Object> stopValues = new HashMap<>();
+        stopValues.put("stopId", "S1");
+        stopValues.put("latitude", 51L);
+        stopValues.put("longitude", -1L);
+        BusStop stop = ModelMappers.STOP.fromMap(stopValues);
+        assertEquals(51.0, stop.getLatitude(), 0.0);
+        assertEquals(-1.0, stop.getLongitude(), 0.0);
+
+        // Sparse arrays come back as a map of index to value
+        Map<String, Object> days = new LinkedHashMap<>();
+        days.put("0", "Mon");
+        days.put("2", "Wed");
+        Map<String, Object> scheduleValues = new HashMap<>();
+        scheduleValues.put("frequency", 15L);
+        scheduleValues.put("stopSequence", 4L);
+        scheduleValues.put("daysOfWeek", days);
+        BusSchedule schedule = ModelMappers.SCHEDULE.fromMap(scheduleValues);
+        assertEquals(15, schedule.getFrequency());
+        assertEquals(4, schedule.getStopSequence());
+        assertEquals(Arrays.asList("Mon", "Wed"), schedule.getDaysOfWeek());
+    }
+
+    @Test
+    public void missingFieldsReadAsDefaults() {
+        BusRoute route = ModelMappers.ROUTE.fromMap(Collections.emptyMap());
+        assertNull(route.getRouteId());
+        assertFalse(route.isActive());
+
+        BusSchedule schedule = ModelMappers.SCHEDULE.fromMap(Collections.emptyMap());
+        assertNull(schedule.getScheduleId());
+        assertNull(schedule.getDaysOfWeek());
+        assertNull(schedule.getTripId());
+        assertEquals(0, schedule.getFrequency());
+        assertEquals(0, schedule.getStopSequence());
+
+        User user = ModelMappers.USER.fromMap(Collections.emptyMap());
+        assertNull(user.getName());
+        assertEquals(0L, user.getCreatedAt());
+    }
+
+    @Test
+    public void nullFieldsAreWrittenAndReadBack() {
+        BusSchedule schedule = new BusSchedule("s1", "R1", "S1", "08:00", null, 0, null);
+        Map<String, Object> values = ModelMappers.SCHEDULE.toMap(schedule);
+        assertTrue(values.containsKey("tripId"));
+        assertNull(values.get("tripId"));
+
+        BusSchedule copy = ModelMappers.SCHEDULE.fromMap(values);
+        assertNull(copy.getDepartureTime());
+        assertNull(copy.getDaysOfWeek());
+        assertNull(copy.getTripId());
+    }
+
+    @Test
+    public void wrongTypesReadAsDefaults() {
+        Map<String, Object> values = new HashMap<>();
+        values.put("active", "yes");
+        values.put("routeNumber", 12L);
+        BusRoute route = ModelMappers.ROUTE.fromMap(values);
+        assertFalse(route.isActive());
+        assertEquals("12", route.getRouteNumber());
+
+        assertEquals(0L, ModelMappers.asLong("7"));
+        assertEquals(0.0, ModelMappers.asDouble(null), 0.0);
+        assertNull(ModelMappers.asStringList("Mon"));
+        assertEquals(Arrays.asList("Mon"), ModelMappers.asStringList(Arrays.asList("Mon", null)));
+    }
+
+    @Test
+    public void fromValueNeedsAnObject() {
+        assertNull(ModelMappers.STOP.fromValue(null));
+        assertNull(ModelMappers.STOP.fromValue("S1"));
+        assertEquals("S1", ModelMappers.STOP.fromValue(
+                Collections.singletonMap("stopId", "S1")).getStopId());
+    }
+}
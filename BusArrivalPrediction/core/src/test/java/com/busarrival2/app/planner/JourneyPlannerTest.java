@@ -0,0 +1,168 @@
+package com.busarrival2.app.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.models.BusStop;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class JourneyPlannerTest {
+
+    private static final int MONDAY = 0;
+
+    private static JourneyPlanner planner(ScheduleStore store, List<BusStop> stops) {
+        return new JourneyPlanner(TransitNetwork.build(store, MONDAY, stops,
+                TransitNetwork.DEFAULT_MAX_WALK_METERS));
+    }
+
+    private static JourneyPlanner planner(ScheduleStore store) {
+        return planner(store, Collections.<BusStop>emptyList());
+    }
+
+    @Test
+    public void findsDirectRide() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "B", 610, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_3", "T1", 3, "R1", "C", 620, 0, ScheduleStore.ALL_DAYS)
+                .build();
+
+        List<Journey> journeys = planner(store).plan("A", "C", 590);
+
+        assertEquals(1, journeys.size());
+        Journey journey = journeys.get(0);
+        assertEquals(600, journey.getDepartureMinute());
+        assertEquals(620, journey.getArrivalMinute());
+        assertEquals(0, journey.getTransfers());
+        assertEquals(1, journey.getLegs().size());
+        assertEquals("R1", journey.getLegs().get(0).getRouteId());
+        assertEquals("A", journey.getLegs().get(0).getFromStopId());
+        assertEquals("C", journey.getLegs().get(0).getToStopId());
+    }
+
+    @Test
+    public void changesBuses() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "B", 610, 0, ScheduleStore.ALL_DAYS)
+                .add("T2_1", "T2", 1, "R2", "B", 615, 0, ScheduleStore.ALL_DAYS)
+                .add("T2_2", "T2", 2, "R2", "C", 630, 0, ScheduleStore.ALL_DAYS)
+                .build();
+
+        List<Journey> journeys = planner(store).plan("A", "C", 590);
+
+        assertEquals(1, journeys.size());
+        Journey journey = journeys.get(0);
+        assertEquals(630, journey.getArrivalMinute());
+        assertEquals(1, journey.getTransfers());
+        assertEquals("R1", journey.getLegs().get(0).getRouteId());
+        assertEquals("R2", journey.getLegs().get(1).getRouteId());
+        assertEquals(610, journey.getLegs().get(0).getArrivalMinute());
+        assertEquals(615, journey.getLegs().get(1).getDepartureMinute());
+    }
+
+    @Test
+    public void keepsSlowerJourneyWithFewerTransfers() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 580, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "C", 590, 0, ScheduleStore.ALL_DAYS)
+                .add("T2_1", "T2", 1, "R2", "C", 595, 0, ScheduleStore.ALL_DAYS)
+                .add("T2_2", "T2", 2, "R2", "B", 620, 0, ScheduleStore.ALL_DAYS)
+                .add("T3_1", "T3", 1, "D", "A", 625, 0, ScheduleStore.ALL_DAYS)
+                .add("T3_2", "T3", 2, "D", "B", 640, 0, ScheduleStore.ALL_DAYS)
+                .build();
+
+        List<Journey> journeys = planner(store).plan("A", "B", 570);
+
+        // The direct bus leaves after the change arrives, but is still Pareto-optimal
+        assertEquals(2, journeys.size());
+        assertEquals(0, journeys.get(0).getTransfers());
+        assertEquals(640, journeys.get(0).getArrivalMinute());
+        assertEquals("D", journeys.get(0).getLegs().get(0).getRouteId());
+        assertEquals(1, journeys.get(1).getTransfers());
+        assertEquals(620, journeys.get(1).getArrivalMinute());
+    }
+
+    @Test
+    public void dropsJourneyThatIsNotFasterWithMoreTransfers() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 580, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "C", 590, 0, ScheduleStore.ALL_DAYS)
+                .add("T2_1", "T2", 1, "R2", "C", 595, 0, ScheduleStore.ALL_DAYS)
+                .add("T2_2", "T2", 2, "R2", "B", 640, 0, ScheduleStore.ALL_DAYS)
+                .add("T3_1", "T3", 1, "D", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("T3_2", "T3", 2, "D", "B", 630, 0, ScheduleStore.ALL_DAYS)
+                .build();
+
+        List<Journey> journeys = planner(store).plan("A", "B", 570);
+
+        assertEquals(1, journeys.size());
+        assertEquals(0, journeys.get(0).getTransfers());
+        assertEquals(630, journeys.get(0).getArrivalMinute());
+    }
+
+    @Test
+    public void missesConnectionThatLeftBeforeArrival() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "B", 610, 0, ScheduleStore.ALL_DAYS)
+                .add("T2_1", "T2", 1, "R2", "B", 605, 0, ScheduleStore.ALL_DAYS)
+                .add("T2_2", "T2", 2, "R2", "C", 630, 0, ScheduleStore.ALL_DAYS)
+                .build();
+
+        assertTrue(planner(store).plan("A", "C", 590).isEmpty());
+    }
+
+    @Test
+    public void walksToNearbyStop() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "B", 610, 0, ScheduleStore.ALL_DAYS)
+                .build();
+        // B and W are about 110 m apart, A is far away
+        List<BusStop> stops = Arrays.asList(
+                new BusStop("A", "A", 51.49, -0.1, "R1"),
+                new BusStop("B", "B", 51.500, -0.1, "R1"),
+                new BusStop("W", "W", 51.501, -0.1, null));
+
+        List<Journey> journeys = planner(store, stops).plan("A", "W", 590);
+
+        assertEquals(1, journeys.size());
+        Journey journey = journeys.get(0);
+        assertEquals(2, journey.getLegs().size());
+        assertTrue(journey.getLegs().get(1).isWalk());
+        assertEquals(612, journey.getArrivalMinute());
+    }
+
+    @Test
+    public void skipsServiceNotRunningToday() {
+        byte sundayOnly = 0x40;
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 600, 0, sundayOnly)
+                .add("T1_2", "T1", 2, "R1", "B", 610, 0, sundayOnly)
+                .build();
+
+        assertTrue(planner(store).plan("A", "B", 590).isEmpty());
+    }
+
+    @Test
+    public void handlesUnknownAndSameStop() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "B", 610, 0, ScheduleStore.ALL_DAYS)
+                .build();
+        JourneyPlanner planner = planner(store);
+
+        assertTrue(planner.plan("A", "Z", 590).isEmpty());
+        assertTrue(planner.plan("A", "B", 590, -1).isEmpty());
+        List<Journey> same = planner.plan("A", "A", 590);
+        assertEquals(1, same.size());
+        assertTrue(same.get(0).getLegs().isEmpty());
+    }
+}
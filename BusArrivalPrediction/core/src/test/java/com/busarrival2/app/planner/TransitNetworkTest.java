@@ -0,0 +1,157 @@
+package com.busarrival2.app.planner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.data.ScheduleStore;
+import com.busarrival2.app.gtfs.NetworkGenerator;
+import com.busarrival2.app.models.BusStop;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+public class TransitNetworkTest {
+
+    private static final int MONDAY = 0;
+
+    private static TransitNetwork build(ScheduleStore store) {
+        return TransitNetwork.build(store, MONDAY, Collections.<BusStop>emptyList(), 0);
+    }
+
+    @Test
+    public void keepsDirectionsApart() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("OUT1_1", "OUT1", 1, "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("OUT1_2", "OUT1", 2, "R1", "B", 610, 0, ScheduleStore.ALL_DAYS)
+                .add("IN1_1", "IN1", 1, "R1", "B", 605, 0, ScheduleStore.ALL_DAYS)
+                .add("IN1_2", "IN1", 2, "R1", "A", 615, 0, ScheduleStore.ALL_DAYS)
+                .build();
+        TransitNetwork network = build(store);
+        JourneyPlanner planner = new JourneyPlanner(network);
+
+        assertEquals(2, network.getTripCount());
+        assertEquals(2, network.getConnectionCount());
+
+        List<Journey> outbound = planner.plan("A", "B", 590);
+        assertEquals(1, outbound.size());
+        assertEquals(600, outbound.get(0).getDepartureMinute());
+        assertEquals(610, outbound.get(0).getArrivalMinute());
+
+        List<Journey> inbound = planner.plan("B", "A", 590);
+        assertEquals(1, inbound.size());
+        assertEquals(605, inbound.get(0).getDepartureMinute());
+        assertEquals(615, inbound.get(0).getArrivalMinute());
+    }
+
+    @Test
+    public void followsStopSequenceNotArrivalOrder() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_10", "T1", 10, "R1", "C", 620, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "B", 610, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_1", "T1", 1, "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .build();
+        List<Journey> journeys = new JourneyPlanner(build(store)).plan("A", "C", 0);
+
+        assertEquals(1, journeys.size());
+        assertEquals(620, journeys.get(0).getArrivalMinute());
+        assertEquals(0, journeys.get(0).getTransfers());
+    }
+
+    @Test
+    public void readsTripFromFieldsNotScheduleId() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                // Admin push keys, joined by their trip fields
+                .add("-Na", "X", 1, "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("-Nb", "X", 2, "R1", "B", 610, 0, ScheduleStore.ALL_DAYS)
+                // Looks like a GTFS key, but has no trip
+                .add("Y_1", "R2", "C", 600, 0, ScheduleStore.ALL_DAYS)
+                .add("Y_2", "R2", "D", 620, 0, ScheduleStore.ALL_DAYS)
+                .add("Z_1", "R2", "C", 610, 0, ScheduleStore.ALL_DAYS)
+                .build();
+        TransitNetwork network = build(store);
+
+        // One trip on R1, and the two R2 departures from C chained as headway trips
+        assertEquals(2, network.getTripCount());
+        assertEquals(610, new JourneyPlanner(network).plan("A", "B", 590).get(0)
+                .getArrivalMinute());
+    }
+
+    @Test
+    public void splitsTripAtMidnight() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("T1_1", "T1", 1, "R1", "A", 1430, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_2", "T1", 2, "R1", "B", 1438, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_3", "T1", 3, "R1", "C", 5, 0, ScheduleStore.ALL_DAYS)
+                .add("T1_4", "T1", 4, "R1", "D", 12, 0, ScheduleStore.ALL_DAYS)
+                .build();
+        TransitNetwork network = build(store);
+        JourneyPlanner planner = new JourneyPlanner(network);
+
+        assertEquals(2, network.getTripCount());
+        assertEquals(2, network.getConnectionCount());
+        assertEquals(12, planner.plan("C", "D", 0).get(0).getArrivalMinute());
+        assertTrue(planner.plan("A", "C", 1400).isEmpty());
+        assertTrue(planner.plan("C", "A", 0).isEmpty());
+    }
+
+    @Test
+    public void chainsHeadwayAndUnnamedRows() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("a", "R1", "A", 600, 30, ScheduleStore.ALL_DAYS)
+                .add("b", "R1", "B", 610, 30, ScheduleStore.ALL_DAYS)
+                // A push key that happens to end in digits is not a trip
+                .add("-Nx_12", "R2", "C", 700, 0, ScheduleStore.ALL_DAYS)
+                .add("-Ny_3", "R2", "D", 720, 0, ScheduleStore.ALL_DAYS)
+                .build();
+        TransitNetwork network = build(store);
+        JourneyPlanner planner = new JourneyPlanner(network);
+
+        // 28 headway trips from 10:00 to 23:30, plus the one R2 trip
+        assertEquals(29, network.getTripCount());
+        assertEquals(670, planner.plan("A", "B", 650).get(0).getArrivalMinute());
+        assertEquals(720, planner.plan("C", "D", 650).get(0).getArrivalMinute());
+    }
+
+    @Test
+    public void buildsEveryGeneratedTrip() {
+        NetworkGenerator generator = new NetworkGenerator(NetworkGenerator.Size.SAMPLE, 42);
+        ScheduleStore store = generator.buildScheduleStore();
+        for (int day = 0; day < 7; day++) {
+            int rows = 0;
+            Set<String> trips = new HashSet<>();
+            for (int row = 0; row < store.size(); row++) {
+                if (store.runsOn(row, day)) {
+                    rows++;
+                    trips.add(store.getTripId(row));
+                }
+            }
+            TransitNetwork network = TransitNetwork.build(store, day, generator.getStops(),
+                    TransitNetwork.DEFAULT_MAX_WALK_METERS);
+
+            // Trips running past midnight are split there, so a trip ID may
+            // give more than one trip
+            assertTrue(network.getTripCount() >= trips.size());
+            // One connection per hop between consecutive stops of each trip
+            assertEquals(rows - network.getTripCount(), network.getConnectionCount());
+
+            // Every trip is one unbroken path
+            int[] lastStop = new int[network.getTripCount()];
+            int[] lastArrival = new int[network.getTripCount()];
+            Arrays.fill(lastStop, -1);
+            for (int c = 0; c < network.getConnectionCount(); c++) {
+                int trip = network.getTrip(c);
+                if (lastStop[trip] >= 0) {
+                    assertEquals(lastStop[trip], network.getDepartureStop(c));
+                    assertTrue(network.getDepartureTime(c) >= lastArrival[trip]);
+                }
+                lastStop[trip] = network.getArrivalStop(c);
+                lastArrival[trip] = network.getArrivalTime(c);
+            }
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.busarrival2.app.prediction;
+
+import static org.junit.Assert.assertEquals;
+
+import com.busarrival2.app.models.BusSchedule;
+
+import org.junit.Test;
+
+public class ArrivalPredictionEngineTest {
+
+    private static final int NO_ARRIVAL = ArrivalPredictionEngine.NO_ARRIVAL;
+
+    @Test
+    public void parsesClockTimes() {
+        assertEquals(0, ArrivalPredictionEngine.parseMinuteOfDay("00:00"));
+        assertEquals(455, ArrivalPredictionEngine.parseMinuteOfDay("7:35"));
+        assertEquals(1439, ArrivalPredictionEngine.parseMinuteOfDay("23:59"));
+    }
+
+    @Test
+    public void rejectsInvalidClockTimes() {
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.parseMinuteOfDay(null));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.parseMinuteOfDay(""));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.parseMinuteOfDay("24:00"));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.parseMinuteOfDay("12:60"));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.parseMinuteOfDay("12:5"));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.parseMinuteOfDay("ab:cd"));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.parseMinuteOfDay("123:00"));
+    }
+
+    @Test
+    public void waitsForFirstBusBeforeAnchor() {
+        assertEquals(30, ArrivalPredictionEngine.minutesUntilNextArrival(480, 15, 450));
+        assertEquals(0, ArrivalPredictionEngine.minutesUntilNextArrival(480, 15, 480));
+    }
+
+    @Test
+    public void followsFrequencyAfterAnchor() {
+        assertEquals(5, ArrivalPredictionEngine.minutesUntilNextArrival(480, 15, 490));
+        assertEquals(0, ArrivalPredictionEngine.minutesUntilNextArrival(480, 15, 495));
+    }
+
+    @Test
+    public void rollsOverPast2359() {
+        // Every 20 minutes from 23:00: 23:00, 23:20, 23:40, then 23:00 tomorrow
+        assertEquals(1390, ArrivalPredictionEngine.minutesUntilNextArrival(1380, 20, 1430));
+        assertEquals(1381, ArrivalPredictionEngine.minutesUntilNextArrival(1380, 20, 1439));
+        // The next slot would be 24:00, which belongs to tomorrow's first bus
+        assertEquals(301, ArrivalPredictionEngine.minutesUntilNextArrival(300, 10, 1439));
+        assertEquals(1, ArrivalPredictionEngine.minutesUntilNextArrival(0, 60, 1439));
+    }
+
+    @Test
+    public void rollsOverWhenLastBusHasGone() {
+        // Single 08:00 bus, asked at 08:01
+        assertEquals(1439, ArrivalPredictionEngine.minutesUntilNextArrival(480, 0, 481));
+        // Hourly from 06:00, the last one at 23:00, asked at 23:30
+        assertEquals(390, ArrivalPredictionEngine.minutesUntilNextArrival(360, 60, 1410));
+    }
+
+    @Test
+    public void zeroFrequencyIsOneDailyBus() {
+        assertEquals(60, ArrivalPredictionEngine.minutesUntilNextArrival(600, 0, 540));
+        assertEquals(0, ArrivalPredictionEngine.minutesUntilNextArrival(600, 0, 600));
+        assertEquals(1380, ArrivalPredictionEngine.minutesUntilNextArrival(600, 0, 660));
+    }
+
+    @Test
+    public void negativeFrequencyIsOneDailyBus() {
+        assertEquals(60, ArrivalPredictionEngine.minutesUntilNextArrival(600, -15, 540));
+        assertEquals(1380, ArrivalPredictionEngine.minutesUntilNextArrival(600, -15, 660));
+    }
+
+    @Test
+    public void rejectsOutOfRangeInput() {
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.minutesUntilNextArrival(-1, 10, 0));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.minutesUntilNextArrival(1440, 10, 0));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.minutesUntilNextArrival(0, 10, -1));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.minutesUntilNextArrival(0, 10, 1440));
+    }
+
+    @Test
+    public void evaluatesScheduleModels() {
+        BusSchedule schedule = new BusSchedule("s1", "R1", "A", "23:50", "23:50", 0, null);
+        assertEquals(10, ArrivalPredictionEngine.minutesUntilNextArrival(schedule, 1420));
+        assertEquals(1435, ArrivalPredictionEngine.minutesUntilNextArrival(schedule, 1435));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.minutesUntilNextArrival(
+                (BusSchedule) null, 0));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.minutesUntilNextArrival(
+                new BusSchedule("s2", "R1", "A", "late", "late", 0, null), 0));
+    }
+
+    @Test
+    public void findsNearestScheduledMinute() {
+        assertEquals(480, ArrivalPredictionEngine.nearestArrivalMinute(480, 15, 400));
+        assertEquals(495, ArrivalPredictionEngine.nearestArrivalMinute(480, 15, 500));
+        assertEquals(510, ArrivalPredictionEngine.nearestArrivalMinute(480, 15, 505));
+        // Never past the last bus of the day
+        assertEquals(1380, ArrivalPredictionEngine.nearestArrivalMinute(360, 60, 1439));
+        assertEquals(600, ArrivalPredictionEngine.nearestArrivalMinute(600, 0, 900));
+        assertEquals(NO_ARRIVAL, ArrivalPredictionEngine.nearestArrivalMinute(-1, 0, 900));
+    }
+
+    @Test
+    public void nearestScheduledMinuteAroundMidnight() {
+        // Minutes past the end of the day still match the day's last bus
+        assertEquals(1438, ArrivalPredictionEngine.nearestArrivalMinute(1438, 0, 1445));
+        assertEquals(1420, ArrivalPredictionEngine.nearestArrivalMinute(1400, 20, 1445));
+        // Minutes before midnight match the day's first bus
+        assertEquals(2, ArrivalPredictionEngine.nearestArrivalMinute(2, 0, -3));
+        assertEquals(0, ArrivalPredictionEngine.nearestArrivalMinute(0, 30, -10));
+    }
+}
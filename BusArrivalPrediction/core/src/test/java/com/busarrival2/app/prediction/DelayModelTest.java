@@ -0,0 +1,76 @@
+package com.busarrival2.app.prediction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.data.ScheduleStore;
+
+import org.junit.Test;
+
+public class DelayModelTest {
+
+    private static final int MONDAY = 0;
+    private static final int TUESDAY = 1;
+    private static final int SUNDAY = 6;
+    private static final int MAX_DELAY = 30;
+
+    private static void recordTimes(DelayModel model, ScheduleStore schedules,
+                                    int dayIndex, int minute) {
+        for (int i = 0; i < DelayModel.MIN_SAMPLES; i++) {
+            assertTrue(model.recordPass(schedules, "R1", "A", dayIndex, minute, MAX_DELAY));
+        }
+    }
+
+    @Test
+    public void matchesClosestArrivalOfTheDay() {
+        ScheduleStore schedules = new ScheduleStore.Builder()
+                .add("s1", "R1", "A", 480, 0, ScheduleStore.ALL_DAYS)
+                .add("s2", "R1", "A", 500, 0, ScheduleStore.ALL_DAYS)
+                .build();
+        DelayModel model = new DelayModel();
+        recordTimes(model, schedules, MONDAY, 493);
+
+        assertEquals(-7f, model.getExpectedDelay("R1", "A", MONDAY, 500), 0.001f);
+        assertEquals(0f, model.getExpectedDelay("R1", "A", MONDAY, 480), 0.001f);
+    }
+
+    @Test
+    public void passAfterMidnightMatchesPreviousServiceDay() {
+        // Last bus at 23:58 on Mondays only
+        ScheduleStore schedules = new ScheduleStore.Builder()
+                .add("s1", "R1", "A", 1438, 0, (byte) (1 << MONDAY))
+                .add("s2", "R1", "A", 360, 0, (byte) (1 << TUESDAY))
+                .build();
+        DelayModel model = new DelayModel();
+        recordTimes(model, schedules, TUESDAY, 5);
+
+        assertEquals(7f, model.getExpectedDelay("R1", "A", MONDAY, 1438), 0.001f);
+        assertEquals(0f, model.getExpectedDelay("R1", "A", TUESDAY, 360), 0.001f);
+    }
+
+    @Test
+    public void passBeforeMidnightMatchesNextServiceDay() {
+        ScheduleStore schedules = new ScheduleStore.Builder()
+                .add("s1", "R1", "A", 2, 0, (byte) (1 << MONDAY))
+                .build();
+        DelayModel model = new DelayModel();
+        // Sunday 23:57 is five minutes early for Monday 00:02
+        recordTimes(model, schedules, SUNDAY, 1437);
+
+        assertEquals(-5f, model.getExpectedDelay("R1", "A", MONDAY, 2), 0.001f);
+    }
+
+    @Test
+    public void ignoresPassesFarFromAnyArrival() {
+        ScheduleStore schedules = new ScheduleStore.Builder()
+                .add("s1", "R1", "A", 1438, 0, (byte) (1 << MONDAY))
+                .build();
+        DelayModel model = new DelayModel();
+
+        assertFalse(model.recordPass(schedules, "R1", "A", TUESDAY, 60, MAX_DELAY));
+        assertFalse(model.recordPass(schedules, "R1", "A", MONDAY, 5, MAX_DELAY));
+        assertFalse(model.recordPass(schedules, "R1", "B", MONDAY, 1438, MAX_DELAY));
+        assertEquals(0, model.getPairCount());
+    }
+}
@@ -0,0 +1,77 @@
+package com.busarrival2.app.prediction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PingReplayTest {
+
+    private static final String HEADER = "vehicleId,routeId,latitude,longitude,timestamp\n";
+
+    @Test
+    public void replaysPingsIntoTracker() throws IOException {
+        String pings = HEADER
+                + "bus1,R1,51.500,-0.1," + VehiclePositionTrackerTest.T0 + "\n"
+                + "bus2,R2,51.509,-0.1," + (VehiclePositionTrackerTest.T0 + 1000) + "\n"
+                + "bus1,R1,51.509,-0.1," + (VehiclePositionTrackerTest.T0 + 150_000) + "\n";
+        VehiclePositionTracker tracker = new VehiclePositionTracker();
+        tracker.setRoute("R1", VehiclePositionTrackerTest.route());
+        List<Long> clock = new ArrayList<>();
+
+        long count = new PingReplay(new StringReader(pings)).replay(tracker, clock::add);
+
+        assertEquals(3, count);
+        assertEquals(2, tracker.getVehicleCount());
+        assertEquals(Arrays.asList(VehiclePositionTrackerTest.T0,
+                VehiclePositionTrackerTest.T0 + 1000, VehiclePositionTrackerTest.T0 + 150_000),
+                clock);
+        assertEquals(3, tracker.estimateMinutes("R1", "C", VehiclePositionTrackerTest.T0 + 150_000));
+    }
+
+    @Test
+    public void replaysWithoutObserver() throws IOException {
+        String pings = HEADER + "bus1,R1,51.5,-0.1,1000\n";
+        assertEquals(1, new PingReplay(new StringReader(pings))
+                .replay(new VehiclePositionTracker(), null));
+    }
+
+    @Test
+    public void missingColumnFails() {
+        try {
+            new PingReplay(new StringReader("vehicleId,routeId,latitude,longitude\n"));
+            fail();
+        } catch (IOException e) {
+            assertTrue(e.getMessage().contains("timestamp"));
+        }
+    }
+
+    @Test
+    public void malformedRowFails() throws IOException {
+        String pings = HEADER + "bus1,R1,51.5,-0.1,1000\nbus1,R1,north,-0.1,2000\n";
+        try {
+            new PingReplay(new StringReader(pings)).replay(new VehiclePositionTracker(), null);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Malformed ping at row 2", e.getMessage());
+        }
+    }
+
+    @Test
+    public void missingValueFails() throws IOException {
+        String pings = HEADER + "bus1,R1,51.5,-0.1,\n";
+        try {
+            new PingReplay(new StringReader(pings)).replay(new VehiclePositionTracker(), null);
+            fail();
+        } catch (IOException e) {
+            assertEquals("Malformed ping at row 1", e.getMessage());
+        }
+    }
+}
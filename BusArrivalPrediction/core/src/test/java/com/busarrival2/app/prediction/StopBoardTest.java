@@ -0,0 +1,95 @@
+package com.busarrival2.app.prediction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.busarrival2.app.data.ScheduleStore;
+
+import org.junit.Test;
+
+import java.util.List;
+
+public class StopBoardTest {
+
+    private static final int MONDAY = 0;
+    private static final int SUNDAY = 6;
+    private static final byte MONDAY_ONLY = 0x01;
+    private static final byte WEEKDAYS = 0x1F;
+
+    @Test
+    public void mergesRoutesInTimeOrder() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("r1", "R1", "A", 600, 20, ScheduleStore.ALL_DAYS)
+                .add("r2", "R2", "A", 605, 0, ScheduleStore.ALL_DAYS)
+                .build();
+
+        List<StopBoard.Departure> board = StopBoard.nextDepartures(store, "A", MONDAY, 590, 4);
+
+        assertEquals(4, board.size());
+        assertDeparture(board.get(0), "R1", 600, 10);
+        assertDeparture(board.get(1), "R2", 605, 15);
+        assertDeparture(board.get(2), "R1", 620, 30);
+        assertDeparture(board.get(3), "R1", 640, 50);
+    }
+
+    @Test
+    public void rollsOverToTomorrow() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("r1", "R1", "A", 360, 0, ScheduleStore.ALL_DAYS)
+                .build();
+
+        List<StopBoard.Departure> board = StopBoard.nextDepartures(store, "A", MONDAY, 1430, 5);
+
+        assertEquals(1, board.size());
+        assertDeparture(board.get(0), "R1", 360, 370);
+    }
+
+    @Test
+    public void respectsTomorrowsDayMask() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("weekday", "R1", "A", 360, 0, WEEKDAYS)
+                .add("monday", "R2", "A", 400, 0, MONDAY_ONLY)
+                .build();
+
+        // Sunday night: only the Monday service runs tomorrow
+        List<StopBoard.Departure> sunday = StopBoard.nextDepartures(store, "A", SUNDAY, 1200, 5);
+        assertEquals(2, sunday.size());
+
+        // Monday night: tomorrow is Tuesday, the Monday-only row is gone
+        List<StopBoard.Departure> monday = StopBoard.nextDepartures(store, "A", MONDAY, 1200, 5);
+        assertEquals(1, monday.size());
+        assertEquals("R1", monday.get(0).getRouteId());
+    }
+
+    @Test
+    public void stopsAtLimitAndWithinOneDay() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("r1", "R1", "A", 0, 10, ScheduleStore.ALL_DAYS)
+                .build();
+
+        assertEquals(3, StopBoard.nextDepartures(store, "A", MONDAY, 0, 3).size());
+        List<StopBoard.Departure> all = StopBoard.nextDepartures(store, "A", MONDAY, 0, 1000);
+        for (StopBoard.Departure departure : all) {
+            assertTrue(departure.getMinutesAway() < ArrivalPredictionEngine.MINUTES_PER_DAY);
+        }
+    }
+
+    @Test
+    public void unknownStopOrBadInputIsEmpty() {
+        ScheduleStore store = new ScheduleStore.Builder()
+                .add("r1", "R1", "A", 600, 0, ScheduleStore.ALL_DAYS)
+                .build();
+
+        assertTrue(StopBoard.nextDepartures(store, "Z", MONDAY, 0, 5).isEmpty());
+        assertTrue(StopBoard.nextDepartures(store, "A", MONDAY, 0, 0).isEmpty());
+        assertTrue(StopBoard.nextDepartures(store, "A", MONDAY, -1, 5).isEmpty());
+        assertTrue(StopBoard.nextDepartures(store, "A", MONDAY, 1440, 5).isEmpty());
+    }
+
+    private static void assertDeparture(StopBoard.Departure departure, String routeId,
+                                        int departureMinute, int minutesAway) {
+        assertEquals(routeId, departure.getRouteId());
+        assertEquals(departureMinute, departure.getDepartureMinute());
+        assertEquals(minutesAway, departure.getMinutesAway());
+    }
+}
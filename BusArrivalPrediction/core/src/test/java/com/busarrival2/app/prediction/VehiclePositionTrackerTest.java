@@ -0,0 +1,121 @@
+package com.busarrival2.app.prediction;
+
+import static org.junit.Assert.assertEquals;
+
+import com.busarrival2.app.models.BusStop;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class VehiclePositionTrackerTest {
+
+    // Stops about 1 km apart on a north-bound street
+    static final double LONGITUDE = -0.1;
+    static final double LAT_A = 51.500;
+    static final double LAT_B = 51.509;
+    static final double LAT_C = 51.518;
+    static final long T0 = 1_700_000_000_000L;
+
+    private VehiclePositionTracker tracker;
+
+    static List<BusStop> route() {
+        return Arrays.asList(
+                new BusStop("A", "A", LAT_A, LONGITUDE, "R1"),
+                new BusStop("B", "B", LAT_B, LONGITUDE, "R1"),
+                new BusStop("C", "C", LAT_C, LONGITUDE, "R1"));
+    }
+
+    @Before
+    public void setUp() {
+        tracker = new VehiclePositionTracker();
+        tracker.setRoute("R1", route());
+    }
+
+    @Test
+    public void usesDefaultSpeedUntilBusMoves() {
+        tracker.ingest("bus", "R1", LAT_A, LONGITUDE, T0);
+        // 1000 m at 300 m/min
+        assertEquals(4, tracker.estimateMinutes("R1", "B", T0));
+        assertEquals(3, tracker.estimateMinutes("R1", "B", T0 + 60_000));
+    }
+
+    @Test
+    public void usesMeasuredSpeed() {
+        tracker.ingest("bus", "R1", LAT_A, LONGITUDE, T0);
+        tracker.ingest("bus", "R1", LAT_B, LONGITUDE, T0 + 150_000);
+        // 1000 m at 400 m/min
+        assertEquals(3, tracker.estimateMinutes("R1", "C", T0 + 150_000));
+    }
+
+    @Test
+    public void ignoresStalePassedAndOffRouteBuses() {
+        tracker.ingest("stale", "R1", LAT_A, LONGITUDE, T0);
+        long now = T0 + VehiclePositionTracker.STALE_AFTER_MILLIS + 1;
+        assertEquals(ArrivalPredictionEngine.NO_ARRIVAL, tracker.estimateMinutes("R1", "B", now));
+
+        tracker.ingest("passed", "R1", LAT_B + 0.001, LONGITUDE, now);
+        assertEquals(ArrivalPredictionEngine.NO_ARRIVAL, tracker.estimateMinutes("R1", "B", now));
+
+        tracker.ingest("lost", "R1", LAT_A, LONGITUDE - 0.01, now);
+        assertEquals(ArrivalPredictionEngine.NO_ARRIVAL, tracker.estimateMinutes("R1", "B", now));
+
+        assertEquals(ArrivalPredictionEngine.NO_ARRIVAL, tracker.estimateMinutes("R2", "B", now));
+        assertEquals(ArrivalPredictionEngine.NO_ARRIVAL, tracker.estimateMinutes("R1", "Z", now));
+    }
+
+    @Test
+    public void ignoresOutOfOrderPings() {
+        tracker.ingest("bus", "R1", LAT_B, LONGITUDE, T0);
+        tracker.ingest("bus", "R1", LAT_A, LONGITUDE, T0 - 1000);
+        // Still at B, not 1 km back at A
+        assertEquals(0, tracker.estimateMinutes("R1", "B", T0));
+        assertEquals(1, tracker.getVehicleCount());
+    }
+
+    @Test
+    public void reportsInterpolatedStopPasses() {
+        List<String> passes = new ArrayList<>();
+        tracker.setStopPassListener((routeId, stopId, timestamp) ->
+                passes.add(stopId + "@" + (timestamp - T0) / 1000));
+        tracker.ingest("bus", "R1", LAT_A, LONGITUDE, T0);
+        tracker.ingest("bus", "R1", LAT_C, LONGITUDE, T0 + 200_000);
+        assertEquals(Arrays.asList("B@100", "C@200"), passes);
+    }
+
+    @Test
+    public void setRouteReprojectsExistingPings() {
+        VehiclePositionTracker late = new VehiclePositionTracker();
+        late.ingest("bus", "R1", LAT_A, LONGITUDE, T0);
+        assertEquals(ArrivalPredictionEngine.NO_ARRIVAL, late.estimateMinutes("R1", "B", T0));
+        late.setRoute("R1", route());
+        assertEquals(4, late.estimateMinutes("R1", "B", T0));
+
+        late.clear();
+        assertEquals(0, late.getVehicleCount());
+        assertEquals(ArrivalPredictionEngine.NO_ARRIVAL, late.estimateMinutes("R1", "B", T0));
+    }
+
+    @Test
+    public void followsEachBusOnItsOwnDirection() {
+        List<BusStop> outbound = route();
+        List<BusStop> inbound = new ArrayList<>(outbound);
+        Collections.reverse(inbound);
+        tracker.setRoute("R1", Arrays.asList(outbound, inbound));
+
+        // North-bound bus between A and B, south-bound bus between C and B
+        tracker.ingest("out", "R1", LAT_A, LONGITUDE, T0);
+        tracker.ingest("out", "R1", LAT_A + 0.0045, LONGITUDE, T0 + 75_000);
+        tracker.ingest("in", "R1", LAT_C, LONGITUDE, T0);
+        tracker.ingest("in", "R1", LAT_C - 0.0045, LONGITUDE, T0 + 75_000);
+
+        // Both are 500 m from B and 1500 m from their terminus at 400 m/min
+        assertEquals(2, tracker.estimateMinutes("R1", "B", T0 + 75_000));
+        assertEquals(4, tracker.estimateMinutes("R1", "C", T0 + 75_000));
+        assertEquals(4, tracker.estimateMinutes("R1", "A", T0 + 75_000));
+    }
+}